@@ -19,6 +19,20 @@ public interface ScheduleEventsGenerator
      */
     Date next();
 
+    /**
+     * Writes the next events into the array (milliseconds since January 1, 1970 UTC).
+     * Stops at the first event after 'until' (before 'until' for the backward generator);
+     * this event is not consumed and will be returned by the next call.
+     * Stops also when the schedule has no more events.
+     *
+     * @param out the array to write in
+     * @param offset the first index in the array to write
+     * @param max the maximum count of events to write
+     * @param until the bound of events (inclusive)
+     * @return count of written events
+     */
+    int fill(long[] out, int offset, int max, long until);
+
     /**
      * @return string presentation of source schedule
      */
@@ -176,6 +176,35 @@ public class Schedule implements Cron
             return date; // return fixed previous result
         }
 
+        public int fill(long[] out, int offset, int max, long until)
+        {
+            boolean forward = digits.toZero;
+            int count = 0;
+
+            try
+            {
+                while ( count < max )
+                {
+                    long millis = fixWeekDay(digits, calendar).getTime();
+                    if ( forward ? millis > until : millis < until ) break; // keep it for the next call
+
+                    out[offset + count++] = millis;
+
+                    // prepare to calculate the next result
+                    digits.gotoLastDigit();
+                    digits.increment();
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                // there are no more events
+            }
+
+            if ( count > 0 ) date = new Date(out[offset + count - 1]);
+
+            return count;
+        }
+
         public String schedule()
         {
             return schedule;
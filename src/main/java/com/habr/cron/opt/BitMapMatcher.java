@@ -1,19 +1,24 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Matcher of calendar element for list of ranges: a-b,c-d/n,e,f-g.
  *
  * Designed for checking milliseconds and years.
- * The maximum range of acceptable values is 0-1000.
  * It is used when the number of acceptable values is set by a large number of ranges.
  *
+ * Each cell of the map (64 values) has a bit in the summary map, which is set for non-empty cells,
+ * so the search of the nearest value jumps over the empty cells. It keeps the search fast
+ * for sparse lists in wide ranges (for example, several years in 1970..2400).
+ *
  * Difficulty:
  *  matching one value - O(1)
- *  find nearest value - O(n)
+ *  find nearest value - O(n/4096)
  * Used memory:
- *  144 bytes maximum, 24 bytes minimum
- *
- *  Maximum loop are: 17 (through long) + 63 (through bits)
+ *  168 bytes of arrays for milliseconds, 48 bytes minimum
  */
 class BitMapMatcher implements DigitMatcher, MapMatcher
 {
@@ -26,6 +31,10 @@ class BitMapMatcher implements DigitMatcher, MapMatcher
      * bit map for allow calendar element values
      */
     private final long map[];
+    /**
+     * bit map for non-empty cells of the map
+     */
+    private final long summary[];
 
     private final static int POWER = 6; // = log_2(64) for quick divide by 64
     private final static int MASK = 63; // = 64 - 1, for quick divide by module 64
@@ -39,6 +48,7 @@ class BitMapMatcher implements DigitMatcher, MapMatcher
         this.min = min;
         this.max = max;
         this.map = new long[((max - min) >> POWER) + 1];
+        this.summary = new long[((map.length - 1) >> POWER) + 1];
     }
 
 
@@ -75,18 +85,16 @@ class BitMapMatcher implements DigitMatcher, MapMatcher
 
         int v = value - min + 1; // search starts a next value
         int el = v >> POWER; // number of map's cell
-        int start = v & MASK; // position of bit to start searching (value + 1)
 
-        // now we are looking for the first low non-zero bit (from the 'start')
-        int pos = 64;
-        while ( pos == 64 && el < map.length )
+        // now we are looking for the first low non-zero bit (from the 'value + 1')
+        int pos = BitmapUtils.forwardScanBit(map[el], v & MASK);
+        if ( pos == BITES_IN_MAP_ELEMENT ) // the rest of the cell is empty; go to the next non-empty cell
         {
-            if ( map[el] != 0 )
-                pos = BitmapUtils.forwardScanBit(map[el], start);
-            el++; start = 0; // go to next map cell
+            el = nextCell(el + 1);
+            pos = el < map.length ? Long.numberOfTrailingZeros(map[el]) : 0;
         }
 
-        return ((el-1) << POWER) + pos + min;
+        return (el << POWER) + pos + min;
     }
 
 
@@ -95,21 +103,18 @@ class BitMapMatcher implements DigitMatcher, MapMatcher
         if ( value <= min ) return value - 1; // out of bound
         if ( value > max  ) return max; // edge value
 
-        int v = value - min - 1; // search starts a next value
+        int v = value - min - 1; // search starts a previous value
         int el = v >> POWER; // number of map's cell
-        int start = v & MASK; // position of bit to start searching (value - 1)
 
-        // now we are looking for the first high non-zero bit (from the 'start')
-        int pos = -1;
-        while (pos == -1 && el >= 0)
+        // now we are looking for the first high non-zero bit (from the 'value - 1')
+        int pos = BitmapUtils.backwardScanBit(map[el], v & MASK);
+        if ( pos < 0 ) // the rest of the cell is empty; go to the previous non-empty cell
         {
-            if ( map[el] != 0 )
-                pos = BitmapUtils.backwardScanBit(map[el], start);
-
-            el--; start = BITES_IN_MAP_ELEMENT-1; // go to next map cell
+            el = prevCell(el - 1);
+            pos = el >= 0 ? BITES_IN_MAP_ELEMENT - 1 - Long.numberOfLeadingZeros(map[el]) : BITES_IN_MAP_ELEMENT - 1;
         }
 
-        return ((el+1) << POWER) + pos + min;
+        return (el << POWER) + pos + min;
     }
 
 
@@ -158,6 +163,81 @@ class BitMapMatcher implements DigitMatcher, MapMatcher
         long b = 1L << bt; // bit in cell
 
         map[el] |= b;
+        summary[el >> POWER] |= 1L << (el & MASK);
+    }
+
+
+
+
+    /**
+     * Writes the bounds and the bit map (the summary map and the allowed bounds are restored from them).
+     */
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(min);
+        out.writeInt(max);
+        for (long cell : map) out.writeLong(cell);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static BitMapMatcher readFrom(DataInput in) throws IOException
+    {
+        int min = in.readInt();
+        int max = in.readInt();
+        if ( min > max ) throw new IOException("Wrong bounds of the bit map: " + min + ".." + max);
+
+        BitMapMatcher result = new BitMapMatcher(min, max);
+        for (int el = 0; el < result.map.length; el++)
+        {
+            long cell = in.readLong();
+            result.map[el] = cell;
+            if ( cell != 0 ) result.summary[el >> POWER] |= 1L << (el & MASK);
+        }
+        result.finishRange();
+        return result;
+    }
+
+
+
+
+    /**
+     * @param from number of map's cell to start from
+     * @return number of the first non-empty cell (from the 'from'), or map.length if not found
+     */
+    private int nextCell(int from)
+    {
+        if ( from >= map.length ) return map.length;
+
+        int s = from >> POWER;
+        long bits = summary[s] & (-1L << (from & MASK));
+        while ( bits == 0 )
+        {
+            if ( ++s == summary.length ) return map.length;
+            bits = summary[s];
+        }
+        return (s << POWER) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @param from number of map's cell to start from
+     * @return number of the last non-empty cell (till the 'from'), or -1 if not found
+     */
+    private int prevCell(int from)
+    {
+        if ( from < 0 ) return -1;
+
+        int s = from >> POWER;
+        long bits = summary[s] & (-1L >>> (MASK - (from & MASK)));
+        while ( bits == 0 )
+        {
+            if ( --s < 0 ) return -1;
+            bits = summary[s];
+        }
+        return (s << POWER) + MASK - Long.numberOfLeadingZeros(bits);
     }
 
 }
\ No newline at end of file
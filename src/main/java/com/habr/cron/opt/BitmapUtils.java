@@ -19,13 +19,8 @@ final class BitmapUtils
     {
         if ( start < 64 )
         {
-            start = Math.max(start, 0);
-            long bit = 1L << start;
-
-            for (int i = start; i <= 63; i++, bit <<= 1)
-            {
-                if ((map & bit) != 0) return i;
-            }
+            long bits = map & (-1L << Math.max(start, 0)); // clear the bits below the start
+            return Long.numberOfTrailingZeros(bits); // 64 for zero
         }
         return 64;
     }
@@ -42,13 +37,8 @@ final class BitmapUtils
     {
         if ( start >= 0 )
         {
-            start = Math.min(start, 63);
-            long bit = 1L << start;
-
-            for (int i = start; i >= 0; i--, bit >>= 1)
-            {
-                if ((map & bit) != 0) return i;
-            }
+            long bits = map & (-1L >>> (63 - Math.min(start, 63))); // clear the bits above the start
+            return 63 - Long.numberOfLeadingZeros(bits); // -1 for zero
         }
         return -1;
     }
@@ -7,33 +7,76 @@ import static com.habr.cron.opt.ScheduleElements.*;
  */
 class CalendarDigits implements DigitMatcher
 {
-    private final DigitMatcher matchers[];
+    private final DigitMatcher matchers[] = new DigitMatcher[LAST+1];
+    private final LastDayOfMonthProxy proxy;
     private final GregCalendar calendar;
 
     private int current = FIRST;
-    final boolean toZero;
+    private int last = MILLIS_IDX; // the last digit according the precision of the schedule
+    boolean toZero;
+    int carries; // count of the overflows into the major digits since reset() (only with ScheduleMetrics.ENABLED)
 
     public CalendarDigits(MatcherPool pool, GregCalendar calendar, boolean resetMode)
     {
-        DigitMatcher m[] = pool.getMatcherPool();
-        DigitMatcher dayMatcher = m[DAY_OF_MONTH.ordinal()];
-        LastDayOfMonthProxy proxy = new LastDayOfMonthProxy(dayMatcher, calendar);
-
-        matchers = new DigitMatcher[]{
-                m[YEAR.ordinal()],      // 0 = FIRST = YEAR_IDX
-                m[MONTH.ordinal()],     // 1 = MONTH_IDX
-                proxy,                  // 2 = DAY_IDX
-                m[HOURS.ordinal()],     // 3 = HOURS_IDX
-                m[MINUTES.ordinal()],   // 4
-                m[SECONDS.ordinal()],   // 5
-                m[MILLIS.ordinal()]     // 6 = LAST
-        };
+        this(calendar);
+        reset(pool, resetMode);
+    }
+
+    /**
+     * Creates unbound digits; they must be set up by {@link #reset(MatcherPool, boolean)} before use.
+     *
+     * @param calendar the calendar to work with
+     */
+    public CalendarDigits(GregCalendar calendar)
+    {
         this.calendar = calendar;
-        this.toZero = resetMode;
+        this.proxy = new LastDayOfMonthProxy(null, calendar);
+    }
+
+    /**
+     * Binds the digits to the schedule matchers and search direction, and goes to the first digit.
+     * Does not allocate memory, so the instance can be reused for many searches.
+     * The digits are bound to the tagged matchers of the pool, if they are enabled (see {@link TaggedMatcher}).
+     *
+     * @param pool matchers of the schedule
+     * @param resetMode true - for search forward, false - for search backward
+     */
+    public void reset(MatcherPool pool, boolean resetMode)
+    {
+        reset(TaggedMatcher.ENABLED ? pool.getTaggedPool() : pool.getMatcherPool(), pool.getPrecision(), resetMode);
+    }
+
+    /**
+     * The same as {@link #reset(MatcherPool, boolean)}, but for the matchers of any origin
+     * (for example, the flyweights of {@link MappedScheduleStore}).
+     *
+     * @param m matchers of the schedule, indexed by the ordinals of {@link ScheduleElements}
+     * @param precision the smallest element of the schedule
+     * @param resetMode true - for search forward, false - for search backward
+     */
+    public void reset(DigitMatcher m[], Schedule.Precision precision, boolean resetMode)
+    {
+        proxy.setMatcher(m[DAY_OF_MONTH.ordinal()]);
+
+        matchers[0] = m[YEAR.ordinal()];    // 0 = FIRST = YEAR_IDX
+        matchers[1] = m[MONTH.ordinal()];   // 1 = MONTH_IDX
+        matchers[2] = proxy;                // 2 = DAY_IDX
+        matchers[3] = m[HOURS.ordinal()];   // 3 = HOURS_IDX
+        matchers[4] = m[MINUTES.ordinal()]; // 4
+        matchers[5] = m[SECONDS.ordinal()]; // 5
+        matchers[6] = m[MILLIS.ordinal()];  // 6 = MILLIS_IDX
+        matchers[7] = m[MICROS.ordinal()];  // 7
+        matchers[8] = m[NANOS.ordinal()];   // 8 = LAST
+
+        last = MILLIS_IDX + precision.digits;
+        toZero = resetMode;
+        current = FIRST;
+        carries = 0;
     }
 
     private static final int FIRST = 0; // year matcher
-    private static final int LAST = 6; // millis matcher = matchers.length - 1
+    private static final int LAST = 8; // nanos matcher = matchers.length - 1
+    private static final int MILLIS_IDX = 6;
 
     private static final int YEAR_IDX = 0;
     private static final int MONTH_IDX = 1;
@@ -60,15 +103,16 @@ class CalendarDigits implements DigitMatcher
      */
     public void prev()
     {
-        if ( current-- < FIRST ) throw new IllegalStateException(OUT_MESSAGE);
+        if ( current == FIRST ) throw new IllegalStateException(OUT_MESSAGE);
+        current--;
     }
 
     /**
-     * @return true, is this digit of the milliseconds
+     * @return true, is this digit of the milliseconds (or of the smallest part of millisecond in the schedule)
      */
     public boolean isLast()
     {
-        return current == LAST;
+        return current == last;
     }
 
     public void gotoYear()
@@ -93,7 +137,7 @@ class CalendarDigits implements DigitMatcher
 
     public void gotoLastDigit()
     {
-        current = LAST;
+        current = last;
     }
 
     /**
@@ -204,6 +248,7 @@ class CalendarDigits implements DigitMatcher
                 init = tryToSetupDayOfMonth(init);
 
             if ( init ) current++; else current--;
+            if ( ScheduleMetrics.ENABLED && !init ) carries++;
         }
         while ( YEAR_IDX <= current && current <= DAY_IDX  );
 
@@ -242,8 +287,9 @@ class CalendarDigits implements DigitMatcher
                 init = tryToSetupDayOfMonth(init);
 
             if ( init ) current++; else current--;
+            if ( ScheduleMetrics.ENABLED && !init ) carries++;
         }
-        while ( FIRST <= current && current <= LAST);
+        while ( FIRST <= current && current <= last );
 
 
         if ( current < FIRST ) throw new IllegalStateException(OUT_MESSAGE); // out of schedule bounds (on top)
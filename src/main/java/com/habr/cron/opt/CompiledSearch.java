@@ -0,0 +1,20 @@
+package com.habr.cron.opt;
+
+/**
+ * The search of the events, compiled for a schedule (see {@link ScheduleCompiler}).
+ * Thread-Safe. Unmodifiable (the state of the search is in the calendar).
+ */
+abstract class CompiledSearch
+{
+    /**
+     * The same search as {@link Schedule} does by the digits (see findEvent()).
+     *
+     * @param calendar the calendar, set up to the start of the search (with the parts of millisecond)
+     * @param forward the direction of the search
+     * @param canEqual the start time can be the result
+     * @return suitable time for the conditions (milliseconds since January 1, 1970 UTC);
+     * the parts of millisecond of the event are left in the calendar
+     * @throws IllegalStateException it is not possible to find a date that meets the schedule
+     */
+    abstract long search(GregCalendar calendar, boolean forward, boolean canEqual);
+}
@@ -1,5 +1,9 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Matcher of calendar element for fixed constant value.
  * Unmodified object. Thread-safe.
@@ -55,4 +59,19 @@ class ConstantMatcher implements DigitMatcher
     public int getHigh() {
         return value;
     }
+
+
+
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(value);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     */
+    static ConstantMatcher readFrom(DataInput in) throws IOException
+    {
+        return new ConstantMatcher(in.readInt());
+    }
 }
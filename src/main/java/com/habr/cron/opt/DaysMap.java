@@ -136,12 +136,21 @@ class DaysMap
     public static byte rollMapByYear(byte map, int year)
     {
         int years = year - 1995; // how many years have passed since 1995?
-        int leaps = (year - 1993) / 4; // and how many leap years?
-        int shift = years + leaps;
+        int leaps = leapsBefore(year) - leapsBefore(1995); // and how many leap years?
+        int shift = Math.floorMod(years + leaps, 7);
 
         return rollWeekMap(map, shift);
     }
 
+    /**
+     * @return count of leap years before the year (since the year 1 of proleptic Gregorian calendar)
+     */
+    private static int leapsBefore(int year)
+    {
+        int y = year - 1;
+        return Math.floorDiv(y, 4) - Math.floorDiv(y, 100) + Math.floorDiv(y, 400);
+    }
+
 
     // the number of days since the beginning of the year to the beginning of each month (modulo 7)
     private static final int MONTH_SHIFTS[] = new int[]{0, 3, 3, 6, 1, 4, 6, 2, 5, 0, 3, 5};
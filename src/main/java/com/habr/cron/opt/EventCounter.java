@@ -0,0 +1,309 @@
+package com.habr.cron.opt;
+
+import static com.habr.cron.opt.MatcherPool.matches;
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * Counts the events of the schedule without enumeration.
+ * Thread-Safe. Unmodifiable. It is created by the schedule on the first query (see {@link Schedule#countEvents(long, long)}).
+ *
+ * The events of the schedule are the product of the matching days and the matching times of day,
+ * so the count of events before a time is computed combinatorially:
+ *
+ *  count = (matching days before the date) * (times of day) + (rank of the time of day, if the date matches)
+ *
+ * The matching days of a month depend only on its length (28..31) and the week day of its first day,
+ * so they are taken from the table of 4*7 cases. The matching days of a year depend only on the leap year
+ * and the week day of January 1, so each year is one of 14 types. The rank of the time of day is computed
+ * by the ranks of its elements (hours, minutes, ...) as the mixed radix number.
+ * The k-th event is found by the reverse way: the year by binary search, then the month, the day and the time.
+ */
+final class EventCounter
+{
+    private static final int FIELD_OF_HOURS = 3; // GregCalendar.getValue() field of the first time element
+    private static final int TIME_ELEMENTS[] = {HOURS.ordinal(), MINUTES.ordinal(), SECONDS.ordinal(),
+            MILLIS.ordinal(), MICROS.ordinal(), NANOS.ordinal()};
+
+    private final DigitMatcher years;
+    private final int minYear;
+    private final int maxYear;
+    private final long startMillis; // January 1 of the min year
+    private final long endMillis; // January 1 of the year after the max year
+
+    /**
+     * Count of matching days before the day of month: days[length - 28][week day of the 1st day][day], day = 1..32
+     */
+    private final int days[][][] = new int[4][7][LAST_DAY_OF_MONTH_CODE + 1];
+    /**
+     * Count of matching days before the month: months[leap * 7 + week day of January 1][month], month = 1..13
+     */
+    private final int months[][] = new int[14][14];
+    /**
+     * Count of matching days before the year: yearDays[year - minYear], the last item is the total count
+     */
+    private final long yearDays[];
+
+    /**
+     * The ranks of the time elements: ranks[i][value] - count of matching values less than the value
+     */
+    private final int ranks[][];
+    /**
+     * The matching values of the time elements in ascending order
+     */
+    private final int values[][];
+    /**
+     * The weights of the time elements: count of times of day for each value of the element
+     */
+    private final long weights[];
+    private final long perDay; // count of events in the matching day
+
+
+
+    public EventCounter(MatcherPool pool, int minYear, int maxYear)
+    {
+        DigitMatcher matchers[] = pool.getMatcherPool();
+
+        this.years = matchers[YEAR.ordinal()];
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+        this.startMillis = startOfYear(minYear);
+        this.endMillis = startOfYear(maxYear + 1);
+
+        // times of day
+        int count = TIME_ELEMENTS.length - 2 + pool.getPrecision().digits;
+        ranks = new int[count][];
+        values = new int[count][];
+        weights = new long[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            DigitMatcher matcher = matchers[TIME_ELEMENTS[i]];
+            int max = ScheduleElements.values()[TIME_ELEMENTS[i]].max;
+
+            int rank[] = new int[max + 2];
+            for (int value = 0; value <= max; value++)
+                rank[value + 1] = rank[value] + (matches(matcher, value) ? 1 : 0);
+
+            int list[] = new int[rank[max + 1]];
+            for (int value = 0; value <= max; value++)
+                if ( rank[value + 1] > rank[value] ) list[rank[value]] = value;
+
+            ranks[i] = rank;
+            values[i] = list;
+        }
+
+        long product = 1;
+        for (int i = count - 1; i >= 0; i--)
+        {
+            weights[i] = product;
+            product *= values[i].length;
+        }
+        perDay = product;
+
+        // days of months
+        DaysMap weekMap = pool.getWeekDaysMap();
+        GregCalendar calendar = new GregCalendar();
+        LastDayOfMonthProxy dayMatcher = new LastDayOfMonthProxy(matchers[DAY_OF_MONTH.ordinal()], calendar);
+
+        for (int length = FEBRUARY_LAST_DAY; length <= 31; length++)
+        {
+            calendar.year = length == FEBRUARY_LEAP_DAY ? 2000 : 2001; // any month of such length
+            calendar.month = length < 30 ? 2 : length == 30 ? 4 : 1;
+
+            for (int first = 0; first < 7; first++)
+            {
+                int table[] = days[length - FEBRUARY_LAST_DAY][first];
+                for (int day = 1; day < LAST_DAY_OF_MONTH_CODE; day++)
+                {
+                    boolean match = day <= length && matches(dayMatcher, day) && weekMap.contains((first + day - 1) % 7);
+                    table[day + 1] = table[day] + (match ? 1 : 0);
+                }
+            }
+        }
+
+        // days of years
+        DigitMatcher monthMatcher = matchers[MONTH.ordinal()];
+        for (int type = 0; type < 14; type++)
+        {
+            int year = type < 7 ? 2001 : 2000; // 01.01.2001 is Monday, 01.01.2000 is Saturday
+            int shift = type % 7 - (type < 7 ? 1 : 6); // to get the week day of January 1 for the type
+
+            for (int month = 1; month <= 12; month++)
+            {
+                int first = (GregCalendar.dayOfWeek(year, month, 1) + shift + 7) % 7;
+                int length = GregCalendar.maxDays(year, month);
+                int matching = matches(monthMatcher, month) ? days[length - FEBRUARY_LAST_DAY][first][length + 1] : 0;
+
+                months[type][month + 1] = months[type][month] + matching;
+            }
+        }
+
+        yearDays = new long[maxYear - minYear + 2];
+        for (int year = minYear; year <= maxYear; year++)
+        {
+            int matching = matches(years, year) ? months[typeOf(year)][13] : 0;
+            yearDays[year - minYear + 1] = yearDays[year - minYear] + matching;
+        }
+    }
+
+    /**
+     * Counts the events before the local time.
+     *
+     * @param local the local time (milliseconds since January 1, 1970 in the local time)
+     * @param inclusive true - to count the events of this millisecond too
+     * @param calendar the calendar to work with (it is changed)
+     * @return count of events (since the start of the range of years)
+     * @throws ArithmeticException if the count is too big
+     */
+    public long count(long local, boolean inclusive, GregCalendar calendar)
+    {
+        if ( local < startMillis ) return 0;
+        if ( local >= endMillis ) return total();
+
+        calendar.reset(local);
+        calendar.setFraction(0);
+
+        int year = calendar.year;
+        int month = calendar.month;
+        int day = calendar.day;
+        long result = yearDays[year - minYear];
+        if ( !matches(years, year) ) return Math.multiplyExact(result, perDay);
+
+        int type = typeOf(year);
+        result += months[type][month];
+
+        int table[] = days[GregCalendar.maxDays(year, month) - FEBRUARY_LAST_DAY][GregCalendar.dayOfWeek(year, month, 1)];
+        boolean match = false;
+        if ( months[type][month + 1] > months[type][month] ) // the month has the matching days
+        {
+            result += table[day];
+            match = table[day + 1] > table[day];
+        }
+
+        result = Math.multiplyExact(result, perDay);
+        if ( match ) result += rankOfTime(calendar, inclusive);
+
+        return result;
+    }
+
+    /**
+     * @param local the local time (milliseconds since January 1, 1970 in the local time)
+     * @param calendar the calendar to work with (it is changed)
+     * @return true, if the local time (with zero parts of millisecond) is the event
+     */
+    public boolean isEvent(long local, GregCalendar calendar)
+    {
+        if ( local < startMillis || local >= endMillis ) return false;
+
+        calendar.reset(local);
+        calendar.setFraction(0);
+
+        int year = calendar.year;
+        int month = calendar.month;
+        int day = calendar.day;
+        if ( !matches(years, year) ) return false;
+
+        int type[] = months[typeOf(year)];
+        int table[] = days[GregCalendar.maxDays(year, month) - FEBRUARY_LAST_DAY][GregCalendar.dayOfWeek(year, month, 1)];
+        if ( type[month + 1] == type[month] || table[day + 1] == table[day] ) return false;
+
+        for (int i = 0; i < weights.length; i++)
+        {
+            int value = calendar.getValue(FIELD_OF_HOURS + i);
+            if ( ranks[i][value + 1] == ranks[i][value] ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return count of all events of the schedule
+     * @throws ArithmeticException if the count is too big
+     */
+    public long total()
+    {
+        return Math.multiplyExact(yearDays[yearDays.length - 1], perDay);
+    }
+
+    /**
+     * Finds the event by its index.
+     *
+     * @param index the index of the event (since the start of the range of years, from zero)
+     * @param calendar the calendar to put the local time of the event
+     * @throws IllegalStateException if there is no such event
+     */
+    public void select(long index, GregCalendar calendar)
+    {
+        if ( index < 0 || index >= total() )
+            throw new IllegalStateException("Out of schedule interval");
+
+        long day = index / perDay;
+        long time = index % perDay;
+
+        // the last year, which starts before the day (or at it); it is the year of the day
+        int low = 0, high = yearDays.length - 1;
+        while ( low < high )
+        {
+            int middle = (low + high + 1) >>> 1;
+            if ( yearDays[middle] <= day ) low = middle; else high = middle - 1;
+        }
+
+        int year = minYear + low;
+        int rest = (int) (day - yearDays[low]);
+
+        int type[] = months[typeOf(year)];
+        int month = 1;
+        while ( type[month + 1] <= rest ) month++;
+        rest -= type[month];
+
+        int table[] = days[GregCalendar.maxDays(year, month) - FEBRUARY_LAST_DAY][GregCalendar.dayOfWeek(year, month, 1)];
+        int dayOfMonth = 1;
+        while ( table[dayOfMonth + 1] <= rest ) dayOfMonth++;
+
+        calendar.year = year;
+        calendar.month = month;
+        calendar.day = dayOfMonth;
+        calendar.setFraction(0);
+        for (int i = 0; i < weights.length; i++)
+        {
+            calendar.setValue(FIELD_OF_HOURS + i, values[i][(int) (time / weights[i])]);
+            time %= weights[i];
+        }
+    }
+
+
+
+
+    /**
+     * Rank of the time of day among the times of the schedule (as the mixed radix number).
+     */
+    private long rankOfTime(GregCalendar calendar, boolean inclusive)
+    {
+        long result = 0;
+        for (int i = 0; i < weights.length; i++)
+        {
+            int value = calendar.getValue(FIELD_OF_HOURS + i);
+            int rank[] = ranks[i];
+
+            result += rank[value] * weights[i];
+            if ( rank[value + 1] == rank[value] ) return result; // the rest elements don't matter
+        }
+        return inclusive ? result + 1 : result;
+    }
+
+    /**
+     * @return type of the year: leap * 7 + week day of January 1
+     */
+    private static int typeOf(int year)
+    {
+        return GregCalendar.isLeap(year) * 7 + GregCalendar.dayOfWeek(year, 1, 1);
+    }
+
+    private static long startOfYear(int year)
+    {
+        GregCalendar calendar = new GregCalendar();
+        calendar.year = year;
+        calendar.month = 1;
+        calendar.day = 1;
+        return calendar.asMillis();
+    }
+}
@@ -0,0 +1,185 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Spliterator of the events of the schedule in the interval (milliseconds since January 1, 1970 UTC).
+ * Not thread safe (as any spliterator); the parts after splitting are independent.
+ *
+ * The interval is split near its median event (it is found by {@link Schedule#nthEvent(long, long)}),
+ * which is rounded down to the start of its month, day, hour, minute or second, if the part stays not empty.
+ * So the parts have near the same count of events, even if the events are dense only in a part of the interval.
+ * The count of events of each part is exact (see {@link Schedule#countEvents(long, long)}).
+ * Each part is traversed by its own generator; it is created on the first traversal, and after that
+ * the part can't be split.
+ */
+final class EventsSpliterator implements Spliterator.OfLong
+{
+    private static final int BATCH = 64; // events are taken from the generator by batches
+    private static final long MIN_SPLIT = 1024; // the minimal count of events to split
+    private static final long UNITS[] = {86400000L, 3600000L, 60000L, 1000L}; // the bounds to split at
+
+    private final Schedule schedule;
+    private long from; // the interval [from, to)
+    private final long to;
+    private long size; // count of events, which are not taken from the generator; -1 if it is too big
+
+    private ScheduleEventsGenerator generator;
+    private long buffer[];
+    private int index; // the next event in the buffer
+    private int count; // count of events in the buffer
+
+
+
+    public EventsSpliterator(Schedule schedule, long from, long to)
+    {
+        this.schedule = schedule;
+        this.from = from;
+        this.to = to;
+        this.size = sizeOf(from, to);
+    }
+
+    public boolean tryAdvance(LongConsumer action)
+    {
+        if ( index == count && !fillBuffer() ) return false;
+
+        action.accept(buffer[index++]);
+        return true;
+    }
+
+    public void forEachRemaining(LongConsumer action)
+    {
+        do
+        {
+            while ( index < count ) action.accept(buffer[index++]);
+        }
+        while ( fillBuffer() );
+    }
+
+    public Spliterator.OfLong trySplit()
+    {
+        if ( generator != null || size >= 0 && size < MIN_SPLIT ) return null;
+
+        long middle = splitPoint();
+        if ( middle <= from || middle >= to ) return null;
+
+        EventsSpliterator prefix = new EventsSpliterator(schedule, from, middle);
+        from = middle;
+        size = size >= 0 ? size - prefix.size : sizeOf(from, to);
+
+        return prefix;
+    }
+
+    public long estimateSize()
+    {
+        return size >= 0 ? size + count - index : Long.MAX_VALUE;
+    }
+
+    public int characteristics()
+    {
+        int result = ORDERED | SORTED | NONNULL | IMMUTABLE;
+        if ( schedule.getPrecision() == Schedule.Precision.MILLIS ) result |= DISTINCT; // else they are truncated
+        if ( size >= 0 ) result |= SIZED | SUBSIZED;
+
+        return result;
+    }
+
+    @Override
+    public Comparator<? super Long> getComparator()
+    {
+        return null; // natural order
+    }
+
+
+
+
+    /**
+     * @return exact count of events of the interval, or -1 if it is too big
+     */
+    private long sizeOf(long from, long to)
+    {
+        try
+        {
+            return schedule.countEvents(from, to);
+        }
+        catch (ArithmeticException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the start of the second part: the median event rounded down to the start of the biggest unit
+     * (month, day, ...), which is still after the start of the interval
+     */
+    private long splitPoint()
+    {
+        long middle;
+        if ( size >= 0 )
+            middle = schedule.nthEvent(from == Long.MIN_VALUE ? from : from - 1, size / 2 + 1);
+        else
+            middle = from + (to - from) / 2;
+
+        GregCalendar calendar = new GregCalendar(middle, 0);
+        calendar.day = 1;
+        calendar.hours = calendar.minutes = calendar.seconds = calendar.milliseconds = 0;
+        long month = calendar.asMillis();
+        if ( month > from ) return month;
+
+        for (long unit : UNITS)
+        {
+            long bound = Math.floorDiv(middle, unit) * unit;
+            if ( bound > from ) return bound;
+        }
+        return middle;
+    }
+
+    /**
+     * Takes the next batch of events from the generator.
+     *
+     * @return false, if there are no more events
+     */
+    private boolean fillBuffer()
+    {
+        if ( generator == null )
+        {
+            if ( from >= to || size == 0 ) return false;
+
+            long first; // the generator starts near the first event, because the calendar can't hold any time
+            try
+            {
+                first = schedule.nthEvent(from == Long.MIN_VALUE ? from : from - 1, 1);
+            }
+            catch (IllegalStateException e)
+            {
+                return false; // there are no more events in the schedule
+            }
+            catch (ArithmeticException e)
+            {
+                first = from; // too many events to count
+            }
+            if ( first >= to ) return false;
+
+            generator = schedule.getEventsGenerator(new Date(first == Long.MIN_VALUE ? first : first - 1), true);
+            buffer = new long[BATCH];
+        }
+
+        do
+        {
+            index = 0;
+            count = generator.fill(buffer, 0, BATCH, to - 1);
+            if ( count == 0 ) return false;
+
+            while ( index < count && buffer[index] < from ) index++; // the parts of millisecond before the start
+        }
+        while ( index == count );
+
+        if ( size >= 0 ) size -= count - index;
+        return true;
+    }
+}
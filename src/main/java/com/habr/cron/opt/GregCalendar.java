@@ -17,11 +17,33 @@ class GregCalendar
     public int minutes;
     public int seconds;
     public int milliseconds;
+    /**
+     * The parts of the millisecond; used only by the schedules with precision finer than milliseconds.
+     * Are not changed by setTime() and are ignored by asMillis().
+     */
+    public int micros;
+    public int nanos;
+
+    /**
+     * The date of the last conversion and its start (milliseconds since January 1, 1970).
+     * The date fields are changed directly by the digits, so the cache is checked by the date itself.
+     */
+    private int cachedYear;
+    private int cachedMonth; // zero, while the cache is empty
+    private int cachedDay;
+    private long cachedDayMillis;
 
 
     private static final int defaultTimeZoneOffset = TimeZone.getDefault().getRawOffset();
 
 
+    /**
+     * Creates an empty calendar; it must be set up by {@link #setTime(long, int)} before use.
+     */
+    public GregCalendar()
+    {
+    }
+
     public GregCalendar(Date date, TimeZone tz)
     {
         this(date.getTime(), tz.getRawOffset());
@@ -36,20 +58,33 @@ class GregCalendar
     private static final int[] ELAPSED_DAYS = new int[]{0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
 
     /*
-        Very optimized version.
-        IMPORTANT NOTICE: works correct only range 2000..2100; Don't use out of interval
+        Very optimized version for years 1970..2100 (see setTime()).
      */
     public GregCalendar(long timestamp, int tzOffset)
     {
+        setTime(timestamp, tzOffset);
+    }
+
+    /**
+     * Sets up all calendar fields from the timestamp. Allows to reuse the calendar instance.
+     *
+     * @param timestamp milliseconds since January 1, 1970 (UTC)
+     * @param tzOffset time zone offset in milliseconds
+     */
+    public void setTime(long timestamp, int tzOffset)
+    {
+        timestamp += tzOffset;
+
+        if ( timestamp < 0 || timestamp >= FAST_LIMIT ) // out of 1970..2100
+        {
+            setTimeOfAnyYear(timestamp);
+            return;
+        }
+
         int time = (int) (timestamp % 86400000);
         int days = (int) (timestamp / 86400000);     // days since January 1, 1970
 
-        time += tzOffset;
-
-        milliseconds = time % 1000;     time /= 1000;
-        seconds =      time % 60;       time /= 60;
-        minutes =      time % 60;       time /= 60;
-        hours =        time % 24;
+        setTimeOfDay(time);
 
         int y = (days<<2)/1461; // Gregorian years elapsed  since 1970 ( = days / 365.25 )
         int l = (y+1)>>2;     // Gregorian leap days since 1970  ( = (y+1)/4 )
@@ -84,9 +119,79 @@ class GregCalendar
         year = y;
         month = m + 1;
         day = d;
+        cacheDate(days * 86400000L);
+    }
+
+    /**
+     * Sets up the calendar by the timestamp in UTC; the same as setTime(timestamp, 0), but faster,
+     * when the timestamp is in the date of the last conversion (the date is taken from the cache then).
+     *
+     * @param timestamp milliseconds since January 1, 1970 (UTC)
+     */
+    public void reset(long timestamp)
+    {
+        long time = timestamp - cachedDayMillis;
+        if ( cachedMonth == 0 || time < 0 || time >= 86400000 )
+        {
+            setTime(timestamp, 0);
+            return;
+        }
+
+        setTimeOfDay((int) time);
+        year = cachedYear;
+        month = cachedMonth;
+        day = cachedDay;
+    }
+
+    private void setTimeOfDay(int time)
+    {
+        milliseconds = time % 1000;     time /= 1000;
+        seconds =      time % 60;       time /= 60;
+        minutes =      time % 60;       time /= 60;
+        hours =        time;
+    }
+
+    private void cacheDate(long dayMillis)
+    {
+        cachedYear = year;
+        cachedMonth = month;
+        cachedDay = day;
+        cachedDayMillis = dayMillis;
     }
 
     public Date asDate() // returns always in UTC time!
+    {
+        return new Date(asMillis());
+    }
+
+    /**
+     * The date is converted only, when it differs from the date of the last conversion,
+     * so the serial events of the same date cost a few additions.
+     *
+     * @return milliseconds since January 1, 1970 (always in UTC time!)
+     */
+    public long asMillis()
+    {
+        int time = hours;
+        time = time * 60 + minutes;
+        time = time * 60 + seconds;
+        time = time * 1000 + milliseconds;
+
+        if ( day != cachedDay || month != cachedMonth || year != cachedYear )
+        {
+            long dayMillis = (year < 1970 || year > 2100 ? daysOfAnyYear() : daysOfFastYear()) * 86400000L;
+            if ( day < 1 || day > maxDays(year, month) ) return dayMillis + time; // the date out of month is not cached (see reset())
+
+            cacheDate(dayMillis);
+        }
+
+        return cachedDayMillis + time;
+    }
+
+    /**
+     * @return days since January 1, 1970 (for years 1970..2100)
+     */
+    private int daysOfFastYear()
     {
         int y = year - 1970;
         int leaps = (y + 1)>>2;
@@ -95,14 +200,53 @@ class GregCalendar
 
         days += ELAPSED_DAYS[month-1] + lp;
 
-        days += day; // days since 1 Jan 1970
+        return days + day; // days since 1 Jan 1970
+    }
+
 
-        int time = hours;
-        time = time * 60 + minutes;
-        time = time * 60 + seconds;
-        time = time * 1000 + milliseconds;
 
-        return new Date(days * 86400000L + time);
+    /*
+        The fast code above counts leap years by 4 (except 2100), so it works only in years 1970..2100.
+        The code below works for any year of proleptic Gregorian calendar (by H.Hinnant's algorithms);
+        it is a bit slower.
+     */
+
+    private static final long FAST_LIMIT = 4133980800000L; // 01.01.2101 00:00:00 UTC
+    private static final int DAYS_IN_ERA = 146097; // days in 400 years
+    private static final int EPOCH_SHIFT = 719468; // days from 01.03.0000 till 01.01.1970
+
+    private void setTimeOfAnyYear(long timestamp)
+    {
+        int time = (int) Math.floorMod(timestamp, 86400000L);
+        int days = (int) Math.floorDiv(timestamp, 86400000L);   // days since January 1, 1970
+
+        setTimeOfDay(time);
+
+        int z = days + EPOCH_SHIFT; // the year starts at March 1st
+        int era = Math.floorDiv(z, DAYS_IN_ERA);
+        int doe = z - era * DAYS_IN_ERA; // day of era [0..146096]
+        int yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365; // year of era [0..399]
+        int doy = doe - (365*yoe + yoe/4 - yoe/100); // day of year (since March 1st) [0..365]
+        int mp = (5*doy + 2) / 153; // month (since March) [0..11]
+        int m = mp < 10 ? mp + 3 : mp - 9;
+
+        year = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        month = m;
+        day = doy - (153*mp + 2)/5 + 1;
+        cacheDate(days * 86400000L);
+    }
+
+    /**
+     * @return days since January 1, 1970 (for any year)
+     */
+    private long daysOfAnyYear()
+    {
+        int y = month <= 2 ? year - 1 : year; // the year starts at March 1st
+        int era = Math.floorDiv(y, 400);
+        int yoe = y - era * 400; // year of era [0..399]
+        int doy = (153*(month > 2 ? month - 3 : month + 9) + 2)/5 + day - 1; // day of year (since March 1st)
+        int doe = yoe * 365 + yoe/4 - yoe/100 + doy; // day of era [0..146096]
+        return (long) era * DAYS_IN_ERA + doe - EPOCH_SHIFT; // days since 1 Jan 1970
     }
 
 
@@ -153,11 +297,37 @@ class GregCalendar
         return base + add - (2 - leap) * feb;*/
     }
 
+    /**
+     * @return nanoseconds of the millisecond (0..999999)
+     */
+    public int getFraction()
+    {
+        return micros * 1000 + nanos;
+    }
+
+    /**
+     * @param fraction nanoseconds of the millisecond (0..999999)
+     */
+    public void setFraction(int fraction)
+    {
+        micros = fraction / 1000;
+        nanos = fraction % 1000;
+    }
+
     /**
      * Day of week
      * @return 0 - sunday, 1 - monday, ... 6 - saturday
      */
     public int getDayOfWeek()
+    {
+        return dayOfWeek(year, month, day);
+    }
+
+    /**
+     * Day of week of the date
+     * @return 0 - sunday, 1 - monday, ... 6 - saturday
+     */
+    public static int dayOfWeek(int year, int month, int day)
     {
         int a = (14 - month)/12;
         int y = year - a;
@@ -191,6 +361,12 @@ class GregCalendar
 
             case 6: //Calendar.MILLISECOND:
                 milliseconds = value;   break;
+
+            case 7: // microseconds of the millisecond
+                micros = value;     break;
+
+            case 8: // nanoseconds of the microsecond
+                nanos = value;      break;
         }
     }
 
@@ -218,6 +394,12 @@ class GregCalendar
 
             case 6: //Calendar.MILLISECOND:
                 return milliseconds;
+
+            case 7: // microseconds of the millisecond
+                return micros;
+
+            case 8: // nanoseconds of the microsecond
+                return nanos;
         }
 
         throw new AssertionError("This code is MUST BE unreachable!");
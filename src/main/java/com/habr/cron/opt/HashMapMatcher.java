@@ -1,5 +1,8 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -137,6 +140,7 @@ class HashMapMatcher implements DigitMatcher, MapMatcher
             }
             prev[j] = p;
         }
+        if ( low < min && match(max) ) low = max; // the loop above doesn't check the last value
 
         byte n = NO_NEXT;
         high = max + 1;
@@ -151,4 +155,33 @@ class HashMapMatcher implements DigitMatcher, MapMatcher
         }
     }
 
+
+
+    /**
+     * Writes the bounds and the map (the tables of the next and previous values are restored from them).
+     */
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeLong(map);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static HashMapMatcher readFrom(DataInput in) throws IOException
+    {
+        int min = in.readInt();
+        int max = in.readInt();
+        if ( min > max || max - min >= RANGE_LIMIT )
+            throw new IOException("Wrong bounds of the hash map: " + min + ".." + max);
+
+        HashMapMatcher result = new HashMapMatcher(min, max);
+        result.map = in.readLong();
+        result.finishRange();
+        return result;
+    }
 }
@@ -0,0 +1,254 @@
+package com.habr.cron.opt;
+
+import java.util.Arrays;
+
+/**
+ * Indexed min-heap of the times (long keys) of the items (int ids).
+ * Not thread safe. Stateful class.
+ *
+ * The heap is 4-ary: the children of the node i are 4i+1..4i+4, so the tree of a million items has 10 levels
+ * instead of 20, and the keys of the children lie in the same cache line.
+ * The keys and the ids are kept in the parallel primitive arrays (no boxing, no entries), and the positions
+ * of the ids are kept in the third array, so the item can be found, updated and removed by its id.
+ *
+ * Difficulty:
+ *  insertion, removal, change of the key - O(log n)
+ *  the minimal key - O(1)
+ */
+class IndexedHeap
+{
+    private static final int ARITY = 4;
+    private static final int ABSENT = -1;
+
+    private long keys[]; // by the positions in the heap
+    private int ids[]; // by the positions in the heap
+    private int positions[]; // by the ids; ABSENT, if the id is not in the heap
+    private int size;
+
+
+
+    /**
+     * @param capacity the expected count of the items (and the expected maximal id + 1)
+     */
+    public IndexedHeap(int capacity)
+    {
+        capacity = Math.max(capacity, ARITY);
+        keys = new long[capacity];
+        ids = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, ABSENT);
+    }
+
+    /**
+     * @return count of the items
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @param id the id of the item
+     * @return true, if the item is in the heap
+     */
+    public boolean contains(int id)
+    {
+        return id >= 0 && id < positions.length && positions[id] != ABSENT;
+    }
+
+    /**
+     * @param id the id of the item in the heap
+     * @return the key of the item
+     */
+    public long keyOf(int id)
+    {
+        return keys[position(id)];
+    }
+
+    /**
+     * @return the minimal key
+     * @throws IllegalStateException if the heap is empty
+     */
+    public long peekKey()
+    {
+        if ( size == 0 ) throw new IllegalStateException("The heap is empty.");
+        return keys[0];
+    }
+
+    /**
+     * @return the id of the item with the minimal key
+     * @throws IllegalStateException if the heap is empty
+     */
+    public int peekId()
+    {
+        if ( size == 0 ) throw new IllegalStateException("The heap is empty.");
+        return ids[0];
+    }
+
+    /**
+     * Adds the item into the heap.
+     *
+     * @param id the id of the item, which is not in the heap (not negative)
+     * @param key the key of the item
+     */
+    public void add(int id, long key)
+    {
+        if ( id < 0 )
+            throw new IllegalArgumentException("The id must not be negative.");
+
+        if ( contains(id) )
+            throw new IllegalArgumentException("The item is in the heap already.");
+
+        if ( id >= positions.length )
+        {
+            int length = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(id + 1, length * 2));
+            Arrays.fill(positions, length, positions.length, ABSENT);
+        }
+
+        if ( size == keys.length )
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+
+        siftUp(size++, id, key);
+    }
+
+    /**
+     * Decreases the key of the item.
+     *
+     * @param id the id of the item in the heap
+     * @param key the new key, not greater than the current one
+     */
+    public void decreaseKey(int id, long key)
+    {
+        int position = position(id);
+        if ( key > keys[position] )
+            throw new IllegalArgumentException("The new key is greater than the current one.");
+
+        siftUp(position, id, key);
+    }
+
+    /**
+     * Changes the key of the item (decreases or increases it).
+     *
+     * @param id the id of the item in the heap
+     * @param key the new key
+     */
+    public void update(int id, long key)
+    {
+        int position = position(id);
+        if ( key < keys[position] )
+            siftUp(position, id, key);
+        else
+            siftDown(position, id, key);
+    }
+
+    /**
+     * Removes the item with the minimal key.
+     *
+     * @return the id of the item
+     * @throws IllegalStateException if the heap is empty
+     */
+    public int poll()
+    {
+        int id = peekId();
+        removeAt(0);
+        return id;
+    }
+
+    /**
+     * Removes the item from the heap.
+     *
+     * @param id the id of the item
+     * @return false, if the item is not in the heap
+     */
+    public boolean remove(int id)
+    {
+        if ( !contains(id) ) return false;
+
+        removeAt(positions[id]);
+        return true;
+    }
+
+
+
+
+    private int position(int id)
+    {
+        if ( !contains(id) )
+            throw new IllegalArgumentException("The item is not in the heap.");
+
+        return positions[id];
+    }
+
+    private void removeAt(int position)
+    {
+        positions[ids[position]] = ABSENT;
+
+        int last = --size;
+        if ( position == last ) return;
+
+        // the last item takes the place of the removed one
+        int id = ids[last];
+        long key = keys[last];
+        if ( position > 0 && key < keys[(position - 1) / ARITY] )
+            siftUp(position, id, key);
+        else
+            siftDown(position, id, key);
+    }
+
+    /**
+     * Places the item at the position or above it (the parents with the greater keys go down).
+     */
+    private void siftUp(int position, int id, long key)
+    {
+        while ( position > 0 )
+        {
+            int parent = (position - 1) / ARITY;
+            if ( keys[parent] <= key ) break;
+
+            set(position, ids[parent], keys[parent]);
+            position = parent;
+        }
+
+        set(position, id, key);
+    }
+
+    /**
+     * Places the item at the position or below it (the least children with the smaller keys go up).
+     */
+    private void siftDown(int position, int id, long key)
+    {
+        while ( true )
+        {
+            int first = position * ARITY + 1;
+            if ( first >= size ) break;
+
+            int end = Math.min(first + ARITY, size);
+            int least = first;
+            for (int child = first + 1; child < end; child++)
+                if ( keys[child] < keys[least] ) least = child;
+
+            if ( keys[least] >= key ) break;
+
+            set(position, ids[least], keys[least]);
+            position = least;
+        }
+
+        set(position, id, key);
+    }
+
+    private void set(int position, int id, long key)
+    {
+        keys[position] = key;
+        ids[position] = id;
+        positions[id] = position;
+    }
+}
@@ -1,5 +1,9 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Matcher of calendar element for type values as 'range without step' (a-b)
  * and also 'asterisk'(*)
@@ -66,4 +70,26 @@ class IntervalMatcher implements DigitMatcher
     {
         return max;
     }
+
+
+
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(min);
+        out.writeInt(max);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static IntervalMatcher readFrom(DataInput in) throws IOException
+    {
+        int min = in.readInt();
+        int max = in.readInt();
+        if ( min > max ) throw new IOException("Wrong interval: " + min + ".." + max);
+
+        return new IntervalMatcher(min, max);
+    }
 }
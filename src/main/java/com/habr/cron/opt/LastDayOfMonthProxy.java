@@ -10,7 +10,7 @@ import static com.habr.cron.opt.ScheduleElements.LAST_DAY_OF_MONTH_CODE;
  */
 class LastDayOfMonthProxy implements DigitMatcher
 {
-    private final DigitMatcher matcher;
+    private DigitMatcher matcher;
     private final GregCalendar calendar;
 
     public LastDayOfMonthProxy(DigitMatcher matcher, GregCalendar calendar)
@@ -19,6 +19,16 @@ class LastDayOfMonthProxy implements DigitMatcher
         this.calendar = calendar;
     }
 
+    /**
+     * Replaces the proxied matcher. Allows to reuse the proxy for another schedule.
+     *
+     * @param matcher the days of month matcher
+     */
+    public void setMatcher(DigitMatcher matcher)
+    {
+        this.matcher = matcher;
+    }
+
     public boolean match(int value)
     {
         int min = matcher.getLow();
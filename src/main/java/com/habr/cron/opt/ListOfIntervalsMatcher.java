@@ -1,5 +1,8 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 /**
  * Special matcher for milliseconds.
  * Handles a complex schedules, such as '40,100-120,200-300/3,500-501'.
@@ -47,8 +50,8 @@ class ListOfIntervalsMatcher extends ListsMatcher
         if ( index == NOT_FOUND )
             return value-1; // this should not happen if you call hasPrev() before
 
-        if ( value > max[LAST] )
-            return max[LAST];
+        if ( value > max[index] ) // in the gap after the interval (or above the last one)
+            return max[index];
 
         if ( value > min[index] )
             return value-1;
@@ -69,4 +72,22 @@ class ListOfIntervalsMatcher extends ListsMatcher
         assert dist == 1;
         super.addRange(from, to, dist);
     }
+
+    private ListOfIntervalsMatcher(BitMapMatcher bitsmap, int count)
+    {
+        super(bitsmap, count);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(java.io.DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static ListOfIntervalsMatcher readFrom(DataInput in) throws IOException
+    {
+        BitMapMatcher bitsmap = BitMapMatcher.readFrom(in);
+        ListOfIntervalsMatcher result = new ListOfIntervalsMatcher(bitsmap, readCount(in, bitsmap));
+        result.readRanges(in);
+        return result;
+    }
 }
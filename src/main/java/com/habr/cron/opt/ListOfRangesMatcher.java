@@ -1,5 +1,9 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Special matcher for milliseconds.
  * Handles a complex schedules, such as '40,100-120/2,200-300/3,500-501'.
@@ -57,8 +61,8 @@ class ListOfRangesMatcher extends ListsMatcher
         if ( index == NOT_FOUND )
             return value-1; // this should not happen if you call hasPrev() before
 
-        if ( value > max[LAST] )
-            return max[LAST];
+        if ( value > max[index] ) // in the gap after the interval (or above the last one)
+            return max[index];
 
         if ( value > min[index] )
         {
@@ -85,4 +89,40 @@ class ListOfRangesMatcher extends ListsMatcher
         super.addRange(from, to - (to - from) % dist, dist);
         step[top] = dist;
     }
+
+
+
+    private ListOfRangesMatcher(BitMapMatcher bitsmap, int count)
+    {
+        super(bitsmap, count);
+        step = new int[count];
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static ListOfRangesMatcher readFrom(DataInput in) throws IOException
+    {
+        BitMapMatcher bitsmap = BitMapMatcher.readFrom(in);
+        ListOfRangesMatcher result = new ListOfRangesMatcher(bitsmap, readCount(in, bitsmap));
+        result.readRanges(in);
+        return result;
+    }
+
+    @Override
+    protected void writeRange(DataOutput out, int index) throws IOException
+    {
+        super.writeRange(out, index);
+        out.writeInt(step[index]);
+    }
+
+    @Override
+    protected void readRange(DataInput in, int index) throws IOException
+    {
+        super.readRange(in, index); // the bounds are already aligned by the step
+        step[index] = in.readInt();
+        if ( step[index] < 1 ) throw new IOException("Wrong step: " + step[index]);
+    }
 }
@@ -1,5 +1,9 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Base class for list matchers: list of intervals, list of ranges.
  */
@@ -28,11 +32,22 @@ abstract class ListsMatcher implements DigitMatcher, MapMatcher
      * @param count count of ranges
      */
     public ListsMatcher(int from, int to, int count)
+    {
+        this(new BitMapMatcher(from, to), count);
+    }
+
+    /**
+     * Creates list matcher with the ready bit map (see {@link #readRanges(DataInput)}).
+     *
+     * @param bitsmap the bit map of all ranges
+     * @param count count of ranges
+     */
+    protected ListsMatcher(BitMapMatcher bitsmap, int count)
     {
         LAST = count-1;
         min = new int[count];
         max = new int[count];
-        bitsmap = new BitMapMatcher(from, to);
+        this.bitsmap = bitsmap;
     }
 
     /**
@@ -125,4 +140,65 @@ abstract class ListsMatcher implements DigitMatcher, MapMatcher
     {
         throw new UnsupportedOperationException(); // a single constant not supported
     }
+
+
+
+    /**
+     * Writes the bit map and the ranges.
+     */
+    void writeTo(DataOutput out) throws IOException
+    {
+        bitsmap.writeTo(out);
+        out.writeInt(min.length);
+        for (int i = FIRST; i <= LAST; i++)
+            writeRange(out, i);
+    }
+
+    /**
+     * Writes the range with the index (its bounds, by default).
+     */
+    protected void writeRange(DataOutput out, int index) throws IOException
+    {
+        out.writeInt(min[index]);
+        out.writeInt(max[index]);
+    }
+
+    /**
+     * Reads the ranges, written by {@link #writeTo(DataOutput)} after the bit map, and finishes the matcher.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    protected void readRanges(DataInput in) throws IOException
+    {
+        for (int i = FIRST; i <= LAST; i++)
+        {
+            readRange(in, i);
+            if ( min[i] > max[i] || i > FIRST && min[i] <= max[i-1] )
+                throw new IOException("Wrong list of ranges.");
+        }
+        top = LAST;
+        finishRange();
+    }
+
+    /**
+     * Reads the range with the index, written by {@link #writeRange(DataOutput, int)}.
+     */
+    protected void readRange(DataInput in, int index) throws IOException
+    {
+        min[index] = in.readInt();
+        max[index] = in.readInt();
+    }
+
+    /**
+     * Reads the count of ranges, written by {@link #writeTo(DataOutput)} after the bit map.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    protected static int readCount(DataInput in, BitMapMatcher bitsmap) throws IOException
+    {
+        int count = in.readInt();
+        if ( count < 1 || count > bitsmap.getHigh() - bitsmap.getLow() + 1 )
+            throw new IOException("Wrong count of ranges: " + count);
+        return count;
+    }
 }
@@ -0,0 +1,274 @@
+package com.habr.cron.opt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight matcher of calendar element, which reads the matcher from the bytes of {@link MappedScheduleStore}.
+ * It is bound to the record of the schedule before the search, so one instance serves all schedules of the store.
+ * Not thread safe. Stateful class.
+ *
+ * The matchers are stored in four kinds (the semantic is the same as of the heap matchers):
+ *  CONSTANT - the value (as {@link ConstantMatcher});
+ *  INTERVAL - low and high (as {@link IntervalMatcher});
+ *  STEPPING - low, high and step (as {@link SteppingMatcher});
+ *  BITS - low, high, the bit map of values since low and the summary map of non-empty cells (as {@link BitMapMatcher});
+ *         the map matchers (hash map, bit map and the lists) are stored so.
+ * Each kind starts with the byte of the kind and two ints: low and high.
+ */
+final class MappedMatcher implements DigitMatcher
+{
+    static final int CONSTANT = 1;
+    static final int INTERVAL = 2;
+    static final int STEPPING = 3;
+    static final int BITS = 4;
+
+    private final static int POWER = 6; // = log_2(64)
+    private final static int MASK = 63;
+    private final static int BITES_IN_MAP_ELEMENT = 64;
+
+    private ByteBuffer buffer;
+    private int kind;
+    private int low;
+    private int high;
+    private int step; // for STEPPING
+    private int map; // the position of the bit map (for BITS)
+    private int cells; // count of the cells of the bit map
+    private int summary; // the position of the summary map
+
+
+
+    /**
+     * Binds the matcher to the stored one.
+     *
+     * @param buffer the bytes of the store
+     * @param offset the position of the stored matcher
+     * @return the position after the stored matcher
+     */
+    int bind(ByteBuffer buffer, int offset)
+    {
+        this.buffer = buffer;
+        kind = buffer.get(offset);
+        low = buffer.getInt(offset + 1);
+        high = buffer.getInt(offset + 5);
+        offset += 9;
+
+        switch ( kind )
+        {
+            case STEPPING:
+                step = buffer.getInt(offset);
+                return offset + 4;
+
+            case BITS:
+                cells = ((high - low) >> POWER) + 1;
+                map = offset;
+                summary = offset + cells * 8;
+                return summary + (((cells - 1) >> POWER) + 1) * 8;
+
+            default:
+                return offset;
+        }
+    }
+
+    /**
+     * Writes the matcher in the stored form.
+     *
+     * @param out the output
+     * @param matcher the matcher of the schedule
+     * @return count of the written bytes
+     */
+    static int write(DataOutput out, DigitMatcher matcher) throws IOException
+    {
+        int low = matcher.getLow();
+        int high = matcher.getHigh();
+
+        if ( matcher instanceof ConstantMatcher )
+        {
+            writeHeader(out, CONSTANT, low, high);
+            return 9;
+        }
+
+        if ( matcher instanceof IntervalMatcher )
+        {
+            writeHeader(out, INTERVAL, low, high);
+            return 9;
+        }
+
+        if ( matcher instanceof SteppingMatcher )
+        {
+            writeHeader(out, STEPPING, low, high);
+            out.writeInt(((SteppingMatcher) matcher).getStep());
+            return 13;
+        }
+
+        // the map matchers: the values are collected by the matcher itself
+        long map[] = new long[((high - low) >> POWER) + 1];
+        long summary[] = new long[((map.length - 1) >> POWER) + 1];
+        for (int value = low; value <= high; value++)
+        {
+            if ( !MatcherPool.matches(matcher, value) ) continue;
+
+            int el = (value - low) >> POWER;
+            map[el] |= 1L << (value - low);
+            summary[el >> POWER] |= 1L << el;
+        }
+
+        writeHeader(out, BITS, low, high);
+        for (long cell : map) out.writeLong(cell);
+        for (long cell : summary) out.writeLong(cell);
+        return 9 + (map.length + summary.length) * 8;
+    }
+
+    private static void writeHeader(DataOutput out, int kind, int low, int high) throws IOException
+    {
+        out.writeByte(kind);
+        out.writeInt(low);
+        out.writeInt(high);
+    }
+
+
+
+
+    public boolean match(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return value == low;
+            case INTERVAL: return low <= value && value <= high;
+            case STEPPING: return (value - low) % step == 0;
+            default:
+                if ( value < low || value > high ) return false;
+                int v = value - low;
+                return (cell(v >> POWER) & (1L << v)) != 0;
+        }
+    }
+
+    public boolean isAbove(int value)
+    {
+        return value > high;
+    }
+
+    public boolean isBelow(int value)
+    {
+        return value < low;
+    }
+
+    public int getNext(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return low;
+            case INTERVAL: return value + 1;
+            case STEPPING: return value - (value - low) % step + step;
+            default:
+                if ( value >= high ) return value + 1; // out of bound
+                if ( value < low ) return low; // edge value
+
+                int v = value - low + 1; // search starts a next value
+                int el = v >> POWER;
+
+                int pos = BitmapUtils.forwardScanBit(cell(el), v & MASK);
+                if ( pos == BITES_IN_MAP_ELEMENT ) // the rest of the cell is empty; go to the next non-empty cell
+                {
+                    el = nextCell(el + 1);
+                    pos = el < cells ? Long.numberOfTrailingZeros(cell(el)) : 0;
+                }
+                return (el << POWER) + pos + low;
+        }
+    }
+
+    public int getPrev(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return low;
+            case INTERVAL: return value - 1;
+            case STEPPING:
+                int r = (value - low) % step;
+                return r > 0 ? value - r : value - step;
+            default:
+                if ( value <= low ) return value - 1; // out of bound
+                if ( value > high ) return high; // edge value
+
+                int v = value - low - 1; // search starts a previous value
+                int el = v >> POWER;
+
+                int pos = BitmapUtils.backwardScanBit(cell(el), v & MASK);
+                if ( pos < 0 ) // the rest of the cell is empty; go to the previous non-empty cell
+                {
+                    el = prevCell(el - 1);
+                    pos = el >= 0 ? BITES_IN_MAP_ELEMENT - 1 - Long.numberOfLeadingZeros(cell(el)) : BITES_IN_MAP_ELEMENT - 1;
+                }
+                return (el << POWER) + pos + low;
+        }
+    }
+
+    public boolean hasNext(int value)
+    {
+        return kind != CONSTANT && value < high;
+    }
+
+    public boolean hasPrev(int value)
+    {
+        return kind != CONSTANT && value > low;
+    }
+
+    public int getLow()
+    {
+        return low;
+    }
+
+    public int getHigh()
+    {
+        return high;
+    }
+
+
+
+
+    private long cell(int el)
+    {
+        return buffer.getLong(map + (el << 3));
+    }
+
+    private long summaryCell(int s)
+    {
+        return buffer.getLong(summary + (s << 3));
+    }
+
+    /**
+     * @return number of the first non-empty cell (from the 'from'), or cells if not found
+     */
+    private int nextCell(int from)
+    {
+        if ( from >= cells ) return cells;
+
+        int count = ((cells - 1) >> POWER) + 1;
+        int s = from >> POWER;
+        long bits = summaryCell(s) & (-1L << (from & MASK));
+        while ( bits == 0 )
+        {
+            if ( ++s == count ) return cells;
+            bits = summaryCell(s);
+        }
+        return (s << POWER) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return number of the last non-empty cell (till the 'from'), or -1 if not found
+     */
+    private int prevCell(int from)
+    {
+        if ( from < 0 ) return -1;
+
+        int s = from >> POWER;
+        long bits = summaryCell(s) & (-1L >>> (MASK - (from & MASK)));
+        while ( bits == 0 )
+        {
+            if ( --s < 0 ) return -1;
+            bits = summaryCell(s);
+        }
+        return (s << POWER) + MASK - Long.numberOfLeadingZeros(bits);
+    }
+}
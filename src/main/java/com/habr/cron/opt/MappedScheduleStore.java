@@ -0,0 +1,385 @@
+package com.habr.cron.opt;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * Off-heap store of compiled schedules in a memory-mapped file.
+ * The schedules are kept as the records of bytes, and the searches are done directly by the mapped bytes
+ * with the flyweight matchers (see {@link MappedMatcher}), so the heap holds no objects per schedule.
+ * The store is made by {@link #write(Iterable, Path)} and opened by {@link #open(Path)}; the schedules are
+ * referenced by their numbers in the order of writing.
+ * Only the UTC schedules are supported. The results are the same as of {@link Schedule}.
+ * Thread-Safe. Unmodifiable.
+ *
+ * The format of the file (the numbers are big-endian):
+ *  header: int magic "CRMS", int version, int count of schedules, int count of the blocks of days,
+ *          int position of the blocks of days, int position of the table of records;
+ *  records: the variable-length records of the schedules (see below);
+ *  blocks of days: the bit sets of the valid days of the schedules with days of week
+ *          (see {@link ValidDaysIndex}), each block is shared by all schedules with the same days;
+ *  table of records: the fixed-length positions of the records (int per schedule).
+ * The record of the schedule:
+ *  byte flags (1 - any date, 2 - any week day, the precision in the bits 2-3), byte map of days of week,
+ *  int number of the block of days (-1 for any week day),
+ *  9 matchers of the elements without the day of week (see {@link MappedMatcher}),
+ *  UTF the schedule string.
+ *
+ * The file is limited by 2 GB (about 10-20 millions of schedules).
+ */
+public final class MappedScheduleStore
+{
+    private static final int MAGIC = 0x43524D53; // "CRMS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int ANY_DATE = 1;
+    private static final int ANY_WEEK_DAY = 2;
+    private static final int PRECISION_SHIFT = 2;
+
+    private static final Schedule.Precision PRECISIONS[] = Schedule.Precision.values();
+
+    /**
+     * The elements of the records (all, except the day of week)
+     */
+    private static final ScheduleElements ELEMENTS[] = {
+            YEAR, MONTH, DAY_OF_MONTH, HOURS, MINUTES, SECONDS, MILLIS, MICROS, NANOS
+    };
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int blocks;
+    private final int table;
+    /**
+     * The blocks of days on the heap; they are made on the first use
+     */
+    private final ValidDaysIndex indexes[];
+
+
+    /**
+     * Thread-confined search state: the calendar, its digits and the flyweight matchers.
+     * Shared between all stores, because the flyweights are rebound on each search.
+     */
+    private static final class SearchContext
+    {
+        final GregCalendar calendar = new GregCalendar();
+        final CalendarDigits digits = new CalendarDigits(calendar);
+        final MappedMatcher flyweights[] = new MappedMatcher[ScheduleElements.values().length];
+        final DigitMatcher matchers[] = new DigitMatcher[flyweights.length]; // the same, but for the digits
+
+        SearchContext()
+        {
+            for (ScheduleElements element : ELEMENTS)
+                matchers[element.ordinal()] = flyweights[element.ordinal()] = new MappedMatcher();
+        }
+    }
+
+    private static final ThreadLocal<SearchContext> CONTEXT = new ThreadLocal<SearchContext>()
+    {
+        @Override
+        protected SearchContext initialValue()
+        {
+            return new SearchContext();
+        }
+    };
+
+
+
+    private MappedScheduleStore(ByteBuffer buffer) throws IOException
+    {
+        if ( buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC )
+            throw new IOException("It is not a store of schedules.");
+        if ( buffer.getInt(4) != VERSION )
+            throw new IOException("Unsupported version of the store: " + buffer.getInt(4));
+
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.indexes = new ValidDaysIndex[buffer.getInt(12)];
+        this.blocks = buffer.getInt(16);
+        this.table = buffer.getInt(20);
+
+        if ( count < 0 || table < HEADER_SIZE || (long) table + count * 4L != buffer.capacity()
+                || blocks < HEADER_SIZE || (long) blocks + (long) indexes.length * ValidDaysIndex.BYTES > table )
+            throw new IOException("The store is corrupted.");
+    }
+
+    /**
+     * Maps the store into the memory. The file is not read: its pages are loaded by the searches.
+     *
+     * @param file the file, written by {@link #write(Iterable, Path)}
+     * @return the store
+     * @throws IOException if the file can't be mapped, or it is not a store
+     */
+    public static MappedScheduleStore open(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // valid after the close
+            return new MappedScheduleStore(buffer);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the store of the schedules. The schedules are written one by one, so they may be made on the fly
+     * (only their positions are kept, 4 bytes per schedule).
+     *
+     * @param schedules the UTC schedules
+     * @param file the file of the store (it is replaced)
+     * @throws IllegalArgumentException if a schedule has a time zone
+     * @throws IOException if the output fails, or the store exceeds 2 GB
+     */
+    public static void write(Iterable<Schedule> schedules, Path file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        try
+        {
+            raf.setLength(0);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(raf.getChannel()), 1 << 16));
+            out.write(new byte[HEADER_SIZE]); // it is written at the end
+
+            long position = HEADER_SIZE;
+            int positions[] = new int[1024];
+            int count = 0;
+            Map<ByteBuffer, Integer> blocks = new HashMap<ByteBuffer, Integer>();
+            ValidDaysIndex days[] = new ValidDaysIndex[16];
+
+            for (Schedule schedule : schedules)
+            {
+                if ( schedule.getZone() != null )
+                    throw new IllegalArgumentException("The schedule with time zone is not supported: " + schedule);
+
+                if ( count == positions.length ) positions = Arrays.copyOf(positions, count * 2);
+                positions[count++] = checkSize(position);
+
+                MatcherPool pool = schedule.getPool();
+                int block = -1;
+                if ( !pool.isAnyWeekDay() )
+                {
+                    ValidDaysIndex index = pool.getValidDays();
+                    ByteBuffer key = bytesOf(index);
+                    Integer number = blocks.get(key);
+                    if ( number == null )
+                    {
+                        blocks.put(key, number = blocks.size());
+                        if ( number == days.length ) days = Arrays.copyOf(days, number * 2);
+                        days[number] = index;
+                    }
+                    block = number;
+                }
+
+                int flags = (pool.isAnyDate() ? ANY_DATE : 0) | (pool.isAnyWeekDay() ? ANY_WEEK_DAY : 0)
+                        | pool.getPrecision().ordinal() << PRECISION_SHIFT;
+                out.writeByte(flags);
+                out.writeByte(pool.getWeekDaysMap().getMap());
+                out.writeInt(block);
+                position += 6;
+
+                DigitMatcher matchers[] = pool.getMatcherPool();
+                for (ScheduleElements element : ELEMENTS)
+                    position += MappedMatcher.write(out, matchers[element.ordinal()]);
+
+                int before = out.size();
+                out.writeUTF(schedule.toString());
+                position += out.size() - before; // size() is used only for the difference (it overflows at 2 GB)
+            }
+
+            int blocksPosition = checkSize(position);
+            for (int i = 0; i < blocks.size(); i++)
+                days[i].writeDays(out);
+            position += (long) blocks.size() * ValidDaysIndex.BYTES;
+
+            int tablePosition = checkSize(position);
+            for (int i = 0; i < count; i++)
+                out.writeInt(positions[i]);
+            checkSize(position + count * 4L);
+            out.flush();
+
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(count);
+            raf.writeInt(blocks.size());
+            raf.writeInt(blocksPosition);
+            raf.writeInt(tablePosition);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+
+
+
+    /**
+     * @return count of the schedules in the store
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @param id the number of the schedule (in the order of writing)
+     * @return the schedule string
+     */
+    public String getSchedule(int id)
+    {
+        MappedMatcher skipper = CONTEXT.get().flyweights[YEAR.ordinal()];
+        int offset = recordOf(id) + 6;
+        for (int i = 0; i < ELEMENTS.length; i++)
+            offset = skipper.bind(buffer, offset); // skip the matchers
+
+        byte bytes[] = new byte[2 + (buffer.getShort(offset) & 0xFFFF)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(bytes);
+        try
+        {
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("The store is corrupted.", e);
+        }
+    }
+
+    /**
+     * The same as {@link Schedule#nearestEventMillis(long)} of the schedule with the number.
+     * Does not allocate memory.
+     */
+    public long nearestEventMillis(int id, long millis)
+    {
+        return findEvent(id, millis, true, true);
+    }
+
+    /**
+     * The same as {@link Schedule#nearestPrevEventMillis(long)} of the schedule with the number.
+     * Does not allocate memory.
+     */
+    public long nearestPrevEventMillis(int id, long millis)
+    {
+        return findEvent(id, millis, false, true);
+    }
+
+    /**
+     * The same as {@link Schedule#nextEventMillis(long)} of the schedule with the number.
+     * Does not allocate memory.
+     *
+     * @param id the number of the schedule (in the order of writing)
+     * @param millis the time to start search from
+     * @return the next event time
+     * @throws IllegalStateException if there is no such event in the schedule
+     */
+    public long nextEventMillis(int id, long millis)
+    {
+        return findEvent(id, millis, true, false);
+    }
+
+    /**
+     * The same as {@link Schedule#prevEventMillis(long)} of the schedule with the number.
+     * Does not allocate memory.
+     */
+    public long prevEventMillis(int id, long millis)
+    {
+        return findEvent(id, millis, false, false);
+    }
+
+
+
+
+    private int recordOf(int id)
+    {
+        if ( id < 0 || id >= count )
+            throw new IllegalArgumentException("No such schedule: " + id);
+
+        return buffer.getInt(table + id * 4);
+    }
+
+    /**
+     * The same search as {@link Schedule} does (see findEvent()), but by the flyweight matchers.
+     */
+    private long findEvent(int id, long millis, boolean forward, boolean canEqual)
+    {
+        int offset = recordOf(id);
+        int flags = buffer.get(offset);
+        int weekMap = buffer.get(offset + 1);
+        int block = buffer.getInt(offset + 2);
+        Schedule.Precision precision = PRECISIONS[flags >> PRECISION_SHIFT];
+
+        SearchContext context = CONTEXT.get();
+        GregCalendar calendar = context.calendar;
+        CalendarDigits digits = context.digits;
+
+        offset += 6;
+        for (ScheduleElements element : ELEMENTS)
+            offset = context.flyweights[element.ordinal()].bind(buffer, offset);
+
+        calendar.reset(millis);
+        if ( precision != Schedule.Precision.MILLIS ) calendar.setFraction(0);
+        digits.reset(context.matchers, precision, forward);
+
+        // skip date check, if not present in schedule
+        if ( (flags & ANY_DATE) != 0 ) digits.gotoHours();
+
+        while ( Schedule.isCanSearchDown(digits, calendar, canEqual) )
+        {
+            digits.next();
+        }
+
+        // corrects the date by the days of week (see Schedule.fixWeekDay())
+        if ( (flags & ANY_WEEK_DAY) == 0 && (weekMap & (1 << calendar.getDayOfWeek())) == 0 )
+        {
+            getIndex(block).moveToNext(context.matchers[YEAR.ordinal()], calendar, forward);
+
+            digits.gotoHours();
+            digits.initialize();
+        }
+
+        return calendar.asMillis();
+    }
+
+    private ValidDaysIndex getIndex(int block)
+    {
+        ValidDaysIndex result = indexes[block];
+        if ( result == null )
+            indexes[block] = result = new ValidDaysIndex(buffer, blocks + block * ValidDaysIndex.BYTES); // a concurrent thread can make another one
+
+        return result;
+    }
+
+    private static ByteBuffer bytesOf(ValidDaysIndex index) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(ValidDaysIndex.BYTES);
+        index.writeDays(new DataOutputStream(bytes));
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static int checkSize(long position) throws IOException
+    {
+        if ( position > Integer.MAX_VALUE )
+            throw new IOException("The store exceeds 2 GB.");
+        return (int) position;
+    }
+}
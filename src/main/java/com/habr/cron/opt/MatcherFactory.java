@@ -1,11 +1,25 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Helper class.
  * Help to select the best map matcher.
+ * Also writes and restores the matchers in the binary form (the type of the matcher and its data).
  */
 class MatcherFactory
 {
+    // types of the matchers in the binary form; they MUST NOT be changed
+    private static final int CONSTANT = 1;
+    private static final int INTERVAL = 2;
+    private static final int STEPPING = 3;
+    private static final int HASH_MAP = 4;
+    private static final int BIT_MAP = 5;
+    private static final int LIST_OF_INTERVALS = 6;
+    private static final int LIST_OF_RANGES = 7;
+
     /**
      * Help to select the best matcher for specified ranges list.
      * Constructs and initializes matcher.
@@ -15,22 +29,35 @@ class MatcherFactory
      * @return the best instance that uses the source ranges.
      */
     public static DigitMatcher createInstance(RangeList ranges, ScheduleElements element)
+    {
+        return createInstance(ranges, element.min, element.max);
+    }
+
+    /**
+     * The same as {@link #createInstance(RangeList, ScheduleElements)}, but for the element with specified bounds.
+     *
+     * @param ranges source ranges for initialize
+     * @param min the minimum value of the element
+     * @param max the maximum value of the element
+     * @return the best instance that uses the source ranges.
+     */
+    public static DigitMatcher createInstance(RangeList ranges, int min, int max)
     {
         return ranges.isAlone() ?
-                    createSimpleMatcher(ranges.getSingle(), element)
+                    createSimpleMatcher(ranges.getSingle(), min, max)
                 :
-                    createMapMatcher(ranges, element);
+                    createMapMatcher(ranges, min, max);
     }
 
 
 
-    private static DigitMatcher createSimpleMatcher(Range range, ScheduleElements element)
+    private static DigitMatcher createSimpleMatcher(Range range, int min, int max)
     {
         if ( range.isAsterisk() ) // * or */n
             return !range.isStepped() ?
-                    new IntervalMatcher(element.min, element.max)
+                    new IntervalMatcher(min, max)
                     :
-                    new SteppingMatcher(element.min, element.max, range.step);
+                    new SteppingMatcher(min, max, range.step);
 
         if ( range.isConstant() ) // single const value
             return new ConstantMatcher(range.min);
@@ -43,8 +70,10 @@ class MatcherFactory
 
 
 
-    private static DigitMatcher createMapMatcher(RangeList ranges, ScheduleElements element)
+    private static DigitMatcher createMapMatcher(RangeList ranges, int lowest, int highest)
     {
+        ranges.expandAsterisks(lowest, highest); // '3,*/7' has no own bounds of the asterisk
+
         int min = ranges.getMinimum();
         int max = ranges.getMaximum();
 
@@ -69,7 +98,7 @@ class MatcherFactory
 
         // after optimize we can get only one range (for example: '10-20,15-30' = '10-30')
         if ( ranges.isAlone() )
-            return createSimpleMatcher(ranges.getSingle(), element);
+            return createSimpleMatcher(ranges.getSingle(), lowest, highest);
 
 
         //
@@ -101,4 +130,78 @@ class MatcherFactory
         }
         matcher.finishRange();
     }
+
+
+
+    /**
+     * Writes the type of the matcher and its data.
+     *
+     * @param out the output
+     * @param matcher the matcher, created by this factory
+     * @throws IOException if the output fails
+     */
+    public static void write(DataOutput out, DigitMatcher matcher) throws IOException
+    {
+        if ( matcher instanceof ConstantMatcher )
+        {
+            out.writeByte(CONSTANT);
+            ((ConstantMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof IntervalMatcher )
+        {
+            out.writeByte(INTERVAL);
+            ((IntervalMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof SteppingMatcher )
+        {
+            out.writeByte(STEPPING);
+            ((SteppingMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof HashMapMatcher )
+        {
+            out.writeByte(HASH_MAP);
+            ((HashMapMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof BitMapMatcher )
+        {
+            out.writeByte(BIT_MAP);
+            ((BitMapMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof ListOfIntervalsMatcher )
+        {
+            out.writeByte(LIST_OF_INTERVALS);
+            ((ListOfIntervalsMatcher) matcher).writeTo(out);
+        }
+        else if ( matcher instanceof ListOfRangesMatcher )
+        {
+            out.writeByte(LIST_OF_RANGES);
+            ((ListOfRangesMatcher) matcher).writeTo(out);
+        }
+        else
+            throw new IllegalArgumentException("Unknown matcher: " + matcher);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #write(DataOutput, DigitMatcher)}.
+     *
+     * @param in the input
+     * @return new instance of the matcher
+     * @throws IOException if the input fails or the data is corrupted
+     */
+    public static DigitMatcher read(DataInput in) throws IOException
+    {
+        int type = in.readByte();
+        switch ( type )
+        {
+            case CONSTANT: return ConstantMatcher.readFrom(in);
+            case INTERVAL: return IntervalMatcher.readFrom(in);
+            case STEPPING: return SteppingMatcher.readFrom(in);
+            case HASH_MAP: return HashMapMatcher.readFrom(in);
+            case BIT_MAP: return BitMapMatcher.readFrom(in);
+            case LIST_OF_INTERVALS: return ListOfIntervalsMatcher.readFrom(in);
+            case LIST_OF_RANGES: return ListOfRangesMatcher.readFrom(in);
+            default:
+                throw new IOException("Unknown type of matcher: " + type);
+        }
+    }
 }
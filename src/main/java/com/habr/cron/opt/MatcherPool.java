@@ -1,6 +1,9 @@
 package com.habr.cron.opt;
 
-import java.util.GregorianCalendar;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
 import static com.habr.cron.opt.DaysMap.rollMapByMonth;
 import static com.habr.cron.opt.ScheduleElements.*;
@@ -13,7 +16,7 @@ class MatcherPool
     /**
      * all matchers for calendar elements (month, year, ... except days of the week)
      */
-    private final DigitMatcher pool[] = new DigitMatcher[8];
+    private final DigitMatcher pool[] = new DigitMatcher[ScheduleElements.values().length];
     /**
      * the bitmap of weekdays according the schedule
      */
@@ -36,6 +39,18 @@ class MatcherPool
      * Has true, if weekday not present in schedule or equals to '*'
      */
     private final boolean anyWeekDay;
+    /**
+     * The smallest element of the schedule
+     */
+    private final Schedule.Precision precision;
+    /**
+     * The index of matching days; it is built on the first search, which corrects the day of week
+     */
+    private volatile ValidDaysIndex validDays;
+    /**
+     * The tagged copies of the matchers; they are built on the first search by them
+     */
+    private volatile DigitMatcher tagged[];
 
 
 
@@ -47,7 +62,7 @@ class MatcherPool
             if ( element == DAY_OF_WEEK ) continue;
 
             RangeList ranges = model.getModelFor(element);
-            DigitMatcher matcher = MatcherFactory.createInstance(ranges, element);
+            DigitMatcher matcher = MatcherFactory.createInstance(ranges, model.getMin(element), model.getMax(element));
             pool[element.ordinal()] = matcher;
         }
 
@@ -58,6 +73,7 @@ class MatcherPool
 
         anyDate = model.isAnyDate();
         anyWeekDay = model.isAnyWeekDay();
+        precision = model.getPrecision();
 
         try {
             fixYearsForLastFebruaryDay(model); // fix schedule for "???.02.29"
@@ -68,11 +84,80 @@ class MatcherPool
         }
     }
 
+    /**
+     * Restores the pool from the binary form (see {@link #writeTo(DataOutput)}).
+     */
+    private MatcherPool(DataInput in) throws IOException
+    {
+        for ( ScheduleElements element : ScheduleElements.values() )
+        {
+            if ( element == DAY_OF_WEEK ) continue;
+
+            pool[element.ordinal()] = MatcherFactory.read(in);
+        }
+
+        weekMap = readDaysMap(in);
+        monthMap = readDaysMap(in);
+        normalYearMap = readDaysMap(in);
+        leapYearMap = readDaysMap(in);
+
+        anyDate = in.readBoolean();
+        anyWeekDay = in.readBoolean();
+
+        int digits = in.readByte();
+        if ( digits < 0 || digits >= Schedule.Precision.values().length )
+            throw new IOException("Unknown precision: " + digits);
+        precision = Schedule.Precision.values()[digits];
+    }
+
+    /**
+     * Restores the pool, written by {@link #writeTo(DataOutput)}: the matchers are not built again.
+     *
+     * @param in the input
+     * @return new instance of the pool
+     * @throws IOException if the input fails or the data is corrupted
+     */
+    public static MatcherPool readFrom(DataInput in) throws IOException
+    {
+        return new MatcherPool(in);
+    }
+
+    /**
+     * Writes the matchers (by {@link MatcherFactory#write(DataOutput, DigitMatcher)}), the maps of days and the flags.
+     * The index of valid days is not written: it is built on the first use.
+     *
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        for ( ScheduleElements element : ScheduleElements.values() )
+        {
+            if ( element == DAY_OF_WEEK ) continue;
+
+            MatcherFactory.write(out, pool[element.ordinal()]);
+        }
+
+        out.writeByte(weekMap.getMap());
+        out.writeByte(monthMap.getMap());
+        out.writeByte(normalYearMap.getMap());
+        out.writeByte(leapYearMap.getMap());
+
+        out.writeBoolean(anyDate);
+        out.writeBoolean(anyWeekDay);
+        out.writeByte(precision.ordinal());
+    }
+
     public DigitMatcher[] getMatcherPool()
     {
         return pool;
     }
 
+    public Schedule.Precision getPrecision()
+    {
+        return precision;
+    }
+
     public DaysMap getWeekDaysMap()
     {
         return weekMap;
@@ -103,6 +188,107 @@ class MatcherPool
         return anyWeekDay;
     }
 
+    /**
+     * @return the index of days, which match the date and the days of week of the schedule
+     */
+    public ValidDaysIndex getValidDays()
+    {
+        ValidDaysIndex result = validDays;
+        if ( result == null )
+            validDays = result = new ValidDaysIndex(pool, weekMap); // a concurrent thread can build another one
+
+        return result;
+    }
+
+    /**
+     * @return the matchers of the pool as the tagged matchers (see {@link TaggedMatcher}), indexed as the pool
+     */
+    public DigitMatcher[] getTaggedPool()
+    {
+        DigitMatcher result[] = tagged;
+        if ( result == null )
+        {
+            result = new DigitMatcher[pool.length];
+            for (int i = 0; i < pool.length; i++)
+                if ( pool[i] != null ) result[i] = TaggedMatcher.of(pool[i]);
+
+            tagged = result; // a concurrent thread can build another one
+        }
+
+        return result;
+    }
+
+    /**
+     * Classifies the schedule without the date (see {@link PeriodicEngine#of(DigitMatcher[])}).
+     *
+     * @return the closed-form engine of the events, or null, if the events are not the progression
+     */
+    PeriodicEngine getPeriodicEngine()
+    {
+        return anyDate && anyWeekDay ? PeriodicEngine.of(pool) : null;
+    }
+
+    /**
+     * Checks the value by the matcher within its bounds (the matchers don't check them in match()).
+     *
+     * @param matcher the matcher of the element
+     * @param value the value of the element
+     * @return true, if the value matches the schedule
+     */
+    public static boolean matches(DigitMatcher matcher, int value)
+    {
+        return !matcher.isBelow(value) && !matcher.isAbove(value) && matcher.match(value);
+    }
+
+    /**
+     * Lists the values of the element, which the digits visit (see {@link CalendarDigits}).
+     * The digits don't check the values by match(): they start from getLow() (getHigh() backward),
+     * and go to the following values by getNext() (getPrev() backward) within the bounds, so the values
+     * of the digits are the matching values, only if all of these methods agree with match().
+     * A matcher, whose tables don't agree (for example, the tables of an unfinished {@link HashMapMatcher} are empty),
+     * is not listed, and the searches without the digits must not be used for it.
+     *
+     * @param matcher the matcher of the element
+     * @param max the maximal value of the element (the minimal is zero)
+     * @return the matching values in ascending order, or null, if the methods of the matcher disagree
+     */
+    public static int[] valuesOf(DigitMatcher matcher, int max)
+    {
+        int values[] = new int[max + 1];
+        int count = 0;
+        for (int value = 0; value <= max; value++)
+            if ( matches(matcher, value) ) values[count++] = value;
+
+        if ( count == 0 || matcher.getLow() != values[0] || matcher.getHigh() != values[count - 1] ) return null;
+
+        try
+        {
+            for (int value = 0, i = 0; value <= max; value++) // i - the index of the first value not less than the value
+            {
+                boolean below = value < values[0];
+                boolean above = value > values[count - 1];
+                if ( matcher.isBelow(value) != below || matcher.isAbove(value) != above ) return null;
+
+                if ( below || above ) continue;
+                if ( values[i] < value ) i++;
+
+                int next = values[i] == value ? i + 1 : i;
+                if ( matcher.hasNext(value) != next < count ) return null;
+                if ( next < count && matcher.getNext(value) != values[next] ) return null;
+
+                if ( matcher.hasPrev(value) != i > 0 ) return null;
+                if ( i > 0 && matcher.getPrev(value) != values[i - 1] ) return null;
+            }
+        }
+        catch (RuntimeException e) // the tables of the matcher don't have the value
+        {
+            return null;
+        }
+
+        return Arrays.copyOf(values, count);
+    }
+
+
 
 
 
@@ -110,6 +296,14 @@ class MatcherPool
 
 
 
+    private static DaysMap readDaysMap(DataInput in) throws IOException
+    {
+        DaysMap map = new DaysMap();
+        map.setMap(in.readByte());
+        return map;
+    }
+
+
 
     private DaysMap createWeekMap(RangeList ranges)
     {
@@ -245,7 +439,7 @@ class MatcherPool
             if ( m.isFebruary() && d.isLeapDay() ) // schedule is ?.2.29 ?
             {
                 DigitMatcher matcher = pool[YEAR.ordinal()]; // current year matcher, created by schedule
-                pool[YEAR.ordinal()] = applyLeapYearsForLastFebruaryDay(matcher);
+                pool[YEAR.ordinal()] = applyLeapYearsForLastFebruaryDay(matcher, model);
 
             }
         }
@@ -255,18 +449,19 @@ class MatcherPool
      * Setup only leaps years constraints, if user write ?.02.29 schedule (only Feb, and only 29)
      *
      * @param planned current year matcher
+     * @param model the schedule model (for the range of years)
      * @return new schedule for year
      * @throws IllegalStateException
      */
-    private DigitMatcher applyLeapYearsForLastFebruaryDay(DigitMatcher planned)
+    private DigitMatcher applyLeapYearsForLastFebruaryDay(DigitMatcher planned, ScheduleModel model)
     {
-        int min = findNearestLeapYearFrom(YEAR.min, +1); // for 2000 it returns 2000; for 2001 it returns 2004
-        int max = findNearestLeapYearFrom(YEAR.max, -1); // for 2100 it returns 2096
+        int min = findNearestLeapYearFrom(model.getMin(YEAR), +1); // for 2000 it returns 2000; for 2001 it returns 2004
+        int max = findNearestLeapYearFrom(model.getMax(YEAR), -1); // for 2100 it returns 2096
 
         BitMapMatcher filtered = new BitMapMatcher(min, max);
         int count = 0;
         for (int year = min; year <= max; year += 4) // intersect all leap years with source schedule
-            if ( planned.match(year) )
+            if ( planned.match(year) && GregCalendar.isLeap(year) == 1 ) // 2100, 2200, 2300 are not leap
             {
                 filtered.addValue(year);
                 count++;
@@ -294,8 +489,7 @@ class MatcherPool
      */
     private int findNearestLeapYearFrom(int year, int v)
     {
-        GregorianCalendar calendar = new GregorianCalendar();
-        while ( !calendar.isLeapYear(year) )
+        while ( GregCalendar.isLeap(year) == 0 )
             year += v;
 
         return year;
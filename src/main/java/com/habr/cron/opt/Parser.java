@@ -1,18 +1,26 @@
 package com.habr.cron.opt;
 
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import static com.habr.cron.opt.ScheduleElements.*;
 
 /**
  * Schedules parser.
  * Constructs the schedule model.
+ *
+ * Hand-written single pass scanner: it works with positions in the source string,
+ * so it does not allocate substrings (only for messages of errors) and does not use regular expressions.
+ * It accepts exactly the same schedules, as the former parser based on StringTokenizer and regex:
+ *  - the parts of schedule are separated by one or more spaces;
+ *  - the trailing separators of the date and time are ignored ('2020.1.1.', '12:00:00:');
+ *  - the empty items of lists are ignored ('1,,2', ',1');
+ *  - the extra parts of milliseconds are ignored ('12:00:00.100.200'), unless the precision of the schedule
+ *    is finer than milliseconds.
  */
 class Parser
 {
+    private static final ScheduleElements FRACTIONS[] = {MILLIS, MICROS, NANOS}; // the parts after the seconds
+
     private ScheduleModel model;
+    private String schedule; // the source of the current parsing
 
     public ScheduleModel getScheduleModel()
     {
@@ -25,43 +33,65 @@ class Parser
 
     public void parse(String schedule) throws ScheduleFormatException
     {
-        if ( schedule == null || schedule.trim().isEmpty() )
+        parse(schedule, YEAR.min, YEAR.max, Schedule.Precision.MILLIS);
+    }
+
+    /**
+     * @param schedule the source schedule
+     * @param minYear the minimal year of the schedule
+     * @param maxYear the maximal year of the schedule
+     * @param precision the smallest element of the schedule; the parts of millisecond are parsed only
+     *                  for finer precision (as '12:00:00.000.500' for micros, '12:00:00.000.000.250' for nanos),
+     *                  otherwise they are ignored as before
+     */
+    public void parse(String schedule, int minYear, int maxYear, Schedule.Precision precision)
+            throws ScheduleFormatException
+    {
+        if ( schedule == null || isBlank(schedule) )
             throw new IllegalArgumentException("Empty schedule.");
 
 
 
-        model = new ScheduleModel();
+        model = new ScheduleModel(minYear, maxYear, precision);
+        this.schedule = schedule;
 
 
-        StringTokenizer parts = new StringTokenizer(schedule, " "); // split by 'date', 'week day', 'time'
-        while ( parts.hasMoreTokens() )
+        int length = schedule.length();
+        int pos = 0;
+        while ( true ) // split by 'date', 'week day', 'time'
         {
-            String part = parts.nextToken();
+            while ( pos < length && schedule.charAt(pos) == ' ' ) pos++;
+            if ( pos == length ) break;
 
-            if ( isDateSchedule(part) )
+            int begin = pos;
+            boolean hasDot = false, hasColon = false;
+            for (char c; pos < length && (c = schedule.charAt(pos)) != ' '; pos++)
             {
-                if ( model.isTimePresent() || model.isDatePresent() )
-                    throw new ScheduleFormatException("Invalid schedule. Time MUST follow AFTER date.", schedule);
-
-                parseDate(part);
+                if ( c == '.' ) hasDot = true;
+                else if ( c == ':' ) hasColon = true;
             }
-            else if ( isTimeSchedule(part) )
+
+            if ( hasColon )
             {
                 if ( model.isTimePresent() )
                     throw new ScheduleFormatException("Invalid schedule. The Time element is redundant.", schedule);
 
-                parseTime(part);
+                parseTime(begin, pos);
             }
+            else if ( hasDot )
+            {
+                if ( model.isTimePresent() || model.isDatePresent() )
+                    throw new ScheduleFormatException("Invalid schedule. Time MUST follow AFTER date.", schedule);
 
-            else if ( isWeekDaySchedule(part) )
+                parseDate(begin, pos);
+            }
+            else
             {
                 if ( !model.isDatePresent() || model.isTimePresent() || model.isWeekDayPresent() )
                     throw new ScheduleFormatException("Invalid schedule. Weekday MUST follow AFTER date.", schedule);
 
-                parseWeekDay(part);
+                parseWeekDay(begin, pos);
             }
-            else
-                throw new ScheduleFormatException("Unexpected element '" + part + "' in schedule.", schedule);
         }
 
 
@@ -78,63 +108,98 @@ class Parser
 
 
 
-
-    private boolean isDateSchedule(String schedule)
+    /**
+     * @return true, if the string contains only white spaces (as String.trim() treats them)
+     */
+    private static boolean isBlank(String s)
     {
-        return schedule.contains(".") && !schedule.contains(":");
-    }
+        for (int i = 0; i < s.length(); i++)
+            if ( s.charAt(i) > ' ' ) return false;
 
-    private boolean isTimeSchedule(String schedule)
-    {
-        return schedule.contains(":");
+        return true;
     }
 
-    private boolean isWeekDaySchedule(String schedule)
+    /**
+     * Splits the part of schedule into 3 elements by the separator.
+     *
+     * @param begin the start of the part (inclusive)
+     * @param end the end of the part (exclusive)
+     * @param separator the separator of elements
+     * @param message the error message
+     * @return positions of two separators
+     */
+    private int[] splitByThree(int begin, int end, char separator, String message) throws ScheduleFormatException
     {
-        return !schedule.contains(".") && !schedule.contains(":");
+        int partEnd = end;
+        while ( end > begin && schedule.charAt(end - 1) == separator ) end--; // trailing separators are ignored
+
+        int first = schedule.indexOf(separator, begin);
+        int second = first >= 0 && first < end ? schedule.indexOf(separator, first + 1) : -1;
+        int third = second >= 0 && second < end ? schedule.indexOf(separator, second + 1) : -1;
+
+        if ( second < 0 || second >= end || (third >= 0 && third < end) )
+            throw new ScheduleFormatException(message, schedule.substring(begin, partEnd));
+
+        return new int[] {first, second, end};
     }
 
 
 
-    private void parseDate(String scheduleDate) throws ScheduleFormatException
+    private void parseDate(int begin, int end) throws ScheduleFormatException
     {
-        String elements[] = scheduleDate.split("\\."); // date elements separates via dot
-        if ( elements.length != 3 )
-            throw new ScheduleFormatException("Wrong date in schedule (expected exactly 3 elements).", scheduleDate);
+        // date elements separates via dot
+        int dots[] = splitByThree(begin, end, '.', "Wrong date in schedule (expected exactly 3 elements).");
 
-        processElement(YEAR, elements[0]);
-        processElement(MONTH, elements[1]);
-        processElement(DAY_OF_MONTH, elements[2]);
+        processElement(YEAR, begin, dots[0]);
+        processElement(MONTH, dots[0] + 1, dots[1]);
+        processElement(DAY_OF_MONTH, dots[1] + 1, dots[2]);
     }
 
-    private void parseTime(String scheduleTime) throws ScheduleFormatException
+    private void parseTime(int begin, int end) throws ScheduleFormatException
     {
-        String elements[] = scheduleTime.split(":"); // time elements separates via colon
-        if ( elements.length != 3 )
-            throw new ScheduleFormatException("Wrong time in schedule (expected exactly 3 elements).", scheduleTime);
+        // time elements separates via colon
+        int colons[] = splitByThree(begin, end, ':', "Wrong time in schedule (expected exactly 3 elements).");
+
+        processElement(HOURS, begin, colons[0]);
+        processElement(MINUTES, colons[0] + 1, colons[1]);
 
-        processElement(HOURS, elements[0]);
-        processElement(MINUTES, elements[1]);
+        int from = colons[1] + 1;
+        int to = colons[2];
+        int dot = schedule.indexOf('.', from);
 
-        if ( elements[2].contains(".") ) // seconds and milliseconds separates via dot
+        if ( dot >= 0 && dot < to ) // seconds and milliseconds separates via dot
         {
-            String last[] = elements[2].split("\\.");
+            while ( to > from && schedule.charAt(to - 1) == '.' ) to--;
+
+            processElement(SECONDS, from, Math.min(dot, to));
 
-            processElement(SECONDS, last[0]);
-            processElement(MILLIS, last[1]);
+            if ( to <= dot ) // there are no milliseconds after the dot
+                throw new ScheduleFormatException("Invalid format of the schedule element.", "");
+
+            int digits = model.getPrecision().digits;
+            for (int i = 0; ; i++) // milliseconds and the parts of millisecond
+            {
+                int next = schedule.indexOf('.', dot + 1);
+                if ( next < 0 || next > to ) next = to;
+
+                processElement(FRACTIONS[i], dot + 1, next);
+
+                if ( next == to || i == digits ) break; // the rest parts are ignored
+                dot = next;
+            }
         }
         else
-            processElement(SECONDS, elements[2]);
+            processElement(SECONDS, from, to);
     }
 
-    private void parseWeekDay(String scheduleDayOfWeek) throws ScheduleFormatException
+    private void parseWeekDay(int begin, int end) throws ScheduleFormatException
     {
-        processElement(DAY_OF_WEEK, scheduleDayOfWeek);
+        processElement(DAY_OF_WEEK, begin, end);
     }
 
-    private void processElement(ScheduleElements element, String range) throws ScheduleFormatException
+    private void processElement(ScheduleElements element, int begin, int end) throws ScheduleFormatException
     {
-        RangeList ranges = extractRanges(range);
+        RangeList ranges = extractRanges(begin, end);
         model.setModelFor(element, ranges);
     }
 
@@ -143,75 +208,143 @@ class Parser
     /**
      * Parse a list of values for a single date element: a,b/n,c-d,e-f/n,...
      *
-     * @param scheduleValues list of values for the date element
+     * @param begin the start of the list of values for the date element (inclusive)
+     * @param end the end of the list (exclusive)
      * @return a group of value ranges for a date element
      */
-    private RangeList extractRanges(String scheduleValues) throws ScheduleFormatException
+    private RangeList extractRanges(int begin, int end) throws ScheduleFormatException
     {
-        if ( !scheduleValues.contains(",") ) // simple range or single value
+        int count = 0; // count of non-empty items
+        boolean empty = true;
+        boolean list = false;
+
+        for (int i = begin; i < end; i++)
         {
-            return new RangeList(parseRange(scheduleValues));
+            if ( schedule.charAt(i) == ',' )
+            {
+                list = true;
+                empty = true;
+            }
+            else if ( empty )
+            {
+                count++;
+                empty = false;
+            }
+        }
+
+        if ( !list ) // simple range or single value
+        {
+            return new RangeList(parseRange(begin, end));
         }
         else // list of ranges/values
         {
-            StringTokenizer items = new StringTokenizer(scheduleValues, ",");
-            RangeList result = new RangeList(items.countTokens());
+            RangeList result = new RangeList(count);
+
+            int from = begin;
+            while ( from <= end )
+            {
+                int to = schedule.indexOf(',', from);
+                if ( to < 0 || to > end ) to = end;
 
-            while ( items.hasMoreTokens() )
-                result.add( parseRange( items.nextToken() ) );
+                if ( to > from ) result.add( parseRange(from, to) );
+
+                from = to + 1;
+            }
 
             return result;
         }
     }
 
 
-    private static final Pattern ASTERISK = Pattern.compile("\\*(/(\\d+))?");
-    private static final Pattern VALUE = Pattern.compile("\\d+");
-    private static final Pattern INTERVAL = Pattern.compile("(\\d+)\\-(\\d+)(/(\\d+))?");
-
     /**
      * Parses the schedule element (single range), values of the form: "*", "a", "a-b", "* /3", "a-b/3".
      *
-     * @param scheduleElement schedule element
+     * @param begin the start of the schedule element (inclusive)
+     * @param end the end of the schedule element (exclusive)
      * @return range of values
      */
-    private Range parseRange(String scheduleElement) throws ScheduleFormatException
+    private Range parseRange(int begin, int end) throws ScheduleFormatException
     {
-        try
+        if ( begin < end && schedule.charAt(begin) == '*' ) // '*' or '*/n'
         {
-            Matcher matcher;
+            if ( end == begin + 1 ) return Range.ASTERISK;
 
-            matcher = ASTERISK.matcher(scheduleElement);
-            if ( matcher.matches() )
+            if ( schedule.charAt(begin + 1) == '/' && skipDigits(begin + 2, end) == end && end > begin + 2 )
             {
-                int step = matcher.group(2) != null ? Integer.valueOf(matcher.group(2)) : 1;
+                int step = parseNumber(begin + 2, end, begin, end);
 
                 return step > 1 ?  new Range(step, true) : Range.ASTERISK;
             }
-
-            matcher = VALUE.matcher(scheduleElement);
-            if ( matcher.matches() )
+        }
+        else
+        {
+            int minEnd = skipDigits(begin, end);
+            if ( minEnd > begin )
             {
-                int v = Integer.valueOf(scheduleElement);
-
-                return new Range(v);
+                if ( minEnd == end ) // 'a'
+                    return new Range(parseNumber(begin, end, begin, end));
+
+                if ( schedule.charAt(minEnd) == '-' ) // 'a-b' or 'a-b/n'
+                {
+                    int maxEnd = skipDigits(minEnd + 1, end);
+                    int stepEnd = maxEnd;
+
+                    if ( maxEnd < end && schedule.charAt(maxEnd) == '/' )
+                    {
+                        stepEnd = skipDigits(maxEnd + 1, end);
+                        if ( stepEnd == maxEnd + 1 ) stepEnd = -1; // no digits after '/'
+                    }
+
+                    if ( maxEnd > minEnd + 1 && stepEnd == end )
+                    {
+                        int min = parseNumber(begin, minEnd, begin, end);
+                        int max = parseNumber(minEnd + 1, maxEnd, begin, end);
+                        int step = maxEnd < end ? parseNumber(maxEnd + 1, end, begin, end) : 1;
+
+                        return new Range(min, max, step);
+                    }
+                }
             }
+        }
 
-            matcher = INTERVAL.matcher(scheduleElement);
-            if ( matcher.matches() )
-            {
-                int min = Integer.valueOf(matcher.group(1));
-                int max = Integer.valueOf(matcher.group(2));
-                int step = matcher.group(4) != null ? Integer.valueOf(matcher.group(4)) : 1;
+        throw new ScheduleFormatException("Invalid format of the schedule element.", schedule.substring(begin, end));
+    }
 
-                return new Range(min, max, step);
-            }
-        }
-        catch (NumberFormatException e)
+    /**
+     * @return position of the first non-digit char (or the end)
+     */
+    private int skipDigits(int pos, int end)
+    {
+        while ( pos < end && isDigit(schedule.charAt(pos)) ) pos++;
+        return pos;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Converts the digits into the number.
+     *
+     * @param begin the start of digits (inclusive)
+     * @param end the end of digits (exclusive)
+     * @param elementBegin the start of the schedule element (for the error message)
+     * @param elementEnd the end of the schedule element (for the error message)
+     * @return the number
+     * @throws ScheduleFormatException if the number is too big
+     */
+    private int parseNumber(int begin, int end, int elementBegin, int elementEnd) throws ScheduleFormatException
+    {
+        long result = 0;
+        for (int i = begin; i < end; i++)
         {
-            throw new ScheduleFormatException("Invalid format of the schedule element (expected number).", scheduleElement);
-        }
+            result = result * 10 + (schedule.charAt(i) - '0');
 
-        throw new ScheduleFormatException("Invalid format of the schedule element.", scheduleElement);
+            if ( result > Integer.MAX_VALUE )
+                throw new ScheduleFormatException("Invalid format of the schedule element (expected number).",
+                        schedule.substring(elementBegin, elementEnd));
+        }
+        return (int) result;
     }
 }
@@ -0,0 +1,222 @@
+package com.habr.cron.opt;
+
+import java.time.LocalDate;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * The events of the periodic schedules: the schedules without the date, which events are the arithmetic progression
+ * in the epoch time (for example, "*:*:*&#47;5", "*:*&#47;15:00", "*:00:00", "*:*:*.*", "5:00:00").
+ * The schedule is periodic, if the major elements of time match all values, the next element is the progression
+ * through the whole range of the element (the step divides the range), and the minor elements are constants;
+ * so the period divides the day, and the days are aligned to the epoch.
+ * The next event is ceil((t - phase) / period) * period + phase, the events are counted by the division,
+ * and the generators add the period. The events are limited by the years of the schedule.
+ * Thread-Safe. Unmodifiable. It is selected by the schedule on creation (see {@link #of(DigitMatcher[])}).
+ *
+ * The engine is used by default; it is disabled by the system property: -Dcom.habr.cron.opt.periodic=false
+ */
+final class PeriodicEngine
+{
+    static final String PROPERTY = "com.habr.cron.opt.periodic";
+
+    /**
+     * true, if the periodic schedules use the engine
+     */
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(PROPERTY, "true"));
+
+    private static final long MILLIS_IN_DAY = 86400000L;
+    private static final String OUT_MESSAGE = "Out of schedule interval";
+
+    private static final ScheduleElements ELEMENTS[] = {HOURS, MINUTES, SECONDS, MILLIS};
+    private static final int SIZES[] = {24, 60, 60, 1000}; // the ranges of the elements of time
+    private static final int UNITS[] = {3600000, 60000, 1000, 1}; // milliseconds in the element
+
+    private final long period;
+    private final long phase; // the first event of the day
+    private final long first; // the start of the first year of the schedule
+    private final long last; // the end of the last year of the schedule
+
+
+    private PeriodicEngine(long period, long phase, int minYear, int maxYear)
+    {
+        this.period = period;
+        this.phase = phase;
+        first = LocalDate.of(minYear, 1, 1).toEpochDay() * MILLIS_IN_DAY;
+        last = LocalDate.of(maxYear, 12, 31).toEpochDay() * MILLIS_IN_DAY + MILLIS_IN_DAY - 1;
+    }
+
+    /**
+     * Classifies the schedule.
+     *
+     * @param matchers the matchers of the schedule without the date, indexed by the ordinals of {@link ScheduleElements}
+     * @return the engine, or null, if the schedule is not periodic
+     */
+    static PeriodicEngine of(DigitMatcher matchers[])
+    {
+        long period = 0; // zero, while the elements match all values
+        long phase = 0;
+
+        for (int i = 0; i < ELEMENTS.length; i++)
+        {
+            // the values, which the digits visit (null, if the matcher disagrees with them)
+            int values[] = MatcherPool.valuesOf(matchers[ELEMENTS[i].ordinal()], SIZES[i] - 1);
+            if ( values == null ) return null;
+
+            if ( period == 0 )
+            {
+                int step = stepOf(values, SIZES[i]);
+                if ( step < 0 ) return null;
+                if ( step == 1 ) continue; // all values
+
+                period = (long) step * UNITS[i];
+                phase = (long) values[0] * UNITS[i];
+            }
+            else
+            {
+                if ( values.length != 1 ) return null;
+                phase += (long) values[0] * UNITS[i];
+            }
+        }
+
+        DigitMatcher years = matchers[YEAR.ordinal()];
+        return new PeriodicEngine(period == 0 ? 1 : period, phase, years.getLow(), years.getHigh());
+    }
+
+    /**
+     * @return the step of the progression of the values through the whole range, or -1, if the values are not such
+     * progression (the constant is the progression with the step of the range)
+     */
+    private static int stepOf(int values[], int size)
+    {
+        int count = values.length;
+        if ( size % count != 0 ) return -1;
+
+        int step = size / count;
+        if ( values[0] >= step ) return -1;
+
+        for (int i = 1; i < count; i++)
+            if ( values[i] != values[0] + i * step ) return -1;
+
+        return step;
+    }
+
+    long getPeriod()
+    {
+        return period;
+    }
+
+    long getPhase()
+    {
+        return phase;
+    }
+
+
+
+
+    /**
+     * The digits don't check the year of the start of the search for the schedules without the date,
+     * so the searches from the times out of the years of the schedule are left to the digits.
+     *
+     * @param time the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @return true, if the time is in the years of the schedule
+     */
+    boolean covers(long time)
+    {
+        return first <= time && time <= last;
+    }
+
+    /**
+     * Finds the event of the schedule.
+     *
+     * @param time the start time of the search in the years of the schedule (see {@link #covers(long)})
+     * @param forward the direction of the search
+     * @param canEqual the start time can be the result
+     * @return milliseconds of the event
+     * @throws IllegalStateException if the event is out of the years of the schedule
+     */
+    long find(long time, boolean forward, boolean canEqual)
+    {
+        if ( !canEqual ) time += forward ? 1 : -1;
+        return check(forward ? ceil(time) : floor(time));
+    }
+
+    /**
+     * @param from the start of the interval (inclusive), milliseconds since January 1, 1970 (UTC)
+     * @param to the end of the interval (exclusive)
+     * @return count of the events of the interval in the years of the schedule
+     */
+    long count(long from, long to)
+    {
+        long start = Math.max(from, first);
+        long end = Math.min(to, last + 1);
+        if ( start >= end ) return 0;
+
+        return Math.floorDiv(end - 1 - phase, period) - Math.floorDiv(start - 1 - phase, period);
+    }
+
+    /**
+     * @param time the time (milliseconds since January 1, 1970 UTC)
+     * @param n the number of the event after the time (1 - the next event)
+     * @return the n-th event after the time in the years of the schedule
+     * @throws IllegalStateException if there are less than n events after the time
+     */
+    long nth(long time, long n)
+    {
+        if ( time >= last ) throw new IllegalStateException(OUT_MESSAGE);
+
+        long event = ceil(Math.max(time + 1, first));
+        if ( event > last || n - 1 > (last - event) / period ) throw new IllegalStateException(OUT_MESSAGE);
+
+        return event + (n - 1) * period;
+    }
+
+    /**
+     * @param time the start of the generator in the years of the schedule (see {@link #covers(long)})
+     * @param forward the direction of the generator
+     * @return the first event of the generator (after or before the time),
+     * or the time out of the years of the schedule (see {@link #isOut(long)})
+     */
+    long start(long time, boolean forward)
+    {
+        return forward ? ceil(time + 1) : floor(time - 1);
+    }
+
+    /**
+     * @param event the event
+     * @param forward the direction of the generator
+     * @return the following event, or the time out of the years of the schedule (see {@link #isOut(long)})
+     */
+    long following(long event, boolean forward)
+    {
+        return forward ? event + period : event - period;
+    }
+
+    /**
+     * @return true, if the time is out of the years of the schedule
+     */
+    boolean isOut(long time)
+    {
+        return time < first || time > last;
+    }
+
+
+
+
+    private long ceil(long time)
+    {
+        long r = Math.floorMod(time - phase, period);
+        return r == 0 ? time : time - r + period;
+    }
+
+    private long floor(long time)
+    {
+        return time - Math.floorMod(time - phase, period);
+    }
+
+    private long check(long event)
+    {
+        if ( isOut(event) ) throw new IllegalStateException(OUT_MESSAGE);
+        return event;
+    }
+}
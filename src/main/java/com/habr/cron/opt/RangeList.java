@@ -137,6 +137,20 @@ final class RangeList implements Iterable<Range>
         return max;
     }
 
+    /**
+     * Replaces the asterisk ranges of the list ('* /n') by the intervals with the same step
+     * between the bounds of the element, so the list has concrete minimum and maximum.
+     *
+     * @param min the minimum value of the element
+     * @param max the maximum value of the element
+     */
+    public void expandAsterisks(int min, int max)
+    {
+        for (int i = 0; i < count; i++)
+            if ( list[i].isAsterisk() )
+                list[i] = new Range(min, max, list[i].step);
+    }
+
     /**
      * Shifts all values in range by `shift`.
      *
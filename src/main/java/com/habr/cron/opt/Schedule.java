@@ -3,10 +3,29 @@ package com.habr.cron.opt;
 import com.habr.cron.Cron;
 import com.habr.cron.CronBase;
 import com.habr.cron.ScheduleEventsGenerator;
-
+import com.habr.cron.opt.ScheduleMetrics.FastPath;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
+import static com.habr.cron.opt.ScheduleElements.*;
 
 /**
  * Optimized version of CronEx.
@@ -14,6 +33,69 @@ import java.util.TimeZone;
  */
 public class Schedule implements Cron
 {
+    /**
+     * What to do with the events, which fall into a gap of the local time
+     * (the clocks are moved forward, for example, 02:00 -> 03:00 at the start of DST).
+     */
+    public enum GapPolicy
+    {
+        /**
+         * The events of the gap do not occur.
+         */
+        SKIP,
+        /**
+         * The events of the gap occur once at the moment of the transition (the first valid time after the gap).
+         */
+        SHIFT
+    }
+
+    /**
+     * Which of two instants is used for the events, which fall into an overlap of the local time
+     * (the clocks are moved back, for example, 03:00 -> 02:00 at the end of DST). The events occur once anyway.
+     */
+    public enum OverlapPolicy
+    {
+        /**
+         * The first pass of the repeated local time (with the offset before the transition).
+         */
+        EARLIER,
+        /**
+         * The second pass of the repeated local time (with the offset after the transition).
+         */
+        LATER
+    }
+
+    /**
+     * The smallest element of the schedule. The parts of millisecond follow the milliseconds after the dot:
+     * '12:00:00.000.500' (microseconds) and '12:00:00.000.000.250' (nanoseconds); the skipped parts are zero.
+     * The events of finer precision are found by the methods with Instant and nanoseconds;
+     * the methods with Date and milliseconds return them truncated to milliseconds.
+     */
+    public enum Precision
+    {
+        /**
+         * Default. The parts of millisecond in the schedule are ignored.
+         */
+        MILLIS(0, 1000000),
+        MICROS(1, 1000),
+        NANOS(2, 1);
+
+        /**
+         * count of the parts of millisecond in the schedule
+         */
+        final int digits;
+        /**
+         * nanoseconds in the smallest element
+         */
+        final int unit;
+
+        Precision(int digits, int unit)
+        {
+            this.digits = digits;
+            this.unit = unit;
+        }
+    }
+
     private enum Direction { FORWARD, BACKWARD }
     private enum Equality { OR_EQUAL, NO_EQUAL }
 
@@ -37,104 +119,1146 @@ public class Schedule implements Cron
         }
     }
 
+    // search modes are immutable, so we share them to avoid allocations
+    private static final SearchMode NEAREST = new SearchMode(Direction.FORWARD, Equality.OR_EQUAL);
+    private static final SearchMode NEAREST_PREV = new SearchMode(Direction.BACKWARD, Equality.OR_EQUAL);
+    private static final SearchMode NEXT = new SearchMode(Direction.FORWARD, Equality.NO_EQUAL);
+    private static final SearchMode PREV = new SearchMode(Direction.BACKWARD, Equality.NO_EQUAL);
+
+    /**
+     * Mutable state of a search: the calendar and its digits.
+     * Not thread safe; each thread owns its own instance (see CONTEXT), and each searcher too (see {@link ScheduleSearcher}).
+     */
+    static final class SearchContext
+    {
+        final GregCalendar calendar = new GregCalendar();
+        final CalendarDigits digits = new CalendarDigits(calendar);
+    }
+
+    /**
+     * Thread-confined search state. Shared between all schedules, because the digits are rebound
+     * to the schedule's matchers on each search.
+     */
+    private static final ThreadLocal<SearchContext> CONTEXT = new ThreadLocal<SearchContext>()
+    {
+        @Override
+        protected SearchContext initialValue()
+        {
+            return new SearchContext();
+        }
+    };
+
 
 
     /**
      * Creates an empty instance that will match
      * the schedule as "*.*.* * *:*:*.*" (every 1 ms).
      */
-    public Schedule() throws ScheduleFormatException
+    public Schedule() throws ScheduleFormatException
+    {
+        this("*.*.* * *:*:*.*");
+    }
+
+    /**
+     * Creates instance for specified schedule defined by string.
+     *
+     * @param schedule see format in {@link CronBase}
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule) throws ScheduleFormatException
+    {
+        this(schedule, null, GapPolicy.SHIFT, OverlapPolicy.EARLIER, YEAR.min, YEAR.max);
+    }
+
+    /**
+     * Creates instance for specified schedule with the range of years, other than default 2000..2100.
+     * The wider range does not slow down the search of events in years 1970..2100.
+     *
+     * @param schedule see format in {@link CronBase}
+     * @param minYear the minimal year of the schedule (1 at least)
+     * @param maxYear the maximal year of the schedule (9999 at most)
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, int minYear, int maxYear) throws ScheduleFormatException
+    {
+        this(schedule, null, GapPolicy.SHIFT, OverlapPolicy.EARLIER, minYear, maxYear);
+    }
+
+    /**
+     * Creates instance for specified schedule with the parts of millisecond.
+     * For example, "*:*:*.*.0,500" with Precision.MICROS means every half of millisecond.
+     *
+     * @param schedule see format in {@link CronBase} and {@link Precision}
+     * @param precision the smallest element of the schedule
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, Precision precision) throws ScheduleFormatException
+    {
+        this(schedule, null, GapPolicy.SHIFT, OverlapPolicy.EARLIER, YEAR.min, YEAR.max, precision);
+    }
+
+    /**
+     * Creates instance for specified schedule in the local time of the time zone.
+     * The events of the gaps are shifted to the moment of the transition,
+     * the events of the overlaps occur with the earlier offset (like java.time does).
+     *
+     * @param schedule see format in {@link CronBase}
+     * @param zone the time zone of the schedule
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, ZoneId zone) throws ScheduleFormatException
+    {
+        this(schedule, zone, GapPolicy.SHIFT, OverlapPolicy.EARLIER);
+    }
+
+    /**
+     * Creates instance for specified schedule in the local time of the time zone.
+     * The offset transitions of the zone are precomputed for the years of the schedule,
+     * so the search keeps the fast arithmetic of the UTC schedule.
+     *
+     * @param schedule see format in {@link CronBase}
+     * @param zone the time zone of the schedule
+     * @param gapPolicy what to do with the events in the gaps of the local time
+     * @param overlapPolicy which instant to use for the events in the overlaps of the local time
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, ZoneId zone, GapPolicy gapPolicy, OverlapPolicy overlapPolicy)
+            throws ScheduleFormatException
+    {
+        this(schedule, zone, gapPolicy, overlapPolicy, YEAR.min, YEAR.max);
+    }
+
+    /**
+     * Creates instance for specified schedule in the local time of the time zone with the range of years.
+     *
+     * @param schedule see format in {@link CronBase}
+     * @param zone the time zone of the schedule, or null for UTC
+     * @param gapPolicy what to do with the events in the gaps of the local time
+     * @param overlapPolicy which instant to use for the events in the overlaps of the local time
+     * @param minYear the minimal year of the schedule (1 at least)
+     * @param maxYear the maximal year of the schedule (9999 at most)
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, ZoneId zone, GapPolicy gapPolicy, OverlapPolicy overlapPolicy,
+                    int minYear, int maxYear) throws ScheduleFormatException
+    {
+        this(schedule, zone, gapPolicy, overlapPolicy, minYear, maxYear, Precision.MILLIS);
+    }
+
+    /**
+     * Creates instance with all options.
+     *
+     * @param schedule see format in {@link CronBase} and {@link Precision}
+     * @param zone the time zone of the schedule, or null for UTC
+     * @param gapPolicy what to do with the events in the gaps of the local time
+     * @param overlapPolicy which instant to use for the events in the overlaps of the local time
+     * @param minYear the minimal year of the schedule (1 at least)
+     * @param maxYear the maximal year of the schedule (9999 at most)
+     * @param precision the smallest element of the schedule
+     * @throws ScheduleFormatException
+     */
+    public Schedule(String schedule, ZoneId zone, GapPolicy gapPolicy, OverlapPolicy overlapPolicy,
+                    int minYear, int maxYear, Precision precision) throws ScheduleFormatException
+    {
+        if ( gapPolicy == null || overlapPolicy == null || precision == null )
+            throw new IllegalArgumentException("The policies and the precision are required.");
+        if ( minYear < MIN_YEAR || maxYear > MAX_YEAR || minYear > maxYear )
+            throw new IllegalArgumentException("The range of years must be within " + MIN_YEAR + ".." + MAX_YEAR + ".");
+
+        this.schedule = schedule;
+
+        Parser parser = new Parser();
+        parser.parse(schedule, minYear, maxYear, precision);
+
+        ScheduleModel model = parser.getScheduleModel();
+        pool = new MatcherPool(model);
+
+        this.zone = zone != null ? ZoneTransitions.of(zone, minYear, maxYear) : null;
+        this.gapPolicy = gapPolicy;
+        this.overlapPolicy = overlapPolicy;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+        this.precision = precision;
+        periodic = PeriodicEngine.ENABLED && hasNoDate() ? pool.getPeriodicEngine() : null;
+        timeOnly = TimeOfDayIndex.ENABLED && hasNoDate() && periodic == null;
+        if ( ScheduleCompiler.ENABLED ) compiled = ScheduleCompiler.compile(pool, ScheduleCompiler.BUDGET);
+    }
+
+    /**
+     * Restores the compiled schedule (see {@link #readFrom(DataInput)}).
+     */
+    private Schedule(String schedule, MatcherPool pool, ZoneId zone, GapPolicy gapPolicy, OverlapPolicy overlapPolicy,
+                     int minYear, int maxYear)
+    {
+        this.schedule = schedule;
+        this.pool = pool;
+        this.zone = zone != null ? ZoneTransitions.of(zone, minYear, maxYear) : null;
+        this.gapPolicy = gapPolicy;
+        this.overlapPolicy = overlapPolicy;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+        this.precision = pool.getPrecision();
+        periodic = PeriodicEngine.ENABLED && hasNoDate() ? pool.getPeriodicEngine() : null;
+        timeOnly = TimeOfDayIndex.ENABLED && hasNoDate() && periodic == null;
+        if ( ScheduleCompiler.ENABLED ) compiled = ScheduleCompiler.compile(pool, ScheduleCompiler.BUDGET);
+    }
+
+    /**
+     * Returns the shared compiled instance of the schedule from the default cache.
+     * The schedule is parsed only once, while it is kept in the cache.
+     *
+     * @param schedule see format in {@link CronBase}
+     * @return shared instance of schedule
+     * @throws ScheduleFormatException
+     * @see ScheduleCache#getDefault()
+     */
+    public static Schedule compile(String schedule) throws ScheduleFormatException
+    {
+        return ScheduleCache.getDefault().get(schedule);
+    }
+
+    /**
+     * @return the time zone of the schedule, or null for the UTC schedule
+     */
+    public ZoneId getZone()
+    {
+        return zone != null ? zone.getZone() : null;
+    }
+
+    public int getMinYear()
+    {
+        return minYear;
+    }
+
+    public int getMaxYear()
+    {
+        return maxYear;
+    }
+
+    public Precision getPrecision()
+    {
+        return precision;
+    }
+
+    public GapPolicy getGapPolicy()
+    {
+        return gapPolicy;
+    }
+
+    public OverlapPolicy getOverlapPolicy()
+    {
+        return overlapPolicy;
+    }
+
+    public Date NearestEvent(Date d) {
+        return new Date(nearestEventMillis(d.getTime()));
+    }
+
+    public Date NearestPrevEvent(Date d) {
+        return new Date(nearestPrevEventMillis(d.getTime()));
+    }
+
+    public Date NextEvent(Date d) {
+        return new Date(nextEventMillis(d.getTime()));
+    }
+
+    public Date PrevEvent(Date d) {
+        return new Date(prevEventMillis(d.getTime()));
+    }
+
+
+
+    /**
+     * The same as {@link #NearestEvent(Date)}, but works with milliseconds since January 1, 1970 (UTC).
+     * Does not allocate memory.
+     *
+     * @param millis the time to start search from
+     * @return the nearest event time (can be equal to the source time)
+     */
+    public long nearestEventMillis(long millis) {
+        return search(millis, NEAREST);
+    }
+
+    /**
+     * The same as {@link #NearestPrevEvent(Date)}, but works with milliseconds since January 1, 1970 (UTC).
+     * Does not allocate memory.
+     *
+     * @param millis the time to start search from
+     * @return the nearest previous event time (can be equal to the source time)
+     */
+    public long nearestPrevEventMillis(long millis) {
+        return search(millis, NEAREST_PREV);
+    }
+
+    /**
+     * The same as {@link #NextEvent(Date)}, but works with milliseconds since January 1, 1970 (UTC).
+     * Does not allocate memory.
+     *
+     * @param millis the time to start search from
+     * @return the next event time
+     */
+    public long nextEventMillis(long millis) {
+        return search(millis, NEXT);
+    }
+
+    /**
+     * The same as {@link #PrevEvent(Date)}, but works with milliseconds since January 1, 1970 (UTC).
+     * Does not allocate memory.
+     *
+     * @param millis the time to start search from
+     * @return the previous event time
+     */
+    public long prevEventMillis(long millis) {
+        return search(millis, PREV);
+    }
+
+
+
+    /**
+     * The same as {@link #NearestEvent(Date)}, but works with nanoseconds since January 1, 1970 (UTC)
+     * and finds the events with the precision of the schedule. Does not allocate memory.
+     *
+     * @param nanos the time to start search from (years 1678..2261)
+     * @return the nearest event time (can be equal to the source time)
+     * @throws ArithmeticException if the event is out of the range of nanoseconds
+     */
+    public long nearestEventNanos(long nanos) {
+        return searchNanos(nanos, NEAREST);
+    }
+
+    /**
+     * The same as {@link #NearestPrevEvent(Date)}, but works with nanoseconds since January 1, 1970 (UTC).
+     *
+     * @param nanos the time to start search from (years 1678..2261)
+     * @return the nearest previous event time (can be equal to the source time)
+     * @throws ArithmeticException if the event is out of the range of nanoseconds
+     */
+    public long nearestPrevEventNanos(long nanos) {
+        return searchNanos(nanos, NEAREST_PREV);
+    }
+
+    /**
+     * The same as {@link #NextEvent(Date)}, but works with nanoseconds since January 1, 1970 (UTC).
+     *
+     * @param nanos the time to start search from (years 1678..2261)
+     * @return the next event time
+     * @throws ArithmeticException if the event is out of the range of nanoseconds
+     */
+    public long nextEventNanos(long nanos) {
+        return searchNanos(nanos, NEXT);
+    }
+
+    /**
+     * The same as {@link #PrevEvent(Date)}, but works with nanoseconds since January 1, 1970 (UTC).
+     *
+     * @param nanos the time to start search from (years 1678..2261)
+     * @return the previous event time
+     * @throws ArithmeticException if the event is out of the range of nanoseconds
+     */
+    public long prevEventNanos(long nanos) {
+        return searchNanos(nanos, PREV);
+    }
+
+    /**
+     * The same as {@link #NearestEvent(Date)}, but finds the events with the precision of the schedule.
+     *
+     * @param time the time to start search from
+     * @return the nearest event time (can be equal to the source time)
+     */
+    public Instant nearestEvent(Instant time) {
+        return searchInstant(time, NEAREST);
+    }
+
+    /**
+     * The same as {@link #NearestPrevEvent(Date)}, but finds the events with the precision of the schedule.
+     *
+     * @param time the time to start search from
+     * @return the nearest previous event time (can be equal to the source time)
+     */
+    public Instant nearestPrevEvent(Instant time) {
+        return searchInstant(time, NEAREST_PREV);
+    }
+
+    /**
+     * The same as {@link #NextEvent(Date)}, but finds the events with the precision of the schedule.
+     *
+     * @param time the time to start search from
+     * @return the next event time
+     */
+    public Instant nextEvent(Instant time) {
+        return searchInstant(time, NEXT);
+    }
+
+    /**
+     * The same as {@link #PrevEvent(Date)}, but finds the events with the precision of the schedule.
+     *
+     * @param time the time to start search from
+     * @return the previous event time
+     */
+    public Instant prevEvent(Instant time) {
+        return searchInstant(time, PREV);
+    }
+
+
+
+    /**
+     * Counts the events in the interval without enumeration of them.
+     * The events are counted combinatorially by the matchers of the schedule (see {@link EventCounter}),
+     * so the time does not depend on the length of the interval and the density of events.
+     * The UTC schedule takes two lookups; the zoned schedule takes two lookups for each offset of the interval.
+     * The periodic schedules (see {@link PeriodicEngine}) take one division.
+     * The events of the schedules with precision finer than milliseconds are counted all.
+     *
+     * @param from the start of the interval (inclusive), milliseconds since January 1, 1970 (UTC)
+     * @param to the end of the interval (exclusive), milliseconds since January 1, 1970 (UTC)
+     * @return count of events
+     * @throws ArithmeticException if the count is too big (the finest schedules over thousands of years)
+     */
+    public long countEvents(long from, long to)
+    {
+        if ( from > to )
+            throw new IllegalArgumentException("The start of the interval is after its end.");
+
+        if ( periodic != null ) return periodic.count(from, to);
+
+        EventCounter counter = getCounter();
+        GregCalendar calendar = CONTEXT.get().calendar;
+
+        if ( zone == null )
+            return counter.count(to, false, calendar) - counter.count(from, false, calendar);
+
+        int offsets[] = zone.offsets;
+        long starts[] = zone.getStarts(overlapPolicy);
+        long ends[] = zone.getEnds(overlapPolicy);
+
+        long result = 0;
+        int last = from < to ? zone.segmentOf(to - 1) : -1;
+        for (int j = zone.segmentOf(from); j <= last; j++)
+        {
+            long start = Math.max(from + offsets[j], starts[j]);
+            long end = Math.min(to + offsets[j], ends[j]);
+
+            if ( start < end )
+                result += counter.count(end, false, calendar) - counter.count(start, false, calendar);
+        }
+
+        // the transitions of the interval, which get the events of the gaps
+        for (int j = zone.segmentOf(from - 1); j < last; j++)
+            if ( isShiftedEvent(counter, j, calendar) ) result++;
+
+        return result;
+    }
+
+    /**
+     * Finds the n-th event after the time without enumeration of the events before it
+     * (nthEvent(millis, 1) is the same as {@link #nextEventMillis(long)}).
+     * The UTC schedule takes two lookups; the zoned schedule takes two lookups for each offset till the event.
+     * The periodic schedules (see {@link PeriodicEngine}) take one multiplication.
+     * The events of the schedules with precision finer than milliseconds are truncated to milliseconds,
+     * so the same time can be returned for several numbers.
+     *
+     * @param millis the time to start search from, milliseconds since January 1, 1970 (UTC)
+     * @param n the number of the event (1 - the next event)
+     * @return the event time, milliseconds since January 1, 1970 (UTC)
+     * @throws IllegalStateException if there are less than n events after the time
+     * @throws ArithmeticException if the count of events is too big (the finest schedules over thousands of years)
+     */
+    public long nthEvent(long millis, long n)
+    {
+        if ( n < 1 )
+            throw new IllegalArgumentException("The number of the event must be positive.");
+
+        if ( periodic != null ) return periodic.nth(millis, n);
+
+        EventCounter counter = getCounter();
+        GregCalendar calendar = CONTEXT.get().calendar;
+
+        if ( zone == null )
+        {
+            counter.select(counter.count(millis, true, calendar) + n - 1, calendar);
+            return calendar.asMillis();
+        }
+
+        long transitions[] = zone.transitions;
+        int offsets[] = zone.offsets;
+        long starts[] = zone.getStarts(overlapPolicy);
+        long ends[] = zone.getEnds(overlapPolicy);
+
+        for (int j = zone.segmentOf(millis); ; j++)
+        {
+            long local = millis + offsets[j];
+            long before = local < starts[j] ? counter.count(starts[j], false, calendar) : counter.count(local, true, calendar);
+            long count = Math.max(counter.count(ends[j], false, calendar) - before, 0);
+
+            if ( n <= count )
+            {
+                counter.select(before + n - 1, calendar);
+                return calendar.asMillis() - offsets[j];
+            }
+            n -= count;
+
+            if ( j == transitions.length )
+                throw new IllegalStateException("Out of schedule interval");
+
+            if ( transitions[j] > millis && isShiftedEvent(counter, j, calendar) && --n == 0 )
+                return transitions[j];
+        }
+    }
+
+
+
+
+    /**
+     * Returns the events of the interval as the stream in ascending order.
+     * The stream can be parallel: the interval is split by the counts of events at the bounds of months, days
+     * and so on, and each part is searched by its own generator (see {@link EventsSpliterator}).
+     * The events of the schedules with precision finer than milliseconds are truncated to milliseconds,
+     * so the same time can be returned several times.
+     *
+     * @param from the start of the interval (inclusive), milliseconds since January 1, 1970 (UTC)
+     * @param to the end of the interval (exclusive), milliseconds since January 1, 1970 (UTC)
+     * @return the stream of events, milliseconds since January 1, 1970 (UTC)
+     */
+    public LongStream events(long from, long to)
+    {
+        if ( from > to )
+            throw new IllegalArgumentException("The start of the interval is after its end.");
+
+        return StreamSupport.longStream(new EventsSpliterator(this, from, to), false);
+    }
+
+
+
+    /**
+     * Create instance for quick serial generation events.
+     * Generator does not consume memory. Works faster. No memory leaks.
+     * Generator non thread safe and mutable. Don't cache generator.
+     * The events of the schedules with precision finer than milliseconds are truncated to milliseconds,
+     * so the same date can be returned several times.
+     *
+     * @param start date to start serial
+     * @param forward direction mode; true - is forward, false - is backward.
+     * @return generator instance. Not thread safe.
+     * The outside process must work with generator with synchronized instruction.
+     * @see #getSharedEventsGenerator(Date, boolean)
+     */
+    public ScheduleEventsGenerator getEventsGenerator(Date start, boolean forward)
+    {
+        if ( periodic != null && periodic.covers(start.getTime()) ) return new PeriodicGenerator(start, forward);
+
+        SearchMode mode = forward ? NEXT : PREV;
+        return zone == null ? new EventsGenerator(start, mode) : new ZonedEventsGenerator(start, mode);
+    }
+
+    /**
+     * Create instance of generator, which can be shared by many threads without synchronization.
+     * Each event is claimed atomically, so it is returned only once, to one of the threads.
+     * The thread searches the next event from the last claimed one (by the thread-local search)
+     * and claims it by CAS; if another thread has claimed an event first, the search is repeated.
+     * fill() claims the whole batch by one CAS, so it is preferred under high contention.
+     * The events are claimed by milliseconds; the events of the schedules with precision finer
+     * than milliseconds are returned once for each millisecond.
+     *
+     * @param start date to start serial
+     * @param forward direction mode; true - is forward, false - is backward.
+     * @return generator instance. Thread safe.
+     */
+    public ScheduleEventsGenerator getSharedEventsGenerator(Date start, boolean forward)
+    {
+        return new SharedEventsGenerator(start, forward ? NEXT : PREV);
+    }
+
+    /**
+     * Create reusable searcher of events, which owns its calendar and digits.
+     * It is re-seeded by a new time and direction without allocations, so it is preferred
+     * for event loops and schedulers, which search the events of the schedule many times.
+     * The searcher starts from the current time forward.
+     *
+     * @return searcher instance. Not thread safe; keep one per thread.
+     */
+    public ScheduleSearcher newSearcher()
+    {
+        return new ScheduleSearcher(this);
+    }
+
+
+
+    /**
+     * Writes the compiled schedule in the binary form: the options and the matchers with their maps and lists.
+     * The schedule is restored by {@link #readFrom(DataInput)} without parsing and building of the matchers.
+     *
+     * The format (the numbers are big-endian, as DataOutput writes them):
+     *  byte    version of the format (1)
+     *  UTF     the schedule string
+     *  int     minimal year, int maximal year
+     *  byte    gap policy, byte overlap policy (ordinals)
+     *  UTF     the time zone id (empty for UTC)
+     *  8 x     the matchers of the elements without the day of week: byte type and its data
+     *  4 bytes the maps of days: week, month, normal year, leap year
+     *  boolean any date, boolean any week day, byte precision (ordinal)
+     *
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(schedule);
+        out.writeInt(minYear);
+        out.writeInt(maxYear);
+        out.writeByte(gapPolicy.ordinal());
+        out.writeByte(overlapPolicy.ordinal());
+        out.writeUTF(zone != null ? zone.getZone().getId() : "");
+        pool.writeTo(out);
+    }
+
+    /**
+     * Restores the schedule, written by {@link #writeTo(DataOutput)}.
+     * Only the offset transitions of the time zone are computed again (for the zoned schedules).
+     *
+     * @param in the input
+     * @return new instance of the schedule
+     * @throws IOException if the input fails, or the data is corrupted or has other version of the format
+     */
+    public static Schedule readFrom(DataInput in) throws IOException
+    {
+        int version = in.readByte();
+        if ( version != FORMAT_VERSION )
+            throw new IOException("Unsupported version of the format: " + version);
+
+        String schedule = in.readUTF();
+        int minYear = in.readInt();
+        int maxYear = in.readInt();
+        if ( minYear < MIN_YEAR || maxYear > MAX_YEAR || minYear > maxYear )
+            throw new IOException("Wrong range of years: " + minYear + ".." + maxYear);
+
+        GapPolicy gapPolicy = readEnum(in, GapPolicy.values());
+        OverlapPolicy overlapPolicy = readEnum(in, OverlapPolicy.values());
+
+        String zoneId = in.readUTF();
+        ZoneId zone;
+        try {
+            zone = zoneId.isEmpty() ? null : ZoneId.of(zoneId);
+        }
+        catch (DateTimeException e)
+        {
+            throw new IOException("Unknown time zone: " + zoneId, e);
+        }
+
+        return new Schedule(schedule, MatcherPool.readFrom(in), zone, gapPolicy, overlapPolicy, minYear, maxYear);
+    }
+
+    /**
+     * Writes the schedules into the stream of the bulk format: the header (the magic number "CRON" and the count)
+     * and the schedules one by one (see {@link #writeTo(DataOutput)}).
+     * The stream is flushed, but it is not closed.
+     *
+     * @param schedules the schedules to write
+     * @param out the output stream, for example, of a file
+     * @throws IOException if the output fails
+     */
+    public static void writeAll(Collection<Schedule> schedules, OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(FILE_MAGIC);
+        data.writeInt(schedules.size());
+        for (Schedule schedule : schedules)
+            schedule.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * Reads the schedules, written by {@link #writeAll(Collection, OutputStream)}.
+     * This is a sequential read of the stream without parsing. The stream is not closed.
+     *
+     * @param in the input stream, for example, of a file
+     * @return the schedules in the order of writing
+     * @throws IOException if the input fails, or the data is corrupted
+     */
+    public static List<Schedule> readAll(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(new BufferedInput(in));
+        if ( data.readInt() != FILE_MAGIC )
+            throw new IOException("It is not a file of schedules.");
+
+        int count = data.readInt();
+        if ( count < 0 ) throw new IOException("Wrong count of schedules: " + count);
+
+        List<Schedule> result = new ArrayList<Schedule>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; i++)
+            result.add(readFrom(data));
+        return result;
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInput in, E values[]) throws IOException
+    {
+        int ordinal = in.readByte();
+        if ( ordinal < 0 || ordinal >= values.length )
+            throw new IOException("Unknown " + values[0].getDeclaringClass().getSimpleName() + ": " + ordinal);
+        return values[ordinal];
+    }
+
+    /**
+     * Buffered input without the locks of BufferedInputStream: DataInputStream reads the numbers byte by byte,
+     * and the locks take the most of the time of reading.
+     * Not thread safe.
+     */
+    private static final class BufferedInput extends InputStream
+    {
+        private final InputStream in;
+        private final byte buffer[] = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        BufferedInput(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if ( position == limit && !fill() ) return -1;
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            if ( len == 0 ) return 0;
+            if ( position == limit && !fill() ) return -1;
+
+            int count = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean fill() throws IOException
+        {
+            int count = in.read(buffer, 0, buffer.length);
+            if ( count <= 0 ) return false;
+
+            position = 0;
+            limit = count;
+            return true;
+        }
+    }
+
+
+
+
+
+
+
+    private final MatcherPool pool; // pool of schedule's matchers
+    private final ZoneTransitions zone; // null for UTC schedule
+    private final GapPolicy gapPolicy;
+    private final OverlapPolicy overlapPolicy;
+    private final int minYear; // the range of years
+    private final int maxYear;
+    private final Precision precision;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC"); // default work timezone
+    private static final long NANOS_IN_MILLI = 1000000L;
+    private static final int LAST_FRACTION = 999999; // the last nanosecond of the millisecond
+    private static final int FORMAT_VERSION = 1; // of the binary form (see writeTo())
+    private static final int FILE_MAGIC = 0x43524F4E; // "CRON", the header of the bulk format (see writeAll())
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private volatile EventCounter counter; // it is created on the first query
+    private volatile CompiledSearch compiled; // null, if the schedule is not compiled (see ScheduleCompiler)
+    private final PeriodicEngine periodic; // null, if the events are not the progression (see PeriodicEngine)
+    private final boolean timeOnly; // the searches use the index of the times of day, if it can be built
+    private volatile TimeOfDayIndex timeIndex; // it is built on the first search; NONE, if it can't be built
+
+    /**
+     * @return the matchers of the schedule
+     */
+    MatcherPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * @return true, if the search of the schedule is compiled (see {@link ScheduleCompiler})
+     */
+    boolean isCompiled()
+    {
+        return compiled != null;
+    }
+
+    /**
+     * @param search the compiled search of the schedule, or null
+     * @return true, if the search is set
+     */
+    boolean setCompiled(CompiledSearch search)
+    {
+        compiled = search;
+        return search != null;
+    }
+
+    /**
+     * @return true, if the UTC schedule of milliseconds has no date (see {@link TimeOfDayIndex}, {@link PeriodicEngine})
+     */
+    private boolean hasNoDate()
+    {
+        return zone == null && precision == Precision.MILLIS && pool.isAnyDate() && pool.isAnyWeekDay();
+    }
+
+    /**
+     * @return the index of the times of day, or {@link TimeOfDayIndex#NONE}, if the schedule can't be indexed
+     */
+    private TimeOfDayIndex getTimeIndex()
+    {
+        TimeOfDayIndex result = timeIndex;
+        if ( result == null )
+        {
+            result = TimeOfDayIndex.of(pool.getMatcherPool());
+            if ( result == null ) result = TimeOfDayIndex.NONE; // it covers no time; the digits search
+
+            timeIndex = result; // a concurrent thread can build another one
+        }
+
+        return result;
+    }
+
+    private EventCounter getCounter()
+    {
+        EventCounter result = counter;
+        if ( result == null )
+            counter = result = new EventCounter(pool, minYear, maxYear); // a concurrent thread can make another one
+
+        return result;
+    }
+
+    /**
+     * Checks whether the gap after the window has the events, which are shifted to the transition
+     * (see findZonedEvent()). Such event is merged with the event at the start of the next window.
+     *
+     * @param j index of the window (and the transition after it)
+     */
+    private boolean isShiftedEvent(EventCounter counter, int j, GregCalendar calendar)
+    {
+        if ( gapPolicy != GapPolicy.SHIFT || j < 0 || j >= zone.size() ) return false;
+
+        long end = zone.getEnds(overlapPolicy)[j];
+        long start = zone.getStarts(overlapPolicy)[j + 1];
+
+        return start > end
+                && counter.count(start, false, calendar) > counter.count(end, false, calendar)
+                && !counter.isEvent(start, calendar);
+    }
+
+    private long search(long millis, SearchMode mode)
+    {
+        return search(null, millis, mode);
+    }
+
+    /**
+     * @param context the state of the search, or null for the state of the thread
+     */
+    private long search(SearchContext context, long millis, SearchMode mode)
+    {
+        boolean periodical = periodic != null && periodic.covers(millis);
+        TimeOfDayIndex index = !periodical && timeOnly ? getTimeIndex() : null;
+
+        if ( periodical || index != null && index.covers(millis) )
+        {
+            long start = ScheduleMetrics.ENABLED ? System.nanoTime() : 0;
+            boolean found = false;
+            try
+            {
+                long event = periodical ?
+                        periodic.find(millis, mode.toZero(), mode.canEqual())
+                        :
+                        index.find(millis, mode.toZero(), mode.canEqual());
+                found = true;
+                return event;
+            }
+            finally
+            {
+                if ( ScheduleMetrics.ENABLED )
+                    ScheduleMetrics.recordFastSearch(periodical ? FastPath.PERIODIC : FastPath.INDEX, System.nanoTime() - start, found);
+            }
+        }
+
+        if ( zone != null ) return findZonedEvent(millis, 0, mode);
+        return findEvent(context != null ? context : CONTEXT.get(), millis, 0, mode);
+    }
+
+    private long searchNanos(long nanos, SearchMode mode)
+    {
+        long millis = searchFine(Math.floorDiv(nanos, NANOS_IN_MILLI), (int) Math.floorMod(nanos, NANOS_IN_MILLI), mode);
+        return Math.addExact(Math.multiplyExact(millis, NANOS_IN_MILLI), fractionOfEvent());
+    }
+
+    private Instant searchInstant(Instant time, SearchMode mode)
+    {
+        long millis = searchFine(time.toEpochMilli(), (int) (time.getNano() % NANOS_IN_MILLI), mode);
+        return Instant.ofEpochMilli(millis).plusNanos(fractionOfEvent());
+    }
+
+    /**
+     * Finds the event with the precision of the schedule.
+     *
+     * @param millis the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @param fraction nanoseconds of the millisecond of the start time
+     * @param mode the search mode (direction and severity)
+     * @return milliseconds of the event; the rest is returned by fractionOfEvent()
+     */
+    private long searchFine(long millis, int fraction, SearchMode mode)
+    {
+        int part = fraction - fraction % precision.unit; // the start in the smallest elements of the schedule
+        if ( part != fraction ) mode = mode.toZero() ? NEXT : NEAREST_PREV; // the start is between two elements
+
+        return zone == null ? findEvent(millis, part, mode) : findZonedEvent(millis, part, mode);
+    }
+
+    /**
+     * @return nanoseconds of the millisecond of the event, found by the last search in this thread
+     */
+    int fractionOfEvent()
+    {
+        return precision == Precision.MILLIS ? 0 : CONTEXT.get().calendar.getFraction();
+    }
+
+    /**
+     * The events in the gaps of the local time occur at the start of the transition (see findZonedEvent()).
+     */
+    private long shiftToTransition(long transition)
+    {
+        if ( precision != Precision.MILLIS ) CONTEXT.get().calendar.setFraction(0);
+        return transition;
+    }
+
+    /**
+     * Finds the event of the schedule in the local time of the zone.
+     * The local time is searched by findEvent() (as UTC), and the result is mapped back to the instant
+     * with the offset of its window (see {@link ZoneTransitions}). If the result falls into a gap of the local time,
+     * it is shifted to the transition or the search is continued after the gap (according to the gap policy).
+     * Usually it takes one search and two binary searches in the table of transitions.
+     *
+     * @param millis the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @param fraction nanoseconds of the millisecond of the start time (0 for the millisecond precision)
+     * @param mode the search mode (direction and severity)
+     * @return suitable time for the conditions (milliseconds since January 1, 1970 UTC)
+     * @throws IllegalStateException it is not possible to find a date that meets the schedule
+     */
+    private long findZonedEvent(long millis, int fraction, SearchMode mode)
+    {
+        long transitions[] = zone.transitions;
+        int offsets[] = zone.offsets;
+        long starts[] = zone.getStarts(overlapPolicy);
+        long ends[] = zone.getEnds(overlapPolicy);
+        boolean shift = gapPolicy == GapPolicy.SHIFT;
+        boolean canEqual = mode.canEqual();
+
+        int segment = zone.segmentOf(millis);
+        long local = millis + offsets[segment];
+        int part = fraction; // the fraction of the local start time
+
+        if ( mode.toZero() )
+        {
+            if ( local < starts[segment] ) // the second pass of the overlap; it was searched in the first pass
+            {
+                local = starts[segment];
+                part = 0;
+                mode = NEAREST;
+            }
+            else if ( local >= ends[segment] ) // the first pass of the overlap; it is searched in the second pass
+            {
+                local = starts[++segment];
+                part = 0;
+                mode = NEAREST;
+            }
+            else if ( shift && canEqual && fraction == 0 && segment > 0 && millis == transitions[segment - 1] )
+            {
+                local = ends[segment - 1]; // the events of the gap (if it is) occur right now
+            }
+
+            while ( true )
+            {
+                long found = findEvent(local, part, mode);
+                int window = ZoneTransitions.windowOf(found, starts);
+
+                if ( found < ends[window] ) return found - offsets[window];
+
+                // the gap after the window
+                if ( shift ) return shiftToTransition(transitions[window]);
+
+                local = starts[window + 1];
+                part = 0;
+                mode = NEAREST;
+            }
+        }
+        else
+        {
+            if ( local >= ends[segment] ) // the first pass of the overlap; it is searched in the second pass
+            {
+                local = ends[segment] - 1;
+                part = LAST_FRACTION;
+                mode = NEAREST_PREV;
+            }
+            else if ( local < starts[segment] ) // the second pass of the overlap; it was searched in the first pass
+            {
+                local = ends[--segment] - 1;
+                part = LAST_FRACTION;
+                mode = NEAREST_PREV;
+            }
+
+            while ( true )
+            {
+                long found = findEvent(local, part, mode);
+                int window = ZoneTransitions.windowOf(found, starts);
+
+                if ( found < ends[window] ) return found - offsets[window];
+
+                // the gap after the window
+                long transition = transitions[window];
+                if ( shift && (transition < millis || transition == millis && (canEqual || fraction > 0)) )
+                    return shiftToTransition(transition);
+
+                local = ends[window] - 1;
+                part = LAST_FRACTION;
+                mode = NEAREST_PREV;
+            }
+        }
+    }
+
+    /**
+     * The main function of finding a date that meets the schedule and search mode.
+     * It works for a maximum of 8 checks (if no days of the week are specified).
+     * Days of the week can add a few more checks.
+     * The checks, the overflows of the digits and the time are recorded by {@link ScheduleMetrics} (if enabled).
+     * The compiled schedules are searched by their compiled search (see {@link ScheduleCompiler});
+     * only the time of these searches is recorded.
+     *
+     * @param millis the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @param fraction nanoseconds of the millisecond of the start time (ignored for the millisecond precision)
+     * @param mode the search mode (direction and severity)
+     * @return suitable time for the conditions (can be equal to the original if mode.equality == OR_EQUAL);
+     * the parts of millisecond of the event are left in the calendar
+     * @throws IllegalStateException it is not possible to find a date that meets the schedule,
+     * for example, when a schedule of the form is set "20.01.02 10-20/2:*:*.*",
+     * and now it's 2021 and mode.direction == FORWARD.
+     */
+    private long findEvent(long millis, int fraction, SearchMode mode)
     {
-        this("*.*.* * *:*:*.*");
+        return findEvent(CONTEXT.get(), millis, fraction, mode);
     }
 
     /**
-     * Creates instance for specified schedule defined by string.
-     *
-     * @param schedule see format in {@link CronBase}
-     * @throws ScheduleFormatException
+     * The same as findEvent(), but by the digits of the context.
      */
-    public Schedule(String schedule) throws ScheduleFormatException
+    private long findEvent(SearchContext context, long millis, int fraction, SearchMode mode)
     {
-        this.schedule = schedule;
+        GregCalendar calendar = context.calendar;
+        CalendarDigits digits = context.digits;
 
-        Parser parser = new Parser();
-        parser.parse(schedule);
+        long start = ScheduleMetrics.ENABLED ? System.nanoTime() : 0;
+        boolean found = false;
 
-        ScheduleModel model = parser.getScheduleModel();
-        pool = new MatcherPool(model);
-    }
+        CompiledSearch search = compiled;
+        if ( search != null )
+        {
+            try
+            {
+                calendar.reset(millis);
+                if ( precision != Precision.MILLIS ) calendar.setFraction(fraction);
+                digits.reset(pool, mode.toZero()); // the searchers increment the digits from the event (see searchFollowing())
 
-    public Date NearestEvent(Date d) {
-        return findEvent(d, new SearchMode(Direction.FORWARD, Equality.OR_EQUAL));
-    }
+                long event = search.search(calendar, mode.toZero(), mode.canEqual());
+                found = true;
+                return event;
+            }
+            finally
+            {
+                if ( ScheduleMetrics.ENABLED )
+                    ScheduleMetrics.recordFastSearch(FastPath.COMPILED, System.nanoTime() - start, found);
+            }
+        }
 
-    public Date NearestPrevEvent(Date d) {
-        return findEvent(d, new SearchMode(Direction.BACKWARD, Equality.OR_EQUAL));
-    }
+        int steps = 1;
+        boolean fixed = false;
+        try
+        {
+            calendar.reset(millis);
+            if ( precision != Precision.MILLIS ) calendar.setFraction(fraction);
+            digits.reset(pool, mode.toZero());
 
-    public Date NextEvent(Date d) {
-        return findEvent(d, new SearchMode(Direction.FORWARD, Equality.NO_EQUAL));
-    }
+            // skip date check, if not present in schedule
+            if ( pool.isAnyDate() ) digits.gotoHours();
 
-    public Date PrevEvent(Date d) {
-        return findEvent(d, new SearchMode(Direction.BACKWARD, Equality.NO_EQUAL));
-    }
+            while ( isCanSearchDown(digits, calendar, mode.canEqual()) )
+            {
+                digits.next();
+                steps++;
+            }
 
+            if ( !pool.isAnyWeekDay() ) fixed = fixWeekDay(digits, calendar);
 
+            found = true;
+            return calendar.asMillis();
+        }
+        finally
+        {
+            if ( ScheduleMetrics.ENABLED )
+                ScheduleMetrics.recordSearch(System.nanoTime() - start, steps, digits.carries, fixed, found);
+        }
+    }
 
 
     /**
-     * Create instance for quick serial generation events.
-     * Generator does not consume memory. Works faster. No memory leaks.
-     * Generator non thread safe and mutable. Don't cache generator.
+     * Finds the first event of the searcher: the event after the time (see {@link ScheduleSearcher}).
+     * The digits of the context are left at the event (for UTC).
      *
-     * @param start date to start serial
-     * @param forward direction mode; true - is forward, false - is backward.
-     * @return generator instance. Not thread safe.
-     * The outside process must work with generator with synchronized instruction.
+     * @param context the state of the searcher
+     * @param millis the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @param forward the direction of the search
+     * @return milliseconds of the event; the rest is returned by fractionOfEvent() (for zoned schedules)
+     * @throws IllegalStateException if there is no such event in the schedule
      */
-    public ScheduleEventsGenerator getEventsGenerator(Date start, boolean forward)
+    long searchFirst(SearchContext context, long millis, boolean forward)
     {
-        SearchMode mode = new SearchMode(forward ? Direction.FORWARD : Direction.BACKWARD, Equality.NO_EQUAL);
-        return new EventsGenerator(start, mode);
+        SearchMode mode = forward ? NEXT : PREV;
+        return zone == null ? findEvent(context, millis, 0, mode) : findZonedEvent(millis, 0, mode);
     }
 
-
-
-
-
-
-
-    private final MatcherPool pool; // pool of schedule's matchers
-    private static final TimeZone UTC = TimeZone.getTimeZone("UTC"); // default work timezone
-
     /**
-     * The main function of finding a date that meets the schedule and search mode.
-     * It works for a maximum of 8 checks (if no days of the week are specified).
-     * Days of the week can add a few more checks.
+     * Finds the next event by the digits of the context (see {@link ScheduleQueue}); the periodic schedules
+     * and the schedules without the date are searched without the digits, as by {@link #nextEventMillis(long)}.
      *
-     * @param date the start date of the search
-     * @param mode the search mode (direction and severity)
-     * @return suitable date for the conditions (can be equal to the original if mode.equality == OR_EQUAL)
-     * @throws IllegalStateException it is not possible to find a date that meets the schedule,
-     * for example, when a schedule of the form is set "20.01.02 10-20/2:*:*.*",
-     * and now it's 2021 and mode.direction == FORWARD.
+     * @param context the state of the search, shared by the schedules of the queue
+     * @param millis the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @return milliseconds of the event after the time
+     * @throws IllegalStateException if there is no such event in the schedule
      */
-    private Date findEvent(Date date, SearchMode mode)
+    long searchNext(SearchContext context, long millis)
     {
-        GregCalendar calendar = new GregCalendar(date, UTC);
-        CalendarDigits digits = new CalendarDigits(pool, calendar, mode.toZero());
+        return search(context, millis, NEXT);
+    }
 
-        // skip date check, if not present in schedule
-        if ( pool.isAnyDate() ) digits.gotoHours();
+    /**
+     * Finds the following event of the searcher after its previous event.
+     * The UTC schedules increment the digits of the context (as the generators do),
+     * the zoned schedules search from the previous event.
+     *
+     * @param context the state of the searcher, left at the previous event
+     * @param millis the previous event
+     * @param fraction the parts of millisecond of the previous event (for zoned schedules)
+     * @param forward the direction of the search
+     * @return milliseconds of the event
+     * @throws IllegalStateException if there is no such event in the schedule
+     */
+    long searchFollowing(SearchContext context, long millis, int fraction, boolean forward)
+    {
+        if ( zone != null ) return findZonedEvent(millis, fraction, forward ? NEXT : PREV);
 
-        while ( isCanSearchDown(digits, calendar, mode.canEqual()) )
-        {
-            digits.next();
-        }
+        context.digits.gotoLastDigit();
+        context.digits.increment();
+        if ( !pool.isAnyWeekDay() ) fixWeekDay(context.digits, context.calendar);
 
-        return pool.isAnyWeekDay() ? calendar.asDate() : fixWeekDay(digits, calendar);
+        return context.calendar.asMillis();
     }
 
 
@@ -148,6 +1272,7 @@ public class Schedule implements Cron
         private final CalendarDigits digits;
         private Date date;
         boolean fix;
+        boolean finished; // the last event was returned; there are no more events in the schedule
 
         public EventsGenerator(Date start, SearchMode mode)
         {
@@ -172,15 +1297,56 @@ public class Schedule implements Cron
 
         public Date next()
         {
-            date = fix ? calendar.asDate() : fixWeekDay(digits, calendar); // fix date for previous result
+            if ( finished ) throw new IllegalStateException("Out of schedule interval");
+
+            if ( !fix ) fixWeekDay(digits, calendar); // fix date for previous result
+            date = calendar.asDate();
 
             // prepare to calculate the next result
-            digits.gotoLastDigit();
-            digits.increment();
+            try
+            {
+                digits.gotoLastDigit();
+                digits.increment();
+            }
+            catch (IllegalStateException e)
+            {
+                finished = true; // the result is the last event; throw on the next call
+            }
 
             return date; // return fixed previous result
         }
 
+        public int fill(long[] out, int offset, int max, long until)
+        {
+            boolean forward = digits.toZero;
+            int count = 0;
+
+            try
+            {
+                while ( count < max && !finished )
+                {
+                    if ( !fix ) fixWeekDay(digits, calendar);
+
+                    long millis = calendar.asMillis();
+                    if ( forward ? millis > until : millis < until ) break; // keep it for the next call
+
+                    out[offset + count++] = millis;
+
+                    // prepare to calculate the next result
+                    digits.gotoLastDigit();
+                    digits.increment();
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                finished = true; // there are no more events
+            }
+
+            if ( count > 0 ) date = new Date(out[offset + count - 1]);
+
+            return count;
+        }
+
         public String schedule()
         {
             return schedule;
@@ -193,186 +1359,294 @@ public class Schedule implements Cron
     }
 
     /**
-     * Implements a direct search for the nearest date from a given date in the schedule.
-     *
-     * @param digit digits of calendar
-     * @return false, if you can not continue further and an unambiguous result is obtained
-     *         true, if you need to go down to a lower level
-     *
-     * @throws IllegalStateException if the current date is out of the range of acceptable values
-     * and we have no more options that we could offer.
+     * Makes events generator for the periodic schedule: each event is the previous one plus the period
+     * (see {@link PeriodicEngine}).
      */
-    private boolean isCanSearchDown(CalendarDigits digit, GregCalendar calendar, boolean canEqual)
+    private final class PeriodicGenerator implements ScheduleEventsGenerator
     {
-        int value = digit.getValue();
+        private final boolean forward;
+        private long event; // the next event, or the time out of the years of the schedule
+        private Date date;
 
-        if ( digit.isBelow(value) ) // the current value of the element is less than the allowed lower limit
+        public PeriodicGenerator(Date start, boolean forward)
         {
-            digit.initialize();
-            return false;
+            this.forward = forward;
+            event = periodic.start(start.getTime(), forward);
+            date = start;
         }
 
-        if ( digit.isAbove(value) ) // the current value of the element is above the allowed upper limit
+        public Date last()
         {
-            digit.prev(); // for YEAR throws IllegalStateException
-            digit.increment();
-            return false;
+            return date;
+        } // for first call returns 'start'
+
+        public Date next()
+        {
+            if ( periodic.isOut(event) ) throw new IllegalStateException("Out of schedule interval");
+
+            date = new Date(event);
+            event = periodic.following(event, forward);
+            return date;
         }
 
-        // the current value is within the boundaries
-        if ( digit.match(value) && calendar.isCorrect() ) // if the item matches the schedule
+        public int fill(long[] out, int offset, int max, long until)
         {
-            boolean isLast = digit.isLast();
+            int count = 0;
+            while ( count < max && !periodic.isOut(event) && (forward ? event <= until : event >= until) )
+            {
+                out[offset + count++] = event;
+                event = periodic.following(event, forward);
+            }
 
-            // we end the search if this is the last element and we are allowed to return the exact equivalent
-            if ( isLast && canEqual ) return false;
+            if ( count > 0 ) date = new Date(out[offset + count - 1]);
 
-            // if this is not the last level, let's go down below
-            if ( !isLast ) return true;
+            return count;
         }
 
-        digit.increment();
-        return false; // search is complete
-    }
-
+        public String schedule()
+        {
+            return schedule;
+        }
 
+        @Override
+        public String toString() {
+            return schedule;
+        }
+    }
 
     /**
-     * Corrects the found date in accordance with the restrictions set by the acceptable days of the week.
-     *
-     * @param digits digits of calendar
-     * @return fixed date
-     * @throws IllegalStateException if a suitable date cannot be found in the schedule
+     * Makes events generator for the schedule with time zone.
+     * Each event is searched from the previous one, because the offset of the zone can change between them.
      */
-    private Date fixWeekDay(CalendarDigits digits, GregCalendar calendar)
+    private final class ZonedEventsGenerator implements ScheduleEventsGenerator
     {
-        DaysMap weekMap = pool.getWeekDaysMap();
-        if ( !weekMap.contains(calendar.getDayOfWeek()) )
+        private final SearchMode mode;
+        private long time; // the last event (or the start)
+        private int fraction; // the parts of millisecond of the last event
+        private Date date;
+
+        public ZonedEventsGenerator(Date start, SearchMode mode)
         {
-            findBestDate(digits, calendar, weekMap);
+            this.mode = mode;
+            this.time = start.getTime();
+            this.date = start;
+        }
 
-            digits.gotoHours();
-            digits.initialize();
+        public Date last()
+        {
+            return date;
+        } // for first call returns 'start'
+
+        public Date next()
+        {
+            time = findZonedEvent(time, fraction, mode);
+            fraction = fractionOfEvent();
+            date = new Date(time);
+            return date;
         }
-        return calendar.asDate();
-    }
 
+        public int fill(long[] out, int offset, int max, long until)
+        {
+            boolean forward = mode.toZero();
+            int count = 0;
+
+            try
+            {
+                while ( count < max )
+                {
+                    long millis = findZonedEvent(time, fraction, mode);
+                    if ( forward ? millis > until : millis < until ) break; // it will be found again on the next call
+
+                    out[offset + count++] = time = millis;
+                    fraction = fractionOfEvent();
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                // there are no more events
+            }
+
+            if ( count > 0 ) date = new Date(time);
 
+            return count;
+        }
 
+        public String schedule()
+        {
+            return schedule;
+        }
 
+        @Override
+        public String toString() {
+            return schedule;
+        }
+    }
 
-    private void findBestDate(CalendarDigits digits, GregCalendar calendar, DaysMap weekMap)
+    /**
+     * Makes events generator, which is shared by many threads.
+     * The state is the last claimed event only, so it is advanced by CAS.
+     */
+    private final class SharedEventsGenerator implements ScheduleEventsGenerator
     {
-        do
+        private final SearchMode mode;
+        private final int fraction; // skips the rest events of the claimed millisecond
+        private final AtomicLong time; // the last claimed event (or the start)
+
+        public SharedEventsGenerator(Date start, SearchMode mode)
         {
-            // find a day in the month that corresponds to the schedule of days of the week
-            if ( findBestDay(digits, calendar, weekMap) ) break;
+            this.mode = mode;
+            this.fraction = mode.toZero() && precision != Precision.MILLIS ? LAST_FRACTION : 0;
+            this.time = new AtomicLong(start.getTime());
+        }
+
+        public Date last()
+        {
+            return new Date(time.get());
+        } // for first call returns 'start'
 
-            // find a month in the year that exactly contains at least one day that falls on the selected days of the week
-            if ( !findBestMonth(digits, calendar, weekMap, false) )
+        public Date next()
+        {
+            while ( true )
             {
-                // find the next year that exactly contains at least one day that falls on the selected days of the week
-                findBestYear(digits, calendar, weekMap);
+                long last = time.get();
+                long millis = claimAfter(last); // throws IllegalStateException, when there are no more events
 
-                // find a month in the next year that exactly contains at least one day that falls on the selected days of the week
-                findBestMonth(digits, calendar, weekMap, true);
+                if ( time.compareAndSet(last, millis) ) return new Date(millis);
             }
-            /*
-            There may be a situation where findBestMonth has found a suitable month,
-            but the resetDate() automatically moved to another month,
-            because it takes into account the schedule and overflows.
-            And in the new month there are no dates falling on the selected days of the week.
-            Therefore, we are forced to repeat the cycle again.
-            In other words, this cycle can be performed more than 2 times (in extremely rare cases).
-            */
         }
-        while ( true ); // until we get an IllegalStateException when searching for the year
-    }
 
+        public int fill(long[] out, int offset, int max, long until)
+        {
+            while ( true )
+            {
+                long last = time.get();
+                int count = searchBatch(last, out, offset, max, until);
 
-    private void findBestYear(CalendarDigits digits, GregCalendar calendar, DaysMap weekMap)
-    {
-        byte ly = pool.getLeapYearMap().getMap();
-        byte ny = pool.getNormalYearMap().getMap();
-        int year = calendar.year;
-        byte ym;
+                if ( count == 0 || time.compareAndSet(last, out[offset + count - 1]) ) return count;
+            }
+        }
+
+        private long claimAfter(long millis)
+        {
+            return zone == null ? findEvent(millis, fraction, mode) : findZonedEvent(millis, fraction, mode);
+        }
 
-        digits.gotoYear();
-        do
+        /**
+         * Finds the batch of events after the time. The UTC schedules of milliseconds take the first event
+         * by the search, and the rest events by the increments of the thread-local digits (as the usual generator).
+         */
+        private int searchBatch(long millis, long[] out, int offset, int max, long until)
         {
-            if ( !digits.hasNext(year) )
-                throw new IllegalStateException("Out of schedule interval"); // we went beyond the schedule
+            boolean forward = mode.toZero();
+            boolean increments = zone == null && precision == Precision.MILLIS;
+            int count = 0;
 
-            year = digits.getNext(year);
-            byte yearMap = GregCalendar.isLeap(year) == 1 ? ly : ny;
-            ym = DaysMap.rollMapByYear(yearMap, year);
+            try
+            {
+                while ( count < max )
+                {
+                    long event;
+                    if ( increments && count > 0 )
+                    {
+                        SearchContext context = CONTEXT.get(); // it is left at the previous event
+                        context.digits.gotoLastDigit();
+                        context.digits.increment();
+                        if ( !pool.isAnyWeekDay() ) fixWeekDay(context.digits, context.calendar);
+
+                        event = context.calendar.asMillis();
+                    }
+                    else
+                        event = claimAfter(millis);
+
+                    if ( forward ? event > until : event < until ) break; // it will be found again on the next call
+
+                    out[offset + count++] = millis = event;
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                // there are no more events
+            }
+
+            return count;
         }
-        while ( !weekMap.intersects(ym) );
 
-        calendar.year = year;
-        digits.gotoMonth();
-        digits.resetDate(); // here sometimes it can be calendar.year != year
-        // this is not a problem, because the findBestDate() will correct this in a loop
-    }
+        public String schedule()
+        {
+            return schedule;
+        }
 
+        @Override
+        public String toString() {
+            return schedule;
+        }
+    }
 
-    private boolean findBestMonth(CalendarDigits digits, GregCalendar calendar, DaysMap weekMap, boolean repeat)
+    /**
+     * Implements a direct search for the nearest date from a given date in the schedule.
+     *
+     * @param digit digits of calendar
+     * @return false, if you can not continue further and an unambiguous result is obtained
+     *         true, if you need to go down to a lower level
+     *
+     * @throws IllegalStateException if the current date is out of the range of acceptable values
+     * and we have no more options that we could offer.
+     */
+    static boolean isCanSearchDown(CalendarDigits digit, GregCalendar calendar, boolean canEqual)
     {
-        boolean isLeap = calendar.isLeap();
-        int month = calendar.month;
+        int value = digit.getValue();
 
-        byte janMap = DaysMap.rollMapByYear(pool.getMonthDaysMap().getMap(), calendar.year);
-        byte mm = DaysMap.rollMapByMonth(janMap, month, isLeap);
+        if ( digit.isBelow(value) ) // the current value of the element is less than the allowed lower limit
+        {
+            digit.initialize();
+            return false;
+        }
 
-        digits.gotoMonth();
+        if ( digit.isAbove(value) ) // the current value of the element is above the allowed upper limit
+        {
+            digit.prev(); // for YEAR throws IllegalStateException
+            digit.increment();
+            return false;
+        }
 
-        // the 'repeat' suppresses the check for 'intersects' in the first iteration of the loop
-        // when we need to start the search from the current calendar value, repeat = false
-        // when we need to start the search strictly from the beginning of the year, then repeat = true
-        while ( !(repeat && weekMap.intersects(mm)) )
+        // the current value is within the boundaries
+        if ( digit.match(value) && calendar.isCorrect() ) // if the item matches the schedule
         {
-            if ( !digits.hasNext(month) ) return false;
+            boolean isLast = digit.isLast();
 
-            month = digits.getNext(month);
-            mm = DaysMap.rollMapByMonth(janMap, month, isLeap);
+            // we end the search if this is the last element and we are allowed to return the exact equivalent
+            if ( isLast && canEqual ) return false;
 
-            repeat = true; // now you can do a check intersects
+            // if this is not the last level, let's go down below
+            if ( !isLast ) return true;
         }
 
-        calendar.month = month;
-        digits.gotoDay();
-        digits.resetDate(); // here sometimes it can be calendar.month != month
-        return true; // this is not a problem, because the findBestDate() will correct this in a loop
+        digit.increment();
+        return false; // search is complete
     }
 
 
-    private boolean findBestDay(CalendarDigits digits, GregCalendar calendar, DaysMap weekMap)
-    {
-        int day = calendar.day;
-        byte dm = (byte)(1 << calendar.getDayOfWeek());
-
-        digits.gotoDay();
 
-        while ( !weekMap.intersects(dm) )
+    /**
+     * Corrects the found date in accordance with the restrictions set by the acceptable days of the week.
+     * The nearest suitable date is taken from the index of matching days (see {@link ValidDaysIndex}).
+     *
+     * @param digits digits of calendar
+     * @return true, if the date was corrected
+     * @throws IllegalStateException if a suitable date cannot be found in the schedule
+     */
+    private boolean fixWeekDay(CalendarDigits digits, GregCalendar calendar)
+    {
+        DaysMap weekMap = pool.getWeekDaysMap();
+        if ( !weekMap.contains(calendar.getDayOfWeek()) )
         {
-            if ( !digits.hasNext(day) ) return false;
+            pool.getValidDays().moveToNext(calendar, digits.toZero);
 
-            int next = digits.getNext(day);
-            int shift;
-            if ( digits.toZero )
-            {
-                shift = next - day;
-            }
-            else
-            {
-                shift = 7 - (day - next) % 7; // reverse to roll '>>'
-            }
-            dm = DaysMap.rollWeekMap(dm, shift);
-            day = next;
+            digits.gotoHours();
+            digits.initialize();
+            return true;
         }
-
-        calendar.day = day;
-        return true;
+        return false;
     }
 
 
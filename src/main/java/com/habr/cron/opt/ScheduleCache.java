@@ -0,0 +1,285 @@
+package com.habr.cron.opt;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled schedules, keyed by the schedule string.
+ * Schedules are immutable, so the same instance is shared between all callers.
+ * Thread-Safe.
+ *
+ * The cache is split into segments (by hash of the key) with their own locks,
+ * and the schedule is parsed out of the lock, so concurrent threads rarely wait each other.
+ * The capacity and the eviction policy are applied to each segment separately.
+ * Small caches (less than 128 entries) have a single segment.
+ */
+public class ScheduleCache
+{
+    /**
+     * Eviction policies.
+     */
+    public enum Eviction
+    {
+        /**
+         * Least recently used schedule is evicted.
+         */
+        LRU,
+        /**
+         * Least frequently used schedule is evicted. To be fast, the frequencies are compared only
+         * among several least recently used schedules, so the old rare schedules go out first.
+         */
+        LFU
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+    private static final int LFU_WINDOW = 16; // count of the least recently used entries to select from
+
+    private static volatile ScheduleCache defaultCache = new ScheduleCache(DEFAULT_CAPACITY, Eviction.LRU);
+
+    private final Segment segments[];
+    private final int mask;
+    private final int capacity;
+    private final Eviction eviction;
+
+
+
+    /**
+     * @param capacity the maximum count of schedules in the cache
+     * @param eviction the eviction policy
+     */
+    public ScheduleCache(int capacity, Eviction eviction)
+    {
+        if ( capacity < 1 )
+            throw new IllegalArgumentException("The capacity of the cache must be positive.");
+        if ( eviction == null )
+            throw new IllegalArgumentException("The eviction policy is required.");
+
+        int count = 1;
+        while ( count < MAX_SEGMENTS && count * 2 * MIN_SEGMENT_CAPACITY <= capacity )
+            count <<= 1;
+
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+
+        this.mask = count - 1;
+        this.capacity = capacity;
+        this.eviction = eviction;
+    }
+
+    /**
+     * @return the cache, used by {@link Schedule#compile(String)}
+     */
+    public static ScheduleCache getDefault()
+    {
+        return defaultCache;
+    }
+
+    /**
+     * Replaces the cache, used by {@link Schedule#compile(String)}.
+     *
+     * @param cache new cache
+     */
+    public static void setDefault(ScheduleCache cache)
+    {
+        if ( cache == null )
+            throw new IllegalArgumentException("The cache is required.");
+
+        defaultCache = cache;
+    }
+
+
+
+    /**
+     * Returns the compiled schedule from the cache, or compiles and caches it.
+     *
+     * @param schedule see format in {@link com.habr.cron.CronBase}
+     * @return shared instance of schedule
+     * @throws ScheduleFormatException if the schedule is invalid (invalid schedules are not cached)
+     */
+    public Schedule get(String schedule) throws ScheduleFormatException
+    {
+        if ( schedule == null )
+            throw new IllegalArgumentException("Empty schedule.");
+
+        Segment segment = segmentFor(schedule);
+
+        Schedule result = segment.get(schedule);
+        if ( result == null )
+        {
+            // parse out of the lock; if another thread is faster, its instance is used
+            result = segment.put(schedule, new Schedule(schedule));
+        }
+        return result;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public Eviction getEviction()
+    {
+        return eviction;
+    }
+
+    /**
+     * @return count of the cached schedules
+     */
+    public int size()
+    {
+        int result = 0;
+        for (Segment segment : segments)
+            synchronized (segment) { result += segment.map.size(); }
+        return result;
+    }
+
+    /**
+     * @return count of the requests, that found the schedule in the cache
+     */
+    public long getHits()
+    {
+        long result = 0;
+        for (Segment segment : segments)
+            synchronized (segment) { result += segment.hits; }
+        return result;
+    }
+
+    /**
+     * @return count of the requests, that compiled the schedule
+     */
+    public long getMisses()
+    {
+        long result = 0;
+        for (Segment segment : segments)
+            synchronized (segment) { result += segment.misses; }
+        return result;
+    }
+
+    /**
+     * @return count of the schedules, evicted from the cache
+     */
+    public long getEvictions()
+    {
+        long result = 0;
+        for (Segment segment : segments)
+            synchronized (segment) { result += segment.evictions; }
+        return result;
+    }
+
+    /**
+     * Removes all schedules from the cache. Does not reset the counters.
+     */
+    public void clear()
+    {
+        for (Segment segment : segments)
+            synchronized (segment) { segment.map.clear(); }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ScheduleCache[%s, size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                eviction, size(), capacity, getHits(), getMisses(), getEvictions());
+    }
+
+
+
+
+    private Segment segmentFor(String schedule)
+    {
+        int h = schedule.hashCode();
+        h ^= h >>> 16; // spread the high bits
+        return segments[h & mask];
+    }
+
+    /**
+     * Cached schedule with its usage counter.
+     */
+    private static final class Node
+    {
+        final Schedule schedule;
+        int frequency = 1;
+
+        Node(Schedule schedule)
+        {
+            this.schedule = schedule;
+        }
+    }
+
+    /**
+     * Part of the cache with own lock. The map is ordered by access (from the least recently used).
+     */
+    private final class Segment
+    {
+        final int capacity;
+        final LinkedHashMap<String, Node> map;
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int capacity)
+        {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<String, Node>(16, 0.75f, true);
+        }
+
+        synchronized Schedule get(String key)
+        {
+            Node node = map.get(key);
+            if ( node == null )
+            {
+                misses++;
+                return null;
+            }
+
+            if ( node.frequency < Integer.MAX_VALUE ) node.frequency++;
+            hits++;
+            return node.schedule;
+        }
+
+        synchronized Schedule put(String key, Schedule schedule)
+        {
+            Node node = map.get(key);
+            if ( node != null ) return node.schedule; // was added by another thread
+
+            if ( map.size() >= capacity ) evict();
+
+            map.put(key, new Node(schedule));
+            return schedule;
+        }
+
+        private void evict()
+        {
+            Iterator<Map.Entry<String, Node>> iterator = map.entrySet().iterator();
+
+            if ( eviction == Eviction.LRU )
+            {
+                iterator.next();
+                iterator.remove(); // the eldest
+            }
+            else
+            {
+                String victim = null;
+                int frequency = Integer.MAX_VALUE;
+
+                for (int i = 0; i < LFU_WINDOW && iterator.hasNext(); i++)
+                {
+                    Map.Entry<String, Node> entry = iterator.next();
+                    if ( entry.getValue().frequency < frequency ) // on equal frequency the older goes out
+                    {
+                        victim = entry.getKey();
+                        frequency = entry.getValue().frequency;
+                    }
+                }
+                map.remove(victim);
+            }
+
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.habr.cron.opt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * Optional compiler of the searches of opt.Schedule.
+ * The shared digits call the matchers through the interface, and in a process with many shapes of schedules
+ * these calls see many classes of matchers, so the JIT compiler can't inline them.
+ * The compiler defines a hidden class for each shape of schedules (the classes of its matchers): the copy
+ * of the search, where each call of a matcher is written separately for each digit (see {@link SearchTemplate}).
+ * The calls of the copy see the matchers of one shape only, so they are inlined.
+ *
+ * The count of the classes is limited by the budget; the schedules of new shapes over the budget
+ * (and all schedules, if the hidden classes are not supported by the JVM, before Java 15, or can't be defined)
+ * are searched by the digits, as usual. Only the time of the searches of the compiled schedules is recorded
+ * by {@link ScheduleMetrics} (the checks of the compiled digits are not counted).
+ *
+ * The compiler is enabled for all new schedules by the system property {@value #PROPERTY}=true,
+ * the budget is set by {@value #BUDGET_PROPERTY} (256 classes by default).
+ * Thread-Safe.
+ */
+public final class ScheduleCompiler
+{
+    public static final String PROPERTY = "com.habr.cron.opt.compiler";
+    public static final String BUDGET_PROPERTY = "com.habr.cron.opt.compiler.budget";
+
+    /**
+     * The schedules are compiled on creation.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+    /**
+     * The maximal count of the classes.
+     */
+    public static final int BUDGET = Integer.getInteger(BUDGET_PROPERTY, 256);
+
+    /**
+     * The classes of the compiled searches by the shapes of schedules
+     */
+    private static final Map<String, Constructor<?>> CLASSES = new HashMap<String, Constructor<?>>();
+    /**
+     * The shapes, whose classes can't be defined or created (they are not tried again)
+     */
+    private static final Set<String> FAILED = new HashSet<String>();
+
+    private static final byte TEMPLATE[] = readTemplate();
+    private static final Object NO_OPTIONS = newOptions(); // the empty array of the options of the hidden classes
+    private static final Method DEFINE_HIDDEN_CLASS = findDefineHiddenClass();
+
+
+    private ScheduleCompiler()
+    {
+    }
+
+    /**
+     * @return true, if the JVM supports the hidden classes (Java 15+)
+     */
+    public static boolean isSupported()
+    {
+        return DEFINE_HIDDEN_CLASS != null && TEMPLATE != null;
+    }
+
+    /**
+     * @return count of the defined classes (the compiled shapes of schedules)
+     */
+    public static synchronized int getClassCount()
+    {
+        return CLASSES.size();
+    }
+
+    /**
+     * Compiles the search of the schedule. The results of the schedule are not changed.
+     *
+     * @param schedule the schedule
+     * @return true, if the schedule is compiled; false, if the budget is exhausted, the compiler is not supported
+     * or the class of the search can't be defined
+     */
+    public static boolean compile(Schedule schedule)
+    {
+        return schedule.isCompiled() || schedule.setCompiled(compile(schedule.getPool(), BUDGET));
+    }
+
+    /**
+     * @param pool the matchers of the schedule
+     * @param budget the maximal count of the classes
+     * @return the compiled search, or null, if it is not compiled (the schedule is searched by the digits)
+     */
+    static CompiledSearch compile(MatcherPool pool, int budget)
+    {
+        if ( !isSupported() ) return null;
+
+        String shape = shapeOf(pool);
+        Constructor<?> constructor = classOf(shape, budget, TEMPLATE);
+        if ( constructor == null ) return null;
+
+        try
+        {
+            return (CompiledSearch) constructor.newInstance(pool);
+        }
+        catch (Exception e)
+        {
+            fail(shape);
+            return null;
+        }
+    }
+
+    /**
+     * @return the names of the classes of the matchers
+     */
+    static String shapeOf(MatcherPool pool)
+    {
+        StringBuilder shape = new StringBuilder();
+        DigitMatcher matchers[] = pool.getMatcherPool();
+        for (ScheduleElements element : ScheduleElements.values())
+        {
+            if ( element == DAY_OF_WEEK ) continue;
+            shape.append(matchers[element.ordinal()].getClass().getSimpleName()).append(',');
+        }
+        return shape.toString();
+    }
+
+    /**
+     * @param template the bytes of the class of the search
+     * @return the constructor of the class of the shape, or null, if the budget is exhausted or the class can't be defined
+     */
+    static synchronized Constructor<?> classOf(String shape, int budget, byte template[])
+    {
+        Constructor<?> constructor = CLASSES.get(shape);
+        if ( constructor != null || CLASSES.size() >= budget || FAILED.contains(shape) ) return constructor;
+
+        try
+        {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup)
+                    DEFINE_HIDDEN_CLASS.invoke(MethodHandles.lookup(), template, true, NO_OPTIONS);
+
+            constructor = lookup.lookupClass().getDeclaredConstructor(MatcherPool.class);
+            CLASSES.put(shape, constructor);
+            return constructor;
+        }
+        catch (Exception e)
+        {
+            FAILED.add(shape); // the schedules of the shape are searched by the digits
+            return null;
+        }
+        catch (LinkageError e)
+        {
+            FAILED.add(shape); // the wrong bytes of the class (ClassFormatError, VerifyError)
+            return null;
+        }
+    }
+
+    /**
+     * @return true, if the class of the shape can't be defined or created
+     */
+    static synchronized boolean isFailed(String shape)
+    {
+        return FAILED.contains(shape);
+    }
+
+    private static synchronized void fail(String shape)
+    {
+        CLASSES.remove(shape);
+        FAILED.add(shape);
+    }
+
+
+
+    /**
+     * @return MethodHandles.Lookup.defineHiddenClass(), or null before Java 15 (it is called by the reflection,
+     * so the compiler can be built and run by Java 8)
+     */
+    private static Method findDefineHiddenClass()
+    {
+        if ( NO_OPTIONS == null ) return null;
+
+        try
+        {
+            return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, NO_OPTIONS.getClass());
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    private static Object newOptions()
+    {
+        try
+        {
+            return Array.newInstance(Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"), 0);
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes of the template class, or null if they are not available
+     */
+    private static byte[] readTemplate()
+    {
+        InputStream in = ScheduleCompiler.class.getResourceAsStream(SearchTemplate.class.getSimpleName() + ".class");
+        if ( in == null ) return null;
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte buffer[] = new byte[4096];
+            for (int count; (count = in.read(buffer)) > 0; )
+                bytes.write(buffer, 0, count);
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            try { in.close(); } catch (IOException e) { /* ignore */ }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatcher of events for many schedules.
+ * A single timer thread drives all registered schedules with resolution of 1 millisecond.
+ *
+ * Each registered schedule is kept in the hierarchical timing wheel by the time of its next event,
+ * which is computed by the events generator of the schedule. After firing, the schedule is re-armed
+ * from its generator. When the schedule has no more events (out of schedule interval),
+ * it is removed from the dispatcher.
+ *
+ * Thread-Safe. Callbacks are called in the timer thread, so they must work quickly;
+ * long tasks should be passed to other threads by the callbacks themselves.
+ */
+public class ScheduleDispatcher
+{
+    /**
+     * Receiver of the schedule events.
+     */
+    public interface Callback
+    {
+        /**
+         * Called in the timer thread, when the event of the schedule occurs.
+         *
+         * @param schedule the source schedule
+         * @param eventTime the time of the event (milliseconds since January 1, 1970 UTC)
+         */
+        void onEvent(Schedule schedule, long eventTime);
+    }
+
+    /**
+     * The handle of the registered schedule.
+     */
+    public final class Registration extends TimingWheel.Entry
+    {
+        private final Schedule schedule;
+        private final Callback callback;
+        private ScheduleEventsGenerator generator; // works only in the timer thread
+        private volatile boolean cancelled;
+
+        private Registration(Schedule schedule, Callback callback)
+        {
+            this.schedule = schedule;
+            this.callback = callback;
+        }
+
+        public Schedule getSchedule()
+        {
+            return schedule;
+        }
+
+        /**
+         * Stops the dispatching of the schedule events.
+         * The callback may be called once more, if the event is being dispatched right now.
+         */
+        public void cancel()
+        {
+            if ( !cancelled )
+            {
+                cancelled = true;
+                cancellations.offer(this);
+                LockSupport.unpark(thread);
+            }
+        }
+
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+
+
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // requests from other threads; they are processed by the timer thread
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<Registration>();
+    private final Queue<Registration> cancellations = new ConcurrentLinkedQueue<Registration>();
+
+    private final TimingWheel wheel;
+    private final TimingWheel.ExpirationHandler handler = new TimingWheel.ExpirationHandler()
+    {
+        public void expired(TimingWheel.Entry entry)
+        {
+            fire((Registration) entry);
+        }
+    };
+
+    private volatile Thread thread;
+    private volatile boolean running;
+
+
+
+    public ScheduleDispatcher()
+    {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param start the time to start dispatching from (milliseconds since January 1, 1970 UTC)
+     */
+    ScheduleDispatcher(long start)
+    {
+        wheel = new TimingWheel(start);
+    }
+
+
+    /**
+     * Registers the schedule in the dispatcher.
+     * The first event will be the next event of the schedule after the current time of the dispatcher.
+     *
+     * @param schedule the schedule of events
+     * @param callback the receiver of events
+     * @return the handle of registration to cancel it
+     */
+    public Registration register(Schedule schedule, Callback callback)
+    {
+        if ( schedule == null || callback == null )
+            throw new IllegalArgumentException("The schedule and the callback are required.");
+
+        Registration registration = new Registration(schedule, callback);
+        registrations.offer(registration);
+        return registration;
+    }
+
+    /**
+     * Starts the timer thread.
+     *
+     * @throws IllegalStateException if the dispatcher is already started
+     */
+    public synchronized void start()
+    {
+        if ( thread != null )
+            throw new IllegalStateException("The dispatcher is already started.");
+
+        running = true;
+        thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                loop();
+            }
+        }, "schedule-dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the timer thread and waits for its completion.
+     */
+    public synchronized void stop() throws InterruptedException
+    {
+        running = false;
+
+        if ( thread != null )
+        {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    /**
+     * @return count of the schedules, that wait for the events (approximately, if the dispatcher is working)
+     */
+    public int size()
+    {
+        return wheel.size();
+    }
+
+
+
+
+    private void loop()
+    {
+        while ( running )
+        {
+            advanceTo(System.currentTimeMillis());
+            LockSupport.parkNanos(this, TICK_NANOS);
+        }
+    }
+
+    /**
+     * Processes the requests of registration and cancellation, and fires all events till the specified time.
+     * Works in the timer thread only (or in the test thread, if the dispatcher is not started).
+     *
+     * @param now the current time (milliseconds since January 1, 1970 UTC)
+     * @return count of fired events
+     */
+    int advanceTo(long now)
+    {
+        Registration registration;
+
+        while ( (registration = cancellations.poll()) != null )
+            wheel.remove(registration);
+
+        while ( (registration = registrations.poll()) != null )
+        {
+            if ( registration.cancelled ) continue;
+
+            registration.generator = registration.schedule.getEventsGenerator(new Date(wheel.getTime() - 1), true);
+            arm(registration);
+        }
+
+        return wheel.advance(now, handler);
+    }
+
+    private void fire(Registration registration)
+    {
+        if ( registration.cancelled ) return;
+
+        try
+        {
+            registration.callback.onEvent(registration.schedule, registration.expiration);
+        }
+        catch (RuntimeException e)
+        {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, e);
+        }
+
+        arm(registration);
+    }
+
+    private void arm(Registration registration)
+    {
+        try
+        {
+            registration.expiration = registration.generator.next().getTime();
+            wheel.add(registration);
+        }
+        catch (IllegalStateException e)
+        {
+            registration.generator = null; // out of schedule interval; no more events
+        }
+    }
+}
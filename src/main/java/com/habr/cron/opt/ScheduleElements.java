@@ -23,7 +23,20 @@ enum ScheduleElements
 
     SECONDS(Calendar.SECOND, 0, 59),
 
-    MILLIS(Calendar.MILLISECOND, 0, 999);
+    MILLIS(Calendar.MILLISECOND, 0, 999),
+
+    // the parts of the millisecond (see Schedule.Precision); there are no such fields in java.util.Calendar
+
+    MICROS(-1, 0, 999),
+
+    NANOS(-1, 0, 999);
+
+    /**
+     * The bounds of the configurable range of years (the YEAR bounds are default).
+     * The calendar is proleptic Gregorian.
+     */
+    public static final int MIN_YEAR = 1;
+    public static final int MAX_YEAR = 9999;
 
     public static final int LAST_DAY_OF_MONTH_CODE = 32;
     public static final int FEBRUARY_LAST_DAY = 28; // NOTE: Only for Gregorian calendar
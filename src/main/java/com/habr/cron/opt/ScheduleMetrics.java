@@ -0,0 +1,387 @@
+package com.habr.cron.opt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Instrumentation of the searches of {@link Schedule} (NearestEvent, NextEvent and so on, in all time zones).
+ * Each search records:
+ *  - the count of the checks of the digits (the iterations of the main loop of the search);
+ *  - the count of the overflows of the digits (the carries into the major digits);
+ *  - the correction of the date by the days of week, and the years scanned in the index of the valid days;
+ *  - the time of the search (in the histogram with the buckets of powers of 2 nanoseconds).
+ * The searches by the fast paths (see {@link FastPath}) are recorded with zero checks and counted by their paths;
+ * the instrumentation doesn't change the path of the search.
+ * The events generators and the counters of events are not recorded.
+ *
+ * Disabled by default. It is enabled by the system property: -Dcom.habr.cron.opt.metrics=true
+ * The flag is a static final constant, so the JIT removes the disabled instrumentation from the compiled code.
+ * The counters are global; they are collected by {@link #snapshot()} (for example, by a metrics reporter).
+ * Thread-Safe.
+ */
+public final class ScheduleMetrics
+{
+    public static final String PROPERTY = "com.habr.cron.opt.metrics";
+
+    /**
+     * true, if the searches are recorded
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    /**
+     * The last bucket of the histogram of the checks (it counts the searches with 32 checks and more)
+     */
+    public static final int MAX_STEPS = 32;
+
+    /**
+     * Count of the buckets of the histogram of the latency: the bucket i counts the times in [2^i, 2^(i+1)) ns
+     * (the bucket 0 also counts zero)
+     */
+    public static final int LATENCY_BUCKETS = 64;
+
+    /**
+     * The searches, whose checks are not counted (only their time and result are recorded)
+     */
+    public enum FastPath
+    {
+        /**
+         * The index of the times of day (see {@link TimeOfDayIndex})
+         */
+        INDEX,
+
+        /**
+         * The closed form of the periodic schedules (see {@link PeriodicEngine})
+         */
+        PERIODIC,
+
+        /**
+         * The compiled search (see {@link ScheduleCompiler})
+         */
+        COMPILED,
+    }
+
+    private static final LongAdder searches = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final LongAdder steps = new LongAdder();
+    private static final LongAdder carries = new LongAdder();
+    private static final LongAdder weekDayFixes = new LongAdder();
+    private static final LongAdder yearsScanned = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+    private static final LongAdder fastSearches[] = newAdders(FastPath.values().length);
+    private static final LongAccumulator maxSteps = new LongAccumulator(new LongBinaryOperator()
+    {
+        public long applyAsLong(long left, long right)
+        {
+            return Math.max(left, right);
+        }
+    }, 0);
+    private static final LongAdder stepsHistogram[] = newAdders(MAX_STEPS + 1);
+    private static final LongAdder latencyHistogram[] = newAdders(LATENCY_BUCKETS);
+
+
+    private ScheduleMetrics()
+    {
+    }
+
+
+
+    /**
+     * Records one search.
+     *
+     * @param nanos the time of the search
+     * @param count the count of the checks of the digits
+     * @param overflows the count of the carries into the major digits
+     * @param fixed true, if the date was corrected by the days of week
+     * @param found false, if the search has failed (out of schedule interval)
+     */
+    static void recordSearch(long nanos, int count, int overflows, boolean fixed, boolean found)
+    {
+        searches.increment();
+        if ( !found ) failures.increment();
+        if ( fixed ) weekDayFixes.increment();
+
+        steps.add(count);
+        carries.add(overflows);
+        maxSteps.accumulate(count);
+        stepsHistogram[Math.min(count, MAX_STEPS)].increment();
+
+        nanos = Math.max(nanos, 0); // the time may go back on some platforms
+        totalNanos.add(nanos);
+        latencyHistogram[latencyBucket(nanos)].increment();
+    }
+
+    /**
+     * Records one search by the fast path (zero checks of the digits).
+     *
+     * @param path the path of the search
+     * @param nanos the time of the search
+     * @param found false, if the search has failed (out of schedule interval)
+     */
+    static void recordFastSearch(FastPath path, long nanos, boolean found)
+    {
+        fastSearches[path.ordinal()].increment();
+        recordSearch(nanos, 0, 0, false, found);
+    }
+
+    /**
+     * Records the years, scanned by the index of the valid days at the correction by the days of week.
+     */
+    static void recordYearsScanned(int years)
+    {
+        yearsScanned.add(years);
+    }
+
+    /**
+     * @return the bucket of the histogram of the latency
+     */
+    static int latencyBucket(long nanos)
+    {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+
+
+    /**
+     * Collects the counters. The counters are not stopped, so concurrent searches may be partially included.
+     *
+     * @return immutable copy of the counters
+     */
+    public static Snapshot snapshot()
+    {
+        return new Snapshot(searches.sum(), failures.sum(), steps.sum(), maxSteps.get(), carries.sum(),
+                weekDayFixes.sum(), yearsScanned.sum(), totalNanos.sum(), sums(fastSearches),
+                sums(stepsHistogram), sums(latencyHistogram));
+    }
+
+    /**
+     * Resets all counters (for example, after the warm up).
+     */
+    public static void reset()
+    {
+        searches.reset();
+        failures.reset();
+        steps.reset();
+        maxSteps.reset();
+        carries.reset();
+        weekDayFixes.reset();
+        yearsScanned.reset();
+        totalNanos.reset();
+        for (LongAdder adder : fastSearches) adder.reset();
+        for (LongAdder adder : stepsHistogram) adder.reset();
+        for (LongAdder adder : latencyHistogram) adder.reset();
+    }
+
+
+
+
+    /**
+     * The values of the counters at some moment.
+     * Unmodifiable.
+     */
+    public static final class Snapshot
+    {
+        private final long searches;
+        private final long failures;
+        private final long steps;
+        private final long maxSteps;
+        private final long carries;
+        private final long weekDayFixes;
+        private final long yearsScanned;
+        private final long totalNanos;
+        private final long fastSearches[];
+        private final long stepsHistogram[];
+        private final long latencyHistogram[];
+
+        private Snapshot(long searches, long failures, long steps, long maxSteps, long carries,
+                         long weekDayFixes, long yearsScanned, long totalNanos, long fastSearches[],
+                         long stepsHistogram[], long latencyHistogram[])
+        {
+            this.searches = searches;
+            this.failures = failures;
+            this.steps = steps;
+            this.maxSteps = maxSteps;
+            this.carries = carries;
+            this.weekDayFixes = weekDayFixes;
+            this.yearsScanned = yearsScanned;
+            this.totalNanos = totalNanos;
+            this.fastSearches = fastSearches;
+            this.stepsHistogram = stepsHistogram;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        /**
+         * @return count of the searches
+         */
+        public long getSearches()
+        {
+            return searches;
+        }
+
+        /**
+         * @return count of the searches, which have not found an event (out of schedule interval)
+         */
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * @return total count of the checks of the digits
+         */
+        public long getSteps()
+        {
+            return steps;
+        }
+
+        /**
+         * @return the maximum count of the checks of the digits in one search
+         */
+        public long getMaxSteps()
+        {
+            return maxSteps;
+        }
+
+        /**
+         * @return total count of the overflows of the digits (the carries into the major digits)
+         */
+        public long getCarries()
+        {
+            return carries;
+        }
+
+        /**
+         * @return count of the searches, which have corrected the date by the days of week
+         */
+        public long getWeekDayFixes()
+        {
+            return weekDayFixes;
+        }
+
+        /**
+         * @return total count of the years, scanned by the corrections of the date by the days of week
+         */
+        public long getYearsScanned()
+        {
+            return yearsScanned;
+        }
+
+        /**
+         * @return total time of the searches in nanoseconds
+         */
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+
+        /**
+         * @param path the fast path
+         * @return count of the searches by the path (they are counted in the searches too)
+         */
+        public long getFastSearches(FastPath path)
+        {
+            return fastSearches[path.ordinal()];
+        }
+
+        /**
+         * @return the histogram of the checks: the element i is the count of the searches with i checks
+         * (the last element is the count of the searches with MAX_STEPS checks and more)
+         */
+        public long[] getStepsHistogram()
+        {
+            return stepsHistogram.clone();
+        }
+
+        /**
+         * @return the histogram of the time: the element i is the count of the searches in [2^i, 2^(i+1)) ns
+         */
+        public long[] getLatencyHistogram()
+        {
+            return latencyHistogram.clone();
+        }
+
+        /**
+         * @param quantile the quantile in [0, 1], for example 0.99
+         * @return the upper bound of the bucket of the histogram of the time, which contains the quantile (in ns);
+         * 0 if there are no searches
+         */
+        public long getLatencyQuantile(double quantile)
+        {
+            if ( quantile < 0 || quantile > 1 )
+                throw new IllegalArgumentException("The quantile must be in [0, 1].");
+
+            long total = 0;
+            for (long count : latencyHistogram) total += count;
+            if ( total == 0 ) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long passed = 0;
+            for (int i = 0; i < latencyHistogram.length; i++)
+            {
+                passed += latencyHistogram[i];
+                if ( passed >= rank )
+                    return i < 62 ? 1L << (i + 1) : Long.MAX_VALUE;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Exports the counters as flat named values (for the metrics pipelines).
+         * The searches by the fast paths are exported as "searches.index" and so on.
+         * The histograms are exported by the non-empty buckets: "steps.N" and "latency.le_N" (N is the upper bound in ns).
+         *
+         * @return the values in the stable order
+         */
+        public Map<String, Long> asMap()
+        {
+            Map<String, Long> result = new LinkedHashMap<String, Long>();
+            result.put("searches", searches);
+            result.put("failures", failures);
+            result.put("steps", steps);
+            result.put("steps.max", maxSteps);
+            result.put("carries", carries);
+            result.put("weekDayFixes", weekDayFixes);
+            result.put("yearsScanned", yearsScanned);
+            result.put("nanos", totalNanos);
+
+            for (FastPath path : FastPath.values())
+                result.put("searches." + path.name().toLowerCase(), fastSearches[path.ordinal()]);
+
+            for (int i = 0; i < stepsHistogram.length; i++)
+                if ( stepsHistogram[i] != 0 ) result.put("steps." + i, stepsHistogram[i]);
+
+            for (int i = 0; i < latencyHistogram.length; i++)
+                if ( latencyHistogram[i] != 0 )
+                    result.put("latency.le_" + (i < 62 ? 1L << (i + 1) : Long.MAX_VALUE), latencyHistogram[i]);
+
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("ScheduleMetrics[searches=%d, failures=%d, steps=%d (max %d), carries=%d, " +
+                    "weekDayFixes=%d, yearsScanned=%d, p50=%dns, p99=%dns]",
+                    searches, failures, steps, maxSteps, carries, weekDayFixes, yearsScanned,
+                    getLatencyQuantile(0.5), getLatencyQuantile(0.99));
+        }
+    }
+
+
+
+    private static LongAdder[] newAdders(int count)
+    {
+        LongAdder result[] = new LongAdder[count];
+        for (int i = 0; i < count; i++) result[i] = new LongAdder();
+        return result;
+    }
+
+    private static long[] sums(LongAdder adders[])
+    {
+        long result[] = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) result[i] = adders[i].sum();
+        return result;
+    }
+}
@@ -1,7 +1,5 @@
 package com.habr.cron.opt;
 
-import java.util.GregorianCalendar;
-
 import static com.habr.cron.opt.ScheduleElements.*;
 
 /**
@@ -11,10 +9,26 @@ import static com.habr.cron.opt.ScheduleElements.*;
 class ScheduleModel
 {
     private final RangeList[] model;
+    private final int minYear; // the range of years
+    private final int maxYear;
+    private final Schedule.Precision precision;
 
     public ScheduleModel()
+    {
+        this(YEAR.min, YEAR.max, Schedule.Precision.MILLIS);
+    }
+
+    /**
+     * @param minYear the minimal year of the schedule
+     * @param maxYear the maximal year of the schedule
+     * @param precision the smallest element of the schedule
+     */
+    public ScheduleModel(int minYear, int maxYear, Schedule.Precision precision)
     {
         model = new RangeList[ScheduleElements.values().length];
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+        this.precision = precision;
     }
 
 
@@ -29,6 +43,27 @@ class ScheduleModel
         model[element.ordinal()] = ranges;
     }
 
+    public Schedule.Precision getPrecision()
+    {
+        return precision;
+    }
+
+    /**
+     * @return the minimum value of the element (the years are configurable)
+     */
+    public int getMin(ScheduleElements element)
+    {
+        return element == YEAR ? minYear : element.min;
+    }
+
+    /**
+     * @return the maximum value of the element (the years are configurable)
+     */
+    public int getMax(ScheduleElements element)
+    {
+        return element == YEAR ? maxYear : element.max;
+    }
+
 
     /**
      * Initializes missing schedule conditions by default.
@@ -50,6 +85,10 @@ class ScheduleModel
         if ( !isMillisecondsPresent() ) // skipped milliseconds is equals to '0' exactly
             setModelFor(MILLIS, new RangeList(new Range(0)));
 
+        // skipped parts of millisecond are equals to '0' exactly (they are not used by the millisecond precision)
+        if ( model[MICROS.ordinal()] == null ) setModelFor(MICROS, new RangeList(new Range(0)));
+        if ( model[NANOS.ordinal()] == null ) setModelFor(NANOS, new RangeList(new Range(0)));
+
     }
     public boolean isDatePresent()
     {
@@ -124,7 +163,7 @@ class ScheduleModel
 
             if ( month.isFebruary() && day.isLeapDay() && year.isConstant() )
             {
-                if ( !(new GregorianCalendar().isLeapYear(year.getValue())) )
+                if ( GregCalendar.isLeap(year.getValue()) == 0 )
                     throw new ScheduleFormatException("Invalid schedule for leap day", sourceSchedule);
 
             }
@@ -140,7 +179,7 @@ class ScheduleModel
             for (Range range: getModelFor(element))
                 if ( !range.isAsterisk() )
                 {
-                    boolean valid = (range.min >= element.min) && (range.max <= element.max);
+                    boolean valid = (range.min >= getMin(element)) && (range.max <= getMax(element));
 
                     if ( !valid && element == DAY_OF_MONTH ) valid = range.isLastDay() || range.isByLastDay();
 
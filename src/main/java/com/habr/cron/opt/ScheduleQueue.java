@@ -0,0 +1,244 @@
+package com.habr.cron.opt;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the next events of many schedules: the replacement of PriorityQueue&lt;Date&gt; of the next events,
+ * which are re-inserted after each NextEvent() and allocate the dates and the entries of the queue.
+ * The schedules are registered by int ids, and the next event of each armed schedule is kept
+ * in the indexed min-heap (see {@link IndexedHeap}), so the queue allocates nothing, while the schedules
+ * fire and are re-armed.
+ *
+ * The scheduler pops all due schedules at the time ({@link #poll(long, int[], long[])}) and re-arms them
+ * in one batch ({@link #rearm(int[], long[], int)}), or does both by {@link #advance(long, int[], long[])}.
+ * The events are searched by one search state, shared by all schedules of the queue
+ * (the digits are rebound to the matchers of each schedule, see Schedule.searchNext()).
+ * The schedule, which has no more events (out of schedule interval), is disarmed; its id stays registered.
+ *
+ * Not thread safe. Stateful class. The queue is driven by one thread
+ * (see {@link ScheduleDispatcher} for the dispatcher with the timer thread).
+ */
+public final class ScheduleQueue
+{
+    private final IndexedHeap heap;
+    private final Schedule.SearchContext context = new Schedule.SearchContext();
+
+    private Schedule schedules[]; // by the ids; null for the removed ids
+    private int free[]; // the stack of the removed ids
+    private int freeCount;
+    private int created; // count of the given ids
+
+
+
+    public ScheduleQueue()
+    {
+        this(16);
+    }
+
+    /**
+     * @param capacity the expected count of the schedules
+     */
+    public ScheduleQueue(int capacity)
+    {
+        capacity = Math.max(capacity, 16);
+        heap = new IndexedHeap(capacity);
+        schedules = new Schedule[capacity];
+        free = new int[16];
+    }
+
+
+    /**
+     * Registers the schedule and arms it by its next event after the time.
+     *
+     * @param schedule the schedule of events
+     * @param millis the time to search the first event from (milliseconds since January 1, 1970 UTC)
+     * @return the id of the schedule in the queue (the ids of the removed schedules are given again)
+     */
+    public int add(Schedule schedule, long millis)
+    {
+        if ( schedule == null )
+            throw new IllegalArgumentException("The schedule is required.");
+
+        int id = freeCount > 0 ? free[--freeCount] : created++;
+        if ( id == schedules.length ) schedules = Arrays.copyOf(schedules, id * 2);
+
+        schedules[id] = schedule;
+        arm(id, millis);
+        return id;
+    }
+
+    /**
+     * Removes the schedule from the queue.
+     *
+     * @param id the id of the schedule
+     */
+    public void remove(int id)
+    {
+        schedule(id);
+        heap.remove(id);
+        schedules[id] = null;
+
+        if ( freeCount == free.length ) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = id;
+    }
+
+    /**
+     * @param id the id of the schedule
+     * @return the registered schedule
+     */
+    public Schedule getSchedule(int id)
+    {
+        return schedule(id);
+    }
+
+    /**
+     * Arms the schedule by its next event after the time.
+     * The armed schedule is re-armed (the new event can be earlier or later than the armed one).
+     *
+     * @param id the id of the schedule
+     * @param millis the time to search the event from (milliseconds since January 1, 1970 UTC)
+     * @return false, if the schedule has no events after the time (it is disarmed)
+     */
+    public boolean arm(int id, long millis)
+    {
+        Schedule schedule = schedule(id);
+        try
+        {
+            long event = schedule.searchNext(context, millis);
+
+            if ( heap.contains(id) )
+                heap.update(id, event);
+            else
+                heap.add(id, event);
+
+            return true;
+        }
+        catch (IllegalStateException e)
+        {
+            heap.remove(id); // out of schedule interval; no more events
+            return false;
+        }
+    }
+
+    /**
+     * Stops the events of the schedule till it is armed again.
+     *
+     * @param id the id of the schedule
+     */
+    public void disarm(int id)
+    {
+        schedule(id);
+        heap.remove(id);
+    }
+
+    /**
+     * @param id the id of the schedule
+     * @return true, if the schedule waits for its event
+     */
+    public boolean isArmed(int id)
+    {
+        return heap.contains(id);
+    }
+
+    /**
+     * @param id the id of the armed schedule
+     * @return the next event of the schedule (milliseconds since January 1, 1970 UTC)
+     */
+    public long nextEvent(int id)
+    {
+        schedule(id);
+        return heap.keyOf(id);
+    }
+
+    /**
+     * @return count of the armed schedules
+     */
+    public int size()
+    {
+        return heap.size();
+    }
+
+    /**
+     * @return the earliest event of the armed schedules, or Long.MAX_VALUE, if there are no armed schedules
+     */
+    public long peekTime()
+    {
+        return heap.isEmpty() ? Long.MAX_VALUE : heap.peekKey();
+    }
+
+    /**
+     * Pops the schedules, whose events are due at the time (not later than it), in the order of the events.
+     * The popped schedules are disarmed; they are re-armed by {@link #rearm(int[], long[], int)}.
+     * Does not allocate memory.
+     *
+     * @param now the current time (milliseconds since January 1, 1970 UTC)
+     * @param ids the array for the ids of the schedules
+     * @param times the array for the events of the schedules
+     * @return count of the popped schedules (not more than the length of the arrays)
+     */
+    public int poll(long now, int ids[], long times[])
+    {
+        int max = Math.min(ids.length, times.length);
+        int count = 0;
+
+        while ( count < max && !heap.isEmpty() && heap.peekKey() <= now )
+        {
+            times[count] = heap.peekKey();
+            ids[count++] = heap.poll();
+        }
+
+        return count;
+    }
+
+    /**
+     * Re-arms the schedules by their next events after the times in one batch (usually, after poll()).
+     * The schedules without more events and the removed schedules are skipped.
+     * Does not allocate memory.
+     *
+     * @param ids the ids of the schedules
+     * @param times the times to search the events from (the fired events)
+     * @param count count of the schedules in the arrays
+     * @return count of the re-armed schedules
+     */
+    public int rearm(int ids[], long times[], int count)
+    {
+        int result = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int id = ids[i];
+            if ( schedules[id] != null && arm(id, times[i]) ) result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Pops the due schedules and re-arms them by their next events (see {@link #poll(long, int[], long[])}).
+     * Each schedule is popped once in the call, even if its next event is due too; the next call pops it again.
+     * Does not allocate memory.
+     *
+     * @param now the current time (milliseconds since January 1, 1970 UTC)
+     * @param ids the array for the ids of the fired schedules
+     * @param times the array for the fired events
+     * @return count of the fired schedules
+     */
+    public int advance(long now, int ids[], long times[])
+    {
+        int count = poll(now, ids, times);
+        rearm(ids, times, count);
+        return count;
+    }
+
+
+
+
+    private Schedule schedule(int id)
+    {
+        Schedule schedule = id >= 0 && id < created ? schedules[id] : null;
+        if ( schedule == null )
+            throw new IllegalArgumentException("The schedule is not registered: " + id);
+
+        return schedule;
+    }
+}
@@ -0,0 +1,159 @@
+package com.habr.cron.opt;
+
+/**
+ * Reusable searcher of the events of the schedule (see {@link Schedule#newSearcher()}).
+ * It owns the calendar and its digits, so the searches don't rebuild them and don't touch the thread-local state.
+ * The searcher is re-seeded by a new time and direction ({@link #reset(long, boolean)}),
+ * and then it returns the events one by one ({@link #next()}) or by batches ({@link #fill(long[], int, int, long)}).
+ * The following events are found by the increments of the digits, as the generators do.
+ * The events of the schedules with precision finer than milliseconds are truncated to milliseconds,
+ * so the same time can be returned several times.
+ * Not thread safe. Stateful class. Keep one instance per thread.
+ */
+public final class ScheduleSearcher
+{
+    private final Schedule schedule;
+    private final Schedule.SearchContext context = new Schedule.SearchContext();
+    private final boolean zoned;
+
+    private boolean forward;
+    private long last; // the last returned event (or the start)
+    private long event; // the last found event
+    private int fraction; // the parts of millisecond of the found event (for zoned schedules)
+    private boolean found; // the event is found, but not returned yet
+    private boolean started; // the digits are at the found event
+    private boolean finished; // there are no more events in the schedule
+
+
+
+    ScheduleSearcher(Schedule schedule)
+    {
+        this.schedule = schedule;
+        this.zoned = schedule.getZone() != null;
+        reset(System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Re-seeds the searcher. Does not allocate memory.
+     *
+     * @param millis the time to start search from (milliseconds since January 1, 1970 UTC);
+     *               the first event is after it (before it for the backward search)
+     * @param forward direction mode; true - is forward, false - is backward.
+     * @return this searcher
+     */
+    public ScheduleSearcher reset(long millis, boolean forward)
+    {
+        this.forward = forward;
+        this.last = millis;
+        this.event = millis;
+        this.fraction = 0;
+        this.found = false;
+        this.started = false;
+        this.finished = false;
+        return this;
+    }
+
+    /**
+     * Finds the next event after the last one (after the start for the first call). Does not allocate memory.
+     *
+     * @return the event time (milliseconds since January 1, 1970 UTC)
+     * @throws IllegalStateException if there are no more events in the schedule
+     */
+    public long next()
+    {
+        last = peek();
+        found = false;
+        return last;
+    }
+
+    /**
+     * Writes the next events into the array (see {@link com.habr.cron.ScheduleEventsGenerator#fill(long[], int, int, long)}).
+     * Stops at the first event after 'until' (before 'until' for the backward search);
+     * this event is not consumed and will be returned by the next call.
+     * Does not allocate memory.
+     *
+     * @param out the array to write in
+     * @param offset the first index in the array to write
+     * @param max the maximum count of events to write
+     * @param until the bound of events (inclusive)
+     * @return count of written events
+     */
+    public int fill(long[] out, int offset, int max, long until)
+    {
+        int count = 0;
+        try
+        {
+            while ( count < max )
+            {
+                long millis = peek();
+                if ( forward ? millis > until : millis < until ) break; // keep it for the next call
+
+                out[offset + count++] = next();
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // there are no more events
+        }
+        return count;
+    }
+
+    /**
+     * @return the last event (the start, if there were no events after the reset)
+     */
+    public long last()
+    {
+        return last;
+    }
+
+    /**
+     * @return the direction of the search; true - is forward, false - is backward.
+     */
+    public boolean isForward()
+    {
+        return forward;
+    }
+
+    /**
+     * @return the schedule of the searcher
+     */
+    public Schedule getSchedule()
+    {
+        return schedule;
+    }
+
+    @Override
+    public String toString()
+    {
+        return schedule.toString();
+    }
+
+
+
+
+    /**
+     * @return the next event (it is found once and kept till it is returned)
+     */
+    private long peek()
+    {
+        if ( found ) return event;
+        if ( finished ) throw new IllegalStateException("Out of schedule interval");
+
+        try
+        {
+            event = started ?
+                    schedule.searchFollowing(context, event, fraction, forward) :
+                    schedule.searchFirst(context, event, forward);
+        }
+        catch (IllegalStateException e)
+        {
+            finished = true; // the digits are broken; the searcher is reset only
+            throw e;
+        }
+
+        if ( zoned ) fraction = schedule.fractionOfEvent();
+        started = true;
+        found = true;
+        return event;
+    }
+}
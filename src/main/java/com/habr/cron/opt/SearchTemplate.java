@@ -0,0 +1,401 @@
+package com.habr.cron.opt;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * The template of the compiled searches (see {@link ScheduleCompiler}).
+ * It is the same search as the digits do (see {@link CalendarDigits} and Schedule.isCanSearchDown()),
+ * but the current digit is a local variable, and each call of a matcher is written separately for each digit.
+ * The compiler defines a copy of this class for each shape of schedules (the classes of the matchers),
+ * so each call of a matcher in the copy sees the one class of matcher, and the JIT compiler inlines it;
+ * the shared digits see all classes of matchers of all schedules and call them virtually.
+ * The proxy of the last day of month is inlined too (see {@link LastDayOfMonthProxy}).
+ * Thread-Safe. Unmodifiable.
+ */
+class SearchTemplate extends CompiledSearch
+{
+    private static final int YEAR_IDX = 0;
+    private static final int DAY_IDX = 2;
+    private static final int HOURS_IDX = 3;
+    private static final int MILLIS_IDX = 6;
+
+    private static final String OUT_MESSAGE = "Out of schedule interval";
+
+    private final DigitMatcher years;
+    private final DigitMatcher months;
+    private final DigitMatcher days; // the matcher of the days of month (without proxy)
+    private final DigitMatcher hours;
+    private final DigitMatcher minutes;
+    private final DigitMatcher seconds;
+    private final DigitMatcher millis;
+    private final DigitMatcher micros;
+    private final DigitMatcher nanos;
+
+    private final MatcherPool pool;
+    private final int last; // the last digit according the precision of the schedule
+    private final boolean anyDate;
+    private final boolean anyWeekDay;
+    private final boolean plainDays; // the days of month have no the last day of month (see LastDayOfMonthProxy.match())
+
+
+    SearchTemplate(MatcherPool pool)
+    {
+        DigitMatcher m[] = pool.getMatcherPool();
+        years = m[YEAR.ordinal()];
+        months = m[MONTH.ordinal()];
+        days = m[DAY_OF_MONTH.ordinal()];
+        hours = m[HOURS.ordinal()];
+        minutes = m[MINUTES.ordinal()];
+        seconds = m[SECONDS.ordinal()];
+        millis = m[MILLIS.ordinal()];
+        micros = m[MICROS.ordinal()];
+        nanos = m[NANOS.ordinal()];
+
+        this.pool = pool;
+        last = MILLIS_IDX + pool.getPrecision().digits;
+        anyDate = pool.isAnyDate();
+        anyWeekDay = pool.isAnyWeekDay();
+        plainDays = days.getLow() < days.getHigh() && days.getHigh() < FEBRUARY_LEAP_DAY;
+    }
+
+
+    long search(GregCalendar calendar, boolean forward, boolean canEqual)
+    {
+        // skip date check, if not present in schedule
+        int current = anyDate ? HOURS_IDX : YEAR_IDX;
+
+        while ( true ) // see Schedule.isCanSearchDown()
+        {
+            int value = calendar.getValue(current);
+
+            if ( forward ? isBelow(current, value, calendar) : isAbove(current, value, calendar) )
+            {
+                resetOrIncrementDigits(current, true, forward, calendar);
+                break;
+            }
+
+            if ( forward ? isAbove(current, value, calendar) : isBelow(current, value, calendar) )
+            {
+                if ( current == YEAR_IDX ) throw new IllegalStateException(OUT_MESSAGE);
+                resetOrIncrementDigits(current - 1, false, forward, calendar);
+                break;
+            }
+
+            if ( match(current, value, calendar) && calendar.isCorrect() )
+            {
+                if ( current != last )
+                {
+                    current++;
+                    continue;
+                }
+                if ( canEqual ) break;
+            }
+
+            resetOrIncrementDigits(current, false, forward, calendar);
+            break;
+        }
+
+        // corrects the date by the days of week (see Schedule.fixWeekDay())
+        if ( !anyWeekDay && !pool.getWeekDaysMap().contains(calendar.getDayOfWeek()) )
+        {
+            pool.getValidDays().moveToNext(calendar, forward);
+            resetOrIncrementDigits(HOURS_IDX, true, forward, calendar);
+        }
+
+        return calendar.asMillis();
+    }
+
+    /**
+     * See CalendarDigits.resetOrIncrementDigits().
+     */
+    private void resetOrIncrementDigits(int current, boolean init, boolean forward, GregCalendar calendar)
+    {
+        do
+        {
+            if ( current != DAY_IDX )
+            {
+                if ( init )
+                    calendar.setValue(current, forward ? getLow(current, calendar) : getHigh(current, calendar));
+
+                else
+                {
+                    int prev = calendar.getValue(current);
+                    if ( init = (forward ? hasNext(current, prev, calendar) : hasPrev(current, prev, calendar)) )
+                        calendar.setValue(current, forward ? getNext(current, prev, calendar) : getPrev(current, prev, calendar));
+                }
+            }
+            else
+                init = tryToSetupDayOfMonth(init, forward, calendar);
+
+            if ( init ) current++; else current--;
+        }
+        while ( YEAR_IDX <= current && current <= last );
+
+
+        if ( current < YEAR_IDX ) throw new IllegalStateException(OUT_MESSAGE); // out of schedule bounds (on top)
+    }
+
+    /**
+     * See CalendarDigits.tryToSetupDayOfMonth().
+     */
+    private boolean tryToSetupDayOfMonth(boolean init, boolean forward, GregCalendar calendar)
+    {
+        if ( init )
+        {
+            int initial = forward ? dayLow(calendar) : dayHigh(calendar);
+
+            boolean correct = dayMatch(initial, calendar);
+
+            if ( !correct )
+            {
+                correct = forward ? dayHasNext(initial, calendar) : dayHasPrev(initial, calendar);
+                if ( correct )
+                {
+                    initial = forward ? dayNext(initial, calendar) : dayPrev(initial, calendar);
+                    correct = calendar.isCorrectDay(initial) && dayMatch(initial, calendar);
+                }
+            }
+
+            if ( correct )
+                calendar.day = initial;
+
+
+            return correct;
+        }
+        else
+        {
+            if ( !(forward ? dayHasNext(calendar.day, calendar) : dayHasPrev(calendar.day, calendar)) ) return false;
+
+            int next = forward ? dayNext(calendar.day, calendar) : dayPrev(calendar.day, calendar);
+            boolean correct = calendar.isCorrectDay(next) && dayMatch(next, calendar);
+
+            if ( correct )
+                calendar.day = next;
+
+            return correct;
+        }
+    }
+
+
+
+
+    /*
+        The calls of the matchers, one for each digit.
+     */
+
+    private boolean match(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.match(value);
+            case 1: return months.match(value);
+            case 2: return dayMatch(value, calendar);
+            case 3: return hours.match(value);
+            case 4: return minutes.match(value);
+            case 5: return seconds.match(value);
+            case 6: return millis.match(value);
+            case 7: return micros.match(value);
+            default: return nanos.match(value);
+        }
+    }
+
+    private boolean isAbove(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.isAbove(value);
+            case 1: return months.isAbove(value);
+            case 2: return value > dayHigh(calendar);
+            case 3: return hours.isAbove(value);
+            case 4: return minutes.isAbove(value);
+            case 5: return seconds.isAbove(value);
+            case 6: return millis.isAbove(value);
+            case 7: return micros.isAbove(value);
+            default: return nanos.isAbove(value);
+        }
+    }
+
+    private boolean isBelow(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.isBelow(value);
+            case 1: return months.isBelow(value);
+            case 2: return value < dayLow(calendar);
+            case 3: return hours.isBelow(value);
+            case 4: return minutes.isBelow(value);
+            case 5: return seconds.isBelow(value);
+            case 6: return millis.isBelow(value);
+            case 7: return micros.isBelow(value);
+            default: return nanos.isBelow(value);
+        }
+    }
+
+    private int getLow(int digit, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.getLow();
+            case 1: return months.getLow();
+            case 2: return dayLow(calendar);
+            case 3: return hours.getLow();
+            case 4: return minutes.getLow();
+            case 5: return seconds.getLow();
+            case 6: return millis.getLow();
+            case 7: return micros.getLow();
+            default: return nanos.getLow();
+        }
+    }
+
+    private int getHigh(int digit, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.getHigh();
+            case 1: return months.getHigh();
+            case 2: return dayHigh(calendar);
+            case 3: return hours.getHigh();
+            case 4: return minutes.getHigh();
+            case 5: return seconds.getHigh();
+            case 6: return millis.getHigh();
+            case 7: return micros.getHigh();
+            default: return nanos.getHigh();
+        }
+    }
+
+    private int getNext(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.getNext(value);
+            case 1: return months.getNext(value);
+            case 2: return dayNext(value, calendar);
+            case 3: return hours.getNext(value);
+            case 4: return minutes.getNext(value);
+            case 5: return seconds.getNext(value);
+            case 6: return millis.getNext(value);
+            case 7: return micros.getNext(value);
+            default: return nanos.getNext(value);
+        }
+    }
+
+    private int getPrev(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.getPrev(value);
+            case 1: return months.getPrev(value);
+            case 2: return dayPrev(value, calendar);
+            case 3: return hours.getPrev(value);
+            case 4: return minutes.getPrev(value);
+            case 5: return seconds.getPrev(value);
+            case 6: return millis.getPrev(value);
+            case 7: return micros.getPrev(value);
+            default: return nanos.getPrev(value);
+        }
+    }
+
+    private boolean hasNext(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.hasNext(value);
+            case 1: return months.hasNext(value);
+            case 2: return dayHasNext(value, calendar);
+            case 3: return hours.hasNext(value);
+            case 4: return minutes.hasNext(value);
+            case 5: return seconds.hasNext(value);
+            case 6: return millis.hasNext(value);
+            case 7: return micros.hasNext(value);
+            default: return nanos.hasNext(value);
+        }
+    }
+
+    private boolean hasPrev(int digit, int value, GregCalendar calendar)
+    {
+        switch ( digit )
+        {
+            case 0: return years.hasPrev(value);
+            case 1: return months.hasPrev(value);
+            case 2: return dayHasPrev(value, calendar);
+            case 3: return hours.hasPrev(value);
+            case 4: return minutes.hasPrev(value);
+            case 5: return seconds.hasPrev(value);
+            case 6: return millis.hasPrev(value);
+            case 7: return micros.hasPrev(value);
+            default: return nanos.hasPrev(value);
+        }
+    }
+
+
+
+
+    /*
+        The days of month (see LastDayOfMonthProxy).
+     */
+
+    private boolean dayMatch(int value, GregCalendar calendar)
+    {
+        if ( plainDays )
+            return days.match(value);
+
+        int min = days.getLow();
+        int max = days.getHigh();
+        int actualMax = calendar.getMaxDay();
+
+        if ( min == max && max == LAST_DAY_OF_MONTH_CODE ) // it's a magic day
+            return value == actualMax;
+
+        max = Math.min(actualMax, max); // it's a standard range, at may be magic day in last
+        return min <= value && value <= max && days.match(value);
+    }
+
+    private int dayLow(GregCalendar calendar)
+    {
+        return Math.min(calendar.getMaxDay(), days.getLow());
+    }
+
+    private int dayHigh(GregCalendar calendar)
+    {
+        return Math.min(calendar.getMaxDay(), days.getHigh());
+    }
+
+    private int dayNext(int value, GregCalendar calendar)
+    {
+        int actualMax = calendar.getMaxDay();
+        if ( value < Math.min(actualMax, days.getHigh()) )
+        {
+            int next = days.getNext(value); // can return overflow (> actualMax)
+            return next < actualMax ? next : actualMax;
+        }
+        else
+            return 31 + 1; // return overflow (for any month)
+    }
+
+    private int dayPrev(int value, GregCalendar calendar)
+    {
+        int actualMax = calendar.getMaxDay();
+        if ( value > Math.min(actualMax, days.getLow()) )
+        {
+            do
+            {
+                value = days.getPrev(value);
+            }
+            while ( value > actualMax );
+
+            return value;
+        }
+        else
+            return -1; // return overflow (for any month)
+    }
+
+    private boolean dayHasNext(int value, GregCalendar calendar)
+    {
+        return value < dayHigh(calendar) && dayMatch(dayNext(value, calendar), calendar);
+    }
+
+    private boolean dayHasPrev(int value, GregCalendar calendar)
+    {
+        return value > dayLow(calendar) && dayMatch(dayPrev(value, calendar), calendar);
+    }
+}
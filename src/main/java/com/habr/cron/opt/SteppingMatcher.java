@@ -1,5 +1,9 @@
 package com.habr.cron.opt;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Matcher of calendar element for type values as 'range with step' (a-b/n)
  * and also 'asterisk with step' (* / n)
@@ -70,4 +74,33 @@ class SteppingMatcher implements DigitMatcher
     {
         return max;
     }
+
+
+
+    int getStep()
+    {
+        return step;
+    }
+
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeInt(step);
+    }
+
+    /**
+     * Restores the matcher, written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    static SteppingMatcher readFrom(DataInput in) throws IOException
+    {
+        int min = in.readInt();
+        int max = in.readInt(); // it is already aligned by the step
+        int step = in.readInt();
+        if ( min > max || step < 1 ) throw new IOException("Wrong range: " + min + "-" + max + "/" + step);
+
+        return new SteppingMatcher(min, max, step);
+    }
 }
@@ -0,0 +1,228 @@
+package com.habr.cron.opt;
+
+/**
+ * Matcher of calendar element as the tagged record: the kind and the fields of the kind.
+ * The methods are the switches by the kind, so the calls of the digits (see {@link CalendarDigits}) see only
+ * this class and the proxy of the last day of month, and the JIT compiler inlines them. The calls of the
+ * common matchers see all their classes in the process with many shapes of schedules, and are made by the interface.
+ *
+ * The kinds are the same as of {@link MappedMatcher} (the semantic is the same as of the source matchers):
+ *  CONSTANT - the value;
+ *  INTERVAL - low and high;
+ *  STEPPING - low, high and step;
+ *  BITS - low, high, the bit map of values since low and the summary map of non-empty cells
+ *         (all map matchers: hash map, bit map and the lists).
+ *
+ * The digits use the tagged matchers by the system property: -Dcom.habr.cron.opt.tagged=true
+ * Thread-Safe. Unmodifiable.
+ */
+final class TaggedMatcher implements DigitMatcher
+{
+    static final String PROPERTY = "com.habr.cron.opt.tagged";
+
+    /**
+     * true, if the digits use the tagged matchers (see {@link MatcherPool#getTaggedPool()})
+     */
+    static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    static final int CONSTANT = 1;
+    static final int INTERVAL = 2;
+    static final int STEPPING = 3;
+    static final int BITS = 4;
+
+    private final static int POWER = 6; // = log_2(64)
+    private final static int MASK = 63;
+    private final static int BITES_IN_MAP_ELEMENT = 64;
+
+    private final int kind;
+    private final int low;
+    private final int high;
+    private final int step; // for STEPPING
+    private final long map[]; // for BITS
+    private final long summary[];
+
+
+    private TaggedMatcher(int kind, int low, int high, int step, long map[], long summary[])
+    {
+        this.kind = kind;
+        this.low = low;
+        this.high = high;
+        this.step = step;
+        this.map = map;
+        this.summary = summary;
+    }
+
+    /**
+     * @param matcher the matcher of the schedule
+     * @return the tagged matcher with the same values
+     */
+    static TaggedMatcher of(DigitMatcher matcher)
+    {
+        if ( matcher instanceof TaggedMatcher ) return (TaggedMatcher) matcher;
+
+        int low = matcher.getLow();
+        int high = matcher.getHigh();
+
+        if ( matcher instanceof ConstantMatcher )
+            return new TaggedMatcher(CONSTANT, low, high, 0, null, null);
+
+        if ( matcher instanceof IntervalMatcher )
+            return new TaggedMatcher(INTERVAL, low, high, 0, null, null);
+
+        if ( matcher instanceof SteppingMatcher )
+            return new TaggedMatcher(STEPPING, low, high, ((SteppingMatcher) matcher).getStep(), null, null);
+
+        // the map matchers: the values are collected by the matcher itself
+        long map[] = new long[((high - low) >> POWER) + 1];
+        long summary[] = new long[((map.length - 1) >> POWER) + 1];
+        for (int value = low; value <= high; value++)
+        {
+            if ( !MatcherPool.matches(matcher, value) ) continue;
+
+            int el = (value - low) >> POWER;
+            map[el] |= 1L << (value - low);
+            summary[el >> POWER] |= 1L << el;
+        }
+
+        return new TaggedMatcher(BITS, low, high, 0, map, summary);
+    }
+
+    int getKind()
+    {
+        return kind;
+    }
+
+
+
+
+    public boolean match(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return value == low;
+            case INTERVAL: return low <= value && value <= high;
+            case STEPPING: return (value - low) % step == 0;
+            default:
+                if ( value < low || value > high ) return false;
+                int v = value - low;
+                return (map[v >> POWER] & (1L << v)) != 0;
+        }
+    }
+
+    public boolean isAbove(int value)
+    {
+        return value > high;
+    }
+
+    public boolean isBelow(int value)
+    {
+        return value < low;
+    }
+
+    public int getNext(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return low;
+            case INTERVAL: return value + 1;
+            case STEPPING: return value - (value - low) % step + step;
+            default:
+                if ( value >= high ) return value + 1; // out of bound
+                if ( value < low ) return low; // edge value
+
+                int v = value - low + 1; // search starts a next value
+                int el = v >> POWER;
+
+                int pos = BitmapUtils.forwardScanBit(map[el], v & MASK);
+                if ( pos == BITES_IN_MAP_ELEMENT ) // the rest of the cell is empty; go to the next non-empty cell
+                {
+                    el = nextCell(el + 1);
+                    pos = el < map.length ? Long.numberOfTrailingZeros(map[el]) : 0;
+                }
+                return (el << POWER) + pos + low;
+        }
+    }
+
+    public int getPrev(int value)
+    {
+        switch ( kind )
+        {
+            case CONSTANT: return low;
+            case INTERVAL: return value - 1;
+            case STEPPING:
+                int r = (value - low) % step;
+                return r > 0 ? value - r : value - step;
+            default:
+                if ( value <= low ) return value - 1; // out of bound
+                if ( value > high ) return high; // edge value
+
+                int v = value - low - 1; // search starts a previous value
+                int el = v >> POWER;
+
+                int pos = BitmapUtils.backwardScanBit(map[el], v & MASK);
+                if ( pos < 0 ) // the rest of the cell is empty; go to the previous non-empty cell
+                {
+                    el = prevCell(el - 1);
+                    pos = el >= 0 ? BITES_IN_MAP_ELEMENT - 1 - Long.numberOfLeadingZeros(map[el]) : BITES_IN_MAP_ELEMENT - 1;
+                }
+                return (el << POWER) + pos + low;
+        }
+    }
+
+    public boolean hasNext(int value)
+    {
+        return kind != CONSTANT && value < high;
+    }
+
+    public boolean hasPrev(int value)
+    {
+        return kind != CONSTANT && value > low;
+    }
+
+    public int getLow()
+    {
+        return low;
+    }
+
+    public int getHigh()
+    {
+        return high;
+    }
+
+
+
+
+    /**
+     * @return number of the first non-empty cell (from the 'from'), or map.length if not found
+     */
+    private int nextCell(int from)
+    {
+        if ( from >= map.length ) return map.length;
+
+        int s = from >> POWER;
+        long bits = summary[s] & (-1L << (from & MASK));
+        while ( bits == 0 )
+        {
+            if ( ++s == summary.length ) return map.length;
+            bits = summary[s];
+        }
+        return (s << POWER) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return number of the last non-empty cell (till the 'from'), or -1 if not found
+     */
+    private int prevCell(int from)
+    {
+        if ( from < 0 ) return -1;
+
+        int s = from >> POWER;
+        long bits = summary[s] & (-1L >>> (MASK - (from & MASK)));
+        while ( bits == 0 )
+        {
+            if ( --s < 0 ) return -1;
+            bits = summary[s];
+        }
+        return (s << POWER) + MASK - Long.numberOfLeadingZeros(bits);
+    }
+}
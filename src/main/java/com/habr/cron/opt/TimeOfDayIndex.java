@@ -0,0 +1,286 @@
+package com.habr.cron.opt;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * Index of the times of day of the schedules without the date (for example, "*:*:*.*", "*:*:*.5", "*:00:00"):
+ * the runs of the matching seconds of day and the runs of the matching milliseconds of second.
+ * Each day has the same events, so the search is the binary search of the second and of the millisecond,
+ * and the rollover to the next (previous) day by the arithmetic on the time; the digits are not used.
+ * Thread-Safe. Unmodifiable. It is built by the schedule on the first search (see Schedule.getTimeIndex()).
+ *
+ * The runs of consecutive values keep the index small for the dense schedules: "*:*:*.*" has one run of seconds
+ * and one run of milliseconds. The schedules with more than {@value #MAX_RUNS} runs of seconds (for example,
+ * "*:*:*&#47;2") are not indexed and are searched by the digits.
+ *
+ * The index is used by default; it is disabled by the system property: -Dcom.habr.cron.opt.timeofday=false
+ */
+final class TimeOfDayIndex
+{
+    static final String PROPERTY = "com.habr.cron.opt.timeofday";
+
+    /**
+     * true, if the schedules without the date are searched by the index
+     */
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(PROPERTY, "true"));
+
+    /**
+     * The maximal count of the runs of the seconds of day
+     */
+    static final int MAX_RUNS = 1024;
+
+    private static final long MILLIS_IN_DAY = 86400000L;
+    private static final String OUT_MESSAGE = "Out of schedule interval";
+
+    /**
+     * The index of the schedules, which are not indexed (see {@link #of(DigitMatcher[])}): it covers no time.
+     */
+    static final TimeOfDayIndex NONE = new TimeOfDayIndex(null, null, Long.MAX_VALUE, Long.MIN_VALUE);
+
+    private final Runs seconds; // of day
+    private final Runs millis; // of second
+    private final long first; // the start of the first year of the schedule
+    private final long last; // the end of the last year of the schedule
+
+
+    private TimeOfDayIndex(Runs seconds, Runs millis, long first, long last)
+    {
+        this.seconds = seconds;
+        this.millis = millis;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * @param matchers the matchers of the schedule without the date, indexed by the ordinals of {@link ScheduleElements}
+     * @return the index, or null, if the schedule has too many runs of seconds, or the digits don't visit
+     * the matching values of its matchers (see {@link MatcherPool#valuesOf(DigitMatcher, int)})
+     */
+    static TimeOfDayIndex of(DigitMatcher matchers[])
+    {
+        int hours[] = MatcherPool.valuesOf(matchers[HOURS.ordinal()], 23);
+        int minuteValues[] = MatcherPool.valuesOf(matchers[MINUTES.ordinal()], 59);
+        int secondValues[] = MatcherPool.valuesOf(matchers[SECONDS.ordinal()], 59);
+        int milliValues[] = MatcherPool.valuesOf(matchers[MILLIS.ordinal()], 999);
+        if ( hours == null || minuteValues == null || secondValues == null || milliValues == null ) return null;
+
+        Runs minutes = Runs.of(minuteValues, Integer.MAX_VALUE);
+        Runs secondsOfMinute = Runs.of(secondValues, Integer.MAX_VALUE);
+        boolean anySecond = secondsOfMinute.count == 1 && secondsOfMinute.starts[0] == 0 && secondsOfMinute.ends[0] == 59;
+
+        Runs seconds = new Runs(MAX_RUNS);
+        for (int h : hours)
+        {
+            for (int i = 0; i < minutes.count; i++)
+            {
+                int start = h * 3600 + minutes.starts[i] * 60;
+                int end = h * 3600 + minutes.ends[i] * 60;
+
+                if ( anySecond ) // the run of minutes is the run of seconds
+                {
+                    if ( !seconds.add(start, end + 59) ) return null;
+                    continue;
+                }
+
+                for (int minute = start; minute <= end; minute += 60)
+                    for (int j = 0; j < secondsOfMinute.count; j++)
+                        if ( !seconds.add(minute + secondsOfMinute.starts[j], minute + secondsOfMinute.ends[j]) ) return null;
+            }
+        }
+
+        Runs millis = Runs.of(milliValues, 1000);
+
+        DigitMatcher years = matchers[YEAR.ordinal()];
+        long first = LocalDate.of(years.getLow(), 1, 1).toEpochDay() * MILLIS_IN_DAY;
+        long last = LocalDate.of(years.getHigh(), 12, 31).toEpochDay() * MILLIS_IN_DAY + MILLIS_IN_DAY - 1;
+
+        return new TimeOfDayIndex(seconds.trim(), millis, first, last);
+    }
+
+
+    /**
+     * The digits don't check the year of the start of the search for the schedules without the date,
+     * so the searches from the times out of the years of the schedule are left to the digits.
+     *
+     * @param time the start time of the search (milliseconds since January 1, 1970 UTC)
+     * @return true, if the time is in the years of the schedule
+     */
+    boolean covers(long time)
+    {
+        return first <= time && time <= last;
+    }
+
+    /**
+     * Finds the event of the schedule.
+     *
+     * @param time the start time of the search in the years of the schedule (see {@link #covers(long)})
+     * @param forward the direction of the search
+     * @param canEqual the start time can be the result
+     * @return milliseconds of the event
+     * @throws IllegalStateException if the event is out of the years of the schedule
+     */
+    long find(long time, boolean forward, boolean canEqual)
+    {
+        if ( !canEqual ) time += forward ? 1 : -1;
+
+        long result = forward ? next(time) : prev(time);
+        if ( result < first || result > last ) throw new IllegalStateException(OUT_MESSAGE);
+
+        return result;
+    }
+
+    private long next(long time)
+    {
+        long day = Math.floorDiv(time, MILLIS_IN_DAY);
+        int ms = (int) (time - day * MILLIS_IN_DAY);
+        int second = ms / 1000;
+        ms %= 1000;
+
+        int found = seconds.next(second);
+        if ( found == second )
+        {
+            int m = millis.next(ms);
+            if ( m >= 0 ) return day * MILLIS_IN_DAY + second * 1000 + m;
+
+            found = seconds.next(second + 1);
+        }
+
+        if ( found < 0 ) // the first second of the next day
+        {
+            day++;
+            found = seconds.starts[0];
+        }
+
+        return day * MILLIS_IN_DAY + found * 1000 + millis.starts[0];
+    }
+
+    private long prev(long time)
+    {
+        long day = Math.floorDiv(time, MILLIS_IN_DAY);
+        int ms = (int) (time - day * MILLIS_IN_DAY);
+        int second = ms / 1000;
+        ms %= 1000;
+
+        int found = seconds.prev(second);
+        if ( found == second )
+        {
+            int m = millis.prev(ms);
+            if ( m >= 0 ) return day * MILLIS_IN_DAY + second * 1000 + m;
+
+            found = seconds.prev(second - 1);
+        }
+
+        if ( found < 0 ) // the last second of the previous day
+        {
+            day--;
+            found = seconds.ends[seconds.count - 1];
+        }
+
+        return day * MILLIS_IN_DAY + found * 1000 + millis.ends[millis.count - 1];
+    }
+
+
+
+    /**
+     * The sorted runs of consecutive values.
+     */
+    private static final class Runs
+    {
+        private int starts[];
+        private int ends[]; // inclusive
+        private int count;
+        private final int limit;
+
+        Runs(int limit)
+        {
+            this.limit = limit;
+            starts = new int[Math.min(limit, 16)];
+            ends = new int[starts.length];
+        }
+
+        /**
+         * @param values the values of the element in ascending order (see MatcherPool.valuesOf())
+         * @param limit the maximal count of the runs
+         * @return the runs of the values
+         */
+        static Runs of(int values[], int limit)
+        {
+            Runs runs = new Runs(limit);
+            for (int value : values)
+                runs.add(value, value);
+
+            return runs.trim();
+        }
+
+        /**
+         * Adds the values after all added values; the run is merged with the last one, if they are consecutive.
+         *
+         * @return false, if the limit of the runs is exceeded
+         */
+        boolean add(int start, int end)
+        {
+            if ( count > 0 && ends[count - 1] + 1 == start )
+            {
+                ends[count - 1] = end;
+                return true;
+            }
+
+            if ( count == limit ) return false;
+            if ( count == starts.length )
+            {
+                int length = Math.min(limit, count * 2);
+                starts = Arrays.copyOf(starts, length);
+                ends = Arrays.copyOf(ends, length);
+            }
+
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+            return true;
+        }
+
+        Runs trim()
+        {
+            starts = Arrays.copyOf(starts, count);
+            ends = Arrays.copyOf(ends, count);
+            return this;
+        }
+
+        /**
+         * @return the first value not less than the value, or -1, if there is no such value
+         */
+        int next(int value)
+        {
+            int low = 0;
+            int high = count - 1;
+            while ( low <= high ) // the first run, which ends not before the value
+            {
+                int mid = (low + high) >>> 1;
+                if ( ends[mid] < value ) low = mid + 1; else high = mid - 1;
+            }
+
+            if ( low == count ) return -1;
+            return Math.max(value, starts[low]);
+        }
+
+        /**
+         * @return the last value not greater than the value, or -1, if there is no such value
+         */
+        int prev(int value)
+        {
+            int low = 0;
+            int high = count - 1;
+            while ( low <= high ) // the last run, which starts not after the value
+            {
+                int mid = (low + high) >>> 1;
+                if ( starts[mid] > value ) high = mid - 1; else low = mid + 1;
+            }
+
+            if ( high < 0 ) return -1;
+            return Math.min(value, ends[high]);
+        }
+    }
+}
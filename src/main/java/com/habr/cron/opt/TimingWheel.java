@@ -0,0 +1,287 @@
+package com.habr.cron.opt;
+
+/**
+ * Hierarchical timing wheel with resolution of 1 millisecond.
+ * Not thread safe. Stateful class.
+ *
+ * The wheel has 7 levels of 64 slots; the slot of level N covers 64^N milliseconds,
+ * so the whole wheel covers 2^42 ms (about 139 years) ahead of the current time.
+ * Entries of the upper levels are cascaded down when the lower level completes the turn
+ * (the same algorithm, as used in the timers of the Linux kernel).
+ *
+ * Each level has a bitmap of non-empty slots, so the wheel jumps over the empty ticks
+ * instead of walking through them one by one.
+ *
+ * Difficulty:
+ *  insertion and removal - O(1)
+ *  expiration - O(1) amortized (each entry is cascaded at most 6 times)
+ */
+class TimingWheel
+{
+    private static final int BITS = 6; // = log_2(SIZE)
+    private static final int SIZE = 64; // slots in a level
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 7;
+    private static final long MAX_DELAY = (1L << (BITS * LEVELS)) - 1;
+
+    /**
+     * Element of the wheel. Entries are linked into a double linked list of the slot,
+     * so they can be added and removed without memory allocation.
+     */
+    static class Entry
+    {
+        long expiration; // the time to expire (milliseconds since January 1, 1970 UTC)
+        Entry prev;
+        Entry next;
+        int level; // the slot of the wheel, where the entry is linked
+        int index;
+
+        /**
+         * @return true, if the entry is linked into some slot of the wheel
+         */
+        boolean isScheduled()
+        {
+            return next != null;
+        }
+    }
+
+    /**
+     * Handler of the expired entries.
+     */
+    interface ExpirationHandler
+    {
+        /**
+         * Called for each expired entry. The entry is unlinked from the wheel already,
+         * so the handler may add it again with a new expiration time.
+         *
+         * @param entry the expired entry
+         */
+        void expired(Entry entry);
+    }
+
+
+    /**
+     * Slots of all levels. Each slot is a head of the circular list (sentinel entry).
+     */
+    private final Entry slots[][] = new Entry[LEVELS][SIZE];
+    /**
+     * Bitmaps of non-empty slots for each level.
+     */
+    private final long occupied[] = new long[LEVELS];
+
+    /**
+     * The next tick to process (milliseconds since January 1, 1970 UTC).
+     */
+    private long base;
+
+    private int size;
+
+
+
+    /**
+     * @param start the time of the first tick (milliseconds since January 1, 1970 UTC)
+     */
+    public TimingWheel(long start)
+    {
+        for (int level = 0; level < LEVELS; level++)
+            for (int index = 0; index < SIZE; index++)
+            {
+                Entry head = new Entry();
+                head.prev = head.next = head;
+                head.level = level;
+                head.index = index;
+                slots[level][index] = head;
+            }
+
+        base = start;
+    }
+
+    /**
+     * @return count of scheduled entries
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the next tick to process
+     */
+    public long getTime()
+    {
+        return base;
+    }
+
+    /**
+     * Adds the entry into the wheel according its expiration time.
+     * Already expired entries will be expired on the next call of advance().
+     *
+     * @param entry not scheduled entry
+     */
+    public void add(Entry entry)
+    {
+        assert !entry.isScheduled();
+
+        link(entry);
+        size++;
+    }
+
+    /**
+     * Removes the entry from the wheel.
+     *
+     * @param entry scheduled entry
+     */
+    public void remove(Entry entry)
+    {
+        if ( entry.isScheduled() )
+        {
+            unlink(entry);
+            size--;
+        }
+    }
+
+    /**
+     * Processes all ticks till the specified time (inclusive) and expires the entries.
+     *
+     * @param now the current time (milliseconds since January 1, 1970 UTC)
+     * @param handler the handler of the expired entries
+     * @return count of expired entries
+     */
+    public int advance(long now, ExpirationHandler handler)
+    {
+        int count = 0;
+
+        while ( base <= now )
+        {
+            int index = (int) (base & MASK);
+
+            if ( index == 0 ) cascade();
+
+            base++;
+
+            Entry head = slots[0][index];
+            while ( head.next != head )
+            {
+                Entry entry = head.next;
+                unlink(entry);
+                size--;
+                count++;
+
+                handler.expired(entry); // can add the entry again, but never into this slot
+            }
+
+            base = Math.min(findNextTick(), now + 1); // skip the empty ticks
+        }
+
+        return count;
+    }
+
+
+
+
+    /**
+     * Finds the nearest tick (from the base), when some slot must be expired or cascaded.
+     *
+     * @return the tick, or Long.MAX_VALUE if the wheel is empty
+     */
+    private long findNextTick()
+    {
+        long result = Long.MAX_VALUE;
+
+        for (int level = 0; level < LEVELS; level++)
+        {
+            long map = occupied[level];
+            if ( map == 0 ) continue;
+
+            int shift = BITS * level;
+            long turn = (base >> shift) & ~MASK; // the start of the current turn (in units of this level)
+
+            // the first non-empty slot, which will be processed in the current turn
+            long ahead = map & (-1L << (base >> shift & MASK));
+            long tick = ahead != 0 ? (turn + Long.numberOfTrailingZeros(ahead)) << shift : Long.MAX_VALUE;
+
+            if ( tick < base ) // the current slot was processed already (cascaded)
+            {
+                ahead &= ahead - 1; // clear the lowest bit
+                tick = ahead != 0 ? (turn + Long.numberOfTrailingZeros(ahead)) << shift : Long.MAX_VALUE;
+            }
+
+            if ( tick == Long.MAX_VALUE ) // all non-empty slots will be processed in the next turn
+                tick = (turn + SIZE + Long.numberOfTrailingZeros(map)) << shift;
+
+            result = Math.min(result, tick);
+        }
+
+        return result;
+    }
+
+    /**
+     * Moves the entries of the upper levels down, when the lower level completes the turn.
+     */
+    private void cascade()
+    {
+        for (int level = 1; level < LEVELS; level++)
+        {
+            int index = (int) ((base >> (BITS * level)) & MASK);
+
+            Entry head = slots[level][index];
+            while ( head.next != head )
+            {
+                Entry entry = head.next;
+                unlink(entry);
+                link(entry); // relative to the current base, it falls to the lower levels
+            }
+
+            if ( index != 0 ) break; // the next level has not completed the turn yet
+        }
+    }
+
+    private void link(Entry entry)
+    {
+        long expiration = entry.expiration;
+        long delay = expiration - base;
+
+        Entry head;
+        if ( delay < 0 ) // already expired; process on the next tick
+        {
+            head = slots[0][(int) (base & MASK)];
+        }
+        else
+        {
+            if ( delay > MAX_DELAY )
+            {
+                expiration = base + MAX_DELAY;
+                delay = MAX_DELAY;
+            }
+
+            int level = 0;
+            while ( delay >= SIZE )
+            {
+                delay >>= BITS;
+                level++;
+            }
+
+            head = slots[level][(int) ((expiration >> (BITS * level)) & MASK)];
+        }
+
+        entry.level = head.level;
+        entry.index = head.index;
+        occupied[entry.level] |= 1L << entry.index;
+
+        entry.next = head;
+        entry.prev = head.prev;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private void unlink(Entry entry)
+    {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+
+        if ( entry.next == entry.prev ) // only the head is left
+            occupied[entry.level] &= ~(1L << entry.index);
+
+        entry.next = entry.prev = null;
+    }
+}
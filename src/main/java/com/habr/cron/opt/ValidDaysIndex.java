@@ -0,0 +1,209 @@
+package com.habr.cron.opt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+
+/**
+ * Index of the days of year, which match the date of the schedule: the month, the day of month
+ * (with the last day of month) and the day of week together.
+ * Thread-Safe. Unmodifiable. It is built by the pool on the first search, which needs it (see {@link MatcherPool#getValidDays()}).
+ *
+ * The matching days of a year depend only on the leap year and the week day of January 1,
+ * so there are only 14 types of years. Each type has the bit set of 366 days (6 longs),
+ * and the year matcher selects the years. So the index takes 672 bytes for any range of years,
+ * and the search of the date with the days of week is a scan for the next set bit.
+ */
+final class ValidDaysIndex
+{
+    private static final int DAYS_IN_LEAP_YEAR = 366;
+    private static final int ELAPSED_DAYS[][] = {
+            {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365},
+            {0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335, 366}
+    };
+    private static final String OUT_MESSAGE = "Out of schedule interval";
+
+    /**
+     * Size of the bit sets of days in bytes (see {@link #writeDays(DataOutput)})
+     */
+    static final int BYTES = 14 * ((DAYS_IN_LEAP_YEAR + 63) / 64) * 8;
+
+    private final DigitMatcher years;
+    /**
+     * The bit sets of days: days[leap * 7 + week day of January 1][day of year / 64]
+     */
+    private final long days[][] = new long[14][(DAYS_IN_LEAP_YEAR + 63) / 64];
+
+
+    public ValidDaysIndex(DigitMatcher matchers[], DaysMap weekMap)
+    {
+        this.years = matchers[YEAR.ordinal()];
+
+        DigitMatcher months = matchers[MONTH.ordinal()];
+        GregCalendar calendar = new GregCalendar();
+        LastDayOfMonthProxy dayMatcher = new LastDayOfMonthProxy(matchers[DAY_OF_MONTH.ordinal()], calendar);
+
+        for (int type = 0; type < 14; type++)
+        {
+            int leap = type / 7;
+            calendar.year = leap == 1 ? 2000 : 2001; // any year of such leap; the week days are shifted below
+
+            for (int month = 1; month <= 12; month++)
+            {
+                if ( !MatcherPool.matches(months, month) ) continue;
+
+                calendar.month = month;
+                int length = calendar.getMaxDay();
+                int start = ELAPSED_DAYS[leap][month - 1];
+
+                for (int day = 1; day <= length; day++)
+                {
+                    int dayOfYear = start + day - 1;
+                    if ( MatcherPool.matches(dayMatcher, day) && weekMap.contains((type % 7 + dayOfYear) % 7) )
+                        days[type][dayOfYear >> 6] |= 1L << dayOfYear;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the index from the bit sets of days, written by {@link #writeDays(DataOutput)}.
+     * The index has no years: they are passed to {@link #moveToNext(DigitMatcher, GregCalendar, boolean)}.
+     *
+     * @param buffer the buffer with the bit sets
+     * @param offset the position of the bit sets in the buffer
+     */
+    ValidDaysIndex(ByteBuffer buffer, int offset)
+    {
+        this.years = null;
+        for (long bits[] : days)
+            for (int i = 0; i < bits.length; i++, offset += 8)
+                bits[i] = buffer.getLong(offset);
+    }
+
+    /**
+     * Writes the bit sets of days ({@link #BYTES} bytes); the years are not written.
+     */
+    void writeDays(DataOutput out) throws IOException
+    {
+        for (long bits[] : days)
+            for (long word : bits)
+                out.writeLong(word);
+    }
+
+    /**
+     * Moves the calendar to the nearest matching date after (or before) the date of the calendar.
+     * The time is not changed.
+     *
+     * @param calendar the calendar with the current date
+     * @param forward the direction of the search
+     * @throws IllegalStateException if there are no matching dates in the range of years
+     */
+    public void moveToNext(GregCalendar calendar, boolean forward)
+    {
+        moveToNext(years, calendar, forward);
+    }
+
+    /**
+     * The same as {@link #moveToNext(GregCalendar, boolean)}, but with the given matcher of years.
+     */
+    void moveToNext(DigitMatcher years, GregCalendar calendar, boolean forward)
+    {
+        int year = calendar.year;
+        int day = dayOfYear(year, calendar.month, calendar.day) + (forward ? 1 : -1);
+
+        for (int scanned = 1; ; scanned++)
+        {
+            if ( MatcherPool.matches(years, year) )
+            {
+                long bits[] = days[typeOf(year)];
+                int found = forward ? nextSetBit(bits, day) : prevSetBit(bits, day);
+
+                if ( found >= 0 )
+                {
+                    setDayOfYear(calendar, year, found);
+                    if ( ScheduleMetrics.ENABLED ) ScheduleMetrics.recordYearsScanned(scanned);
+                    return;
+                }
+            }
+
+            if ( forward ? !years.hasNext(year) : !years.hasPrev(year) )
+                throw new IllegalStateException(OUT_MESSAGE); // we went beyond the schedule
+
+            year = forward ? years.getNext(year) : years.getPrev(year);
+            day = forward ? 0 : DAYS_IN_LEAP_YEAR - 1;
+        }
+    }
+
+    /**
+     * @return true, if the date matches the schedule
+     */
+    public boolean contains(int year, int month, int day)
+    {
+        int dayOfYear = dayOfYear(year, month, day);
+        return MatcherPool.matches(years, year) && (days[typeOf(year)][dayOfYear >> 6] & (1L << dayOfYear)) != 0;
+    }
+
+
+
+
+    /**
+     * @return type of the year: leap * 7 + week day of January 1
+     */
+    private static int typeOf(int year)
+    {
+        return GregCalendar.isLeap(year) * 7 + GregCalendar.dayOfWeek(year, 1, 1);
+    }
+
+    private static int dayOfYear(int year, int month, int day)
+    {
+        return ELAPSED_DAYS[GregCalendar.isLeap(year)][month - 1] + day - 1;
+    }
+
+    private static void setDayOfYear(GregCalendar calendar, int year, int dayOfYear)
+    {
+        int elapsed[] = ELAPSED_DAYS[GregCalendar.isLeap(year)];
+        int month = 1;
+        while ( elapsed[month] <= dayOfYear ) month++;
+
+        calendar.year = year;
+        calendar.month = month;
+        calendar.day = dayOfYear - elapsed[month - 1] + 1;
+    }
+
+    /**
+     * @return index of the first set bit since the index (inclusive), or -1
+     */
+    private static int nextSetBit(long bits[], int from)
+    {
+        int index = from >> 6;
+        if ( index >= bits.length ) return -1;
+
+        long word = bits[index] & (-1L << from); // the shift uses the lowest 6 bits
+        while ( true )
+        {
+            if ( word != 0 ) return (index << 6) + Long.numberOfTrailingZeros(word);
+            if ( ++index == bits.length ) return -1;
+            word = bits[index];
+        }
+    }
+
+    /**
+     * @return index of the last set bit till the index (inclusive), or -1
+     */
+    private static int prevSetBit(long bits[], int from)
+    {
+        if ( from < 0 ) return -1;
+
+        int index = from >> 6;
+        long word = bits[index] & (-1L >>> (63 - (from & 63)));
+        while ( true )
+        {
+            if ( word != 0 ) return (index << 6) + 63 - Long.numberOfLeadingZeros(word);
+            if ( --index < 0 ) return -1;
+            word = bits[index];
+        }
+    }
+}
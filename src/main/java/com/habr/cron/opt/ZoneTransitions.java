@@ -0,0 +1,236 @@
+package com.habr.cron.opt;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Precomputed table of the offset transitions of a time zone for a range of years.
+ * Thread-Safe. Unmodifiable. Tables are shared between schedules (see {@link #of(ZoneId, int, int)}).
+ *
+ * The transitions split the time line into segments with a constant offset.
+ * Each segment has a window of local time (wall clock time), which is searched by the schedule:
+ *
+ *  segment:  ...| o[j-1] |   o[j]    | o[j+1] |...
+ *  instants:  T[j-1]    T[j]        T[j+1]
+ *  window j: [T[j] + o[j], T[j+1] + o[j])
+ *
+ * On a gap (the offset grows, the clocks are moved forward) the local times between the windows don't exist.
+ * On an overlap (the offset decreases, the clocks are moved back) the windows intersect,
+ * and the local times of the intersection are repeated twice. To search fast, the windows are cut
+ * according to the overlap policy, so they don't intersect, and they are ordered like the segments:
+ * EARLIER cuts the start of the later window, LATER cuts the end of the earlier window.
+ */
+final class ZoneTransitions
+{
+    private static final long DAY = 86400000L; // the margin for the local time at the bounds of the range
+
+    /**
+     * One table for each zone; it is replaced by a wider one, when a schedule needs more years.
+     */
+    private static final ConcurrentMap<ZoneId, ZoneTransitions> CACHE = new ConcurrentHashMap<ZoneId, ZoneTransitions>();
+
+    private final ZoneId zone;
+    private final int minYear; // the range of years of the table
+    private final int maxYear;
+
+    /**
+     * Instants of the transitions (milliseconds since January 1, 1970 UTC), n items.
+     */
+    final long transitions[];
+    /**
+     * Offsets of the segments (milliseconds), n+1 items; offsets[j] works since transitions[j-1].
+     */
+    final int offsets[];
+    /**
+     * Local windows of the segments for each overlap policy (indexed by ordinal), n+1 items.
+     * The start is inclusive, the end is exclusive.
+     */
+    private final long starts[][];
+    private final long ends[][];
+
+
+
+    private ZoneTransitions(ZoneId zone, int minYear, int maxYear)
+    {
+        this.zone = zone;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+
+        long from = LocalDate.of(minYear, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - DAY;
+        long till = LocalDate.of(maxYear, 12, 31).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() + 2 * DAY;
+
+        ZoneRules rules = zone.getRules();
+        int count = 0;
+        long instants[] = new long[16];
+        int values[] = new int[17];
+
+        values[0] = offsetOf(rules.getOffset(Instant.ofEpochMilli(from)));
+
+        if ( !rules.isFixedOffset() )
+        {
+            ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(from));
+            while ( transition != null && transition.getInstant().toEpochMilli() < till )
+            {
+                if ( count == instants.length )
+                {
+                    instants = Arrays.copyOf(instants, count * 2);
+                    values = Arrays.copyOf(values, count * 2 + 1);
+                }
+
+                instants[count] = transition.getInstant().toEpochMilli();
+                values[++count] = offsetOf(transition.getOffsetAfter());
+
+                transition = rules.nextTransition(transition.getInstant());
+            }
+        }
+
+        transitions = Arrays.copyOf(instants, count);
+        offsets = Arrays.copyOf(values, count + 1);
+
+        Schedule.OverlapPolicy policies[] = Schedule.OverlapPolicy.values();
+        starts = new long[policies.length][];
+        ends = new long[policies.length][];
+        for (Schedule.OverlapPolicy policy : policies)
+            makeWindows(policy);
+    }
+
+    /**
+     * Returns the table of transitions for the time zone, which covers the range of years.
+     *
+     * @param zone the time zone
+     * @param minYear the minimal year
+     * @param maxYear the maximal year
+     * @return shared table
+     */
+    public static ZoneTransitions of(ZoneId zone, int minYear, int maxYear)
+    {
+        ZoneTransitions result = CACHE.get(zone);
+        if ( result == null || result.minYear > minYear || result.maxYear < maxYear )
+        {
+            if ( result != null ) // make the union, so the table will be enough for both schedules
+            {
+                minYear = Math.min(minYear, result.minYear);
+                maxYear = Math.max(maxYear, result.maxYear);
+            }
+            result = new ZoneTransitions(zone, minYear, maxYear);
+            CACHE.put(zone, result); // a concurrent thread can put another table; both are correct
+        }
+        return result;
+    }
+
+    public ZoneId getZone()
+    {
+        return zone;
+    }
+
+    /**
+     * @return true, if the offset of the zone is constant in the range of years
+     */
+    public boolean isFixed()
+    {
+        return transitions.length == 0;
+    }
+
+    /**
+     * @return count of the transitions
+     */
+    public int size()
+    {
+        return transitions.length;
+    }
+
+    /**
+     * Finds the segment of the instant.
+     *
+     * @param millis the instant (milliseconds since January 1, 1970 UTC)
+     * @return index of the segment
+     */
+    public int segmentOf(long millis)
+    {
+        int index = Arrays.binarySearch(transitions, millis);
+        return index >= 0 ? index + 1 : -index - 1; // count of transitions till the instant (inclusive)
+    }
+
+    /**
+     * Finds the window of the local time (or the gap after the window).
+     *
+     * @param local the local time (milliseconds since January 1, 1970 in the local time)
+     * @param starts the starts of windows for the policy
+     * @return index of the last window, which starts before the local time (or at it)
+     */
+    public static int windowOf(long local, long starts[])
+    {
+        int index = Arrays.binarySearch(starts, local);
+        if ( index < 0 ) return -index - 2;
+
+        while ( index + 1 < starts.length && starts[index + 1] == local ) index++; // skip empty windows
+        return index;
+    }
+
+    public long[] getStarts(Schedule.OverlapPolicy policy)
+    {
+        return starts[policy.ordinal()];
+    }
+
+    public long[] getEnds(Schedule.OverlapPolicy policy)
+    {
+        return ends[policy.ordinal()];
+    }
+
+    @Override
+    public String toString()
+    {
+        return zone + " " + minYear + ".." + maxYear + " (" + transitions.length + " transitions)";
+    }
+
+
+
+
+    private static int offsetOf(ZoneOffset offset)
+    {
+        return offset.getTotalSeconds() * 1000;
+    }
+
+    private void makeWindows(Schedule.OverlapPolicy policy)
+    {
+        int n = transitions.length;
+        long s[] = new long[n + 1];
+        long e[] = new long[n + 1];
+
+        s[0] = Long.MIN_VALUE;
+        e[n] = Long.MAX_VALUE;
+
+        for (int j = 0; j < n; j++)
+        {
+            long before = transitions[j] + offsets[j]; // the end of the window j
+            long after = transitions[j] + offsets[j + 1]; // the start of the window j+1
+
+            if ( after < before ) // overlap
+            {
+                if ( policy == Schedule.OverlapPolicy.EARLIER )
+                    after = before;
+                else
+                    before = after;
+            }
+
+            e[j] = before;
+            s[j + 1] = after;
+        }
+
+        for (int j = 0; j <= n; j++) // two transitions are too close; the window is empty
+        {
+            if ( e[j] < s[j] ) e[j] = s[j];
+            if ( j < n && s[j + 1] < e[j] ) s[j + 1] = e[j];
+        }
+
+        starts[policy.ordinal()] = s;
+        ends[policy.ordinal()] = e;
+    }
+}
@@ -0,0 +1,700 @@
+package com.habr.cron;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Differential fuzzer of the implementations of {@link Cron}.
+ * Generates random schedules and dates, runs the queries of all engines and compares them
+ * with {@link ReferenceCron}. Each divergence is minimized (the elements of the schedule are simplified
+ * and the date is rounded while the divergence remains) and recorded once for the engine, the query and the minimized schedule.
+ *
+ * The engines of ilya and novar work in the default time zone, so the fuzzer must be run in UTC
+ * (main() sets it). The engine, which doesn't support a query (UnsupportedOperationException), is skipped;
+ * IllegalStateException and IllegalArgumentException of a query mean "there is no such event".
+ *
+ * Run: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.habr.cron.DifferentialFuzzer
+ *      -Dexec.args="[seconds] [threads] [seed]"
+ */
+public class DifferentialFuzzer
+{
+    /**
+     * The engine under test
+     */
+    public interface Engine
+    {
+        String name();
+
+        Cron create(String schedule) throws Exception;
+    }
+
+    public enum Query
+    {
+        NEAREST, NEAREST_PREV, NEXT, PREV;
+
+        public Date apply(Cron cron, Date date)
+        {
+            switch (this)
+            {
+                case NEAREST: return cron.NearestEvent(date);
+                case NEAREST_PREV: return cron.NearestPrevEvent(date);
+                case NEXT: return cron.NextEvent(date);
+                default: return cron.PrevEvent(date);
+            }
+        }
+    }
+
+    /**
+     * The engines of the repository
+     */
+    public static final Engine ENGINES[] = {
+            new Engine()
+            {
+                public String name() { return "opt"; }
+                public Cron create(String schedule) throws Exception { return new com.habr.cron.opt.Schedule(schedule); }
+            },
+            new Engine()
+            {
+                public String name() { return "dev"; }
+                public Cron create(String schedule) throws Exception { return new com.habr.cron.dev.Schedule(schedule); }
+            },
+            new Engine()
+            {
+                public String name() { return "ilya"; }
+                public Cron create(String schedule) throws Exception { return new com.habr.cron.ilya.Schedule(schedule); }
+            },
+            new Engine()
+            {
+                public String name() { return "novar"; }
+                public Cron create(String schedule) throws Exception { return new com.habr.cron.novar.Schedule(schedule); }
+            },
+    };
+
+    private static final int DATES_PER_SCHEDULE = 8; // a schedule is parsed once for several dates
+    private static final int MAX_DIVERGENCES = 100; // the recorded ones; the rest are only counted
+    private static final long START = LocalDate.of(2000, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    private static final long END = LocalDate.of(2101, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+
+    private final int items; // the maximal count of items in the lists of the random schedules
+    private final Engine engines[];
+    private final LongAdder checks = new LongAdder(); // the compared results of the engines (counted by all threads)
+    private final LongAdder diverged = new LongAdder();
+    private final AtomicInteger abandonedWorkers = new AtomicInteger();
+    private final Map<String, Divergence> divergences = new ConcurrentHashMap<String, Divergence>();
+
+
+    /**
+     * @param items the maximal count of items in the lists of the random schedules
+     * @param engines the engines under test
+     */
+    public DifferentialFuzzer(int items, Engine... engines)
+    {
+        this.items = items;
+        this.engines = engines;
+    }
+
+    /**
+     * Checks the random cases by several threads.
+     * The current thread watches the workers: the query of an engine, which takes longer than {@link #HANG_MILLIS},
+     * is recorded as "hang" and the worker is stopped there. The worker, which isn't stopped in the next
+     * {@link #HANG_MILLIS} (the JVM can't stop threads, or the stop isn't delivered in the loop), is abandoned
+     * and replaced by a new worker with the next seed.
+     * The workers check the time limit before each query, so the run returns not later than
+     * {@link #HANG_MILLIS} after the limit; the workers, which are still busy then, are abandoned too.
+     *
+     * @param seed the seed of the random cases; the same seed gives the same cases for each thread
+     * @param threads count of threads
+     * @param cases count of schedules for each thread (0 - until the time is over)
+     * @param millis the limit of the time
+     */
+    public void run(long seed, int threads, long cases, long millis) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + millis;
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int t = 0; t < threads; t++)
+            workers.add(new Worker(new Random(seed + t), cases, deadline));
+
+        for (Worker worker : workers) worker.start();
+
+        while ( true )
+        {
+            boolean alive = false;
+            for (int w = 0; w < workers.size(); w++) // the replacements are watched in the same pass
+            {
+                Worker worker = workers.get(w);
+                worker.join(WATCH_MILLIS);
+                if ( !worker.isAlive() || worker.abandoned ) continue;
+
+                alive = true;
+                long started = worker.started;
+                if ( started != 0 && System.nanoTime() - started > HANG_MILLIS * 1000000L )
+                    worker.interruptCall(started);
+
+                if ( System.currentTimeMillis() > deadline + HANG_MILLIS )
+                    worker.abandon(); // the current query is over the limit of the time
+                else if ( worker.abandoned )
+                {
+                    Worker replacement = new Worker(new Random(seed + workers.size()), cases, deadline);
+                    workers.add(replacement);
+                    replacement.start();
+                }
+            }
+            if ( !alive ) break;
+        }
+
+        for (Worker worker : workers)
+            if ( worker.failure != null ) throw new IllegalStateException("The fuzzer failed", worker.failure);
+    }
+    private static final long HANG_MILLIS = 500;
+    private static final long WATCH_MILLIS = 20;
+
+    /**
+     * @return count of the workers, which were abandoned in the hung queries or after the limit of the time
+     */
+    public int getAbandoned()
+    {
+        return abandonedWorkers.get();
+    }
+
+    /**
+     * @return count of the compared results
+     */
+    public long getChecks()
+    {
+        return checks.sum();
+    }
+
+    /**
+     * @return count of the divergent results (before minimization)
+     */
+    public long getDivergedCount()
+    {
+        return diverged.sum();
+    }
+
+    /**
+     * @return the unique divergences after minimization (one for the engine, the query and the schedule)
+     */
+    public Collection<Divergence> getDivergences()
+    {
+        return divergences.values();
+    }
+
+
+
+    /**
+     * Checks the divergence again (it isn't a hang).
+     *
+     * @return true, if the engine of the divergence gives the same result again
+     */
+    public boolean reproduces(Divergence divergence)
+    {
+        for (Engine engine : engines)
+        {
+            if ( !engine.name().equals(divergence.engine) ) continue;
+
+            Divergence again = check(engine, divergence.query, divergence.spec, divergence.date);
+            return again != null && again.actual.equals(divergence.actual) && again.expected.equals(divergence.expected);
+        }
+        return false;
+    }
+
+
+
+    /**
+     * The thread of checks. It publishes the start of the current query of an engine for the watchdog.
+     */
+    private final class Worker extends Thread
+    {
+        private final Random random;
+        private final long cases;
+        private final long deadline;
+
+        volatile long started; // System.nanoTime() of the current query of an engine, or 0
+        private long stopped; // the start of the query, which was stopped (guarded by this)
+        volatile boolean abandoned; // the watchdog can't stop the hung query; the results of the thread are ignored
+        Throwable failure;
+
+        Worker(Random random, long cases, long deadline)
+        {
+            this.random = random;
+            this.cases = cases;
+            this.deadline = deadline;
+            setDaemon(true); // the abandoned thread must not keep the JVM
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (long i = 0; (cases == 0 || i < cases) && !isOver(); i++)
+                    checkRandomCase(random);
+            }
+            catch (Throwable e)
+            {
+                if ( !abandoned ) failure = e;
+            }
+        }
+
+        /**
+         * Stops the hung query, if it is still the same.
+         * The query, which is still running after the stop, is abandoned.
+         */
+        @SuppressWarnings("deprecation")
+        void interruptCall(long started)
+        {
+            synchronized (this)
+            {
+                if ( this.started != started ) return; // it has finished
+                if ( stopped == started )
+                {
+                    if ( System.nanoTime() - started > 2 * HANG_MILLIS * 1000000L ) abandon(); // the stop is lost
+                    return;
+                }
+                stopped = started;
+
+                try
+                {
+                    stop(); // throws ThreadDeath in the query; it is caught by outcome()
+                }
+                catch (UnsupportedOperationException e)
+                {
+                    abandon(); // JDK 20+ can't stop threads
+                }
+            }
+        }
+
+        /**
+         * The results of the thread are ignored from now; the daemon thread doesn't keep the JVM.
+         */
+        synchronized void abandon()
+        {
+            if ( abandoned ) return;
+            abandoned = true;
+            abandonedWorkers.incrementAndGet();
+        }
+
+        /**
+         * @return true, if the next query must not be started
+         */
+        boolean isOver()
+        {
+            return abandoned || System.currentTimeMillis() >= deadline;
+        }
+    }
+
+    /**
+     * @return true, if the current worker must not start the next query (out of the limit of the time);
+     * false for the other threads (minimization in the tests)
+     */
+    private static boolean isOver()
+    {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ((Worker) thread).isOver();
+    }
+
+    /**
+     * Calls the query of the engine under the watchdog.
+     */
+    private static Date call(Cron cron, Query query, Date date)
+    {
+        Thread thread = Thread.currentThread();
+        if ( !(thread instanceof Worker) ) return query.apply(cron, date); // minimization in the tests
+
+        Worker worker = (Worker) thread;
+        worker.started = System.nanoTime();
+        try
+        {
+            return query.apply(cron, date);
+        }
+        finally
+        {
+            synchronized (worker) // the watchdog doesn't stop the worker after this point
+            {
+                worker.started = 0;
+            }
+        }
+    }
+
+    /**
+     * Generates a schedule and several dates, and compares all engines for all queries.
+     */
+    void checkRandomCase(Random random)
+    {
+        Spec spec = Spec.random(random, items);
+        String schedule = spec.toString();
+        ReferenceCron reference = new ReferenceCron(schedule);
+
+        Cron crons[] = new Cron[engines.length];
+        String errors[] = new String[engines.length];
+        boolean hung[] = new boolean[engines.length];
+        for (int e = 0; e < engines.length; e++)
+            try
+            {
+                crons[e] = engines[e].create(schedule);
+            }
+            catch (Throwable t)
+            {
+                errors[e] = describe(t);
+            }
+
+        for (int i = 0; i < DATES_PER_SCHEDULE && !isOver(); i++)
+        {
+            long date = randomDate(random, reference);
+
+            for (Query query : Query.values())
+            {
+                String expected = outcome(reference, query, date);
+
+                for (int e = 0; e < engines.length; e++)
+                {
+                    if ( hung[e] || isOver() ) continue;
+
+                    String actual = errors[e] != null ? errors[e] : outcome(crons[e], query, date);
+                    if ( actual == null ) continue; // the query isn't supported
+
+                    checks.increment();
+                    if ( !actual.equals(expected) )
+                        record(engines[e], query, spec, date, expected, actual);
+
+                    hung[e] = actual.equals("hang"); // the engine is skipped till the next schedule
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a date of the years of the schedules, or a date near an event (to check the bounds)
+     */
+    private static long randomDate(Random random, ReferenceCron reference)
+    {
+        long date = START + (long) (random.nextDouble() * (END - START));
+        if ( random.nextBoolean() ) return date;
+
+        try
+        {
+            long event = reference.NearestEvent(new Date(date)).getTime();
+            return event + random.nextInt(3) - 1; // the event, and a millisecond before and after it
+        }
+        catch (IllegalStateException e)
+        {
+            return date;
+        }
+    }
+
+    /**
+     * @return the result of the query as a string: the date, "none" or the error; null if it isn't supported
+     */
+    private static String outcome(Cron cron, Query query, long date)
+    {
+        try
+        {
+            Date result = cron instanceof ReferenceCron ? query.apply(cron, new Date(date)) : call(cron, query, new Date(date));
+            return result == null ? "null" : format(result.getTime());
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return null;
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+        catch (IllegalArgumentException e)
+        {
+            return "none";
+        }
+        catch (ThreadDeath e)
+        {
+            return "hang";
+        }
+        catch (Throwable e)
+        {
+            return describe(e);
+        }
+    }
+
+    /**
+     * @return the class and the first line of the message of the error (the messages of the parsers are multiline)
+     */
+    private static String describe(Throwable e)
+    {
+        String message = e.getMessage();
+        if ( message == null ) return e.getClass().getName();
+
+        int end = message.indexOf('\n');
+        return e.getClass().getName() + ": " + (end < 0 ? message : message.substring(0, end));
+    }
+
+    private void record(Engine engine, Query query, Spec spec, long date, String expected, String actual)
+    {
+        diverged.increment();
+        if ( divergences.size() >= MAX_DIVERGENCES ) return;
+
+        Divergence divergence = new Divergence(engine.name(), query, spec, date, expected, actual);
+        if ( !actual.equals("hang") ) divergence = minimize(divergence, engine); // each check of a hang takes time
+        divergences.putIfAbsent(divergence.engine + ' ' + divergence.query + ' ' + divergence.schedule, divergence);
+    }
+
+    /**
+     * Simplifies the schedule and the date greedily, while the engine still diverges from the reference.
+     */
+    Divergence minimize(Divergence divergence, Engine engine)
+    {
+        boolean changed = true;
+        while ( changed && !isOver() ) // the partially minimized divergence is recorded after the limit of the time
+        {
+            changed = false;
+
+            for (Spec spec : divergence.spec.simplifications())
+            {
+                Divergence simpler = check(engine, divergence.query, spec, divergence.date);
+                if ( simpler != null )
+                {
+                    divergence = simpler;
+                    changed = true;
+                    break;
+                }
+            }
+
+            for (long unit : ROUNDING)
+            {
+                long date = divergence.date - Math.floorMod(divergence.date, unit);
+                if ( date == divergence.date ) continue;
+
+                Divergence simpler = check(engine, divergence.query, divergence.spec, date);
+                if ( simpler != null )
+                {
+                    divergence = simpler;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return divergence;
+    }
+    private static final long ROUNDING[] = {86400000L, 3600000L, 60000L, 1000L};
+
+    /**
+     * @return the divergence of the engine for the case, or null if the results are equal
+     */
+    private static Divergence check(Engine engine, Query query, Spec spec, long date)
+    {
+        String schedule = spec.toString();
+        String expected = outcome(new ReferenceCron(schedule), query, date);
+        String actual;
+        try
+        {
+            actual = outcome(engine.create(schedule), query, date);
+        }
+        catch (Throwable t)
+        {
+            actual = describe(t);
+        }
+
+        return actual == null || actual.equals(expected) ? null
+                : new Divergence(engine.name(), query, spec, date, expected, actual);
+    }
+
+    private static String format(long millis)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+
+
+
+    /**
+     * The divergence of an engine from the reference.
+     */
+    public static final class Divergence
+    {
+        public final String engine;
+        public final Query query;
+        public final String schedule;
+        public final long date;
+        public final String expected;
+        public final String actual;
+        private final Spec spec;
+
+        Divergence(String engine, Query query, Spec spec, long date, String expected, String actual)
+        {
+            this.engine = engine;
+            this.query = query;
+            this.spec = spec;
+            this.schedule = spec.toString();
+            this.date = date;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * @return the reproducer: the engine, the query, the schedule, the date, the expected and the actual results
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%s %s(\"%s\", \"%s\"): expected %s, but was %s",
+                    engine, query, schedule, format(date), expected, actual);
+        }
+    }
+
+
+    /**
+     * The elements of the schedule: yyyy.MM.dd w HH:mm:ss.fff
+     */
+    static final class Spec
+    {
+        private static final int MIN[] = {2000, 1, 1, 0, 0, 0, 0, 0};
+        private static final int MAX[] = {2100, 12, 32, 6, 23, 59, 59, 999};
+
+        final String elements[];
+        final boolean date; // the date is written
+        final boolean week; // the day of week is written
+        final boolean millis; // the milliseconds are written
+
+        Spec(String elements[], boolean date, boolean week, boolean millis)
+        {
+            this.elements = elements;
+            this.date = date;
+            this.week = week && date;
+            this.millis = millis;
+        }
+
+        static Spec random(Random random, int items)
+        {
+            String elements[] = new String[8];
+            for (int i = 0; i < elements.length; i++)
+                elements[i] = randomElement(random, MIN[i], MAX[i], items);
+
+            boolean date = random.nextInt(10) < 7;
+            boolean week = random.nextInt(10) < 4;
+            boolean millis = random.nextInt(10) < 6;
+
+            return new Spec(elements, date, week, millis);
+        }
+
+        /**
+         * @return '*' (often), or the list of values, ranges and steps
+         */
+        private static String randomElement(Random random, int min, int max, int items)
+        {
+            if ( random.nextInt(10) < 4 ) return "*";
+
+            StringBuilder result = new StringBuilder();
+            int count = 1 + random.nextInt(items);
+            for (int i = 0; i < count; i++)
+            {
+                if ( i > 0 ) result.append(',');
+
+                int a = min + random.nextInt(max - min + 1);
+                int b = min + random.nextInt(max - min + 1);
+                int step = 1 + random.nextInt(Math.max(1, (max - min) / 3));
+
+                switch (random.nextInt(4))
+                {
+                    case 0: result.append(a); break;
+                    case 1: result.append(Math.min(a, b)).append('-').append(Math.max(a, b)); break;
+                    case 2: result.append(Math.min(a, b)).append('-').append(Math.max(a, b)).append('/').append(step); break;
+                    default: result.append("*/").append(step);
+                }
+            }
+            return result.toString();
+        }
+
+        /**
+         * @return the simpler variants of the schedule: without an optional part, with '*' or with an item of list
+         */
+        List<Spec> simplifications()
+        {
+            List<Spec> result = new ArrayList<Spec>();
+
+            if ( week ) result.add(new Spec(elements, date, false, millis));
+            if ( millis && elements[7].equals("0") ) result.add(new Spec(elements, date, week, false));
+            if ( date && !week && elements[0].equals("*") && elements[1].equals("*") && elements[2].equals("*") )
+                result.add(new Spec(elements, false, false, millis));
+
+            for (int i = 0; i < elements.length; i++)
+            {
+                if ( !isWritten(i) ) continue;
+
+                Map<String, Boolean> variants = new LinkedHashMap<String, Boolean>();
+                variants.put("*", true);
+                String items[] = elements[i].split(",");
+                if ( items.length > 1 ) for (String item : items) variants.put(item, true);
+                for (String item : items)
+                    if ( item.indexOf('/') > 0 ) variants.put(item.substring(0, item.indexOf('/')), true); // without step
+
+                for (String variant : variants.keySet())
+                {
+                    if ( variant.equals(elements[i]) ) continue;
+
+                    String simpler[] = elements.clone();
+                    simpler[i] = variant;
+                    result.add(new Spec(simpler, date, week, millis));
+                }
+            }
+            return result;
+        }
+
+        private boolean isWritten(int element)
+        {
+            return element < 3 ? date : element == 3 ? week : element < 7 || millis;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder result = new StringBuilder();
+            if ( date ) result.append(elements[0]).append('.').append(elements[1]).append('.').append(elements[2]).append(' ');
+            if ( week ) result.append(elements[3]).append(' ');
+            result.append(elements[4]).append(':').append(elements[5]).append(':').append(elements[6]);
+            if ( millis ) result.append('.').append(elements[7]);
+            return result.toString();
+        }
+    }
+
+
+
+
+    /**
+     * Runs the fuzzer with all engines and prints the divergences.
+     *
+     * @param args [seconds (60)] [threads (count of processors)] [seed (current time)]
+     */
+    public static void main(String args[]) throws Exception
+    {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC")); // before the engines are loaded
+
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.currentTimeMillis();
+
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(3, ENGINES);
+        long start = System.nanoTime();
+        fuzzer.run(seed, threads, 0, seconds * 1000L);
+        double minutes = (System.nanoTime() - start) / 60e9;
+
+        for (Divergence divergence : fuzzer.getDivergences())
+            System.out.println(divergence);
+
+        System.out.println(String.format("seed %d, threads %d, %.0f seconds: %d checks (%.0f per minute), %d divergent, %d unique, %d threads abandoned",
+                seed, threads, minutes * 60, fuzzer.getChecks(), fuzzer.getChecks() / minutes,
+                fuzzer.getDivergedCount(), fuzzer.getDivergences().size(), fuzzer.getAbandoned()));
+    }
+}
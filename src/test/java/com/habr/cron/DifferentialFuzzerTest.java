@@ -0,0 +1,206 @@
+package com.habr.cron;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the differential fuzzer and its reference implementation.
+ */
+public class DifferentialFuzzerTest
+{
+    private static final SimpleDateFormat f = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+
+    static
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+
+    @Test(dataProvider = "reference_DataProvider")
+    public void testReference(String schedule, String date, String next, String prev) throws Exception
+    {
+        ReferenceCron reference = new ReferenceCron(schedule);
+
+        assertEquals(f.format(reference.NextEvent(f.parse(date))), next);
+        assertEquals(f.format(reference.PrevEvent(f.parse(date))), prev);
+        assertEquals(f.format(reference.NearestEvent(f.parse(next))), next);
+        assertEquals(f.format(reference.NearestPrevEvent(f.parse(prev))), prev);
+    }
+    @DataProvider
+    private Object[][] reference_DataProvider()
+    {
+        return new Object[][] {
+                {"*.*.20-32 12:00:00", "30.04.2021 12:00:00.001", "20.05.2021 12:00:00.000", "30.04.2021 12:00:00.000"},
+                {"*.*.32 5 10:00:00", "06.06.2005 07:08:09.123", "30.09.2005 10:00:00.000", "31.12.2004 10:00:00.000"},
+                {"*.2.29 0 *:*:*.500", "01.01.2021 00:00:00.000", "29.02.2032 00:00:00.500", "29.02.2004 23:59:59.500"},
+                {"*.*.*/10 *:*:*", "06.06.2005 07:08:09.123", "11.06.2005 00:00:00.000", "01.06.2005 23:59:59.000"},
+                {"*.9.*/2 1-5 10:00:00.000", "01.01.2021 00:00:00.000", "01.09.2021 10:00:00.000", "29.09.2020 10:00:00.000"},
+                {"*:*:22,*/12", "01.01.2021 00:00:00.000", "01.01.2021 00:00:12.000", "31.12.2020 23:59:48.000"},
+                {"*:*:*.1,2,3-5,10-20/3", "31.12.2020 23:59:59.020", "01.01.2021 00:00:00.001", "31.12.2020 23:59:59.019"},
+        };
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReferenceOutOfRange() throws Exception
+    {
+        new ReferenceCron("2000.1.1 0:0:0").PrevEvent(f.parse("01.01.2000 00:00:00.000"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReferenceWrongFormat() throws Exception
+    {
+        new ReferenceCron("*.*.33 0:0:0");
+    }
+
+    /**
+     * The engines are compared (ilya is skipped: it hangs on some schedules), and each divergence is reproduced.
+     */
+    @Test
+    public void testEngines() throws Exception
+    {
+        DifferentialFuzzer.Engine opt = DifferentialFuzzer.ENGINES[0];
+        DifferentialFuzzer.Engine novar = DifferentialFuzzer.ENGINES[3];
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(3, opt, novar);
+        fuzzer.run(1, 2, 200, 60000);
+
+        assertTrue(fuzzer.getChecks() >= 2 * 200 * 8 * 5, "novar supports NearestEvent() only"); // at least
+        for (DifferentialFuzzer.Divergence divergence : fuzzer.getDivergences())
+            assertTrue(fuzzer.reproduces(divergence), divergence.toString());
+    }
+
+    @Test
+    public void testDivergenceIsMinimized() throws Exception
+    {
+        DifferentialFuzzer.Engine broken = new DifferentialFuzzer.Engine()
+        {
+            public String name() { return "broken"; }
+
+            public Cron create(String schedule) throws Exception
+            {
+                final Cron cron = new ReferenceCron(schedule);
+                return new Cron()
+                {
+                    public Date NearestEvent(Date d) { return cron.NearestEvent(d); }
+                    public Date NearestPrevEvent(Date d) { return cron.NearestPrevEvent(d); }
+                    public Date PrevEvent(Date d) { return cron.PrevEvent(d); }
+
+                    public Date NextEvent(Date d)
+                    {
+                        Date result = cron.NextEvent(d);
+                        return result.getTime() % 1000 == 0 ? result : new Date(result.getTime() + 1); // the bug
+                    }
+                };
+            }
+        };
+
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(3, broken);
+        fuzzer.run(1, 1, 200, 60000);
+
+        assertTrue(fuzzer.getDivergedCount() > 0);
+        assertFalse(fuzzer.getDivergences().isEmpty());
+        for (DifferentialFuzzer.Divergence divergence : fuzzer.getDivergences())
+        {
+            assertEquals(divergence.query, DifferentialFuzzer.Query.NEXT, divergence.toString());
+            assertEquals(divergence.schedule, "*:*:*.*", divergence.toString()); // the simplest schedule with the bug
+            assertEquals(divergence.date % 86400000L, 0, divergence.toString()); // the date is rounded
+        }
+    }
+
+    @Test
+    public void testHangIsStopped() throws Exception
+    {
+        DifferentialFuzzer.Engine hung = new DifferentialFuzzer.Engine()
+        {
+            public String name() { return "hung"; }
+
+            public Cron create(String schedule) throws Exception
+            {
+                final Cron cron = new ReferenceCron(schedule);
+                return new Cron()
+                {
+                    public Date NearestEvent(Date d) { return cron.NearestEvent(d); }
+                    public Date NearestPrevEvent(Date d) { return cron.NearestPrevEvent(d); }
+                    public Date NextEvent(Date d) { return cron.NextEvent(d); }
+
+                    public Date PrevEvent(Date d)
+                    {
+                        while ( d.getTime() > 0 ) Thread.yield(); // the bug
+                        return null;
+                    }
+                };
+            }
+        };
+
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(3, hung);
+        fuzzer.run(1, 1, 1, 60000);
+
+        assertFalse(fuzzer.getDivergences().isEmpty());
+        for (DifferentialFuzzer.Divergence divergence : fuzzer.getDivergences())
+        {
+            assertEquals(divergence.query, DifferentialFuzzer.Query.PREV, divergence.toString());
+            assertEquals(divergence.actual, "hang", divergence.toString());
+        }
+    }
+
+    private static volatile boolean released;
+
+    /**
+     * The query swallows the stop (as if it is lost); the worker is abandoned and replaced,
+     * and the run ends in the limit of the time.
+     */
+    @Test
+    public void testTimeLimit() throws Exception
+    {
+        DifferentialFuzzer.Engine deaf = new DifferentialFuzzer.Engine()
+        {
+            public String name() { return "deaf"; }
+
+            public Cron create(String schedule) throws Exception
+            {
+                final Cron cron = new ReferenceCron(schedule);
+                return new Cron()
+                {
+                    public Date NearestEvent(Date d) { return cron.NearestEvent(d); }
+                    public Date NearestPrevEvent(Date d) { return cron.NearestPrevEvent(d); }
+                    public Date NextEvent(Date d) { return cron.NextEvent(d); }
+
+                    public Date PrevEvent(Date d)
+                    {
+                        while ( !released )
+                            try
+                            {
+                                Thread.sleep(10);
+                            }
+                            catch (Throwable e)
+                            {
+                                // the bug: the stop is swallowed
+                            }
+                        return null;
+                    }
+                };
+            }
+        };
+
+        released = false;
+        try
+        {
+            DifferentialFuzzer fuzzer = new DifferentialFuzzer(3, deaf);
+            long start = System.currentTimeMillis();
+            fuzzer.run(1, 1, 0, 3000);
+
+            assertTrue(System.currentTimeMillis() - start < 3000 + 2000, "the run is over the limit of the time");
+            assertTrue(fuzzer.getAbandoned() >= 2, "the hung worker is replaced");
+            assertTrue(fuzzer.getChecks() > 0);
+        }
+        finally
+        {
+            released = true; // the abandoned threads finish
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.habr.cron;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Date;
+
+/**
+ * The reference implementation of the schedule for the differential tests.
+ * It shares nothing with the engines: the own parser, the sets of allowed values, the tables of the matching days
+ * of years (the lengths of months are taken from java.time) and the exhaustive scan of days and of the times
+ * of day (by nested loops). Slow, but obviously correct.
+ * Works in UTC. Supports the format of {@link CronBase}; the years are limited by 2000-2100.
+ *
+ * Throws IllegalStateException, if there is no such event.
+ */
+public class ReferenceCron implements Cron
+{
+    private static final int MIN[] = {2000, 1, 1, 0, 0, 0, 0, 0};
+    private static final int MAX[] = {2100, 12, 32, 6, 23, 59, 59, 999};
+    private static final int LAST_DAY_OF_MONTH = 32;
+
+    private static final int YEAR = 0, MONTH = 1, DAY = 2, WEEK = 3, HOURS = 4, MILLIS = 7;
+    private static final long YEAR_START[] = new long[MAX[YEAR] - MIN[YEAR] + 2]; // epoch days of January 1
+
+    static
+    {
+        for (int i = 0; i < YEAR_START.length; i++)
+            YEAR_START[i] = LocalDate.of(MIN[YEAR] + i, 1, 1).toEpochDay();
+    }
+
+    /**
+     * The allowed values of the elements: yyyy.MM.dd w HH:mm:ss.fff
+     */
+    private final boolean allowed[][] = new boolean[8][];
+    /**
+     * The matching days of years (they are filled on the first use)
+     */
+    private final boolean days[][] = new boolean[MAX[YEAR] - MIN[YEAR] + 1][];
+
+
+    /**
+     * @param schedule the schedule in the format of {@link CronBase}
+     * @throws IllegalArgumentException if the schedule has a wrong format
+     */
+    public ReferenceCron(String schedule)
+    {
+        String parts[] = schedule.trim().split("\\s+");
+        if ( parts.length > 3 ) throw new IllegalArgumentException("Too many parts: " + schedule);
+
+        String date[] = parts.length > 1 ? split(parts[0], "\\.", 3) : new String[] {"*", "*", "*"};
+        String week = parts.length > 2 ? parts[1] : "*";
+        String time[] = split(parts[parts.length - 1], ":", 3);
+        String seconds[] = time[2].split("\\.", -1);
+        if ( seconds.length > 2 ) throw new IllegalArgumentException("Wrong seconds: " + schedule);
+
+        String elements[] = {date[0], date[1], date[2], week, time[0], time[1], seconds[0],
+                seconds.length == 2 ? seconds[1] : "0"};
+
+        for (int i = 0; i < elements.length; i++)
+            allowed[i] = parse(elements[i], MIN[i], MAX[i]);
+    }
+
+    public Date NearestEvent(Date d)
+    {
+        return new Date(find(d.getTime(), true));
+    }
+
+    public Date NearestPrevEvent(Date d)
+    {
+        return new Date(find(d.getTime(), false));
+    }
+
+    public Date NextEvent(Date d)
+    {
+        return new Date(find(d.getTime() + 1, true));
+    }
+
+    public Date PrevEvent(Date d)
+    {
+        return new Date(find(d.getTime() - 1, false));
+    }
+
+
+
+
+    /**
+     * @return the nearest event since the time (inclusive) in the direction
+     */
+    private long find(long millis, boolean forward)
+    {
+        LocalDateTime start = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), 0, ZoneOffset.UTC);
+        int time[] = {start.getHour(), start.getMinute(), start.getSecond(), (int) Math.floorMod(millis, 1000L)};
+        int first[] = {0, 0, 0, 0};
+        int last[] = {23, 59, 59, 999};
+
+        for (long day = start.toLocalDate().toEpochDay(); YEAR_START[0] <= day && day < YEAR_START[YEAR_START.length - 1];
+             day += forward ? 1 : -1)
+        {
+            if ( matches(day) )
+            {
+                int found = findTime(0, time, forward);
+                if ( found >= 0 )
+                    return day * 86400000L + found;
+            }
+            time = forward ? first : last;
+        }
+
+        throw new IllegalStateException("Out of schedule interval");
+    }
+
+    /**
+     * @param day epoch day in the range of years
+     */
+    private boolean matches(long day)
+    {
+        int index = (int) ((day - YEAR_START[0]) / 366);
+        while ( YEAR_START[index + 1] <= day ) index++;
+
+        boolean table[] = days[index];
+        if ( table == null ) days[index] = table = matchingDays(index);
+
+        return table[(int) (day - YEAR_START[index])];
+    }
+
+    /**
+     * @return the matching days of the year
+     */
+    private boolean[] matchingDays(int index)
+    {
+        int year = MIN[YEAR] + index;
+        boolean result[] = new boolean[(int) (YEAR_START[index + 1] - YEAR_START[index])];
+        int weekDay = (int) Math.floorMod(YEAR_START[index] + 4, 7L); // January 1, 1970 is Thursday
+
+        int i = 0;
+        for (int month = 1; month <= 12; month++)
+        {
+            int length = YearMonth.of(year, month).lengthOfMonth();
+            for (int day = 1; day <= length; day++, i++)
+            {
+                result[i] = allowed[YEAR][index] && allowed[MONTH][month] && allowed[WEEK][(weekDay + i) % 7]
+                        && (allowed[DAY][day] || day == length && allowed[DAY][LAST_DAY_OF_MONTH]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scans the values of the time elements since the field, starting with the given time.
+     *
+     * @return milliseconds of the day of the found time, or -1
+     */
+    private int findTime(int field, int time[], boolean forward)
+    {
+        boolean values[] = allowed[HOURS + field];
+        int bound = forward ? values.length : -1;
+        int step = forward ? 1 : -1;
+
+        for (int value = time[field]; value != bound; value += step)
+        {
+            if ( !values[value] ) continue;
+
+            if ( HOURS + field == MILLIS ) return value;
+
+            int next[] = time;
+            if ( value != time[field] ) // the minor elements start from the first (or the last) value
+            {
+                next = time.clone();
+                for (int minor = field + 1; minor < next.length; minor++)
+                    next[minor] = forward ? 0 : allowed[HOURS + minor].length - 1;
+            }
+
+            int found = findTime(field + 1, next, forward);
+            if ( found >= 0 ) return found + value * UNITS[field];
+        }
+        return -1;
+    }
+    private static final int UNITS[] = {3600000, 60000, 1000, 1};
+
+
+
+    private static String[] split(String part, String separator, int count)
+    {
+        String result[] = part.split(separator, -1);
+        if ( result.length != count ) throw new IllegalArgumentException("Wrong part: " + part);
+        return result;
+    }
+
+    /**
+     * Parses the list of the element: '*', 'a', 'a-b', '*\/n', 'a-b/n' separated by commas.
+     *
+     * @return the allowed values (indexed by the value itself, or by the offset from the minimum for years)
+     */
+    private static boolean[] parse(String element, int min, int max)
+    {
+        int offset = min >= 2000 ? min : 0; // years are stored since the minimum
+        boolean result[] = new boolean[max - offset + 1];
+
+        for (String item : element.split(",", -1))
+        {
+            int step = 1;
+            int slash = item.indexOf('/');
+            if ( slash >= 0 )
+            {
+                step = Integer.parseInt(item.substring(slash + 1));
+                item = item.substring(0, slash);
+                if ( step <= 0 ) throw new IllegalArgumentException("Wrong step: " + element);
+            }
+
+            int low, high;
+            int dash = item.indexOf('-');
+            if ( item.equals("*") )
+            {
+                low = min;
+                high = max;
+            }
+            else if ( dash > 0 )
+            {
+                low = Integer.parseInt(item.substring(0, dash));
+                high = Integer.parseInt(item.substring(dash + 1));
+            }
+            else
+            {
+                if ( slash >= 0 ) throw new IllegalArgumentException("Step of a single value: " + element);
+                low = high = Integer.parseInt(item);
+            }
+
+            if ( low < min || high > max || low > high ) throw new IllegalArgumentException("Out of range: " + element);
+
+            for (int value = low; value <= high; value += step)
+                result[value - offset] = true;
+        }
+        return result;
+    }
+}
@@ -140,4 +140,28 @@ public class BitMapMatcherTest
     }
 
 
+
+    @Test
+    public void testSparseWideRange() throws Exception
+    {
+        BitMapMatcher sparse = new BitMapMatcher(1, 9999); // years of the wide range
+        sparse.addRange(3, 3, 1);
+        sparse.addRange(4400, 4400, 1);
+        sparse.addRange(9999, 9999, 1);
+        sparse.finishRange();
+
+        assertEquals(sparse.getNext(1), 3);
+        assertEquals(sparse.getNext(3), 4400);
+        assertEquals(sparse.getNext(4399), 4400);
+        assertEquals(sparse.getNext(4400), 9999);
+        assertFalse(sparse.hasNext(9999));
+
+        assertEquals(sparse.getPrev(9999), 4400);
+        assertEquals(sparse.getPrev(4401), 4400);
+        assertEquals(sparse.getPrev(4400), 3);
+        assertFalse(sparse.hasPrev(3));
+
+        assertEquals(sparse.getLow(), 3);
+        assertEquals(sparse.getHigh(), 9999);
+    }
 }
@@ -0,0 +1,178 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of counting and k-th event queries (they are checked by the enumeration of events).
+ */
+public class CountEventsTest
+{
+    private static final long DAY = 86400000L;
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testAgainstGenerator(String schedule, long length) throws Exception
+    {
+        checkAgainstGenerator(new Schedule(schedule), length);
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*", DAY / 100},
+                {"*:*:*.*/100", DAY / 1000},
+                {"*:*/15:0", 10 * DAY},
+                {"*.*.32 12:00:00", 400 * DAY},
+                {"*.*.28-32/2 12:00:00", 400 * DAY},
+                {"*.*.13 5 9-17/4:30:00", 2000 * DAY},
+                {"*.2.29 0:0:0", 5000 * DAY},
+                {"2021-2023.3-5,10.1-10,20 1-5 *:0,30:0.500", 800 * DAY},
+                {"*.*.* 0,6 10:00:00.100-200/50", 60 * DAY},
+        };
+    }
+
+    @Test
+    public void testFinePrecision() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.*/100.0,500", Schedule.Precision.MICROS);
+
+        assertEquals(s.countEvents(START, START + 1000), 20);
+        assertEquals(s.nthEvent(START, 1), START); // the event at 500 microseconds
+        assertEquals(s.nthEvent(START, 2), START + 100);
+        assertEquals(s.nthEvent(START, 3), START + 100);
+
+        checkAgainstGenerator(s, 10000);
+    }
+
+    @Test(dataProvider = "zoned_DataProvider")
+    public void testZoned(String schedule, Schedule.GapPolicy gap, Schedule.OverlapPolicy overlap) throws Exception
+    {
+        Schedule s = new Schedule(schedule, ZoneId.of("Europe/Berlin"), gap, overlap, 2000, 2100);
+
+        // around the transitions of 2021 (28.03 and 31.10)
+        checkAgainstGenerator(s, Instant.parse("2021-03-27T00:00:00Z").toEpochMilli(), 3 * DAY);
+        checkAgainstGenerator(s, Instant.parse("2021-10-30T00:00:00Z").toEpochMilli(), 3 * DAY);
+    }
+    @DataProvider
+    private Object[][] zoned_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*/15:0", SHIFT, EARLIER},
+                {"*:*/15:0", SKIP, LATER},
+                {"2:30:00", SHIFT, LATER},
+                {"2:30:00", SKIP, EARLIER},
+                {"2:*/20:00", SHIFT, EARLIER},
+                {"0-1,3:*/20:00", SHIFT, EARLIER},
+        };
+    }
+
+    @Test
+    public void testWholeRange() throws Exception
+    {
+        Schedule s = new Schedule("*.*.* 12:00:00");
+        long from = Instant.parse("2000-01-01T00:00:00Z").toEpochMilli();
+        long to = Instant.parse("2101-01-01T00:00:00Z").toEpochMilli();
+
+        assertEquals(s.countEvents(Long.MIN_VALUE, Long.MAX_VALUE), 36890);
+        assertEquals(s.countEvents(from, to), 36890);
+        assertEquals(s.countEvents(from, from), 0);
+        assertEquals(s.nthEvent(Long.MIN_VALUE, 1), from + DAY / 2);
+        assertEquals(s.nthEvent(from, 36890), to - DAY / 2);
+
+        Schedule wide = new Schedule("*.*.* 12:00:00", 1, 9999);
+        assertEquals(wide.countEvents(Long.MIN_VALUE, Long.MAX_VALUE), 3652059);
+        assertEquals(wide.nthEvent(Long.MIN_VALUE, 3652059), Instant.parse("9999-12-31T12:00:00Z").toEpochMilli());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testOutOfRange() throws Exception
+    {
+        Schedule s = new Schedule("*.*.* 12:00:00");
+        s.nthEvent(Instant.parse("2100-12-30T00:00:00Z").toEpochMilli(), 3);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidNumber() throws Exception
+    {
+        new Schedule("*:*:*").nthEvent(START, 0);
+    }
+
+    @Test(expectedExceptions = ArithmeticException.class)
+    public void testOverflow() throws Exception
+    {
+        new Schedule("*:*:*.*.*.*", null, SHIFT, EARLIER, 1, 9999, Schedule.Precision.NANOS).countEvents(0, Long.MAX_VALUE);
+    }
+
+
+
+    private static void checkAgainstGenerator(Schedule s, long length)
+    {
+        checkAgainstGenerator(s, START, length);
+    }
+
+    /**
+     * Enumerates the events of the interval by the generator and checks the counts and the k-th events
+     * of the random subintervals.
+     */
+    private static void checkAgainstGenerator(Schedule s, long start, long length)
+    {
+        ScheduleEventsGenerator generator = s.getEventsGenerator(new Date(start - 1), true);
+
+        long events[] = new long[16];
+        int count = 0;
+        for (long time = generator.next().getTime(); time < start + length; time = generator.next().getTime())
+        {
+            if ( time < start ) continue; // the parts of millisecond before the start
+
+            if ( count == events.length ) events = Arrays.copyOf(events, count * 2);
+            events[count++] = time;
+        }
+
+        assertEquals(s.countEvents(start, start + length), count, s.toString());
+
+        Random random = new Random(s.toString().hashCode());
+        for (int i = 0; i < 200; i++)
+        {
+            long from = start + (long) (random.nextDouble() * length);
+            long to = from + (long) (random.nextDouble() * (start + length - from));
+
+            int first = lowerBound(events, count, from);
+            int last = lowerBound(events, count, to);
+            assertEquals(s.countEvents(from, to), last - first, s + " from " + from + " to " + to);
+
+            int after = lowerBound(events, count, from + 1);
+            boolean fine = s.getPrecision() != Schedule.Precision.MILLIS && after > 0 && events[after - 1] == from;
+
+            if ( after < count && !fine ) // (the parts of millisecond of the start are checked separately)
+            {
+                int n = 1 + random.nextInt(count - after);
+                assertEquals(s.nthEvent(from, n), events[after + n - 1], s + " from " + from + " n " + n);
+            }
+        }
+    }
+
+    /**
+     * @return index of the first event, which is not less than the time
+     */
+    private static int lowerBound(long events[], int count, long time)
+    {
+        int index = Arrays.binarySearch(events, 0, count, time);
+        if ( index < 0 ) return -index - 1;
+
+        while ( index > 0 && events[index - 1] == time ) index--;
+        return index;
+    }
+}
@@ -2,6 +2,8 @@ package com.habr.cron.opt;
 
 import org.testng.annotations.Test;
 
+import java.time.LocalDate;
+
 import static org.testng.Assert.*;
 
 public class DaysMapTest
@@ -88,4 +90,16 @@ public class DaysMapTest
         map.setMap(Byte.valueOf("1111111", 2)); // all weekdays selected
         assertTrue(map.isAsterisk());
     }
+
+    @Test
+    public void testRollMapByAnyYear() throws Exception
+    {
+        byte first = (byte) (1 << LocalDate.of(1995, 1, 1).getDayOfWeek().getValue() % 7); // weekday of 01.01.1995
+
+        for (int year = 1; year <= 9999; year++)
+        {
+            byte expected = (byte) (1 << LocalDate.of(year, 1, 1).getDayOfWeek().getValue() % 7);
+            assertEquals(DaysMap.rollMapByYear(first, year), expected, "" + year);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Spliterator;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the stream of events (they are checked by the enumeration of events).
+ */
+public class EventsStreamTest
+{
+    private static final long DAY = 86400000L;
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testAgainstGenerator(String schedule, long length) throws Exception
+    {
+        checkAgainstGenerator(new Schedule(schedule), START, length);
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*", DAY / 10},
+                {"*:*/15:0", 100 * DAY},
+                {"*.*.13 5 9-17/4:30:00", 2000 * DAY},
+                {"2021-2023.3-5,10.1-10,20 1-5 *:0,30:0.500", 800 * DAY},
+                {"*.*.* 0,6 10:00:00.100-200/50", 60 * DAY},
+                {"*.*.1 0:0:0", 20 * DAY}, // less events than needed to split
+        };
+    }
+
+    @Test
+    public void testFinePrecision() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.*/100.0,500", Schedule.Precision.MICROS);
+
+        assertEquals(s.events(START, START + 1000).count(), 20);
+        assertEquals(s.events(START, START + 1000).distinct().count(), 10);
+        assertFalse(new EventsSpliterator(s, START, START + 1000).hasCharacteristics(Spliterator.DISTINCT));
+
+        checkAgainstGenerator(s, START, 10000);
+    }
+
+    @Test
+    public void testZoned() throws Exception
+    {
+        Schedule s = new Schedule("*:*/15:0", ZoneId.of("Europe/Berlin"), SHIFT, EARLIER, 2000, 2100);
+
+        // around the transitions of 2021 (28.03 and 31.10)
+        checkAgainstGenerator(s, Instant.parse("2021-03-27T00:00:00Z").toEpochMilli(), 3 * DAY);
+        checkAgainstGenerator(s, Instant.parse("2021-10-30T00:00:00Z").toEpochMilli(), 3 * DAY);
+    }
+
+    @Test
+    public void testSplit() throws Exception
+    {
+        Schedule s = new Schedule("*.*.* 9-17:*/5:00");
+        long to = START + 400 * DAY;
+
+        EventsSpliterator suffix = new EventsSpliterator(s, START, to);
+        long total = suffix.getExactSizeIfKnown();
+        assertEquals(total, s.countEvents(START, to));
+
+        Spliterator.OfLong prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        assertEquals(prefix.getExactSizeIfKnown() + suffix.getExactSizeIfKnown(), total);
+
+        long bound[] = new long[1];
+        assertTrue(suffix.tryAdvance((long time) -> bound[0] = time));
+        assertEquals(new GregCalendar(bound[0], 0).day, 1, "the split is at the start of month"); // (9:00 of the first day)
+        assertEquals(suffix.estimateSize(), total - prefix.getExactSizeIfKnown() - 1);
+        assertNull(suffix.trySplit(), "can't be split after the traversal started");
+
+        prefix.forEachRemaining((long time) -> assertTrue(time < bound[0]));
+    }
+
+    @Test
+    public void testWholeRange() throws Exception
+    {
+        Schedule s = new Schedule("*.*.* 12:00:00");
+
+        assertEquals(s.events(Long.MIN_VALUE, Long.MAX_VALUE).parallel().count(), 36890);
+        assertEquals(s.events(Long.MIN_VALUE, Long.MAX_VALUE).parallel().max().getAsLong(),
+                Instant.parse("2100-12-31T12:00:00Z").toEpochMilli());
+        assertEquals(s.events(START, START).count(), 0);
+    }
+
+    @Test
+    public void testUnknownSize() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.*.*.*", null, SHIFT, EARLIER, 1, 9999, Schedule.Precision.NANOS);
+        EventsSpliterator spliterator = new EventsSpliterator(s, 0, Long.MAX_VALUE);
+
+        assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(s.events(START, Long.MAX_VALUE).limit(5000).filter(time -> time == START).count(), 5000); // the nanoseconds of one millisecond
+        assertEquals(spliterator.estimateSize(), Long.MAX_VALUE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidInterval() throws Exception
+    {
+        new Schedule("*:*:*").events(START, START - 1);
+    }
+
+
+
+    /**
+     * Enumerates the events of the interval by the generator and checks the sequential and parallel streams.
+     */
+    private static void checkAgainstGenerator(Schedule s, long start, long length)
+    {
+        ScheduleEventsGenerator generator = s.getEventsGenerator(new Date(start - 1), true);
+
+        long events[] = new long[16];
+        int count = 0;
+        for (long time = generator.next().getTime(); time < start + length; time = generator.next().getTime())
+        {
+            if ( time < start ) continue; // the parts of millisecond before the start
+
+            if ( count == events.length ) events = Arrays.copyOf(events, count * 2);
+            events[count++] = time;
+        }
+        events = Arrays.copyOf(events, count);
+
+        assertEquals(s.events(start, start + length).toArray(), events, s.toString());
+        assertEquals(s.events(start, start + length).parallel().toArray(), events, s + " parallel");
+        assertEquals(s.events(start, start + length).parallel().count(), count, s + " count");
+    }
+}
@@ -0,0 +1,182 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static com.habr.cron.opt.Schedule.Precision.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the schedules with precision finer than milliseconds.
+ */
+public class FineScheduleTest
+{
+    private static final long NOON = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli() * 1000000L;
+
+
+    @Test
+    public void testMicros() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.*.0,500", MICROS);
+
+        assertEquals(s.nextEventNanos(NOON), NOON + 500000);
+        assertEquals(s.nextEventNanos(NOON + 500000), NOON + 1000000);
+        assertEquals(s.nearestEventNanos(NOON + 500000), NOON + 500000);
+        assertEquals(s.prevEventNanos(NOON), NOON - 500000);
+        assertEquals(s.nearestPrevEventNanos(NOON + 499999), NOON);
+
+        // between two microseconds
+        assertEquals(s.nearestEventNanos(NOON + 1), NOON + 500000);
+        assertEquals(s.nearestPrevEventNanos(NOON + 500001), NOON + 500000);
+    }
+
+    @Test
+    public void testNanos() throws Exception
+    {
+        Schedule s = new Schedule("12:00:00.000.000.250", NANOS);
+
+        assertEquals(s.nextEvent(Instant.parse("2021-05-07T11:00:00Z")), Instant.parse("2021-05-07T12:00:00.000000250Z"));
+        assertEquals(s.prevEvent(Instant.parse("2021-05-07T12:00:00.000000250Z")), Instant.parse("2021-05-06T12:00:00.000000250Z"));
+        assertEquals(s.nearestEvent(Instant.parse("2021-05-07T12:00:00.000000250Z")), Instant.parse("2021-05-07T12:00:00.000000250Z"));
+        assertEquals(s.nearestPrevEvent(Instant.parse("2021-05-07T12:00:00.000000249Z")), Instant.parse("2021-05-06T12:00:00.000000250Z"));
+
+        // skipped parts are zero
+        Schedule zero = new Schedule("12:00:00.100", NANOS);
+        assertEquals(zero.nextEventNanos(NOON), NOON + 100000000);
+    }
+
+    @Test
+    public void testMillisPrecision() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.*/10.500"); // the parts of millisecond are ignored
+        Schedule fine = new Schedule("*:*:*.*/10.500", MICROS);
+
+        assertEquals(s.nextEventNanos(NOON), NOON + 10000000);
+        assertEquals(s.nearestEventNanos(NOON + 1), NOON + 10000000);
+        assertEquals(s.nearestPrevEventNanos(NOON + 1), NOON);
+        assertEquals(s.nextEvent(Instant.ofEpochMilli(0)), Instant.ofEpochMilli(10));
+
+        assertEquals(fine.nextEventNanos(NOON), NOON + 500000);
+        assertEquals(fine.nextEventMillis(NOON / 1000000), NOON / 1000000); // truncated to milliseconds
+    }
+
+    @Test(dataProvider = "brute_DataProvider")
+    public void testAgainstBruteForce(String schedule, String millis, String micros) throws Exception
+    {
+        Schedule s = new Schedule(schedule, MICROS);
+        boolean ms[] = valuesOf(new Schedule("*:*:*." + millis));
+        boolean us[] = valuesOf(new Schedule("*:*:*." + micros)); // micros as milliseconds
+
+        Random random = new Random(schedule.hashCode());
+        for (int i = 0; i < 1000; i++)
+        {
+            long start = NOON + random.nextInt(50000000);
+
+            assertEquals(s.nextEventNanos(start), bruteForce(ms, us, start, 1), schedule + " from " + start);
+            assertEquals(s.prevEventNanos(start), bruteForce(ms, us, start, -1), schedule + " from " + start);
+        }
+    }
+    @DataProvider
+    private Object[][] brute_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*.*/7.0-999/3,10-20", "*/7", "0-999/3,10-20"},
+                {"*:*:*.1-5,900.999", "1-5,900", "999"},
+                {"*:*:*.*.0", "*", "0"},
+                {"*:*:*.33.100-200/50", "33", "100-200/50"},
+        };
+    }
+
+    /**
+     * @return the milliseconds of a second, which match the schedule
+     */
+    private static boolean[] valuesOf(Schedule schedule)
+    {
+        long second = NOON / 1000000;
+        boolean result[] = new boolean[1000];
+        for (int i = 0; i < 1000; i++)
+            result[i] = schedule.nearestEventMillis(second + i) == second + i;
+        return result;
+    }
+
+    private static long bruteForce(boolean ms[], boolean us[], long start, int step)
+    {
+        long micro = Math.floorDiv(start, 1000L);
+        if ( step > 0 || start % 1000 == 0 ) micro += step;
+
+        while ( !ms[(int) Math.floorMod(Math.floorDiv(micro, 1000L), 1000L)] || !us[(int) Math.floorMod(micro, 1000L)] )
+            micro += step;
+
+        return micro * 1000;
+    }
+
+    @Test
+    public void testZoned() throws Exception
+    {
+        ZoneId berlin = ZoneId.of("Europe/Berlin");
+        Schedule s = new Schedule("02:30:00.000.500", berlin, SHIFT, EARLIER, 2000, 2100, MICROS);
+
+        // 28.03.2021 02:00 CET -> 03:00 CEST (01:00 UTC); the event of the gap occurs at the transition
+        long transition = Instant.parse("2021-03-28T01:00:00Z").toEpochMilli() * 1000000L;
+        assertEquals(s.nextEventNanos(transition - 1), transition);
+        assertEquals(s.nearestEventNanos(transition + 1), Instant.parse("2021-03-29T00:30:00.0005Z").toEpochMilli() * 1000000L + 500000);
+        assertEquals(s.prevEventNanos(transition + 1), transition);
+
+        assertEquals(s.nextEvent(Instant.parse("2021-03-26T00:00:00Z")), Instant.parse("2021-03-26T01:30:00.0005Z"));
+    }
+
+    @Test
+    public void testGenerators() throws Exception
+    {
+        Date start = new Date(NOON / 1000000);
+
+        Schedule s = new Schedule("*:*:*.*/2.0,500", MICROS);
+        ScheduleEventsGenerator generator = s.getEventsGenerator(start, true);
+        assertEquals(generator.next().getTime(), start.getTime());
+        assertEquals(generator.next().getTime(), start.getTime() + 2);
+        assertEquals(generator.next().getTime(), start.getTime() + 2);
+        assertEquals(generator.next().getTime(), start.getTime() + 4);
+
+        Schedule zoned = new Schedule("*:*:*.*/2.0,500", ZoneId.of("Europe/Berlin"), SHIFT, EARLIER, 2000, 2100, MICROS);
+        generator = zoned.getEventsGenerator(start, true);
+        assertEquals(generator.next().getTime(), start.getTime()); // 500 us
+        assertEquals(generator.next().getTime(), start.getTime() + 2);
+        assertEquals(generator.next().getTime(), start.getTime() + 2);
+        assertEquals(generator.next().getTime(), start.getTime() + 4);
+    }
+
+    @Test(dataProvider = "invalid_DataProvider", expectedExceptions = ScheduleFormatException.class)
+    public void testInvalid(String schedule, Schedule.Precision precision) throws Exception
+    {
+        new Schedule(schedule, precision);
+    }
+    @DataProvider
+    private Object[][] invalid_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*.1..5", MICROS},
+                {"*:*:*.1.1000", MICROS},
+                {"*:*:*.1.1.1000", NANOS},
+                {"*:*:*.1.x", MICROS},
+                {"*:*:*.1.5-1", NANOS},
+        };
+    }
+
+    @Test
+    public void testIgnoredParts() throws Exception
+    {
+        long time = NOON / 1000000;
+
+        // the extra parts are ignored as before
+        assertEquals(new Schedule("*:*:*.1.1000").nextEventMillis(time), time + 1);
+        assertEquals(new Schedule("*:*:*.1.2.1000", MICROS).nextEventNanos(NOON), NOON + 1002000);
+    }
+}
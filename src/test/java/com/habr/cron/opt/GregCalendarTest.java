@@ -4,9 +4,13 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.Random;
 import java.util.TimeZone;
 
 import static org.testng.Assert.*;
@@ -130,6 +134,118 @@ public class GregCalendarTest
         assertTrue(calendar.isCorrect());
     }
 
+    @Test
+    public void testAnyYear() throws Exception
+    {
+        long min = Instant.parse("0001-01-01T00:00:00Z").toEpochMilli();
+        long max = Instant.parse("9999-12-31T23:59:59.999Z").toEpochMilli();
+        Random random = new Random(9);
+        GregCalendar calendar = new GregCalendar(0);
+
+        for (int i = 0; i < 100000; i++)
+        {
+            long millis = i < 50000 ?
+                    min + (long) (random.nextDouble() * (max - min)) : // any year
+                    -2208988800000L + (long) (random.nextDouble() * 16725225600000L); // years 1900..2400
+
+            calendar.setTime(millis, 0);
+            LocalDateTime expected = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+
+            assertEquals(calendar.year, expected.getYear(), "" + millis);
+            assertEquals(calendar.month, expected.getMonthValue(), "" + millis);
+            assertEquals(calendar.day, expected.getDayOfMonth(), "" + millis);
+            assertEquals(calendar.hours, expected.getHour(), "" + millis);
+            assertEquals(calendar.minutes, expected.getMinute(), "" + millis);
+            assertEquals(calendar.seconds, expected.getSecond(), "" + millis);
+            assertEquals(calendar.milliseconds, expected.getNano() / 1000000, "" + millis);
+            assertEquals(calendar.getDayOfWeek(), expected.getDayOfWeek().getValue() % 7, "" + millis);
+            assertEquals(calendar.asMillis(), millis);
+        }
+    }
+
+    @Test
+    public void testBoundsOfFastPath() throws Exception
+    {
+        GregCalendar calendar = new GregCalendar(0);
+
+        calendar.setTime(-1, 0);
+        assertEquals(calendar.asDate(), new Date(-1));
+        assertEquals(calendar.year, 1969);
+
+        calendar.setTime(4133980799999L, 0); // 31.12.2100 23:59:59.999
+        assertEquals(calendar.year, 2100);
+        assertEquals(calendar.asMillis(), 4133980799999L);
+
+        calendar.setTime(4133980800000L, 0); // 01.01.2101
+        assertEquals(calendar.year, 2101);
+        assertEquals(calendar.month, 1);
+        assertEquals(calendar.day, 1);
+        assertEquals(calendar.asMillis(), 4133980800000L);
+    }
+
+    /**
+     * The reset in the same day takes the date from the cache; in another day it converts the timestamp.
+     */
+    @Test
+    public void testReset() throws Exception
+    {
+        Random random = new Random(11);
+        GregCalendar calendar = new GregCalendar();
+        GregCalendar expected = new GregCalendar();
+        long millis = Instant.parse("1900-01-01T00:00:00Z").toEpochMilli();
+
+        for (int i = 0; i < 100000; i++)
+        {
+            millis += i % 3 == 0 ? (long) (random.nextDouble() * 400 * 86400000L) : random.nextInt(20000000);
+            if ( i % 5 == 0 ) calendar.day = 31; // the digits change the date directly
+
+            calendar.reset(millis);
+            expected.setTime(millis, 0);
+
+            assertEquals(calendar.year, expected.year, "" + millis);
+            assertEquals(calendar.month, expected.month, "" + millis);
+            assertEquals(calendar.day, expected.day, "" + millis);
+            assertEquals(calendar.hours, expected.hours, "" + millis);
+            assertEquals(calendar.minutes, expected.minutes, "" + millis);
+            assertEquals(calendar.seconds, expected.seconds, "" + millis);
+            assertEquals(calendar.milliseconds, expected.milliseconds, "" + millis);
+            assertEquals(calendar.asMillis(), millis);
+        }
+    }
+
+    /**
+     * The date changed by the fields is converted again; the dates out of month don't break the cache.
+     */
+    @Test
+    public void testCachedDate() throws Exception
+    {
+        GregCalendar calendar = new GregCalendar(Instant.parse("2021-02-27T10:00:00Z").toEpochMilli(), 0);
+        assertEquals(calendar.asMillis(), Instant.parse("2021-02-27T10:00:00Z").toEpochMilli());
+
+        calendar.seconds = 5;
+        assertEquals(calendar.asMillis(), Instant.parse("2021-02-27T10:00:05Z").toEpochMilli());
+
+        calendar.day = 31; // out of February
+        assertEquals(calendar.asMillis(), Instant.parse("2021-03-03T10:00:05Z").toEpochMilli());
+
+        calendar.reset(Instant.parse("2021-02-27T11:00:00Z").toEpochMilli());
+        assertEquals(calendar.day, 27);
+        assertEquals(calendar.month, 2);
+
+        calendar.day = -1; // before February
+        assertEquals(calendar.asMillis(), Instant.parse("2021-01-30T11:00:00Z").toEpochMilli());
+        calendar.reset(Instant.parse("2021-01-30T12:00:00Z").toEpochMilli());
+        assertEquals(calendar.day, 30);
+        assertEquals(calendar.month, 1);
+
+        calendar.year = 2100;
+        calendar.month = 12;
+        calendar.day = 31;
+        assertEquals(calendar.asMillis(), Instant.parse("2100-12-31T12:00:00Z").toEpochMilli());
+        calendar.year = 2400;
+        assertEquals(calendar.asMillis(), Instant.parse("2400-12-31T12:00:00Z").toEpochMilli());
+    }
+
     @Test
     public void testGetDayOfWeek() throws Exception {
 
@@ -179,6 +179,32 @@ public class HashMapMatcherTest
         assertEquals(matcher.getLow(), 2);
     }
 
+    @Test
+    public void testSingleValue() throws Exception
+    {
+        HashMapMatcher matcher = new HashMapMatcher(4, 4); // "4,4-4"
+        matcher.addValue(4);
+        matcher.addRange(4, 4, 1);
+        matcher.finishRange();
+        assertTrue(matcher.match(4));
+        assertEquals(matcher.getLow(), 4);
+        assertEquals(matcher.getHigh(), 4);
+        assertFalse(matcher.isBelow(4));
+        assertFalse(matcher.isAbove(4));
+        assertFalse(matcher.hasNext(4));
+        assertFalse(matcher.hasPrev(4));
+
+        matcher = new HashMapMatcher(1, 5); // the only value is the maximum
+        matcher.addValue(5);
+        matcher.finishRange();
+        assertEquals(matcher.getLow(), 5);
+        assertEquals(matcher.getHigh(), 5);
+        assertTrue(matcher.isBelow(4));
+        assertFalse(matcher.isBelow(5));
+        assertEquals(matcher.getNext(1), 5);
+        assertEquals(matcher.getPrev(5), (int)(Byte.MIN_VALUE + 1));
+    }
+
     @Test
     public void testFullRange() throws Exception
     {
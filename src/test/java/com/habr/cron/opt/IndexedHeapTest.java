@@ -0,0 +1,131 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class IndexedHeapTest
+{
+    private static final int IDS = 500;
+
+    /**
+     * The random additions, changes, removals and polls are checked by the plain array of the keys.
+     */
+    @Test
+    public void testRandomOperations() throws Exception
+    {
+        IndexedHeap heap = new IndexedHeap(8);
+        long keys[] = new long[IDS];
+        boolean present[] = new boolean[IDS];
+        int size = 0;
+        Random random = new Random(2021);
+
+        for (int i = 0; i < 200000; i++)
+        {
+            int id = random.nextInt(IDS);
+            long key = random.nextInt(10000);
+
+            switch ( random.nextInt(5) )
+            {
+                case 0:
+                case 1:
+                    if ( present[id] )
+                    {
+                        heap.update(id, key);
+                    }
+                    else
+                    {
+                        heap.add(id, key);
+                        present[id] = true;
+                        size++;
+                    }
+                    keys[id] = key;
+                    break;
+
+                case 2:
+                    if ( !present[id] ) break;
+                    key = keys[id] - random.nextInt(100);
+                    heap.decreaseKey(id, key);
+                    keys[id] = key;
+                    break;
+
+                case 3:
+                    assertEquals(heap.remove(id), present[id]);
+                    if ( present[id] ) size--;
+                    present[id] = false;
+                    break;
+
+                case 4:
+                    if ( size == 0 ) break;
+                    long min = heap.peekKey();
+                    for (int j = 0; j < IDS; j++)
+                        if ( present[j] ) assertTrue(min <= keys[j]);
+
+                    id = heap.poll();
+                    assertTrue(present[id]);
+                    assertEquals(keys[id], min);
+                    present[id] = false;
+                    size--;
+                    break;
+            }
+
+            assertEquals(heap.size(), size);
+            assertEquals(heap.contains(id), present[id]);
+            if ( present[id] ) assertEquals(heap.keyOf(id), keys[id]);
+        }
+    }
+
+    @Test
+    public void testGrowthAndOrder() throws Exception
+    {
+        IndexedHeap heap = new IndexedHeap(1);
+        Random random = new Random(13);
+        long keys[] = new long[100000];
+
+        for (int id = keys.length - 1; id >= 0; id--) // the first id grows the index of the positions
+        {
+            keys[id] = random.nextLong();
+            heap.add(id, keys[id]);
+        }
+
+        Arrays.sort(keys);
+        for (long key : keys)
+        {
+            assertEquals(heap.peekKey(), key);
+            heap.poll();
+        }
+
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(0));
+        assertFalse(heap.contains(-1));
+        assertFalse(heap.contains(keys.length * 2));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAddTwice() throws Exception
+    {
+        IndexedHeap heap = new IndexedHeap(4);
+        heap.add(1, 10);
+        heap.add(1, 20);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testIncreaseByDecreaseKey() throws Exception
+    {
+        IndexedHeap heap = new IndexedHeap(4);
+        heap.add(1, 10);
+        heap.decreaseKey(1, 11);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPollEmpty() throws Exception
+    {
+        IndexedHeap heap = new IndexedHeap(4);
+        heap.add(1, 10);
+        heap.poll();
+        heap.poll();
+    }
+}
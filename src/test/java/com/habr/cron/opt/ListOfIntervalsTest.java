@@ -102,10 +102,13 @@ public class ListOfIntervalsTest
                 {42, 41},
                 {41, 30},
                 {30, 29},
+                {35, 30}, // in the gap between intervals
                 {22, 21},
                 {21, 18},
+                {20, 18},
                 {18, 17},
                 {12, 10},
+                {11, 10},
                 {10, 9},
                 {9, 8},
                 {2, 1},
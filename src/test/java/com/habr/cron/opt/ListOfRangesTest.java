@@ -143,6 +143,8 @@ public class ListOfRangesTest
         assertEquals(list.getPrev(10), 9);
         assertEquals(list.getPrev(11), 9);
         assertEquals(list.getPrev(12), 9);
+        assertEquals(list.getPrev(40), 29); // in the gap between ranges
+        assertEquals(list.getPrev(20), 18);
         assertEquals(list.getPrev(1), 0); // out of bounds
 
         assertTrue(list.match(1));
@@ -0,0 +1,254 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the memory-mapped store of schedules (the searches are checked by the heap schedules).
+ */
+public class MappedStoreTest
+{
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+    private static final String SCHEDULES[] = {
+            "*:*:*",
+            "*.*.* * *:*:*.*",
+            "12:00:00",
+            "*:*/15:0",
+            "*.*.13 5 9-17/4:30:00",
+            "*.*.13 5 12:00:00",
+            "*.*.32 12:00:00",
+            "*.*.20-32/3 1-5 10:00:00",
+            "*.2.29 10-20/3:*:*.100",
+            "*.2.29 1 12:00:00",
+            "2020-2025.3-5,10.1-10,20 *:0,30:0.500",
+            "*:*:*.1-2,990-999",
+            "*:*:*.100-200/3,250-300/4",
+            "*:*:*.1,2,3-5,10-20/3,100-900/7",
+            "2001,2003,2005-2030/5,2090.*.* 0:0:0",
+            "2000.1.1 0:0:0",
+            "*.*.* 0,6 8:00:00",
+            "*.*.1,15,32 1-5 */5:0:0",
+    };
+
+    private Path file;
+    private List<Schedule> schedules;
+    private MappedScheduleStore store;
+
+
+    @BeforeClass
+    public void setUp() throws Exception
+    {
+        schedules = new ArrayList<Schedule>();
+        for (String schedule : SCHEDULES)
+            schedules.add(new Schedule(schedule));
+        schedules.add(new Schedule("*:*:*.*.*/100", Schedule.Precision.MICROS));
+        schedules.add(new Schedule("*:*:*.0.0.*/250", Schedule.Precision.NANOS));
+        schedules.add(new Schedule("*.*.13 5 12:00:00")); // the shared block of days
+
+        file = Files.createTempFile("schedules", ".crms");
+        MappedScheduleStore.write(schedules, file);
+        store = MappedScheduleStore.open(file);
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception
+    {
+        store = null;
+        Files.deleteIfExists(file); // the mapped file may be kept on some platforms
+    }
+
+    @Test
+    public void testSchedules() throws Exception
+    {
+        assertEquals(store.size(), schedules.size());
+        for (int id = 0; id < schedules.size(); id++)
+            assertEquals(store.getSchedule(id), schedules.get(id).toString());
+    }
+
+    @Test
+    public void testSearches() throws Exception
+    {
+        Random random = new Random(12345);
+        for (int id = 0; id < schedules.size(); id++)
+        {
+            Schedule s = schedules.get(id);
+            for (int i = 0; i < 2000; i++)
+            {
+                long time = START + (long) (random.nextDouble() * 5 * 365 * 86400000L);
+                for (int query = 0; query < 4; query++)
+                    assertEquals(outcome(store, id, time, query), outcome(s, time, query), s + " " + time + " " + query);
+            }
+        }
+    }
+
+    /**
+     * The searches of one thread are independent of the searches of another one.
+     */
+    @Test
+    public void testThreads() throws Exception
+    {
+        final String expected[] = new String[schedules.size()];
+        for (int id = 0; id < expected.length; id++)
+            expected[id] = outcome(schedules.get(id), START, 0);
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread threads[] = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 1000; i++)
+                            for (int id = 0; id < expected.length; id++)
+                                assertEquals(outcome(store, id, START, 0), expected[id]);
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    public void testEmpty() throws Exception
+    {
+        Path empty = Files.createTempFile("empty", ".crms");
+        try
+        {
+            MappedScheduleStore.write(Collections.<Schedule>emptyList(), empty);
+            assertEquals(MappedScheduleStore.open(empty).size(), 0);
+        }
+        finally
+        {
+            Files.deleteIfExists(empty);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongId() throws Exception
+    {
+        store.nextEventMillis(schedules.size(), START);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testOutOfSchedule() throws Exception
+    {
+        store.prevEventMillis(Arrays.asList(SCHEDULES).indexOf("2000.1.1 0:0:0"), START);
+        store.prevEventMillis(Arrays.asList(SCHEDULES).indexOf("2000.1.1 0:0:0"),
+                Instant.parse("2000-01-01T00:00:00Z").toEpochMilli());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testZoned() throws Exception
+    {
+        Path zoned = Files.createTempFile("zoned", ".crms");
+        try
+        {
+            MappedScheduleStore.write(Collections.singletonList(new Schedule("*:*:*", ZoneId.of("Europe/Berlin"))), zoned);
+        }
+        finally
+        {
+            Files.deleteIfExists(zoned);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotStore() throws Exception
+    {
+        Path other = Files.createTempFile("other", ".crms");
+        try
+        {
+            MappedScheduleStore.write(schedules, other);
+            RandomAccessFile raf = new RandomAccessFile(other.toFile(), "rw");
+            raf.writeInt(0); // the magic
+            raf.close();
+            MappedScheduleStore.open(other);
+        }
+        finally
+        {
+            Files.deleteIfExists(other);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncated() throws Exception
+    {
+        Path other = Files.createTempFile("truncated", ".crms");
+        try
+        {
+            MappedScheduleStore.write(schedules, other);
+            RandomAccessFile raf = new RandomAccessFile(other.toFile(), "rw");
+            raf.setLength(raf.length() - 1);
+            raf.close();
+            MappedScheduleStore.open(other);
+        }
+        finally
+        {
+            Files.deleteIfExists(other);
+        }
+    }
+
+
+
+    private static String outcome(Schedule s, long time, int query)
+    {
+        try
+        {
+            switch ( query )
+            {
+                case 0: return String.valueOf(s.nearestEventMillis(time));
+                case 1: return String.valueOf(s.nearestPrevEventMillis(time));
+                case 2: return String.valueOf(s.nextEventMillis(time));
+                default: return String.valueOf(s.prevEventMillis(time));
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(MappedScheduleStore store, int id, long time, int query)
+    {
+        try
+        {
+            switch ( query )
+            {
+                case 0: return String.valueOf(store.nearestEventMillis(id, time));
+                case 1: return String.valueOf(store.nearestPrevEventMillis(id, time));
+                case 2: return String.valueOf(store.nextEventMillis(id, time));
+                default: return String.valueOf(store.prevEventMillis(id, time));
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+}
@@ -98,4 +98,25 @@ public class MatcherFactoryTest
 */
 
     }
+
+    @Test
+    public void testAsteriskInList() throws Exception
+    {
+        RangeList ranges = new RangeList(2); // "3,*/7"
+        ranges.add(new Range(3));
+        ranges.add(new Range(7, true));
+        DigitMatcher matcher = MatcherFactory.createInstance(ranges, HOURS);
+        assertEquals(matcher.getClass(), HashMapMatcher.class);
+        assertEquals(matcher.getLow(), 0);
+        assertEquals(matcher.getHigh(), 21);
+        assertEquals(MatcherPool.valuesOf(matcher, HOURS.max), new int[] {0, 3, 7, 14, 21});
+
+        ranges = new RangeList(2); // "5,*/250"
+        ranges.add(new Range(5));
+        ranges.add(new Range(250, true));
+        matcher = MatcherFactory.createInstance(ranges, MILLIS);
+        assertEquals(matcher.getLow(), 0);
+        assertEquals(matcher.getHigh(), 750);
+        assertEquals(MatcherPool.valuesOf(matcher, MILLIS.max), new int[] {0, 5, 250, 500, 750});
+    }
 }
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.habr.cron.opt;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+import speed.JmhGrid;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.habr.cron.opt.ScheduleElements.MILLIS;
+
+/**
+ * Micro-benchmarks of the map matchers, which the MatcherFactory chooses from:
+ * HashMapMatcher, BitMapMatcher, ListOfIntervalsMatcher, ListOfRangesMatcher.
+ *
+ * The matchers are measured on a generated grid of lists of ranges:
+ *  domain - 'small' (values 0..63, the HashMapMatcher.RANGE_LIMIT) or 'wide' (values 0..999, milliseconds);
+ *  ranges - count of ranges in the list;
+ *  density - percent of the values covered by each range;
+ *  step - step of the values in each range.
+ *
+ * The main() runs the whole grid (skips the combinations that a matcher does not support)
+ * and prints a table (tab separated) with average time of every operation in nanoseconds,
+ * which helps to recalibrate the thresholds of the MatcherFactory.
+ * All results of the grid are written into the result file of JMH options (-rf, -rff).
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.main=com.habr.cron.opt.MatchersJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 3, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class MatchersJmh
+{
+    private static final String[] MATCHERS = {"hash", "bits", "intervals", "ranges"};
+    private static final String[] DOMAINS = {"small", "wide"};
+    private static final String[] RANGES = {"1", "2", "4", "8", "10", "12", "16"};
+    private static final String[] DENSITIES = {"25", "50", "75"};
+    private static final String[] STEPS = {"1", "3"};
+    private static final String[] OPERATIONS = {"match", "getNext", "getPrev", "hasNext"};
+
+    private static final int PROBES = 1024; // count of the test values (power of 2)
+    private static final int MASK = PROBES - 1;
+
+
+    @Param({"hash", "bits", "intervals", "ranges"})
+    public String matcher;
+
+    @Param({"small"})
+    public String domain;
+
+    @Param({"2", "4", "8"})
+    public int ranges;
+
+    @Param({"50"})
+    public int density;
+
+    @Param({"1"})
+    public int step;
+
+
+    private DigitMatcher digits;
+    private final int[] values = new int[PROBES]; // any values of the domain
+    private final int[] nextValues = new int[PROBES]; // values, that have a next value
+    private final int[] prevValues = new int[PROBES]; // values, that have a previous value
+    private int index;
+
+
+    @Setup
+    public void setup()
+    {
+        int span = getSpan(domain);
+        int period = span / ranges;
+        int width = Math.max(1, period * density / 100);
+        int max = (ranges - 1) * period + width - 1;
+
+        if ( !isSupported(matcher, max, step) )
+            throw new IllegalArgumentException("The matcher '" + matcher + "' does not support this grid point.");
+
+        MapMatcher map = createMatcher(matcher, 0, max, ranges);
+        for (int i = 0; i < ranges; i++)
+            map.addRange(i * period, i * period + width - 1, step);
+        map.finishRange();
+
+        digits = (DigitMatcher) map;
+
+        int low = digits.getLow();
+        int high = digits.getHigh();
+        Random random = new Random(PROBES);
+        for (int i = 0; i < PROBES; i++)
+        {
+            values[i] = random.nextInt(max + 1);
+            nextValues[i] = low < high ? low + random.nextInt(high - low) : low;
+            prevValues[i] = low < high ? low + 1 + random.nextInt(high - low) : high;
+        }
+    }
+
+
+    @Benchmark
+    public boolean match()
+    {
+        return digits.match(values[index++ & MASK]);
+    }
+
+    @Benchmark
+    public int getNext()
+    {
+        return digits.getNext(nextValues[index++ & MASK]);
+    }
+
+    @Benchmark
+    public int getPrev()
+    {
+        return digits.getPrev(prevValues[index++ & MASK]);
+    }
+
+    @Benchmark
+    public boolean hasNext()
+    {
+        return digits.hasNext(values[index++ & MASK]);
+    }
+
+
+
+    private static int getSpan(String domain)
+    {
+        return "small".equals(domain) ? HashMapMatcher.RANGE_LIMIT : MILLIS.max + 1;
+    }
+
+    private static boolean isSupported(String matcher, int max, int step)
+    {
+        if ( "hash".equals(matcher) ) return max < HashMapMatcher.RANGE_LIMIT;
+        if ( "intervals".equals(matcher) ) return step == 1;
+        return true;
+    }
+
+    private static MapMatcher createMatcher(String matcher, int min, int max, int count)
+    {
+        if ( "hash".equals(matcher) ) return new HashMapMatcher(min, max);
+        if ( "bits".equals(matcher) ) return new BitMapMatcher(min, max);
+        if ( "intervals".equals(matcher) ) return new ListOfIntervalsMatcher(min, max, count);
+        if ( "ranges".equals(matcher) ) return new ListOfRangesMatcher(min, max, count);
+
+        throw new IllegalArgumentException("Unknown matcher: " + matcher);
+    }
+
+
+
+
+    /**
+     * Runs the whole grid and prints the calibration table.
+     *
+     * @param args JMH command line options (warmup, iterations, forks, profilers and so on)
+     */
+    public static void main(String args[]) throws Exception
+    {
+        JmhGrid grid = new JmhGrid(MatchersJmh.class, args);
+
+        StringBuilder table = new StringBuilder();
+        table.append("domain\tranges\tdensity\tstep\toperation\thash\tbits\tintervals\tranges\tbest\n");
+
+        for (String domain : DOMAINS)
+        for (String ranges : RANGES)
+        for (String density : DENSITIES)
+        for (String step : STEPS)
+        {
+            double scores[][] = new double[OPERATIONS.length][MATCHERS.length];
+
+            for (int m = 0; m < MATCHERS.length; m++)
+            {
+                String matcher = MATCHERS[m];
+                int span = getSpan(domain);
+                int r = Integer.parseInt(ranges);
+                int period = span / r;
+                int max = (r - 1) * period + Math.max(1, period * Integer.parseInt(density) / 100) - 1;
+
+                if ( !isSupported(matcher, max, Integer.parseInt(step)) )
+                {
+                    for (double[] row : scores) row[m] = Double.NaN;
+                    continue;
+                }
+
+                Options options = grid.options()
+                        .param("matcher", matcher)
+                        .param("domain", domain)
+                        .param("ranges", ranges)
+                        .param("density", density)
+                        .param("step", step)
+                        .build();
+
+                Collection<RunResult> results = grid.run(options);
+                for (RunResult result : results)
+                {
+                    String label = result.getParams().getBenchmark();
+                    String operation = label.substring(label.lastIndexOf('.') + 1);
+                    for (int o = 0; o < OPERATIONS.length; o++)
+                        if ( OPERATIONS[o].equals(operation) )
+                            scores[o][m] = result.getPrimaryResult().getScore();
+                }
+            }
+
+            for (int o = 0; o < OPERATIONS.length; o++)
+            {
+                StringBuilder line = new StringBuilder();
+                line.append(domain).append('\t').append(ranges).append('\t')
+                    .append(density).append('\t').append(step).append('\t').append(OPERATIONS[o]);
+
+                int best = -1;
+                for (int m = 0; m < MATCHERS.length; m++)
+                {
+                    double score = scores[o][m];
+                    line.append('\t').append(Double.isNaN(score) ? "-" : String.format("%.2f", score));
+                    if ( !Double.isNaN(score) && (best < 0 || score < scores[o][best]) ) best = m;
+                }
+                line.append('\t').append(best < 0 ? "-" : MATCHERS[best]);
+
+                table.append(line).append('\n');
+            }
+        }
+
+        System.out.println(table); // after all, because JMH prints its own progress
+
+        grid.writeOut();
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.habr.cron.opt;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput over a large generated corpus of schedules
+ * (like the schedules, loaded from a database at startup).
+ *
+ * parse - the Parser only (schedule string into ScheduleModel);
+ * compile - the whole construction of Schedule (parser and matchers).
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=com.habr.cron.opt.ParserJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserJmh
+{
+    private static final int CORPUS_SIZE = 1 << 18; // ~260k schedules (power of 2)
+    private static final int MASK = CORPUS_SIZE - 1;
+
+    private final String corpus[] = new String[CORPUS_SIZE];
+    private int index;
+
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++)
+            corpus[i] = generate(random);
+    }
+
+
+    @Benchmark
+    public ScheduleModel parse() throws ScheduleFormatException
+    {
+        Parser parser = new Parser();
+        parser.parse(corpus[index++ & MASK]);
+        return parser.getScheduleModel();
+    }
+
+    @Benchmark
+    public Schedule compile() throws ScheduleFormatException
+    {
+        return new Schedule(corpus[index++ & MASK]);
+    }
+
+
+
+
+    /**
+     * Generates a valid schedule with random structure: optional date and week days, time with optional milliseconds.
+     */
+    static String generate(Random random)
+    {
+        StringBuilder s = new StringBuilder();
+
+        if ( random.nextInt(3) > 0 )
+        {
+            s.append(random.nextInt(4) == 0 ? Integer.toString(2000 + random.nextInt(100)) : "*").append('.');
+            appendElement(s, random, 1, 12);
+            s.append('.');
+            appendElement(s, random, 1, 28);
+            s.append(' ');
+
+            if ( random.nextInt(3) == 0 )
+            {
+                appendElement(s, random, 0, 6);
+                s.append(' ');
+            }
+        }
+
+        appendElement(s, random, 0, 23);
+        s.append(':');
+        appendElement(s, random, 0, 59);
+        s.append(':');
+        appendElement(s, random, 0, 59);
+
+        if ( random.nextBoolean() )
+        {
+            s.append('.');
+            appendElement(s, random, 0, 999);
+        }
+
+        return s.toString();
+    }
+
+    /**
+     * Appends '*', '*&#47;n' or a list of values and ranges (with steps) between min and max.
+     */
+    private static void appendElement(StringBuilder s, Random random, int min, int max)
+    {
+        int kind = random.nextInt(6);
+        if ( kind == 0 )
+        {
+            s.append('*');
+        }
+        else if ( kind == 1 )
+        {
+            s.append("*/").append(2 + random.nextInt(4));
+        }
+        else
+        {
+            int count = 1 + random.nextInt(4);
+            int span = (max - min + 1) / count;
+
+            for (int i = 0; i < count; i++)
+            {
+                int low = min + i * span;
+                int a = low + random.nextInt(span);
+                if ( i > 0 ) s.append(',');
+
+                if ( span > 2 && random.nextBoolean() )
+                {
+                    int b = a + 1 + random.nextInt(low + span - a - 1 > 0 ? low + span - a - 1 : 1);
+                    s.append(a).append('-').append(Math.min(b, max));
+                    if ( random.nextBoolean() ) s.append('/').append(2 + random.nextInt(3));
+                }
+                else
+                    s.append(a);
+            }
+        }
+    }
+}
@@ -37,6 +37,8 @@ public class ParserTest
             //solved {"2020.*.28-32 *:*:*"}, {"2020.*.28-32/2 *:*:*"},
             // явно задан високосный день 02.29 для невисокосного года
             {"2021.2.29 12:*:*"},
+            // отсутствуют миллисекунды после точки
+            {"*:*:*."}, {"*:*:*.."},
         };
     }
 
@@ -65,6 +67,62 @@ public class ParserTest
             {"*.2.29 12:0-50/10:*",     "[*.2.29] * [12:0-50/10:*.0]"},
             {"2020.2.29 12:*:*",        "[2020.2.29] * [12:*:*.0]"},
             {"*.1-6/2.1,4-13/2,17,27 12:*/3:*",        "[*.1-6/2.1,4-13/2,17,27] * [12:*/3:*.0]"},
+            // совместимость с прежним парсером (StringTokenizer и split)
+            {"  *.*.*   1   12:00:00 ", "[*.*.*] 2 [12:0:0.0]"},
+            {"2020.1.1.. 12:00:00::",   "[2020.1.1] * [12:0:0.0]"},
+            {"*.*.1,,5, 0,12:00:00",    "[*.*.1,5] * [0,12:0:0.0]"},
+            {"12:00:00.100.200",        "[*.*.*] * [12:0:0.100]"},
+            {"*/1:*/0:0005",            "[*.*.*] * [*:*:5.0]"},
         };
     }
+
+
+
+    @Test(dataProvider = "errorMessages_DataProvider")
+    public void testErrorMessages(String schedule, String expected)
+    {
+        try
+        {
+            new Parser().parse(schedule);
+            Assert.fail("Invalid schedule is accepted: " + schedule);
+        }
+        catch (ScheduleFormatException e)
+        {
+            Assert.assertEquals(e.getMessage(), expected);
+        }
+    }
+
+    @DataProvider
+    private Object[][] errorMessages_DataProvider()
+    {
+        return new Object[][] {
+            {"*.* 12:00:00",            "Wrong date in schedule (expected exactly 3 elements).\nTrouble in this schedule: *.*"},
+            {"*.*.*.1 12:00:00",        "Wrong date in schedule (expected exactly 3 elements).\nTrouble in this schedule: *.*.*.1"},
+            {"12:00::",                 "Wrong time in schedule (expected exactly 3 elements).\nTrouble in this schedule: 12:00::"},
+            {"12:00:00 *.*.*",          "Invalid schedule. Time MUST follow AFTER date.\nTrouble in this schedule: 12:00:00 *.*.*"},
+            {"12:00:00 1:2:3",          "Invalid schedule. The Time element is redundant.\nTrouble in this schedule: 12:00:00 1:2:3"},
+            {"1 12:00:00",              "Invalid schedule. Weekday MUST follow AFTER date.\nTrouble in this schedule: 1 12:00:00"},
+            {"*.*.*",                   "Time is not present in schedule (it required).\nTrouble in this schedule: *.*.*"},
+            {"12:1-:00",                "Invalid format of the schedule element.\nTrouble in this schedule: 1-"},
+            {"12:*/:00",                "Invalid format of the schedule element.\nTrouble in this schedule: */"},
+            {"12:0,5/2:00",             "Invalid format of the schedule element.\nTrouble in this schedule: 5/2"},
+            {"12:1-2/:00",              "Invalid format of the schedule element.\nTrouble in this schedule: 1-2/"},
+            {"12:00:00.",               "Invalid format of the schedule element.\nTrouble in this schedule: "},
+            {"12:1-99999999999:00",     "Invalid format of the schedule element (expected number).\nTrouble in this schedule: 1-99999999999"},
+            {"12:*/99999999999:00",     "Invalid format of the schedule element (expected number).\nTrouble in this schedule: */99999999999"},
+        };
+    }
+
+
+
+    @Test
+    public void testGeneratedCorpus() throws Exception
+    {
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 10000; i++)
+        {
+            String schedule = ParserJmh.generate(random);
+            new Parser().parse(schedule); // must be valid
+        }
+    }
 }
\ No newline at end of file
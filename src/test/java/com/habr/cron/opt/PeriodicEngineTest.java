@@ -0,0 +1,297 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the periodic schedules (the events are checked by the digits, by the counters and by the searchers).
+ */
+public class PeriodicEngineTest
+{
+    private static final long START = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    private static final long DAY = 86400000L;
+
+
+    @Test(dataProvider = "periodic_DataProvider")
+    public void testClassifier(String schedule, long period, long phase) throws Exception
+    {
+        PeriodicEngine engine = PeriodicEngine.of(new Schedule(schedule).getPool().getMatcherPool());
+        assertNotNull(engine, schedule);
+        assertEquals(engine.getPeriod(), period, schedule);
+        assertEquals(engine.getPhase(), phase, schedule);
+    }
+
+    @DataProvider
+    private Object[][] periodic_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*.*", 1, 0},
+                {"*:*:*.5", 1000, 5},
+                {"*:*:*", 1000, 0},
+                {"*:*:*/5", 5000, 0},
+                {"*:*:3-59/5", 5000, 3000},
+                {"*:5-59/15:0", 900000, 300000},
+                {"*:*/15:00", 900000, 0},
+                {"*:00:00", 3600000, 0},
+                {"*/2:30:00", 7200000, 1800000},
+                {"5:00:00", DAY, 5 * 3600000},
+                {"*.*.* 1-23/8:0:0.250", 8 * 3600000, 3600250},
+                {"*:*:*.0-999/100", 100, 0},
+                {"*:0,30:0", 1800000, 0}, // the lists are classified by the values, which the digits visit
+                {"0,*/6:0:0", 6 * 3600000, 0},
+                {"12,12:00:00", DAY, 12 * 3600000},
+        };
+    }
+
+    @Test(dataProvider = "aperiodic_DataProvider")
+    public void testAperiodic(String schedule) throws Exception
+    {
+        assertNull(PeriodicEngine.of(new Schedule(schedule).getPool().getMatcherPool()), schedule);
+    }
+
+    @DataProvider
+    private Object[][] aperiodic_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:0-29"},
+                {"*:*:*/7"}, // 7 doesn't divide the minute
+                {"*:0-44/15:0"}, // the progression doesn't cover the hour
+                {"*:*/15:*"}, // the minor element is not constant
+                {"9-17:00:00"},
+                {"*:0,30:0,30"},
+                {"*:*:*.100-200"},
+                {"3,*/7:0:0"},
+        };
+    }
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testSearch(Schedule s) throws Exception
+    {
+        PeriodicEngine engine = PeriodicEngine.of(s.getPool().getMatcherPool());
+        Random random = new Random(s.toString().hashCode());
+
+        for (int i = 0; i < 3000; i++)
+        {
+            long time = randomTime(random, engine.getPeriod(), engine.getPhase());
+            for (boolean forward : new boolean[] {true, false})
+                for (boolean canEqual : new boolean[] {true, false})
+                    assertEquals(outcome(s, time, forward, canEqual, true), outcome(s, time, forward, canEqual, false),
+                            s + " " + time + " " + forward + " " + canEqual);
+        }
+    }
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testCount(Schedule s) throws Exception
+    {
+        PeriodicEngine engine = PeriodicEngine.of(s.getPool().getMatcherPool());
+        EventCounter counter = new EventCounter(s.getPool(), s.getMinYear(), s.getMaxYear());
+        GregCalendar calendar = new GregCalendar();
+        Random random = new Random(s.toString().hashCode());
+
+        for (int i = 0; i < 3000; i++)
+        {
+            long from = randomTime(random, engine.getPeriod(), engine.getPhase());
+            long to = from + (long) (random.nextDouble() * (i % 2 == 0 ? 3 * DAY : 400 * DAY));
+
+            long expected = counter.count(to, false, calendar) - counter.count(from, false, calendar);
+            assertEquals(s.countEvents(from, to), expected, s + " " + from + " " + to);
+
+            long n = 1 + random.nextInt(1000);
+            assertEquals(outcome(s, from, n), nthEvent(counter, calendar, from, n), s + " " + from + " " + n);
+        }
+    }
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testGenerator(Schedule s) throws Exception
+    {
+        PeriodicEngine engine = PeriodicEngine.of(s.getPool().getMatcherPool());
+        ScheduleSearcher searcher = s.newSearcher();
+        Random random = new Random(s.toString().hashCode());
+
+        for (int i = 0; i < 20; i++)
+        {
+            long start = START + (long) (random.nextDouble() * 2 * 365 * DAY);
+            if ( !engine.covers(start) ) continue; // it's generated by the digits
+
+            for (boolean forward : new boolean[] {true, false})
+            {
+                ScheduleEventsGenerator generator = s.getEventsGenerator(new Date(start), forward);
+                searcher.reset(start, forward);
+                assertEquals(generator.last().getTime(), start);
+
+                for (int j = 0; j < 100; j++) // the end of the years too
+                    assertEquals(outcome(generator), outcome(searcher), s + " " + start + " " + forward + " " + j);
+
+                long out[] = new long[50];
+                long last = searcher.last();
+                long until = last + (forward ? 20 : -20) * engine.getPeriod();
+                int count = generator.fill(out, 0, out.length, until);
+                for (int j = 0; j < count; j++)
+                    assertEquals(out[j], searcher.next(), s + " " + start + " " + forward + " fill " + j);
+
+                assertEquals(count, forward ? s.countEvents(last + 1, until + 1) : s.countEvents(until, last)); // 20 in the years
+                assertEquals(generator.last().getTime(), searcher.last());
+            }
+        }
+    }
+
+    @DataProvider
+    private Object[][] schedules_DataProvider() throws Exception
+    {
+        return new Object[][] {
+                {new Schedule("*:*:*.*")},
+                {new Schedule("*:*:*.5")},
+                {new Schedule("*:*:*/5")},
+                {new Schedule("*:*/15:00")},
+                {new Schedule("*/2:30:00")},
+                {new Schedule("5:00:00")},
+                {new Schedule("*.*.* 1-23/8:0:0.250")},
+                {new Schedule("*:00:00", 2020, 2021)},
+                {new Schedule("23:59:59.999", 2021, 2021)},
+                {new Schedule("0,*/6:0:0")},
+                {new Schedule("*:0,15,30,45:0")},
+        };
+    }
+
+    /**
+     * The generators stop at the bounds of the years of the schedule;
+     * the generators from the times out of the years are made by the digits.
+     */
+    @Test
+    public void testBounds() throws Exception
+    {
+        Schedule s = new Schedule("*:00:00", 2020, 2021);
+        long first = Instant.parse("2020-01-01T00:00:00Z").toEpochMilli();
+        long last = Instant.parse("2021-12-31T23:00:00Z").toEpochMilli();
+
+        ScheduleEventsGenerator generator = s.getEventsGenerator(new Date(last - 3600000), true);
+        assertEquals(generator.next().getTime(), last);
+        assertEquals(outcome(generator), "none");
+
+        generator = s.getEventsGenerator(new Date(first + 3600000), false);
+        assertEquals(generator.next().getTime(), first);
+        assertEquals(outcome(generator), "none");
+
+        assertEquals(s.getEventsGenerator(new Date(first - 1), true).next().getTime(), first);
+        assertEquals(s.getEventsGenerator(new Date(last + 1), false).next().getTime(), last);
+        assertEquals(outcome(s, new Date(last), true), "none");
+        assertEquals(outcome(s, new Date(first), false), "none");
+
+        assertEquals(s.countEvents(Long.MIN_VALUE, Long.MAX_VALUE), (365 + 366) * 24);
+        assertEquals(s.nthEvent(Long.MIN_VALUE, 1), first);
+        assertEquals(s.nthEvent(first, (365 + 366) * 24 - 1), last);
+        assertEquals(outcome(s, first, (365 + 366) * 24), "none");
+        assertEquals(s.events(Long.MIN_VALUE, Long.MAX_VALUE).count(), (365 + 366) * 24);
+    }
+
+
+
+    /**
+     * @return the random time near the events (the start of the day, the events and the times around them)
+     */
+    private static long randomTime(Random random, long period, long phase)
+    {
+        long time = START + (long) (random.nextDouble() * 4 * 365 * DAY);
+        switch ( random.nextInt(4) )
+        {
+            case 0: return time - Math.floorMod(time, DAY) + random.nextInt(3) - 1;
+            case 1: return time - Math.floorMod(time - phase, period) + random.nextInt(3) - 1;
+            default: return time;
+        }
+    }
+
+    /**
+     * @return the event by the schedule (by the engine), or by the digits (the searches of nanoseconds don't use it)
+     */
+    private static String outcome(Schedule s, long time, boolean forward, boolean canEqual, boolean millis)
+    {
+        long nanos = time * 1000000L;
+        try
+        {
+            if ( millis )
+                return String.valueOf(forward
+                        ? (canEqual ? s.nearestEventMillis(time) : s.nextEventMillis(time))
+                        : (canEqual ? s.nearestPrevEventMillis(time) : s.prevEventMillis(time)));
+
+            return String.valueOf((forward
+                    ? (canEqual ? s.nearestEventNanos(nanos) : s.nextEventNanos(nanos))
+                    : (canEqual ? s.nearestPrevEventNanos(nanos) : s.prevEventNanos(nanos))) / 1000000L);
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(Schedule s, long time, long n)
+    {
+        try
+        {
+            return String.valueOf(s.nthEvent(time, n));
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(ScheduleEventsGenerator generator)
+    {
+        try
+        {
+            return String.valueOf(generator.next().getTime());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(ScheduleSearcher searcher)
+    {
+        try
+        {
+            return String.valueOf(searcher.next());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    /**
+     * @return the first event of the new generator
+     */
+    private static String outcome(Schedule s, Date start, boolean forward)
+    {
+        try
+        {
+            return outcome(s.getEventsGenerator(start, forward));
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String nthEvent(EventCounter counter, GregCalendar calendar, long time, long n)
+    {
+        try
+        {
+            counter.select(counter.count(time, true, calendar) + n - 1, calendar);
+            return String.valueOf(calendar.asMillis());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+}
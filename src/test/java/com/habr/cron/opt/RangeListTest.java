@@ -25,6 +25,24 @@ public class RangeListTest
         list.add(new Range(30, 34));
     }
 
+    @Test
+    public void testExpandAsterisks() throws Exception
+    {
+        RangeList ranges = new RangeList(3); // "3,*/7,10-12"
+        ranges.add(new Range(3));
+        ranges.add(new Range(7, true));
+        ranges.add(new Range(10, 12));
+
+        ranges.expandAsterisks(0, 23);
+        assertEquals(ranges.toString(), "3,0-23/7,10-12");
+        assertEquals(ranges.getMinimum(), 0);
+        assertEquals(ranges.getMaximum(), 23);
+
+        list.expandAsterisks(0, 59); // no asterisks
+        assertEquals(list.getMinimum(), 2);
+        assertEquals(list.getMaximum(), 51);
+    }
+
     @Test
     public void testIsAlone() throws Exception
     {
@@ -0,0 +1,141 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class ScheduleCacheTest
+{
+    @Test
+    public void testSharedInstance() throws Exception
+    {
+        ScheduleCache cache = new ScheduleCache(10, ScheduleCache.Eviction.LRU);
+
+        Schedule s1 = cache.get("*:*:*");
+        Schedule s2 = cache.get("*:*:*");
+        Schedule s3 = cache.get("*:*:00");
+
+        assertSame(s1, s2);
+        assertNotSame(s1, s3);
+        assertEquals(s1.toString(), "*:*:*");
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 2);
+        assertEquals(cache.getEvictions(), 0);
+    }
+
+    @Test
+    public void testCompile() throws Exception
+    {
+        assertSame(Schedule.compile("*.*.01 01:30:00"), Schedule.compile("*.*.01 01:30:00"));
+    }
+
+    @Test(expectedExceptions = ScheduleFormatException.class)
+    public void testInvalidSchedule() throws Exception
+    {
+        ScheduleCache cache = new ScheduleCache(10, ScheduleCache.Eviction.LRU);
+        try
+        {
+            cache.get("*:*:61");
+        }
+        finally
+        {
+            assertEquals(cache.size(), 0);
+        }
+    }
+
+    @Test
+    public void testLRU() throws Exception
+    {
+        ScheduleCache cache = new ScheduleCache(3, ScheduleCache.Eviction.LRU);
+
+        Schedule s1 = cache.get("*:*:01");
+        cache.get("*:*:02");
+        cache.get("*:*:03");
+        cache.get("*:*:01"); // now '02' is the least recently used
+        cache.get("*:*:04");
+
+        assertEquals(cache.size(), 3);
+        assertEquals(cache.getEvictions(), 1);
+        assertSame(cache.get("*:*:01"), s1);
+
+        long misses = cache.getMisses();
+        cache.get("*:*:02");
+        assertEquals(cache.getMisses(), misses + 1); // was evicted
+    }
+
+    @Test
+    public void testLFU() throws Exception
+    {
+        ScheduleCache cache = new ScheduleCache(3, ScheduleCache.Eviction.LFU);
+
+        cache.get("*:*:01");
+        cache.get("*:*:01");
+        cache.get("*:*:01");
+        cache.get("*:*:02");
+        cache.get("*:*:02");
+        cache.get("*:*:03");
+        cache.get("*:*:01"); // '01' is the most recently used and the most frequently used
+
+        cache.get("*:*:04"); // evicts '03', the least frequently used
+        cache.get("*:*:05"); // evicts '04' (the same frequency as '05', but the oldest)
+
+        assertEquals(cache.getEvictions(), 2);
+
+        long misses = cache.getMisses();
+        cache.get("*:*:01");
+        cache.get("*:*:02");
+        cache.get("*:*:05");
+        assertEquals(cache.getMisses(), misses);
+    }
+
+    @Test
+    public void testSegmentedCapacity() throws Exception
+    {
+        ScheduleCache cache = new ScheduleCache(1000, ScheduleCache.Eviction.LRU);
+
+        for (int i = 0; i < 3000; i++)
+            cache.get("*:*:*." + (i % 1000) + "," + (i / 1000));
+
+        assertEquals(cache.getCapacity(), 1000);
+        assertTrue(cache.size() <= 1000);
+        assertEquals(cache.getEvictions(), 3000 - cache.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final ScheduleCache cache = new ScheduleCache(100, ScheduleCache.Eviction.LFU);
+        final Schedule first = cache.get("*:*:*.0");
+        Thread threads[] = new Thread[8];
+        final Throwable errors[] = new Throwable[1];
+
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 10000; i++)
+                            cache.get("*:*:*." + (i % 200));
+
+                        assertNotNull(cache.get("*:*:*.0"));
+                    }
+                    catch (Throwable e)
+                    {
+                        synchronized (errors) { errors[0] = e; }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertNull(errors[0]);
+        assertTrue(cache.size() <= 100);
+        assertEquals(cache.getHits() + cache.getMisses(), 1 + threads.length * 10001L);
+        assertNotNull(first);
+    }
+}
@@ -0,0 +1,203 @@
+package com.habr.cron.opt;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the compiled searches (the events are checked by the searches of the same schedules by the digits).
+ */
+public class ScheduleCompilerTest
+{
+    private static final long START = Instant.parse("2019-01-01T00:00:00Z").toEpochMilli();
+
+
+    @BeforeMethod
+    public void checkSupport()
+    {
+        if ( !ScheduleCompiler.isSupported() ) throw new SkipException("The hidden classes are not supported by the JVM.");
+    }
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testEvents(String schedule, Schedule.Precision precision) throws Exception
+    {
+        Schedule compiled = new Schedule(schedule, precision);
+        Schedule plain = new Schedule(schedule, precision);
+        assertTrue(compile(compiled));
+        assertTrue(compiled.isCompiled());
+        plain.setCompiled(null);
+
+        Random random = new Random(schedule.hashCode());
+        for (int i = 0; i < 3000; i++)
+        {
+            long time = START + (long) (random.nextDouble() * 12 * 365 * 86400000L);
+            if ( i % 3 == 0 ) time -= time % 1000; // the exact events of the schedules with the seconds
+            long nanos = time * 1000000L + random.nextInt(1000000);
+
+            assertEquals(outcome(compiled, time, 0), outcome(plain, time, 0), schedule + " " + time);
+            assertEquals(outcome(compiled, time, 1), outcome(plain, time, 1), schedule + " " + time);
+            assertEquals(outcome(compiled, time, 2), outcome(plain, time, 2), schedule + " " + time);
+            assertEquals(outcome(compiled, time, 3), outcome(plain, time, 3), schedule + " " + time);
+            if ( precision != Schedule.Precision.MILLIS )
+            {
+                assertEquals(outcomeNanos(compiled, nanos, true), outcomeNanos(plain, nanos, true), schedule + " " + nanos);
+                assertEquals(outcomeNanos(compiled, nanos, false), outcomeNanos(plain, nanos, false), schedule + " " + nanos);
+            }
+        }
+    }
+
+    /**
+     * The searchers continue from the events of the compiled searches.
+     */
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testSearcher(String schedule, Schedule.Precision precision) throws Exception
+    {
+        Schedule compiled = new Schedule(schedule, precision);
+        Schedule plain = new Schedule(schedule, precision);
+        assertTrue(compile(compiled));
+
+        ScheduleSearcher searcher = compiled.newSearcher();
+        ScheduleSearcher expected = plain.newSearcher();
+        for (boolean forward : new boolean[] {true, false})
+        {
+            searcher.reset(START, forward);
+            expected.reset(START, forward);
+            for (int i = 0; i < 50; i++)
+                assertEquals(outcome(searcher), outcome(expected), schedule + " " + forward + " " + i);
+        }
+    }
+
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*", Schedule.Precision.MILLIS},
+                {"*:*/15:0", Schedule.Precision.MILLIS},
+                {"12:00:00", Schedule.Precision.MILLIS},
+                {"*.*.13 5 9-17/4:30:00", Schedule.Precision.MILLIS},
+                {"*.*.* 1-5 10:00:00", Schedule.Precision.MILLIS},
+                {"*.*.32 12:00:00", Schedule.Precision.MILLIS},
+                {"*.*.20-32/3 1-5 10:00:00", Schedule.Precision.MILLIS},
+                {"*.2.29 10-20/3:*:*.100", Schedule.Precision.MILLIS},
+                {"*.4-6.31 0:0:0", Schedule.Precision.MILLIS},
+                {"2020-2025.3-5,10.1-10,20 *:0,30:0.500", Schedule.Precision.MILLIS},
+                {"2021.1-2.28-32 23:59:59.999", Schedule.Precision.MILLIS},
+                {"*:*:*.100-200/3,250-300/4", Schedule.Precision.MILLIS},
+                {"*.*.1,5,7,11,13,17,19,23 6 3,7,11,19:13,17,43:0-59/7", Schedule.Precision.MILLIS},
+                {"*:*:*.*.*/100", Schedule.Precision.MICROS},
+                {"*.*.* 6 12:00:00.0.500.10-20", Schedule.Precision.NANOS},
+        };
+    }
+
+    @Test
+    public void testBudget() throws Exception
+    {
+        Schedule s = new Schedule("*.*.* 1-5 9-17:0,15,30,45:0");
+        assertNotNull(ScheduleCompiler.compile(s.getPool(), Integer.MAX_VALUE));
+        int count = ScheduleCompiler.getClassCount();
+
+        assertNotNull(ScheduleCompiler.compile(s.getPool(), 0)); // the class of the shape is defined already
+
+        Schedule fresh = new Schedule("*.*.*/2 7:1-7/3,40:0.5"); // new shape (it's compiled on creation by the property)
+        count = ScheduleCompiler.getClassCount();
+        assertEquals(ScheduleCompiler.compile(fresh.getPool(), count) != null, fresh.isCompiled());
+        assertEquals(ScheduleCompiler.getClassCount(), count);
+    }
+
+    @Test
+    public void testShape() throws Exception
+    {
+        Schedule a = new Schedule("*.*.* 1-5 9-17:0,15,30,45:0");
+        Schedule b = new Schedule("*.*.* 0,6 10-12:0,20,40:0");
+        assertEquals(ScheduleCompiler.shapeOf(a.getPool()), ScheduleCompiler.shapeOf(b.getPool()));
+
+        assertTrue(compile(a));
+        int count = ScheduleCompiler.getClassCount();
+        assertTrue(compile(b));
+        assertEquals(ScheduleCompiler.getClassCount(), count); // the class of the shape is shared
+
+        assertNotEquals(ScheduleCompiler.shapeOf(a.getPool()), ScheduleCompiler.shapeOf(new Schedule("*:*:*").getPool()));
+    }
+
+    @Test
+    public void testUndefinedClass() throws Exception
+    {
+        String shape = "broken template";
+        assertNull(ScheduleCompiler.classOf(shape, Integer.MAX_VALUE, new byte[] {1, 2, 3}));
+        assertTrue(ScheduleCompiler.isFailed(shape));
+        assertNull(ScheduleCompiler.classOf(shape, Integer.MAX_VALUE, new byte[] {1, 2, 3})); // it isn't tried again
+
+        Schedule s = new Schedule("*.*.* 1-5 9-17:0,15,30,45:0");
+        s.setCompiled(null); // the schedule of the failed class keeps searching by the digits
+        assertFalse(s.isCompiled());
+        assertEquals(s.nextEventMillis(START), Instant.parse("2019-01-01T09:00:00Z").toEpochMilli());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testOutOfInterval() throws Exception
+    {
+        Schedule s = new Schedule("2020.1.1 0:0:0");
+        assertTrue(compile(s));
+        s.prevEventMillis(START); // before the year of the schedule
+    }
+
+
+
+    /**
+     * Compiles the schedule regardless of the budget: the schedules of the other tests exhaust it,
+     * when the compiler is enabled for all schedules ({@value ScheduleCompiler#PROPERTY}).
+     */
+    private static boolean compile(Schedule s)
+    {
+        return s.isCompiled() || s.setCompiled(ScheduleCompiler.compile(s.getPool(), Integer.MAX_VALUE));
+    }
+
+    private static String outcome(Schedule s, long time, int query)
+    {
+        try
+        {
+            switch ( query )
+            {
+                case 0: return String.valueOf(s.nearestEventMillis(time));
+                case 1: return String.valueOf(s.nearestPrevEventMillis(time));
+                case 2: return String.valueOf(s.nextEventMillis(time));
+                default: return String.valueOf(s.prevEventMillis(time));
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcomeNanos(Schedule s, long nanos, boolean forward)
+    {
+        try
+        {
+            return String.valueOf(forward ? s.nextEventNanos(nanos) : s.prevEventNanos(nanos));
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(ScheduleSearcher searcher)
+    {
+        try
+        {
+            return String.valueOf(searcher.next());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+}
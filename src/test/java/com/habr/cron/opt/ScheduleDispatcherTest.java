@@ -0,0 +1,116 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.testng.Assert.*;
+
+public class ScheduleDispatcherTest
+{
+    private static final SimpleDateFormat f = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+
+    static
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void testEventsAreFiredInTime() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleDispatcher dispatcher = new ScheduleDispatcher(start);
+
+        Schedule halfSecond = new Schedule("*:*:*.0,500");
+        Schedule minute = new Schedule("*:*:00");
+        EventsCollector events = new EventsCollector();
+
+        dispatcher.register(halfSecond, events);
+        dispatcher.register(minute, events);
+
+        long now = start;
+        for (int i = 0; i < 120000; i++) // two minutes, tick by tick
+        {
+            events.now = now;
+            dispatcher.advanceTo(now++);
+        }
+
+        assertEquals(events.times.size(), 240 + 2);
+        assertEquals(dispatcher.size(), 2);
+
+        for (int i = 0; i < events.times.size(); i++)
+            assertEquals(events.times.get(i), events.fired.get(i)); // fired exactly in time
+
+        assertEquals(events.times.get(0).longValue(), start);
+        assertEquals(events.schedules.get(0), halfSecond);
+        assertEquals(events.schedules.get(1), minute);
+        assertEquals(events.times.get(2).longValue(), f.parse("17.11.2021 14:00:00.500").getTime());
+    }
+
+    @Test
+    public void testCancel() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleDispatcher dispatcher = new ScheduleDispatcher(start);
+        EventsCollector events = new EventsCollector();
+
+        ScheduleDispatcher.Registration registration = dispatcher.register(new Schedule("*:*:*"), events);
+        dispatcher.advanceTo(start + 2500);
+        assertEquals(events.times.size(), 3);
+
+        registration.cancel();
+        dispatcher.advanceTo(start + 10000);
+        assertEquals(events.times.size(), 3);
+        assertEquals(dispatcher.size(), 0);
+    }
+
+    @Test
+    public void testScheduleIsRemovedOutOfInterval() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleDispatcher dispatcher = new ScheduleDispatcher(start);
+        EventsCollector events = new EventsCollector();
+
+        dispatcher.register(new Schedule("2021.11.17 14:00:01,02"), events);
+        dispatcher.advanceTo(start + 5000);
+
+        assertEquals(events.times.size(), 2);
+        assertEquals(dispatcher.size(), 0);
+    }
+
+    @Test
+    public void testTimerThread() throws Exception
+    {
+        ScheduleDispatcher dispatcher = new ScheduleDispatcher();
+        EventsCollector events = new EventsCollector();
+        dispatcher.register(new Schedule("*:*:*.*/10"), events);
+
+        dispatcher.start();
+        Thread.sleep(200);
+        dispatcher.stop();
+
+        synchronized (events)
+        {
+            assertTrue(events.times.size() > 5);
+        }
+    }
+
+
+    private static class EventsCollector implements ScheduleDispatcher.Callback
+    {
+        long now;
+        final List<Long> times = new ArrayList<Long>();
+        final List<Long> fired = new ArrayList<Long>();
+        final List<Schedule> schedules = new ArrayList<Schedule>();
+
+        public synchronized void onEvent(Schedule schedule, long eventTime)
+        {
+            times.add(eventTime);
+            fired.add(now);
+            schedules.add(schedule);
+        }
+    }
+}
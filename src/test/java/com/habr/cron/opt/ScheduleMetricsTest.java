@@ -0,0 +1,232 @@
+package com.habr.cron.opt;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the instrumentation of the searches.
+ * The instrumentation is enabled for the tests by the surefire plugin (see pom.xml).
+ */
+public class ScheduleMetricsTest
+{
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+
+    @BeforeMethod
+    public void setUp() throws Exception
+    {
+        assertTrue(ScheduleMetrics.ENABLED, "run the tests with -D" + ScheduleMetrics.PROPERTY + "=true");
+        ScheduleMetrics.reset();
+    }
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        Schedule s = walking("2021.*.* *:*:*"); // the date: the search walks the digits
+        s.NextEvent(new Date(START));
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 1);
+        assertEquals(snapshot.getFailures(), 0);
+        assertEquals(snapshot.getSteps(), snapshot.getMaxSteps());
+        assertEquals(snapshot.getWeekDayFixes(), 0);
+        assertEquals(sum(snapshot.getStepsHistogram()), 1);
+        assertEquals(sum(snapshot.getLatencyHistogram()), 1);
+        assertTrue(snapshot.getLatencyQuantile(1) >= snapshot.getLatencyQuantile(0.5));
+        assertEquals(snapshot.getFastSearches(ScheduleMetrics.FastPath.INDEX), 0);
+    }
+
+    /**
+     * The instrumentation doesn't switch off the index of the times of day; its searches are recorded with zero checks.
+     */
+    @Test
+    public void testIndexSearch() throws Exception
+    {
+        Schedule s = new Schedule("9-17:0-29:*.0-499");
+        Schedule plain = walking("2000-2100.*.* 9-17:0-29:*.0-499"); // the same events by the digits
+        assertEquals(s.NextEvent(new Date(START)), plain.NextEvent(new Date(START)));
+        assertEquals(s.PrevEvent(new Date(START)), plain.PrevEvent(new Date(START)));
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 4);
+        assertEquals(snapshot.getFastSearches(ScheduleMetrics.FastPath.INDEX), 2);
+        assertEquals(snapshot.getStepsHistogram()[0], 2);
+        assertEquals(snapshot.asMap().get("searches.index").longValue(), 2);
+    }
+
+    /**
+     * The instrumentation doesn't switch off the periodic engine; its searches are counted by their own path.
+     */
+    @Test
+    public void testPeriodicSearch() throws Exception
+    {
+        Schedule s = new Schedule("*:*/15:00");
+        assertEquals(s.NextEvent(new Date(START)).getTime(), START + 900000);
+        assertEquals(s.PrevEvent(new Date(START)).getTime(), START - 900000);
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 2);
+        assertEquals(snapshot.getFastSearches(ScheduleMetrics.FastPath.PERIODIC), 2);
+        assertEquals(snapshot.getFastSearches(ScheduleMetrics.FastPath.INDEX), 0);
+        assertEquals(snapshot.getSteps(), 0);
+        assertEquals(snapshot.asMap().get("searches.periodic").longValue(), 2);
+    }
+
+    /**
+     * The instrumentation doesn't bypass the compiled search; only its time and result are recorded.
+     */
+    @Test
+    public void testCompiledSearch() throws Exception
+    {
+        if ( !ScheduleCompiler.isSupported() ) throw new SkipException("The hidden classes are not supported by the JVM.");
+
+        Schedule s = new Schedule("*.*.13 5 12:00:00");
+        Schedule plain = walking("*.*.13 5 12:00:00");
+        assertTrue(s.setCompiled(ScheduleCompiler.compile(s.getPool(), Integer.MAX_VALUE)));
+
+        assertEquals(s.NextEvent(new Date(START)), plain.NextEvent(new Date(START)));
+        ScheduleMetrics.reset(); // the search of the plain schedule
+
+        s.NextEvent(new Date(START));
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 1);
+        assertEquals(snapshot.getFastSearches(ScheduleMetrics.FastPath.COMPILED), 1);
+        assertEquals(snapshot.getSteps(), 0);
+        assertEquals(sum(snapshot.getLatencyHistogram()), 1);
+    }
+
+    /**
+     * The promise of findEvent(): a maximum of 8 checks without days of week.
+     */
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testMaxSteps(String schedule) throws Exception
+    {
+        Schedule s = walking(schedule);
+        Random random = new Random(schedule.hashCode());
+
+        for (int i = 0; i < 10000; i++)
+        {
+            Date date = new Date(START + (long) (random.nextDouble() * 2 * 365 * 86400000L));
+            s.NearestEvent(date);
+            s.NextEvent(date);
+            s.NearestPrevEvent(date);
+            s.PrevEvent(date);
+        }
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 40000);
+        assertTrue(snapshot.getMaxSteps() <= 8, snapshot.toString());
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*"},
+                {"*:*/15:0"},
+                {"*.*.32 12:00:00"},
+                {"*.2.29 10-20/3:*:*.100"},
+                {"2020-2025.3-5,10.1-10,20 *:0,30:0.500"},
+        };
+    }
+
+    @Test
+    public void testWeekDayFix() throws Exception
+    {
+        Schedule s = walking("*.*.13 5 12:00:00"); // Friday, 13
+        assertEquals(s.NextEvent(new Date(START)).getTime(), Instant.parse("2021-08-13T12:00:00Z").toEpochMilli());
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getWeekDayFixes(), 1);
+        assertEquals(snapshot.getYearsScanned(), 1);
+
+        ScheduleMetrics.reset();
+        s = walking("*.2.29 1 12:00:00"); // Monday, February 29
+        assertEquals(s.NextEvent(new Date(START)).getTime(), Instant.parse("2044-02-29T12:00:00Z").toEpochMilli());
+        assertEquals(ScheduleMetrics.snapshot().getYearsScanned(), (2044 - 2024) / 4 + 1); // only the leap years
+    }
+
+    @Test
+    public void testFailure() throws Exception
+    {
+        Schedule s = walking("2000.1.1 0:0:0");
+        try
+        {
+            s.PrevEvent(s.PrevEvent(new Date(START)));
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        ScheduleMetrics.Snapshot snapshot = ScheduleMetrics.snapshot();
+        assertEquals(snapshot.getSearches(), 2);
+        assertEquals(snapshot.getFailures(), 1);
+    }
+
+    @Test
+    public void testExport() throws Exception
+    {
+        walking("2021.*.* *:*:0").NextEvent(new Date(START + 1));
+
+        Map<String, Long> values = ScheduleMetrics.snapshot().asMap();
+        assertEquals(values.get("searches").longValue(), 1);
+        assertEquals(values.get("failures").longValue(), 0);
+        assertEquals(values.get("steps." + values.get("steps")).longValue(), 1);
+        assertTrue(values.get("carries") > 0);
+
+        long latency = 0;
+        for (Map.Entry<String, Long> entry : values.entrySet())
+            if ( entry.getKey().startsWith("latency.le_") ) latency += entry.getValue();
+        assertEquals(latency, 1);
+
+        ScheduleMetrics.reset();
+        assertEquals(ScheduleMetrics.snapshot().getSearches(), 0);
+        assertEquals(ScheduleMetrics.snapshot().getLatencyQuantile(0.99), 0);
+    }
+
+    @Test
+    public void testLatencyBucket() throws Exception
+    {
+        assertEquals(ScheduleMetrics.latencyBucket(0), 0);
+        assertEquals(ScheduleMetrics.latencyBucket(1), 0);
+        assertEquals(ScheduleMetrics.latencyBucket(2), 1);
+        assertEquals(ScheduleMetrics.latencyBucket(1023), 9);
+        assertEquals(ScheduleMetrics.latencyBucket(1024), 10);
+        assertEquals(ScheduleMetrics.latencyBucket(Long.MAX_VALUE), 62);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWrongQuantile() throws Exception
+    {
+        ScheduleMetrics.snapshot().getLatencyQuantile(1.5);
+    }
+
+
+
+    /**
+     * @return the schedule, which is searched by the digits (not compiled by {@value ScheduleCompiler#PROPERTY})
+     */
+    private static Schedule walking(String schedule) throws Exception
+    {
+        Schedule result = new Schedule(schedule);
+        result.setCompiled(null);
+        return result;
+    }
+
+    private static long sum(long values[])
+    {
+        long result = 0;
+        for (long value : values) result += value;
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.testng.Assert.*;
+
+public class ScheduleQueueTest
+{
+    private static final SimpleDateFormat f = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+
+    static
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Each schedule fires its events one by one, as they are found by nextEventMillis().
+     */
+    @Test
+    public void testEventsAreFiredInOrder() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        String patterns[] = {
+                "*:*:*.0,500", "*:*:00", "*:*/15:00", "*:*:*/7", "*.*.* 9-17:0-29:*.0-4",
+                "2021.11.17 14:00:01,02", "*:*:*.250", "*.*.17 3 14:*:*/13", "*:*:*.*/100",
+        };
+
+        ScheduleQueue queue = new ScheduleQueue(4); // it grows
+        Schedule schedules[] = new Schedule[patterns.length * 10];
+        long expected[] = new long[schedules.length];
+        for (int i = 0; i < schedules.length; i++)
+        {
+            schedules[i] = new Schedule(patterns[i % patterns.length]);
+            assertEquals(queue.add(schedules[i], start - 1 - i), i);
+            expected[i] = schedules[i].nextEventMillis(start - 1 - i);
+            assertEquals(queue.nextEvent(i), expected[i]);
+        }
+
+        int ids[] = new int[64];
+        long times[] = new long[64];
+        long count = 0;
+
+        for (long now = start; now < start + 3600000; now += 77)
+        {
+            int fired;
+            while ( (fired = queue.advance(now, ids, times)) > 0 )
+                for (int i = 0, previous = 0; i < fired; previous = i++) // in the order of the events in the batch
+                {
+                    int id = ids[i];
+                    assertEquals(times[i], expected[id], schedules[id].toString());
+                    assertTrue(times[i] <= now && times[i] >= times[previous]);
+
+                    expected[id] = queue.isArmed(id) ? schedules[id].nextEventMillis(times[i]) : Long.MAX_VALUE;
+                    count++;
+                }
+
+            assertTrue(queue.peekTime() > now);
+        }
+
+        assertTrue(count > 100000);
+        assertEquals(queue.size(), schedules.length - 10); // the one-time schedules are done
+        assertFalse(queue.isArmed(5));
+    }
+
+    @Test
+    public void testArmAndDisarm() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleQueue queue = new ScheduleQueue();
+
+        int minute = queue.add(new Schedule("*:*:00"), start);
+        int second = queue.add(new Schedule("*:*:*"), start);
+        assertEquals(queue.peekTime(), start + 1000);
+        assertEquals(queue.nextEvent(minute), start + 60000);
+
+        assertTrue(queue.arm(second, start + 90000)); // later
+        assertEquals(queue.peekTime(), start + 60000);
+        assertTrue(queue.arm(second, start + 5000)); // earlier (decrease-key)
+        assertEquals(queue.peekTime(), start + 6000);
+
+        queue.disarm(second);
+        assertFalse(queue.isArmed(second));
+        assertEquals(queue.size(), 1);
+        assertEquals(queue.peekTime(), start + 60000);
+
+        queue.disarm(minute);
+        assertEquals(queue.peekTime(), Long.MAX_VALUE);
+
+        int ids[] = new int[4];
+        long times[] = new long[4];
+        assertEquals(queue.advance(Long.MAX_VALUE, ids, times), 0);
+    }
+
+    @Test
+    public void testBatchLimit() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleQueue queue = new ScheduleQueue();
+        for (int i = 0; i < 10; i++)
+            queue.add(new Schedule("*:*:*"), start);
+
+        int ids[] = new int[3];
+        long times[] = new long[3];
+        assertEquals(queue.poll(start + 1000, ids, times), 3);
+        assertEquals(queue.size(), 7);
+        assertEquals(queue.rearm(ids, times, 3), 3);
+        assertEquals(queue.size(), 10);
+
+        int count = 0;
+        int fired;
+        while ( (fired = queue.advance(start + 1000, ids, times)) > 0 )
+            count += fired;
+
+        assertEquals(count, 7);
+        assertEquals(queue.peekTime(), start + 2000);
+    }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+        ScheduleQueue queue = new ScheduleQueue();
+        Schedule hour = new Schedule("*:00:00");
+
+        int first = queue.add(new Schedule("*:*:*"), start);
+        int second = queue.add(new Schedule("*:*:00"), start);
+        int ids[] = new int[4];
+        long times[] = new long[4];
+        assertEquals(queue.poll(start + 1000, ids, times), 1);
+
+        queue.remove(first);
+        assertEquals(queue.rearm(ids, times, 1), 0); // the removed schedule is skipped
+        assertEquals(queue.size(), 1);
+
+        assertEquals(queue.add(hour, start), first); // the id is given again
+        assertEquals(queue.getSchedule(first), hour);
+        assertEquals(queue.getSchedule(second).toString(), "*:*:00");
+        assertEquals(queue.peekTime(), start + 60000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRemovedSchedule() throws Exception
+    {
+        ScheduleQueue queue = new ScheduleQueue();
+        int id = queue.add(new Schedule(), 0);
+        queue.remove(id);
+        queue.arm(id, 0);
+    }
+}
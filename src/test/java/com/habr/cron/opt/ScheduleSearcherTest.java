@@ -0,0 +1,145 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the reusable searchers (the events are checked by the generators and the searches of the schedules).
+ */
+public class ScheduleSearcherTest
+{
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testEvents(Schedule s) throws Exception
+    {
+        ScheduleSearcher searcher = s.newSearcher();
+        for (boolean forward : new boolean[] {true, false})
+        {
+            ScheduleEventsGenerator generator = s.getEventsGenerator(new Date(START), forward);
+            searcher.reset(START, forward);
+            assertEquals(searcher.last(), START);
+            assertEquals(searcher.isForward(), forward);
+
+            for (int i = 0; i < 100; i++) // the rare events are in the years of the schedule
+                assertEquals(searcher.next(), generator.next().getTime(), s + " " + forward + " " + i);
+
+            assertEquals(searcher.last(), generator.last().getTime());
+        }
+    }
+
+    /**
+     * The re-seeded searcher finds the same events as the searches of the schedule.
+     */
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testReset(Schedule s) throws Exception
+    {
+        ScheduleSearcher searcher = s.newSearcher();
+        Random random = new Random(s.toString().hashCode());
+
+        for (int i = 0; i < 2000; i++)
+        {
+            long time = START + (long) (random.nextDouble() * 5 * 365 * 86400000L);
+            assertEquals(outcome(searcher.reset(time, true)), outcome(s, time, true), s + " " + time);
+            assertEquals(outcome(searcher.reset(time, false)), outcome(s, time, false), s + " " + time);
+            if ( i % 2 == 0 ) outcome(searcher); // the state of the previous searches doesn't matter
+        }
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider() throws Exception
+    {
+        return new Object[][] {
+                {new Schedule("*:*:*")},
+                {new Schedule("*:*/15:0")},
+                {new Schedule("*.*.13 5 9-17/4:30:00")},
+                {new Schedule("*.*.32 12:00:00")},
+                {new Schedule("*.*.20-32/3 1-5 10:00:00")},
+                {new Schedule("*.2.29 10-20/3:*:*.100")},
+                {new Schedule("2020-2030.3-5,10.1-10,20 *:0,30:0.500")},
+                {new Schedule("*:*:*.100-200/3,250-300/4")},
+                {new Schedule("*:*:*.*.*/100", Schedule.Precision.MICROS)},
+                {new Schedule("*:*/15:0", ZoneId.of("Europe/Berlin"))},
+                {new Schedule("*.*.* 1-5 2:30:00", ZoneId.of("America/New_York"))},
+        };
+    }
+
+    @Test
+    public void testFill() throws Exception
+    {
+        Schedule s = new Schedule("*:*/15:0");
+        ScheduleSearcher searcher = s.newSearcher().reset(START, true);
+        long out[] = new long[10];
+
+        assertEquals(searcher.fill(out, 1, 3, START + 3600000L), 3);
+        assertEquals(out[1], START + 900000L);
+        assertEquals(out[3], START + 2700000L);
+
+        assertEquals(searcher.fill(out, 0, 10, START + 3600000L), 1); // till the bound (inclusive)
+        assertEquals(out[0], START + 3600000L);
+        assertEquals(searcher.fill(out, 0, 10, START + 3600000L), 0);
+        assertEquals(searcher.next(), START + 4500000L); // the event after the bound is kept
+
+        searcher.reset(START, false);
+        assertEquals(searcher.fill(out, 0, 10, START - 1800000L), 2);
+        assertEquals(out[0], START - 900000L);
+        assertEquals(out[1], START - 1800000L);
+    }
+
+    @Test
+    public void testOutOfSchedule() throws Exception
+    {
+        Schedule s = new Schedule("2000.1.1 0:0:0,30");
+        ScheduleSearcher searcher = s.newSearcher().reset(START, false);
+        long out[] = new long[10];
+
+        assertEquals(searcher.fill(out, 0, 10, Long.MIN_VALUE), 2);
+        assertEquals(out[1], Instant.parse("2000-01-01T00:00:00Z").toEpochMilli());
+        assertEquals(searcher.fill(out, 0, 10, Long.MIN_VALUE), 0);
+        try
+        {
+            searcher.next();
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        assertEquals(searcher.reset(START, false).next(), out[0]); // the reset searcher works again
+    }
+
+
+
+    private static String outcome(ScheduleSearcher searcher)
+    {
+        try
+        {
+            return String.valueOf(searcher.next());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static String outcome(Schedule s, long time, boolean forward)
+    {
+        try
+        {
+            return String.valueOf(forward ? s.nextEventMillis(time) : s.prevEventMillis(time));
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+}
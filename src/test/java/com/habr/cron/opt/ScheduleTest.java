@@ -6,10 +6,17 @@ import org.testng.annotations.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
 
 /**
  * Standard test for correct work.
@@ -219,6 +226,22 @@ public class ScheduleTest
                                             "01.01.2001 00:00:00.000", // expected date
                                             "06.04.2001 00:00:00.001", // current date
                 },
+                // the lists with an asterisk and with the single value: 3,*/7 = 0,3,7,14,21; 4,4-4 = 4
+                {"3,*/7:0:0",               "29.07.2020 02:59:59.000",
+                                            "29.07.2020 03:00:00.000",
+                },
+                {"3,*/7:0:0",               "29.07.2020 04:00:00.000",
+                                            "29.07.2020 07:00:00.000",
+                },
+                {"3,*/7:0:0",               "29.07.2020 21:00:00.000",
+                                            "30.07.2020 00:00:00.000",
+                },
+                {"4,4-4/1:*:*/1",           "29.07.2020 02:59:33.161",
+                                            "29.07.2020 04:00:00.000",
+                },
+                {"4,4-4/1:*:*/1",           "29.07.2020 04:59:59.000",
+                                            "30.07.2020 04:00:00.000",
+                },
         };
     }
 
@@ -418,12 +441,51 @@ public class ScheduleTest
                         "31.03.2021 12:00:00.000",  // expected date
                         "31.01.2021 12:00:00.000",  // current date
                 },
+                // the lists with an asterisk and with the single value: 3,*/7 = 0,3,7,14,21; 4,4-4 = 4
+                {"3,*/7:0:0",
+                        "29.07.2020 07:00:00.000",
+                        "29.07.2020 03:00:00.000",
+                },
+                {"3,*/7:0:0",
+                        "30.07.2020 00:00:00.000",
+                        "29.07.2020 21:00:00.000",
+                },
+                {"4,4-4/1:*:*/1",
+                        "29.07.2020 05:00:00.000",
+                        "29.07.2020 04:59:59.000",
+                },
+                {"4,4-4/1:*:*/1",
+                        "29.07.2020 04:00:00.000",
+                        "28.07.2020 04:59:59.000",
+                },
         };
     }
 
 
 
 
+    @Test(dataProvider = "nextEvent_DataProvider")
+    public void testNextEventMillis(String schedule, String sourceDate, String expectedDate) throws Exception
+    {
+        Schedule s = new Schedule(schedule);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long millis = f.parse(sourceDate).getTime();
+
+        assertEquals(s.nextEventMillis(millis), f.parse(expectedDate).getTime());
+        assertEquals(s.nearestEventMillis(millis), s.NearestEvent(new Date(millis)).getTime());
+    }
+
+    @Test(dataProvider = "prevEvent_DataProvider")
+    public void testPrevEventMillis(String schedule, String sourceDate, String expectedDate) throws Exception
+    {
+        Schedule s = new Schedule(schedule);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long millis = f.parse(sourceDate).getTime();
+
+        assertEquals(s.prevEventMillis(millis), f.parse(expectedDate).getTime());
+        assertEquals(s.nearestPrevEventMillis(millis), s.NearestPrevEvent(new Date(millis)).getTime());
+    }
+
 
     //
     // Special cases
@@ -741,6 +803,66 @@ public class ScheduleTest
         };
     }
 
+    @Test(dataProvider = "generatorDataProvider")
+    public void testGeneratorFill(String schedule, String startDate, String[] expectedList) throws Exception
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date start = f.parse(startDate);
+
+        Schedule s = new Schedule(schedule);
+        ScheduleEventsGenerator generator = s.getEventsGenerator(start, true);
+
+        // the bound stops filling on the 3-rd event, and it is not consumed
+        long until = f.parse(expectedList[2]).getTime() - 1;
+        long out[] = new long[expectedList.length + 1];
+
+        assertEquals(generator.fill(out, 1, out.length, until), 2);
+        assertEquals(generator.last(), f.parse(expectedList[1]));
+        assertEquals(generator.fill(out, 3, out.length - 3, Long.MAX_VALUE), expectedList.length - 2);
+
+        for (int i = 0; i < expectedList.length; i++)
+            assertEquals(new Date(out[i + 1]), f.parse(expectedList[i]));
+    }
+
+    @Test
+    public void testGeneratorFillBackward() throws Exception
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date start = f.parse("17.11.2021 14:00:00.000");
+
+        Schedule schedule = new Schedule("*:*:*.0,500");
+        ScheduleEventsGenerator generator = schedule.getEventsGenerator(start, false);
+
+        long out[] = new long[10];
+        assertEquals(generator.fill(out, 0, out.length, f.parse("17.11.2021 13:59:58.500").getTime()), 3);
+        assertEquals(new Date(out[0]), f.parse("17.11.2021 13:59:59.500"));
+        assertEquals(new Date(out[2]), f.parse("17.11.2021 13:59:58.500"));
+        assertEquals(generator.next(), f.parse("17.11.2021 13:59:58.000"));
+    }
+
+    @Test
+    public void testGeneratorReturnsTheLastEvent() throws Exception
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date start = f.parse("01.01.2021 00:00:00.000");
+
+        Schedule schedule = new Schedule("2021.11.17 14:00:01,02");
+        ScheduleEventsGenerator generator = schedule.getEventsGenerator(start, true);
+
+        assertEquals(generator.next(), f.parse("17.11.2021 14:00:01.000"));
+        assertEquals(generator.next(), f.parse("17.11.2021 14:00:02.000"));
+        assertEquals(generator.fill(new long[1], 0, 1, Long.MAX_VALUE), 0);
+        try
+        {
+            generator.next();
+            fail("The schedule has no more events");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
     @Test //test for #0004 bug
     public void testGeneratorOnSmallRangeForMillisMustUseBitMap() throws Exception
     {
@@ -755,4 +877,101 @@ public class ScheduleTest
             generator.next(); // MUST thrown ArrayIndexOutOfBoundsException only if we use HashMapMatcher
         }
     }
+
+    @Test
+    public void testWideYearRange() throws Exception
+    {
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Schedule s = new Schedule("*.02.29 12:00:00", 1900, 2400);
+
+        assertEquals(s.NextEvent(f.parse("01.03.2096 00:00:00.000")), f.parse("29.02.2104 12:00:00.000"));
+        assertEquals(s.NextEvent(f.parse("01.03.2396 00:00:00.000")), f.parse("29.02.2400 12:00:00.000"));
+        assertEquals(s.PrevEvent(f.parse("01.01.1973 00:00:00.000")), f.parse("29.02.1972 12:00:00.000"));
+        assertEquals(s.PrevEvent(f.parse("01.01.1908 00:00:00.000")), f.parse("29.02.1904 12:00:00.000"));
+        try
+        {
+            s.PrevEvent(f.parse("01.01.1904 00:00:00.000")); // 1900 is not a leap year
+            fail("The year is out of the range");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    @Test(dataProvider = "wideYearRange_DataProvider")
+    public void testWideYearRangeAgainstBruteForce(String schedule, int dayOfWeek, int day) throws Exception
+    {
+        Schedule s = new Schedule(schedule, 1900, 2400);
+
+        List<Long> expected = new ArrayList<Long>();
+        for (LocalDate date = LocalDate.of(1900, 1, 1); date.getYear() <= 2400; date = date.plusDays(1))
+        {
+            if ( date.getDayOfMonth() == day && (dayOfWeek < 0 || date.getDayOfWeek() == DayOfWeek.of(dayOfWeek)) )
+                expected.add(date.atTime(12, 0).toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        long time = LocalDate.of(1900, 1, 1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        for (Long event : expected)
+        {
+            time = s.nextEventMillis(time);
+            assertEquals(time, event.longValue());
+        }
+
+        for (int i = expected.size() - 1; i > 0; i--)
+        {
+            time = s.prevEventMillis(time);
+            assertEquals(time, expected.get(i - 1).longValue());
+        }
+    }
+    @DataProvider
+    private Object[][] wideYearRange_DataProvider()
+    {
+        return new Object[][] {
+                {"*.*.13 5 12:00:00", 5, 13}, // friday the 13th
+                {"*.*.29 12:00:00", -1, 29},
+                {"*.*.31 1 12:00:00", 1, 31},
+        };
+    }
+
+    @Test
+    public void testInvalidYearRange() throws Exception
+    {
+        try
+        {
+            new Schedule("2100.02.29 12:00:00", 1900, 2400);
+            fail("29.02.2100 is not a leap day");
+        }
+        catch (ScheduleFormatException e)
+        {
+            // expected
+        }
+
+        new Schedule("2400.02.29 12:00:00", 1900, 2400);
+
+        try
+        {
+            new Schedule("1999.*.* 12:00:00"); // the default range is 2000..2100
+            fail("The year is out of the default range");
+        }
+        catch (ScheduleFormatException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            new Schedule("*:*:*", 0, 2100);
+            fail("The year must be positive");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+
+        Schedule s = new Schedule("*.*.* 12:00:00", 2000, 2001);
+        assertEquals(s.getMinYear(), 2000);
+        assertEquals(s.getMaxYear(), 2001);
+        assertFalse(s.getEventsGenerator(new Date(0), true) == null);
+    }
 }
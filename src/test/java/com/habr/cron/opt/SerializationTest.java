@@ -0,0 +1,229 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the binary form of the compiled schedules (the restored schedules are checked by the originals).
+ */
+public class SerializationTest
+{
+    private static final long START = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testRoundTrip(String schedule) throws Exception
+    {
+        checkRoundTrip(new Schedule(schedule));
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*"},
+                {"*.*.* * *:*:*.*"},
+                {"12:00:00"},
+                {"*:*/15:0"},
+                {"*.*.13 5 9-17/4:30:00"},
+                {"*.*.32 12:00:00"},
+                {"*.*.20-32/3 1-5 10:00:00"},
+                {"*.2.29 10-20/3:*:*.100"},
+                {"2020-2025.3-5,10.1-10,20 *:0,30:0.500"},
+                {"*:*:*.1-2,990-999"},
+                {"*:*:*.100-200/3,250-300/4"},
+                {"*:*:*.1,2,3-5,10-20/3,100-900/7"},
+                {"2001,2003,2005-2030/5,2090.*.* 0:0:0"},
+        };
+    }
+
+    @Test
+    public void testOptions() throws Exception
+    {
+        checkRoundTrip(new Schedule("*:*/15:0", ZoneId.of("Europe/Berlin"), SKIP, LATER, 2000, 2100));
+        checkRoundTrip(new Schedule("*:*:*.*.*/100", null, SHIFT, EARLIER, 1900, 2400, Schedule.Precision.MICROS));
+        checkRoundTrip(new Schedule("*:*:*.0.0.*/250", Schedule.Precision.NANOS));
+        checkRoundTrip(new Schedule("*.*.* 0 10:00:00", 1, 9999));
+    }
+
+    /**
+     * All types of matchers are restored as they are.
+     */
+    @Test
+    public void testMatchers() throws Exception
+    {
+        Set<Class<?>> types = new HashSet<Class<?>>();
+
+        for (Object row[] : schedules_DataProvider())
+        {
+            Parser parser = new Parser();
+            parser.parse((String) row[0]);
+            MatcherPool pool = new MatcherPool(parser.getScheduleModel());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            pool.writeTo(new DataOutputStream(bytes));
+            MatcherPool restored = MatcherPool.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+            DigitMatcher expected[] = pool.getMatcherPool();
+            DigitMatcher actual[] = restored.getMatcherPool();
+            for (int i = 0; i < expected.length; i++)
+            {
+                if ( expected[i] == null ) { assertNull(actual[i]); continue; } // the day of week
+
+                assertEquals(actual[i].getClass(), expected[i].getClass(), row[0] + " " + i);
+                assertEquals(actual[i].getLow(), expected[i].getLow(), row[0] + " " + i);
+                assertEquals(actual[i].getHigh(), expected[i].getHigh(), row[0] + " " + i);
+                for (int value = expected[i].getLow(); value <= expected[i].getHigh(); value++)
+                {
+                    assertEquals(actual[i].match(value), expected[i].match(value), row[0] + " " + i + " " + value);
+                    if ( expected[i].hasNext(value) ) assertEquals(actual[i].getNext(value), expected[i].getNext(value));
+                    if ( expected[i].hasPrev(value) ) assertEquals(actual[i].getPrev(value), expected[i].getPrev(value));
+                }
+                types.add(expected[i].getClass());
+            }
+
+            assertEquals(restored.getWeekDaysMap().getMap(), pool.getWeekDaysMap().getMap());
+            assertEquals(restored.getMonthDaysMap().getMap(), pool.getMonthDaysMap().getMap());
+            assertEquals(restored.getNormalYearMap().getMap(), pool.getNormalYearMap().getMap());
+            assertEquals(restored.getLeapYearMap().getMap(), pool.getLeapYearMap().getMap());
+            assertEquals(restored.isAnyDate(), pool.isAnyDate());
+            assertEquals(restored.isAnyWeekDay(), pool.isAnyWeekDay());
+        }
+
+        assertEquals(types.size(), 7, types.toString());
+    }
+
+    @Test
+    public void testBulk() throws Exception
+    {
+        List<Schedule> schedules = new ArrayList<Schedule>();
+        for (Object row[] : schedules_DataProvider())
+            schedules.add(new Schedule((String) row[0]));
+        schedules.add(new Schedule("*:*:*", ZoneId.of("America/New_York")));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Schedule.writeAll(schedules, bytes);
+        List<Schedule> restored = Schedule.readAll(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(restored.size(), schedules.size());
+        for (int i = 0; i < schedules.size(); i++)
+        {
+            assertEquals(restored.get(i).toString(), schedules.get(i).toString());
+            assertEquals(restored.get(i).getZone(), schedules.get(i).getZone());
+            assertEquals(restored.get(i).nextEventMillis(START), schedules.get(i).nextEventMillis(START));
+        }
+
+        bytes.reset();
+        Schedule.writeAll(Collections.<Schedule>emptyList(), bytes);
+        assertTrue(Schedule.readAll(new ByteArrayInputStream(bytes.toByteArray())).isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotBulk() throws Exception
+    {
+        Schedule.readAll(new ByteArrayInputStream(write(new Schedule("*:*:*"))));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testOtherVersion() throws Exception
+    {
+        byte data[] = write(new Schedule("*:*:*"));
+        data[0] = 2;
+        read(data);
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void testTruncated() throws Exception
+    {
+        byte data[] = write(new Schedule("*:*:*.1-2,990-999"));
+        read(Arrays.copyOf(data, data.length - 1));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testUnknownMatcher() throws Exception
+    {
+        byte data[] = write(new Schedule("12:00:00"));
+        int header = 1 + 2 + "12:00:00".length() + 4 + 4 + 1 + 1 + 2; // up to the first matcher
+        data[header] = 100;
+        read(data);
+    }
+
+
+
+    /**
+     * Compares the queries of the restored schedule with the original.
+     */
+    private static void checkRoundTrip(Schedule s) throws Exception
+    {
+        Schedule restored = read(write(s));
+
+        assertEquals(restored.toString(), s.toString());
+        assertEquals(restored.getZone(), s.getZone());
+        assertEquals(restored.getMinYear(), s.getMinYear());
+        assertEquals(restored.getMaxYear(), s.getMaxYear());
+        assertEquals(restored.getPrecision(), s.getPrecision());
+        assertEquals(restored.getGapPolicy(), s.getGapPolicy());
+        assertEquals(restored.getOverlapPolicy(), s.getOverlapPolicy());
+        assertEquals(write(restored), write(s));
+
+        Random random = new Random(s.toString().hashCode());
+        for (int i = 0; i < 1000; i++)
+        {
+            long time = START + (long) (random.nextDouble() * 5 * 365 * 86400000L);
+            assertEquals(outcome(restored, time, 0), outcome(s, time, 0), s + " " + time);
+            assertEquals(outcome(restored, time, 1), outcome(s, time, 1), s + " " + time);
+            assertEquals(outcome(restored, time, 2), outcome(s, time, 2), s + " " + time);
+            assertEquals(outcome(restored, time, 3), outcome(s, time, 3), s + " " + time);
+        }
+        assertEquals(restored.countEvents(START, START + 86400000L), s.countEvents(START, START + 86400000L));
+    }
+
+    private static String outcome(Schedule s, long time, int query)
+    {
+        try
+        {
+            switch ( query )
+            {
+                case 0: return s.nearestEvent(Instant.ofEpochMilli(time)).toString();
+                case 1: return s.nearestPrevEvent(Instant.ofEpochMilli(time)).toString();
+                case 2: return s.nextEvent(Instant.ofEpochMilli(time)).toString();
+                default: return s.prevEvent(Instant.ofEpochMilli(time)).toString();
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+
+    private static byte[] write(Schedule s) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        s.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static Schedule read(byte data[]) throws IOException
+    {
+        return Schedule.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+}
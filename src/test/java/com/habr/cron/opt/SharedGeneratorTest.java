@@ -0,0 +1,149 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the generator, which is shared by many threads.
+ */
+public class SharedGeneratorTest
+{
+    private static final Date START = Date.from(Instant.parse("2021-03-27T00:00:00Z"));
+    private static final int THREADS = 8;
+    private static final int EVENTS = 20000;
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testSingleThread(Schedule schedule, boolean forward) throws Exception
+    {
+        ScheduleEventsGenerator expected = schedule.getEventsGenerator(START, forward);
+        ScheduleEventsGenerator shared = schedule.getSharedEventsGenerator(START, forward);
+
+        assertEquals(shared.last(), START);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(shared.next(), expected.next());
+
+        assertEquals(shared.last(), expected.last());
+
+        long out[] = new long[100];
+        long until = expected.last().getTime() + (forward ? 10000000L : -10000000L);
+        for (int count; (count = shared.fill(out, 0, out.length, until)) > 0; )
+            for (int i = 0; i < count; i++)
+                assertEquals(out[i], expected.next().getTime());
+
+        long next = expected.next().getTime();
+        assertTrue(forward ? next > until : next < until);
+        assertEquals(shared.next().getTime(), next);
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider() throws Exception
+    {
+        ZoneId berlin = ZoneId.of("Europe/Berlin");
+        return new Object[][] {
+                {new Schedule("*:*:*.*/7"), true},
+                {new Schedule("*:*:*.*/7"), false},
+                {new Schedule("*.*.13 5 *:*/10:00"), true},
+                {new Schedule("*.*.13 5 *:*/10:00"), false},
+                {new Schedule("*:*/5:*", berlin, SHIFT, EARLIER), true},
+                {new Schedule("*:*/5:*", berlin, SKIP, LATER), false},
+        };
+    }
+
+    @Test
+    public void testConcurrentClaims() throws Exception
+    {
+        Schedule schedule = new Schedule("*:*:*.*/3");
+        final ScheduleEventsGenerator shared = schedule.getSharedEventsGenerator(START, true);
+        final long claimed[][] = new long[THREADS][EVENTS];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        Thread threads[] = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++)
+        {
+            final long out[] = claimed[t];
+            final boolean batches = t % 2 == 0; // a half of threads use fill()
+
+            threads[t] = new Thread() {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < EVENTS; )
+                        {
+                            if ( batches )
+                                i += shared.fill(out, i, Math.min(16, EVENTS - i), Long.MAX_VALUE);
+                            else
+                                out[i++] = shared.next().getTime();
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertNull(error.get());
+
+        // all events are claimed once, and there are no lost events
+        long all[] = new long[THREADS * EVENTS];
+        for (int t = 0; t < THREADS; t++)
+        {
+            System.arraycopy(claimed[t], 0, all, t * EVENTS, EVENTS);
+
+            for (int i = 1; i < EVENTS; i++) // each thread sees the events in order
+                assertTrue(claimed[t][i] > claimed[t][i - 1]);
+        }
+        Arrays.sort(all);
+
+        ScheduleEventsGenerator expected = schedule.getEventsGenerator(START, true);
+        for (long time : all)
+            assertEquals(time, expected.next().getTime());
+
+        assertEquals(shared.last().getTime(), all[all.length - 1]);
+    }
+
+    @Test
+    public void testFinePrecision() throws Exception
+    {
+        Schedule schedule = new Schedule("*:*:*.*/2.0,500", Schedule.Precision.MICROS);
+        ScheduleEventsGenerator shared = schedule.getSharedEventsGenerator(START, true);
+
+        // the events of a millisecond are claimed once
+        assertEquals(shared.next().getTime(), START.getTime() + 2);
+        assertEquals(shared.next().getTime(), START.getTime() + 4);
+
+        shared = schedule.getSharedEventsGenerator(new Date(START.getTime() + 4), false);
+        assertEquals(shared.next().getTime(), START.getTime() + 2);
+        assertEquals(shared.next().getTime(), START.getTime());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testOutOfSchedule() throws Exception
+    {
+        Schedule schedule = new Schedule("2100.12.31 23:59:59.999");
+        ScheduleEventsGenerator shared = schedule.getSharedEventsGenerator(START, true);
+
+        assertEquals(shared.next().getTime(), Instant.parse("2100-12-31T23:59:59.999Z").toEpochMilli());
+        assertEquals(shared.fill(new long[10], 0, 10, Long.MAX_VALUE), 0);
+        shared.next();
+    }
+}
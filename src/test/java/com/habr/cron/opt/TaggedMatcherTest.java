@@ -0,0 +1,133 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.Random;
+
+import static com.habr.cron.opt.ScheduleElements.*;
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the tagged matchers (they are checked by the source matchers of the schedules).
+ */
+public class TaggedMatcherTest
+{
+    private static final long START = Instant.parse("2019-01-01T00:00:00Z").toEpochMilli();
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testMatchers(String schedule) throws Exception
+    {
+        MatcherPool pool = new Schedule(schedule, Schedule.Precision.NANOS).getPool();
+        DigitMatcher tagged[] = pool.getTaggedPool();
+        assertSame(pool.getTaggedPool(), tagged);
+
+        for (ScheduleElements element : ScheduleElements.values())
+        {
+            if ( element == DAY_OF_WEEK ) continue;
+
+            DigitMatcher expected = pool.getMatcherPool()[element.ordinal()];
+            DigitMatcher actual = tagged[element.ordinal()];
+            String message = schedule + " " + element;
+
+            assertEquals(actual.getLow(), expected.getLow(), message);
+            assertEquals(actual.getHigh(), expected.getHigh(), message);
+
+            for (int value = expected.getLow() - 2; value <= expected.getHigh() + 2; value++)
+            {
+                assertEquals(actual.isAbove(value), expected.isAbove(value), message + " " + value);
+                assertEquals(actual.isBelow(value), expected.isBelow(value), message + " " + value);
+                assertEquals(MatcherPool.matches(actual, value), MatcherPool.matches(expected, value), message + " " + value);
+            }
+
+            for (int value = expected.getLow(); value <= expected.getHigh(); value++)
+            {
+                assertEquals(actual.hasNext(value), expected.hasNext(value), message + " " + value);
+                assertEquals(actual.hasPrev(value), expected.hasPrev(value), message + " " + value);
+                if ( expected.hasNext(value) )
+                    assertEquals(actual.getNext(value), expected.getNext(value), message + " " + value);
+                if ( expected.hasPrev(value) )
+                    assertEquals(actual.getPrev(value), expected.getPrev(value), message + " " + value);
+            }
+        }
+    }
+
+    /**
+     * The digits find the same dates by the tagged matchers (before the correction by the days of week).
+     */
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testDigits(String schedule) throws Exception
+    {
+        MatcherPool pool = new Schedule(schedule).getPool();
+        GregCalendar calendar = new GregCalendar();
+        CalendarDigits digits = new CalendarDigits(calendar);
+
+        Random random = new Random(schedule.hashCode());
+        for (int i = 0; i < 2000; i++)
+        {
+            long time = START + (long) (random.nextDouble() * 12 * 365 * 86400000L);
+            boolean forward = random.nextBoolean();
+            boolean canEqual = random.nextBoolean();
+
+            String expected = search(pool.getMatcherPool(), pool, digits, calendar, time, forward, canEqual);
+            String actual = search(pool.getTaggedPool(), pool, digits, calendar, time, forward, canEqual);
+            assertEquals(actual, expected, schedule + " " + time + " " + forward);
+        }
+    }
+
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        return new Object[][] {
+                {"*:*:*"},
+                {"12:00:00"},
+                {"*.*.13 5 9-17/4:30:00"},
+                {"*.*.32 12:00:00"},
+                {"*.*.20-32/3 1-5 10:00:00"},
+                {"*.2.29 10-20/3:*:*.100"},
+                {"2020-2025.3-5,10.1-10,20 *:0,30:0.500"},
+                {"*:*:*.100-200/3,250-300/4"},
+                {"*.*.1,5,7,11,13,17,19,23 6 3,7,11,19:13,17,43:0-59/7"},
+                {"2000-2050/7,2051-2100/3.*.* 0:0:0"},
+                {"*:*:*.*.*/100.1-999/5"},
+        };
+    }
+
+    @Test
+    public void testKinds() throws Exception
+    {
+        MatcherPool pool = new Schedule("*.*.1,5,7 10:0-30:*/15.0-999/7,3").getPool();
+        DigitMatcher tagged[] = pool.getTaggedPool();
+
+        assertEquals(((TaggedMatcher) tagged[HOURS.ordinal()]).getKind(), TaggedMatcher.CONSTANT);
+        assertEquals(((TaggedMatcher) tagged[MINUTES.ordinal()]).getKind(), TaggedMatcher.INTERVAL);
+        assertEquals(((TaggedMatcher) tagged[SECONDS.ordinal()]).getKind(), TaggedMatcher.STEPPING);
+        assertEquals(((TaggedMatcher) tagged[DAY_OF_MONTH.ordinal()]).getKind(), TaggedMatcher.BITS);
+        assertEquals(((TaggedMatcher) tagged[MILLIS.ordinal()]).getKind(), TaggedMatcher.BITS);
+        assertNull(tagged[DAY_OF_WEEK.ordinal()]);
+    }
+
+
+
+    private static String search(DigitMatcher matchers[], MatcherPool pool, CalendarDigits digits, GregCalendar calendar,
+                                 long time, boolean forward, boolean canEqual)
+    {
+        try
+        {
+            calendar.reset(time);
+            digits.reset(matchers, pool.getPrecision(), forward);
+            if ( pool.isAnyDate() ) digits.gotoHours();
+
+            while ( Schedule.isCanSearchDown(digits, calendar, canEqual) )
+                digits.next();
+
+            return String.valueOf(calendar.asMillis());
+        }
+        catch (IllegalStateException e)
+        {
+            return "none";
+        }
+    }
+}
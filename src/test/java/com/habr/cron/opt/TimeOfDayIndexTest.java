@@ -0,0 +1,335 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the index of the times of day (the events are checked by the searches of the digits, see searchNanos()).
+ */
+public class TimeOfDayIndexTest
+{
+    private static final long START = Instant.parse("2019-06-01T00:00:00Z").toEpochMilli();
+    private static final long DAY = 86400000L;
+
+    /**
+     * The lists, which matchers disagreed with the digits (see HashMapMatcher.finishRange()), and the random lists.
+     */
+    private static final int RANDOM_SCHEDULES = 200;
+    private static final String LISTS[] = {
+            "3,*/7:*:*.*", "*/2,15,4-20:*:*.*", "4,4-4/1:*:*/1", "12,12:30-40/17:*.*",
+            "1,2,5:*:*", "*:0,59:0", "*:*:*.1,2,3-5,10-20/3,100-900/7",
+    };
+
+    private List<Schedule> schedules;
+    private Path file;
+    private MappedScheduleStore store;
+
+
+    @BeforeClass
+    public void setUp() throws Exception
+    {
+        schedules = new ArrayList<Schedule>();
+        for (String schedule : LISTS)
+            schedules.add(new Schedule(schedule));
+
+        Random random = new Random(2062);
+        while ( schedules.size() < LISTS.length + RANDOM_SCHEDULES )
+        {
+            try
+            {
+                schedules.add(new Schedule(randomList(random, 23) + ":" + randomList(random, 59) + ":"
+                        + randomList(random, 59) + "." + randomList(random, 999)));
+            }
+            catch (AssertionError e)
+            {
+                // the factory doesn't merge the steps with the ranges of the maps (see RangeList.optimize())
+            }
+        }
+
+        file = Files.createTempFile("timeofday", ".crms");
+        MappedScheduleStore.write(schedules, file);
+        store = MappedScheduleStore.open(file);
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception
+    {
+        store = null;
+        Files.deleteIfExists(file); // the mapped file may be kept on some platforms
+    }
+
+
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testFind(Schedule s) throws Exception
+    {
+        TimeOfDayIndex index = TimeOfDayIndex.of(s.getPool().getMatcherPool());
+        assertNotNull(index);
+
+        Random random = new Random(s.toString().hashCode());
+        for (int i = 0; i < 5000; i++)
+        {
+            long time = START + (long) (random.nextDouble() * 4 * 365 * DAY);
+            switch ( i % 4 ) // the edges of the day, of the second and of the event
+            {
+                case 1: time -= Math.floorMod(time, DAY) - random.nextInt(3) + 1; break;
+                case 2: time -= Math.floorMod(time, 1000L); break;
+                case 3:
+                    String event = outcome(s, time, true, false);
+                    if ( !event.equals("none") ) time = Long.parseLong(event);
+                    break;
+            }
+
+            if ( !index.covers(time) ) continue; // it's searched by the digits
+
+            for (boolean forward : new boolean[] {true, false})
+                for (boolean canEqual : new boolean[] {true, false})
+                    assertEquals(outcome(index, time, forward, canEqual), outcome(s, time, forward, canEqual),
+                            s + " " + time + " " + forward + " " + canEqual);
+        }
+    }
+
+    @DataProvider
+    private Object[][] schedules_DataProvider() throws Exception
+    {
+        return new Object[][] {
+                {new Schedule("*:*:*.*")},
+                {new Schedule("*:*:*.5")},
+                {new Schedule("*:00:00")},
+                {new Schedule("*:*:*")},
+                {new Schedule("*:*/15:0")},
+                {new Schedule("12:00:00")},
+                {new Schedule("0:0:0.0")},
+                {new Schedule("23:59:59.999")},
+                {new Schedule("0-7,20-23:*:0")},
+                {new Schedule("*:*:*.100-200/3,250-300/4")},
+                {new Schedule("*.*.* 9-17:0-29:*.0-499")},
+                {new Schedule("*:*:*", 2020, 2021)},
+                {new Schedule("10:*:*.990-999", 2021, 2021)},
+        };
+    }
+
+    /**
+     * The schedule searches by the index the same events (the bounds of the years too);
+     * the searches from the times out of the years are made by the digits.
+     */
+    @Test
+    public void testSchedule() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*.5", 2020, 2021);
+        long first = Instant.parse("2020-01-01T00:00:00.005Z").toEpochMilli();
+        long last = Instant.parse("2021-12-31T23:59:59.005Z").toEpochMilli();
+
+        assertEquals(s.nextEventMillis(START), START + 5);
+        assertEquals(s.nearestEventMillis(START + 5), START + 5);
+        assertEquals(s.prevEventMillis(START + 5), START - 995);
+        assertEquals(s.nearestPrevEventMillis(START + 4), START - 995);
+        assertEquals(s.nextEventMillis(first - 1), first);
+        assertEquals(s.prevEventMillis(last + 1), last);
+        assertEquals(String.valueOf(s.nextEventMillis(START - 400 * DAY)), outcome(s, START - 400 * DAY, true, false));
+        assertEquals(String.valueOf(s.prevEventMillis(last + 10 * DAY)), outcome(s, last + 10 * DAY, false, false));
+
+        assertEquals(outcome(s, last, true, false), "none");
+        assertEquals(outcome(s, first, false, false), "none");
+    }
+
+    /**
+     * Each schedule has one answer: the searches (by the index), the digits (the searches of nanoseconds),
+     * the generators, the searchers and the store find the same events.
+     */
+    @Test
+    public void testDifferential() throws Exception
+    {
+        Random random = new Random(2056);
+        for (int id = 0; id < schedules.size(); id++)
+        {
+            Schedule s = schedules.get(id);
+            ScheduleSearcher searcher = s.newSearcher();
+
+            for (int i = 0; i < 100; i++)
+            {
+                long time = START + (long) (random.nextDouble() * 4 * 365 * DAY);
+                if ( i % 2 == 1 ) time -= Math.floorMod(time, 3600000L); // the start of the hour
+
+                for (boolean forward : new boolean[] {true, false})
+                {
+                    String message = s + " " + time + " " + forward;
+                    String event = outcome(s, time, forward, false);
+                    assertEquals(event, outcome(s, time, forward, false, true), message);
+                    assertEquals(outcome(s, time, forward, true), outcome(s, time, forward, true, true), message);
+
+                    assertEquals(outcome(s, new Date(time), forward), event, message + " generator");
+                    assertEquals(outcome(searcher.reset(time, forward)), event, message + " searcher");
+                    assertEquals(outcome(store, id, time, forward), event, message + " store");
+                }
+            }
+        }
+    }
+
+    /**
+     * The index is built only by the matchers, which the digits walk through the matching values.
+     */
+    @Test
+    public void testDisagreeingMatchers() throws Exception
+    {
+        for (int i = 0; i < LISTS.length; i++)
+            assertNotNull(TimeOfDayIndex.of(schedules.get(i).getPool().getMatcherPool()), LISTS[i]);
+
+        HashMapMatcher unfinished = new HashMapMatcher(0, 23); // the tables of the next and previous values are empty
+        unfinished.addValue(4);
+        assertNull(MatcherPool.valuesOf(unfinished, 23));
+
+        unfinished.finishRange();
+        assertEquals(MatcherPool.valuesOf(unfinished, 23), new int[] {4});
+
+        Schedule s = new Schedule("4,4-4/1:*:*/1");
+        long start = Instant.parse("2020-07-29T02:59:33.161Z").toEpochMilli();
+        assertEquals(s.nextEventMillis(start), Instant.parse("2020-07-29T04:00:00Z").toEpochMilli());
+        assertEquals(s.getEventsGenerator(new Date(start), true).next().getTime(), s.nextEventMillis(start));
+    }
+
+    @Test
+    public void testTooManyRuns() throws Exception
+    {
+        Schedule s = new Schedule("*:*:*/2");
+        assertNull(TimeOfDayIndex.of(s.getPool().getMatcherPool())); // 43200 runs of seconds
+
+        assertEquals(s.nextEventMillis(START), START + 2000); // by the digits
+        assertEquals(s.prevEventMillis(START), START - 2000);
+    }
+
+
+
+    /**
+     * @return "none" for the end of the schedule, or the class of the exception (the digits of some lists fail,
+     * see MatcherPool.valuesOf(); all of the searches must fail the same way)
+     */
+    private static String failure(RuntimeException e)
+    {
+        return e instanceof IllegalStateException ? "none" : e.getClass().getSimpleName();
+    }
+
+    /**
+     * @return the random list of the values of the element (the values, the ranges and the steps)
+     */
+    private static String randomList(Random random, int max)
+    {
+        StringBuilder list = new StringBuilder();
+        int parts = 1 + random.nextInt(3);
+        for (int i = 0; i < parts; i++)
+        {
+            if ( i > 0 ) list.append(',');
+
+            int a = random.nextInt(max + 1);
+            int b = a + random.nextInt(max + 1 - a);
+            switch ( random.nextInt(6) )
+            {
+                case 0: list.append(parts == 1 ? "*" : String.valueOf(a)); break; // the asterisk is alone in the list
+                case 1: list.append("*/").append(2 + random.nextInt(max / 2)); break;
+                case 2: list.append(a); break;
+                case 3: list.append(a).append('-').append(b); break;
+                default: list.append(a).append('-').append(b).append('/').append(1 + random.nextInt(max / 2)); break;
+            }
+        }
+        return list.toString();
+    }
+
+    private static String outcome(TimeOfDayIndex index, long time, boolean forward, boolean canEqual)
+    {
+        try
+        {
+            return String.valueOf(index.find(time, forward, canEqual));
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+
+    /**
+     * @return the event by the schedule (by the index, if it is built)
+     */
+    private static String outcome(Schedule s, long time, boolean forward, boolean canEqual, boolean millis)
+    {
+        if ( !millis ) return outcome(s, time, forward, canEqual);
+        try
+        {
+            return String.valueOf(forward
+                    ? (canEqual ? s.nearestEventMillis(time) : s.nextEventMillis(time))
+                    : (canEqual ? s.nearestPrevEventMillis(time) : s.prevEventMillis(time)));
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+
+    /**
+     * @return the first event of the new generator
+     */
+    private static String outcome(Schedule s, Date start, boolean forward)
+    {
+        try
+        {
+            return String.valueOf(s.getEventsGenerator(start, forward).next().getTime());
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+
+    private static String outcome(ScheduleSearcher searcher)
+    {
+        try
+        {
+            return String.valueOf(searcher.next());
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+
+    private static String outcome(MappedScheduleStore store, int id, long time, boolean forward)
+    {
+        try
+        {
+            return String.valueOf(forward ? store.nextEventMillis(id, time) : store.prevEventMillis(id, time));
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+
+    /**
+     * @return the event by the digits (the searches of nanoseconds don't use the index)
+     */
+    private static String outcome(Schedule s, long time, boolean forward, boolean canEqual)
+    {
+        long nanos = time * 1000000L;
+        try
+        {
+            long event = forward
+                    ? (canEqual ? s.nearestEventNanos(nanos) : s.nextEventNanos(nanos))
+                    : (canEqual ? s.nearestPrevEventNanos(nanos) : s.prevEventNanos(nanos));
+            return String.valueOf(event / 1000000L);
+        }
+        catch (RuntimeException e)
+        {
+            return failure(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class TimingWheelTest
+{
+    private static final long START = 1637157600000L; // 17.11.2021 14:00:00.000 UTC
+
+    @Test(dataProvider = "delaysDataProvider")
+    public void testExpiresExactlyInTime(long delay) throws Exception
+    {
+        TimingWheel wheel = new TimingWheel(START);
+        TimingWheel.Entry entry = new TimingWheel.Entry();
+        entry.expiration = START + delay;
+        wheel.add(entry);
+
+        final List<Long> fired = new ArrayList<Long>();
+        final long[] now = new long[1];
+        TimingWheel.ExpirationHandler handler = new TimingWheel.ExpirationHandler()
+        {
+            public void expired(TimingWheel.Entry entry)
+            {
+                fired.add(now[0]);
+            }
+        };
+
+        // jump close to the expiration time, and then go step by step
+        now[0] = START + delay - 70;
+        wheel.advance(now[0], handler);
+        assertTrue(fired.isEmpty());
+
+        for (int i = 0; i < 140; i++)
+        {
+            now[0]++;
+            wheel.advance(now[0], handler);
+        }
+
+        assertEquals(fired.size(), 1);
+        assertEquals(fired.get(0).longValue(), START + delay);
+        assertEquals(wheel.size(), 0);
+        assertFalse(entry.isScheduled());
+    }
+    @DataProvider
+    private Object[][] delaysDataProvider()
+    {
+        return new Object[][] {
+                {70L}, {100L}, {4095L}, {4096L}, {4097L}, {262143L}, {262144L}, {1000000L},
+                {86400000L}, {31L * 86400000L}, {365L * 86400000L},
+        };
+    }
+
+    @Test
+    public void testExpiredEntryFiresOnNextTick() throws Exception
+    {
+        TimingWheel wheel = new TimingWheel(START);
+        TimingWheel.Entry entry = new TimingWheel.Entry();
+        entry.expiration = START - 1000;
+        wheel.add(entry);
+
+        assertEquals(wheel.advance(START, new CountingHandler()), 1);
+    }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        TimingWheel wheel = new TimingWheel(START);
+        TimingWheel.Entry entries[] = new TimingWheel.Entry[1000];
+        for (int i = 0; i < entries.length; i++)
+        {
+            entries[i] = new TimingWheel.Entry();
+            entries[i].expiration = START + i * 37L;
+            wheel.add(entries[i]);
+        }
+        assertEquals(wheel.size(), 1000);
+
+        for (int i = 0; i < entries.length; i += 2)
+            wheel.remove(entries[i]);
+        assertEquals(wheel.size(), 500);
+
+        CountingHandler handler = new CountingHandler();
+        wheel.advance(START + 1000 * 37L, handler);
+        assertEquals(handler.count, 500);
+        assertEquals(wheel.size(), 0);
+    }
+
+    @Test
+    public void testReAddFromHandler() throws Exception
+    {
+        TimingWheel wheel = new TimingWheel(START);
+        final TimingWheel w = wheel;
+        TimingWheel.Entry entry = new TimingWheel.Entry();
+        entry.expiration = START;
+        wheel.add(entry);
+
+        CountingHandler handler = new CountingHandler()
+        {
+            @Override
+            public void expired(TimingWheel.Entry entry)
+            {
+                super.expired(entry);
+                entry.expiration += 10;
+                w.add(entry);
+            }
+        };
+
+        assertEquals(wheel.advance(START + 100000, handler), 10001);
+        assertEquals(wheel.size(), 1);
+    }
+
+
+    private static class CountingHandler implements TimingWheel.ExpirationHandler
+    {
+        int count;
+
+        public void expired(TimingWheel.Entry entry)
+        {
+            count++;
+        }
+    }
+}
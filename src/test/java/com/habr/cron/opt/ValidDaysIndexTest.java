@@ -0,0 +1,94 @@
+package com.habr.cron.opt;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests of the index of matching days (they are checked by java.time).
+ */
+public class ValidDaysIndexTest
+{
+    @Test(dataProvider = "schedules_DataProvider")
+    public void testAgainstJavaTime(String schedule, int months[], int days[], DayOfWeek weekDays[], boolean last)
+            throws Exception
+    {
+        Parser parser = new Parser();
+        parser.parse(schedule + " 12:00:00");
+        ValidDaysIndex index = new MatcherPool(parser.getScheduleModel()).getValidDays();
+
+        LocalDate start = LocalDate.of(2000, 1, 1);
+        LocalDate end = LocalDate.of(2101, 1, 1);
+
+        LocalDate prev = null;
+        for (LocalDate date = start; date.isBefore(end); date = date.plusDays(1))
+        {
+            boolean expected = contains(months, date.getMonthValue()) && contains(weekDays, date.getDayOfWeek())
+                    && (contains(days, date.getDayOfMonth()) || last && date.getDayOfMonth() == date.lengthOfMonth());
+
+            assertEquals(index.contains(date.getYear(), date.getMonthValue(), date.getDayOfMonth()), expected, date.toString());
+
+            if ( expected )
+            {
+                if ( prev != null )
+                {
+                    assertEquals(next(index, prev, true), date, "after " + prev);
+                    assertEquals(next(index, date, false), prev, "before " + date);
+                }
+                prev = date;
+            }
+        }
+
+        try
+        {
+            next(index, prev, true);
+            fail("Out of schedule interval is expected after " + prev);
+        }
+        catch (IllegalStateException e)
+        {
+            // the last day of the range
+        }
+    }
+    @DataProvider
+    private Object[][] schedules_DataProvider()
+    {
+        DayOfWeek all[] = DayOfWeek.values();
+        int any[] = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31};
+
+        return new Object[][] {
+                {"*.02.29 6", new int[] {2}, new int[] {29}, new DayOfWeek[] {DayOfWeek.SATURDAY}, false},
+                {"*.*.13 5", any, new int[] {13}, new DayOfWeek[] {DayOfWeek.FRIDAY}, false},
+                {"*.*.32 1", any, new int[0], new DayOfWeek[] {DayOfWeek.MONDAY}, true},
+                {"*.1-3,11.1-7,31 0,6", new int[] {1, 2, 3, 11}, new int[] {1, 2, 3, 4, 5, 6, 7, 31},
+                        new DayOfWeek[] {DayOfWeek.SATURDAY, DayOfWeek.SUNDAY}, false},
+                {"*.*.* *", any, any, all, false},
+        };
+    }
+
+    private static LocalDate next(ValidDaysIndex index, LocalDate date, boolean forward)
+    {
+        GregCalendar calendar = new GregCalendar();
+        calendar.year = date.getYear();
+        calendar.month = date.getMonthValue();
+        calendar.day = date.getDayOfMonth();
+
+        index.moveToNext(calendar, forward);
+        return LocalDate.of(calendar.year, calendar.month, calendar.day);
+    }
+
+    private static boolean contains(int values[], int value)
+    {
+        for (int v : values) if ( v == value ) return true;
+        return false;
+    }
+
+    private static boolean contains(DayOfWeek values[], DayOfWeek value)
+    {
+        for (DayOfWeek v : values) if ( v == value ) return true;
+        return false;
+    }
+}
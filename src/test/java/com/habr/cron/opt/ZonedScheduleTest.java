@@ -0,0 +1,201 @@
+package com.habr.cron.opt;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.time.*;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.habr.cron.opt.Schedule.GapPolicy.*;
+import static com.habr.cron.opt.Schedule.OverlapPolicy.*;
+import static org.testng.Assert.*;
+
+public class ZonedScheduleTest
+{
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+    private static final long MINUTE = 60000;
+
+
+    @Test
+    public void testGap() throws Exception
+    {
+        // 28.03.2021 02:00 CET -> 03:00 CEST (01:00 UTC)
+        assertEvents(new Schedule("*:30:00", BERLIN, SHIFT, EARLIER), "2021-03-28T00:00:00Z",
+                "2021-03-28T00:30:00Z", "2021-03-28T01:00:00Z", "2021-03-28T01:30:00Z");
+
+        assertEvents(new Schedule("*:30:00", BERLIN, SKIP, EARLIER), "2021-03-28T00:00:00Z",
+                "2021-03-28T00:30:00Z", "2021-03-28T01:30:00Z", "2021-03-28T02:30:00Z");
+    }
+
+    @Test
+    public void testOverlap() throws Exception
+    {
+        // 31.10.2021 03:00 CEST -> 02:00 CET (01:00 UTC)
+        assertEvents(new Schedule("*:30:00", BERLIN, SHIFT, EARLIER), "2021-10-30T23:00:00Z",
+                "2021-10-30T23:30:00Z", "2021-10-31T00:30:00Z", "2021-10-31T02:30:00Z");
+
+        assertEvents(new Schedule("*:30:00", BERLIN, SHIFT, LATER), "2021-10-30T23:00:00Z",
+                "2021-10-30T23:30:00Z", "2021-10-31T01:30:00Z", "2021-10-31T02:30:00Z");
+    }
+
+    @Test
+    public void testUtcAndFixedOffset() throws Exception
+    {
+        Schedule utc = new Schedule("*.*.* 1-5 9-18:*/15:00");
+        Schedule zoned = new Schedule("*.*.* 1-5 9-18:*/15:00", ZoneOffset.UTC);
+        Schedule shifted = new Schedule("*.*.* 1-5 9-18:*/15:00", ZoneOffset.ofHours(3));
+        long hours3 = 3 * 3600000L;
+
+        long time = Instant.parse("2021-05-07T17:55:13Z").toEpochMilli();
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(zoned.nextEventMillis(time), utc.nextEventMillis(time));
+            assertEquals(shifted.nextEventMillis(time), utc.nextEventMillis(time + hours3) - hours3);
+            assertEquals(shifted.prevEventMillis(time), utc.prevEventMillis(time + hours3) - hours3);
+            time += 7 * MINUTE + 3;
+        }
+
+        assertNull(utc.getZone());
+        assertEquals(shifted.getZone(), ZoneOffset.ofHours(3));
+    }
+
+
+
+    @Test(dataProvider = "brute_DataProvider")
+    public void testAgainstBruteForce(String zone, String schedule) throws Exception
+    {
+        for (Schedule.GapPolicy gap : Schedule.GapPolicy.values())
+        for (Schedule.OverlapPolicy overlap : Schedule.OverlapPolicy.values())
+        {
+            Schedule zoned = new Schedule(schedule, ZoneId.of(zone), gap, overlap);
+            Schedule local = new Schedule(schedule);
+            ZoneRules rules = ZoneId.of(zone).getRules();
+
+            ZoneOffsetTransition transition = rules.nextTransition(Instant.parse("2010-01-01T00:00:00Z"));
+            for (int t = 0; t < 6 && transition != null; t++)
+            {
+                long from = transition.getInstant().toEpochMilli() - 5 * 60 * MINUTE;
+                long till = transition.getInstant().toEpochMilli() + 5 * 60 * MINUTE;
+
+                List<Long> expected = new ArrayList<Long>();
+                for (long time = from; time <= till; time += MINUTE)
+                    if ( isEvent(local, rules, time, gap, overlap) ) expected.add(time);
+
+                String message = zone + " " + schedule + " " + gap + " " + overlap + " " + transition;
+
+                // forward
+                List<Long> actual = new ArrayList<Long>();
+                for (long time = zoned.nearestEventMillis(from); time <= till; time = zoned.nextEventMillis(time))
+                    actual.add(time);
+                assertEquals(actual, expected, message);
+
+                // backward
+                actual.clear();
+                for (long time = zoned.nearestPrevEventMillis(till); time >= from; time = zoned.prevEventMillis(time))
+                    actual.add(0, time);
+                assertEquals(actual, expected, message);
+
+                // generator
+                actual.clear();
+                ScheduleEventsGenerator generator = zoned.getEventsGenerator(new Date(from - 1), true);
+                for (long time = generator.next().getTime(); time <= till; time = generator.next().getTime())
+                    actual.add(time);
+                assertEquals(actual, expected, message);
+
+                // from any time
+                for (int i = 0, e = 0; i < expected.size(); i++)
+                {
+                    long event = expected.get(i);
+                    for (; e < 60; e++)
+                    {
+                        long time = from + e * 7 * MINUTE / 3;
+                        if ( time > event ) break;
+                        assertEquals(zoned.nearestEventMillis(time), event, message + " " + Instant.ofEpochMilli(time));
+                    }
+                }
+
+                transition = rules.nextTransition(transition.getInstant());
+            }
+        }
+    }
+
+    @DataProvider
+    private Object[][] brute_DataProvider()
+    {
+        return new Object[][] {
+            {"Europe/Berlin", "*:30:00"},
+            {"Europe/Berlin", "*:*/20:00"},
+            {"Europe/Berlin", "*.*.* 0 2:0-10,45:00"},
+            {"America/New_York", "1-3:15,45:00"},
+            {"America/New_York", "*:*/7:00"},
+            {"Australia/Lord_Howe", "*:*/10:00"}, // DST is 30 minutes
+            {"Europe/Moscow", "*:30:00"},
+            {"Asia/Tokyo", "*:30:00"},
+        };
+    }
+
+
+
+    /**
+     * Brute force reference: checks the instant by the local time and the rules of the zone.
+     */
+    private static boolean isEvent(Schedule local, ZoneRules rules, long time,
+                                   Schedule.GapPolicy gap, Schedule.OverlapPolicy overlap)
+    {
+        Instant instant = Instant.ofEpochMilli(time);
+        ZoneOffset offset = rules.getOffset(instant);
+        long localTime = time + offset.getTotalSeconds() * 1000L;
+        List<ZoneOffset> valid = rules.getValidOffsets(LocalDateTime.ofInstant(instant, offset));
+
+        boolean result = matches(local, localTime);
+
+        if ( valid.size() == 2 ) // overlap
+        {
+            ZoneOffsetTransition transition = rules.getTransition(LocalDateTime.ofInstant(instant, offset));
+            ZoneOffset expected = overlap == EARLIER ? transition.getOffsetBefore() : transition.getOffsetAfter();
+            result &= offset.equals(expected);
+        }
+
+        ZoneOffsetTransition previous = rules.previousTransition(Instant.ofEpochMilli(time + 1));
+        if ( gap == SHIFT && previous != null && previous.isGap() && previous.getInstant().toEpochMilli() == time )
+        {
+            long start = time + previous.getOffsetBefore().getTotalSeconds() * 1000L;
+            long end = time + previous.getOffsetAfter().getTotalSeconds() * 1000L;
+            result |= local.nearestEventMillis(start) < end;
+        }
+
+        return result;
+    }
+
+    private static boolean matches(Schedule local, long localTime)
+    {
+        return local.nearestEventMillis(localTime) == localTime;
+    }
+
+    private static void assertEvents(Schedule schedule, String start, String... expected)
+    {
+        long from = Instant.parse(start).toEpochMilli();
+        long time = from;
+        for (String event : expected)
+        {
+            time = schedule.nextEventMillis(time);
+            assertEquals(Instant.ofEpochMilli(time).toString(), event);
+        }
+
+        long events[] = new long[expected.length];
+        ScheduleEventsGenerator generator = schedule.getEventsGenerator(new Date(from), true);
+        assertEquals(generator.fill(events, 0, events.length, Long.MAX_VALUE), events.length);
+        assertEquals(events[events.length - 1], time);
+
+        for (int i = expected.length - 2; i >= 0; i--)
+        {
+            time = schedule.prevEventMillis(time);
+            assertEquals(Instant.ofEpochMilli(time).toString(), expected[i]);
+        }
+    }
+}
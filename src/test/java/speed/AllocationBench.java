@@ -0,0 +1,92 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Measures the heap memory allocated per call for the Date API and the primitive (long) API
+ * of the optimized schedule. The primitive API MUST allocate 0 bytes per call.
+ */
+public class AllocationBench
+{
+    private static final SimpleDateFormat fmt = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+    private static final int WARMUP_COUNT = 100000;
+    private static final int LOOP_COUNT = 1000000;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink; // prevents elimination of the result
+
+    public static void main(String args[]) throws Exception
+    {
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        for (String data[] : TEST_DATES)
+        {
+            Date date = fmt.parse(data[1]);
+            Schedule schedule = new Schedule(data[0]);
+
+            runDateApi(schedule, date, WARMUP_COUNT);
+            runMillisApi(schedule, date.getTime(), WARMUP_COUNT);
+
+            System.out.println(
+                    String.format("[Date] %s %s  - %.2f bytes/call",
+                            data[0],
+                            data[1],
+                            runDateApi(schedule, date, LOOP_COUNT))
+            );
+            System.out.println(
+                    String.format("[long] %s %s  - %.2f bytes/call",
+                            data[0],
+                            data[1],
+                            runMillisApi(schedule, date.getTime(), LOOP_COUNT))
+            );
+        }
+        System.out.println(sink);
+    }
+
+
+    private static double runDateApi(Schedule schedule, Date date, int loops)
+    {
+        long id = Thread.currentThread().getId();
+        long b1 = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < loops; i++)
+        {
+            sink += schedule.NearestEvent(date).getTime();
+        }
+        long b2 = threads.getThreadAllocatedBytes(id);
+
+        return (double) (b2 - b1) / loops;
+    }
+
+    private static double runMillisApi(Schedule schedule, long millis, int loops)
+    {
+        long id = Thread.currentThread().getId();
+        long b1 = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < loops; i++)
+        {
+            sink += schedule.nearestEventMillis(millis);
+        }
+        long b2 = threads.getThreadAllocatedBytes(id);
+
+        return (double) (b2 - b1) / loops;
+    }
+
+
+    // the same schedules and dates as in Benchmark
+    private static final String[][] TEST_DATES = new String[][] {
+            {"*/4.01.01 12:00:00.000", "2012.01.01 12:00:00.001"},
+            {"*.*.* *:*:*.*",          "2021.09.30 12:00:00.002"},
+            {"*.4.6,7 * *:*:*.1,2,3-5,10-20/3",          "2001.01.01 00:00:00.000"},
+            {"*.4.6,7 * *:*:*.1,2,3-5,10-20/3",          "2080.05.05 12:00:00.000"},
+            {"2100.12.31 23:59:59.999",          "2000.01.01 00:00:00.000"},
+            {"2100.12.31 23:59:59.999",          "2080.05.05 00:00:00.000"},
+            {"*.02.29 6 12:00:00",               "2021.01.01 12:00:00.000"},
+            {"*.*.20-32/5 5 12:14:34",              "2021.01.31 12:14:33.177"},
+    };
+}
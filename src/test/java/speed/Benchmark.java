@@ -82,7 +82,7 @@ public class Benchmark
 
 
     // расписания и даты, подаваемые на вход
-    private static final String[][] TEST_DATES = new String[][] {
+    static final String[][] TEST_DATES = new String[][] {
             // сложная дата для алгоритма NoVar; ожидается 2016.01.01 12:00:00
             {"*/4.01.01 12:00:00.000", "2012.01.01 12:00:00.001"},
             // генерация событий с частотой 1мсек; ожидается получение 2021.30.09 12:00:00.003
@@ -0,0 +1,106 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import com.habr.cron.opt.ScheduleCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search of the next event of opt.Schedule by the digits and by the compiled search (see ScheduleCompiler).
+ *
+ * params:
+ *  mode - interpreter (the digits), compiled (the hidden class of the shape of the schedule);
+ *  profile - clean (only the measured schedule is searched in the fork),
+ *            polluted (the setup searches the schedules of many shapes, as a process with many schedules does,
+ *            so the calls of the matchers in the digits see many classes).
+ *
+ * The pollution slows down the digits by 40%; the compiled search is faster in both profiles
+ * (the results are noisy, +-20-40%):
+ *  interpreter/clean 275 ns, interpreter/polluted 395 ns, compiled/clean 155 ns, compiled/polluted 205 ns
+ * (for "*.*.* 1-5 9-17:0,15,30,45:0").
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.CompilerJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerJmh
+{
+    private static final int TIMES = 1024;
+
+    /**
+     * The schedules of different shapes (the classes of the matchers).
+     */
+    static final String SHAPES[] = {
+            "*:*:*", "*:*/15:0", "12:00:00", "*.*.13 5 9-17/4:30:00", "*.*.32 12:00:00",
+            "*.*.20-32/3 1-5 10:00:00", "*.2.29 10-20/3:*:*.100", "2020-2030.3-5,10.1-10,20 *:0,30:0.500",
+            "*:*:*.100-200/3,250-300/4", "*.*.1,5,7,11,13,17,19,23 6 3,7,11,19:13,17,43:0-59/7",
+            "*.*.* 0,6 */2:5:0", "*.1,4,7,10.1 0:0:0", "*.*.1-15 *:*/5:30", "*:0-29:0", "0-7,20-23:*:0",
+            "*.*.*/2 7:1-7/3,40:0.5", "*.6-8.* 12-14:0:0", "*.*.31 23:59:59.999", "*.*.10,20,30 8:00:00",
+            "2025.*.* *:*:0", "*:1,2,3,5,8,13,21,34,55:0", "*.*.* 1 10:30:0", "*.3.1-7 2 3:00:00",
+            "*:*:*/10", "*:*:*.0-499", "*.*.*/3 *:0:0", "*.11,12.* 1-5 *:0,30:0", "*:*/7:*/11",
+            "*.*.5-25/5 1,3,5 6-22/2:0:0", "*.*.* 9:0-59/10:0.0-999/250",
+    };
+
+    @Param({"interpreter", "compiled"})
+    public String mode;
+
+    @Param({"clean", "polluted"})
+    public String profile;
+
+    @Param({"*.*.* 1-5 9-17:0,15,30,45:0"})
+    public String schedule;
+
+    private Schedule cron;
+    private final long times[] = new long[TIMES];
+    private int time;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        long start = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli();
+        for (int i = 0; i < TIMES; i++)
+            times[i] = start + i * 7919000L;
+
+        if ( "polluted".equals(profile) )
+        {
+            for (int round = 0; round < 200; round++) // the calls of the matchers are profiled with all classes
+                for (String shape : SHAPES)
+                {
+                    Schedule s = new Schedule(shape);
+                    for (int i = 0; i < TIMES; i += 16)
+                        sink += outcome(s, times[i]);
+                }
+        }
+
+        cron = new Schedule(schedule);
+        if ( "compiled".equals(mode) && !ScheduleCompiler.compile(cron) )
+            throw new IllegalStateException("The compiler is not supported by the JVM.");
+    }
+
+    private long sink;
+
+    private static long outcome(Schedule s, long time)
+    {
+        try
+        {
+            return s.nextEventMillis(time) + s.prevEventMillis(time);
+        }
+        catch (IllegalStateException e)
+        {
+            return 0;
+        }
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long search()
+    {
+        return cron.nextEventMillis(times[time++ & (TIMES - 1)]);
+    }
+}
@@ -0,0 +1,70 @@
+package speed;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting of the events of opt.Schedule: countEvents() and nthEvent() against the enumeration by the generator.
+ *
+ * mode:
+ *  count - countEvents() of the interval;
+ *  nth - nthEvent() of the last event of the interval;
+ *  enumerate - the loop of ScheduleEventsGenerator.next() over the interval (the former way).
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.CountJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CountJmh
+{
+    @Param({"count", "nth", "enumerate"})
+    public String mode;
+
+    @Param({"*:*:*", "*.*.13 5 9-17/4:30:00", "*:*:*.*"})
+    public String schedule;
+
+    /**
+     * Length of the interval in minutes
+     */
+    @Param({"1", "60"})
+    public int minutes;
+
+    private Schedule cron;
+    private long from;
+    private long to;
+    private long count;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cron = new Schedule(schedule);
+        from = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli();
+        to = from + minutes * 60000L;
+        count = cron.countEvents(from, to);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long countEvents()
+    {
+        if ( "count".equals(mode) )
+            return cron.countEvents(from, to);
+
+        if ( "nth".equals(mode) )
+            return count > 0 ? cron.nthEvent(from - 1, count) : 0;
+
+        ScheduleEventsGenerator generator = cron.getEventsGenerator(new Date(from - 1), true);
+        long result = 0;
+        while ( generator.next().getTime() < to ) result++;
+        return result;
+    }
+}
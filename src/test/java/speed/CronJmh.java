@@ -0,0 +1,70 @@
+package speed;
+
+import com.habr.cron.Cron;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of {@link Benchmark}: NearestEvent() for every Cron implementation
+ * over the schedules and dates of {@link Benchmark#TEST_DATES}.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.CronJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CronJmh
+{
+    /**
+     * Implementation of the Cron: novar, ilya (Example), opt (Optimized), dev (Develop).
+     * The psy (PsyHaSTe) is not measured: it is a stub, which doesn't parse the schedule and returns null.
+     */
+    @Param({"novar", "ilya", "opt", "dev"})
+    public String engine;
+
+    /**
+     * Index of the test case in Benchmark.TEST_DATES
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+    public int testCase;
+
+    private Cron cron;
+    private Date date;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        String data[] = Benchmark.TEST_DATES[testCase];
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        date = fmt.parse(data[1]);
+        cron = createCron(engine, data[0]);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Date nearestEvent()
+    {
+        return cron.NearestEvent(date);
+    }
+
+
+    static Cron createCron(String engine, String schedule) throws Exception
+    {
+        if ( "novar".equals(engine) ) return new com.habr.cron.novar.Schedule(schedule);
+        if ( "ilya".equals(engine) ) return new com.habr.cron.ilya.Schedule(schedule);
+        if ( "opt".equals(engine) ) return new com.habr.cron.opt.Schedule(schedule);
+        if ( "dev".equals(engine) ) return new com.habr.cron.dev.Schedule(schedule);
+
+        throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+}
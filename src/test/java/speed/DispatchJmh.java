@@ -0,0 +1,72 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The calls of the matchers by the digits of opt.Schedule: virtual, by the interface (the default), and by the tagged matchers
+ * (the switch by the kind of the matcher, see com.habr.cron.opt.TaggedMatcher; the separate fork).
+ * Each call searches the next event of the next schedule of the set; the schedules of the set have different shapes
+ * (the classes of the matchers, see CompilerJmh.SHAPES), so the calls by the interface see many classes.
+ *
+ * params:
+ *  shapes - 1 (the same schedule), 30 (all shapes).
+ *
+ * The tagged matchers are faster for many shapes and the same for one shape:
+ *  virtual/1 75 ns, virtual/30 330 ns, tagged/1 72 ns, tagged/30 180 ns (per search; +-10-30%)
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.DispatchJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchJmh
+{
+    private static final int TIMES = 1024;
+
+    @Param({"1", "30"})
+    public int shapes;
+
+    private Schedule schedules[];
+    private final long times[] = new long[TIMES];
+    private int index;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        schedules = new Schedule[shapes];
+        for (int i = 0; i < shapes; i++)
+            schedules[i] = new Schedule(CompilerJmh.SHAPES[i]);
+
+        long start = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli();
+        for (int i = 0; i < TIMES; i++)
+            times[i] = start + i * 7919000L;
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcom.habr.cron.opt.tagged=false")
+    public long virtual()
+    {
+        return search();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcom.habr.cron.opt.tagged=true")
+    public long tagged()
+    {
+        return search();
+    }
+
+    private long search()
+    {
+        int i = index++;
+        return schedules[i % shapes].nextEventMillis(times[i & (TIMES - 1)]);
+    }
+}
@@ -0,0 +1,58 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import com.habr.cron.opt.ScheduleDispatcher;
+
+/**
+ * Measures the work of a single timer thread of the dispatcher with many schedules.
+ * Each schedule fires once a second at its own millisecond, so the dispatcher
+ * must fire SCHEDULES_COUNT events per second.
+ */
+public class DispatcherBench
+{
+    private static final int SCHEDULES_COUNT = 100000;
+    private static final int SECONDS = 10;
+
+    public static void main(String args[]) throws Exception
+    {
+        Schedule schedules[] = new Schedule[1000];
+        for (int i = 0; i < schedules.length; i++)
+            schedules[i] = new Schedule("*:*:*." + i);
+
+        ScheduleDispatcher dispatcher = new ScheduleDispatcher();
+        Statistics statistics = new Statistics();
+
+        long n1 = System.nanoTime();
+        for (int i = 0; i < SCHEDULES_COUNT; i++)
+        {
+            dispatcher.register(schedules[i % schedules.length], statistics);
+        }
+        long n2 = System.nanoTime();
+
+        dispatcher.start();
+        Thread.sleep(SECONDS * 1000L);
+        dispatcher.stop();
+
+        System.out.println(String.format("Registration: %d nsec per schedule", (n2 - n1) / SCHEDULES_COUNT));
+        System.out.println(String.format("Events: %d (expected about %d)", statistics.count, SCHEDULES_COUNT * SECONDS));
+        System.out.println(String.format("Lateness: %.3f ms average, %d ms maximum",
+                (double) statistics.lateness / statistics.count, statistics.maxLateness));
+    }
+
+
+    private static class Statistics implements ScheduleDispatcher.Callback
+    {
+        // works in the timer thread only; read after stop()
+        long count;
+        long lateness;
+        long maxLateness;
+
+        public void onEvent(Schedule schedule, long eventTime)
+        {
+            long late = System.currentTimeMillis() - eventTime;
+            count++;
+            lateness += late;
+            maxLateness = Math.max(maxLateness, late);
+        }
+    }
+}
@@ -34,6 +34,27 @@ public class GeneratorBench
                                 nanos)
                 );
             }
+            {
+                // the chain of the searches from the previous event (the schedules without the date use the index
+                // of the times of day; run with -Dcom.habr.cron.opt.timeofday=false to compare with the digits)
+                com.habr.cron.opt.Schedule cron = new com.habr.cron.opt.Schedule(schedule);
+
+                long last = date.getTime();
+                long n1 = System.nanoTime();
+                for (int i = 0; i < LOOP_COUNT; i++)
+                {
+                    last = cron.nextEventMillis(last);
+                }
+                nanos = (System.nanoTime() - n1) / LOOP_COUNT;
+
+                System.out.println(
+                        String.format("[Opt.Next] %s [%s .. %s] - %d nsec",
+                                schedule,
+                                data[1],
+                                fmt.format(new Date(last)),
+                                nanos)
+                );
+            }
             {
                 com.habr.cron.dev.Schedule cron = new com.habr.cron.dev.Schedule(schedule);
                 ScheduleEventsGenerator generator = cron.getEventsGenerator(date, true);
@@ -62,7 +83,7 @@ public class GeneratorBench
         return (n2 - n1) / LOOP_COUNT;
     }
 
-    private static final String[][] TEST_DATES = new String[][] {
+    static final String[][] TEST_DATES = new String[][] {
             // generate with step 1ms
             {"*:*:*.*", "17.11.2021 14:00:00.001"},
             // generate with step 5ms
@@ -80,5 +101,10 @@ public class GeneratorBench
             {"*:*:*.100-101,150-151", "01.01.2021 00:00:00.000"}, //opt will use HashMapMatcher
             {"*:*:*.10-20,120-130,140-150,260-290,310-315,410-420,520-530,640-650,760-790,970-999",
                     "01.01.2021 00:00:00.000"},
+
+            // the schedules without the date (the searches use the index of the times of day)
+            {"*:00:00", "17.11.2021 14:00:00.000"},
+            {"*:*/15:0", "17.11.2021 14:00:00.000"},
+            {"9-17:0-29:*.0-499", "17.11.2021 14:00:00.000"},
     };
 }
@@ -0,0 +1,72 @@
+package speed;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the bulk generation of events (ScheduleEventsGenerator.fill) with the repeated calls of next().
+ * Each invocation fills an array of BATCH events by a new generator of the optimized schedule;
+ * the score is per single event.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.GeneratorFillJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorFillJmh
+{
+    private static final int BATCH = 1024;
+
+    /**
+     * Index of the test case in GeneratorBench.TEST_DATES
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public int testCase;
+
+    private Schedule schedule;
+    private Date start;
+    private final long[] out = new long[BATCH];
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        String data[] = GeneratorBench.TEST_DATES[testCase];
+
+        SimpleDateFormat fmt = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        schedule = new Schedule(data[0]);
+        start = fmt.parse(data[1]);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] next()
+    {
+        ScheduleEventsGenerator generator = schedule.getEventsGenerator(start, true);
+        for (int i = 0; i < BATCH; i++)
+            out[i] = generator.next().getTime();
+
+        return out;
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long[] fill()
+    {
+        ScheduleEventsGenerator generator = schedule.getEventsGenerator(start, true);
+        generator.fill(out, 0, BATCH, Long.MAX_VALUE);
+
+        return out;
+    }
+}
@@ -0,0 +1,86 @@
+package speed;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of {@link GeneratorBench}: ScheduleEventsGenerator.next() for every generator implementation
+ * over the schedules and dates of {@link GeneratorBench#TEST_DATES}.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.GeneratorJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorJmh
+{
+    /**
+     * Implementation of the generator: opt (Optimized), dev (Develop)
+     */
+    @Param({"opt", "dev"})
+    public String engine;
+
+    /**
+     * Index of the test case in GeneratorBench.TEST_DATES
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public int testCase;
+
+    private Date start;
+    private com.habr.cron.opt.Schedule opt; // the parsed schedule of the engine
+    private com.habr.cron.dev.Schedule dev;
+    private ScheduleEventsGenerator generator;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        String data[] = GeneratorBench.TEST_DATES[testCase];
+
+        SimpleDateFormat fmt = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        start = fmt.parse(data[1]);
+
+        if ( "opt".equals(engine) )
+            opt = new com.habr.cron.opt.Schedule(data[0]);
+
+        else if ( "dev".equals(engine) )
+            dev = new com.habr.cron.dev.Schedule(data[0]);
+
+        else
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+
+    /**
+     * Each iteration generates the same events from the start.
+     */
+    @Setup(Level.Iteration)
+    public void restart()
+    {
+        generator = opt != null ? opt.getEventsGenerator(start, true) : dev.getEventsGenerator(start, true);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Date next()
+    {
+        try
+        {
+            return generator.next();
+        }
+        catch (IllegalStateException e)
+        {
+            // the sparse schedules (3, 4) run out of the years range after several hundred thousand events
+            restart();
+            return generator.next();
+        }
+    }
+}
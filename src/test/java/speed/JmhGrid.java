@@ -0,0 +1,138 @@
+package speed;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Runs a grid of the parameters of one benchmark (see MatchersJmh, SharedGeneratorJmh):
+ * each point of the grid is a separate run of JMH with the options of the command line.
+ * The results of all runs are collected and written into the result file of the options (-rf, -rff).
+ */
+public final class JmhGrid
+{
+    private final Class<?> benchmark;
+    private final Options parent;
+    private final File partial; // results of a single run; they are collected in 'all'
+    private final Collection<RunResult> all = new ArrayList<RunResult>();
+
+    /**
+     * @param benchmark the class of the benchmark (the grid runs this class only)
+     * @param args JMH command line options (warmup, iterations, forks, profilers and so on)
+     */
+    public JmhGrid(Class<?> benchmark, String args[]) throws Exception
+    {
+        this.benchmark = benchmark;
+        this.parent = withoutIncludes(new CommandLineOptions(args), benchmark);
+        this.partial = File.createTempFile("jmh", ".tmp");
+        partial.deleteOnExit();
+    }
+
+    /**
+     * @return the builder of the options of a point of the grid (the parameters of the point are added by the caller)
+     */
+    public ChainedOptionsBuilder options()
+    {
+        return new OptionsBuilder()
+                .parent(parent)
+                .include(benchmark.getName())
+                .result(partial.getPath());
+    }
+
+    /**
+     * Runs a point of the grid and collects its results.
+     *
+     * @param options the options, built by {@link #options()}
+     * @return the results of the point
+     */
+    public Collection<RunResult> run(Options options) throws RunnerException
+    {
+        Collection<RunResult> results = new Runner(options).run();
+        all.addAll(results);
+        return results;
+    }
+
+    /**
+     * Writes the results of all points into the result file of the command line options (CSV by default).
+     */
+    public void writeOut() throws IOException
+    {
+        ResultFormatType format = parent.getResultFormat().orElse(ResultFormatType.CSV);
+        String file = parent.getResult().orElse("jmh-result." + format.toString().toLowerCase());
+        ResultFormatFactory.getInstance(format, file).writeOut(all);
+    }
+
+
+
+    /**
+     * Copies the parsed options without the regexps of the benchmarks: OptionsBuilder.parent() adds the includes
+     * of the parent, and the grid must run its benchmark only. The values of the parameters (-p) are copied
+     * for the public fields of the benchmark with {@link Param} (the options don't list the names of the parameters).
+     *
+     * @return the options of the command line without the includes
+     */
+    private static Options withoutIncludes(Options options, Class<?> benchmark)
+    {
+        ChainedOptionsBuilder builder = new OptionsBuilder();
+
+        for (String exclude : options.getExcludes()) builder.exclude(exclude);
+        for (String include : options.getWarmupIncludes()) builder.includeWarmup(include);
+        for (ProfilerConfig profiler : options.getProfilers()) builder.addProfiler(profiler.getKlass(), profiler.getOpts());
+        for (Mode mode : options.getBenchModes()) builder.mode(mode);
+
+        if ( options.getOutput().hasValue() ) builder.output(options.getOutput().get());
+        if ( options.getResultFormat().hasValue() ) builder.resultFormat(options.getResultFormat().get());
+        if ( options.getResult().hasValue() ) builder.result(options.getResult().get());
+        if ( options.shouldDoGC().hasValue() ) builder.shouldDoGC(options.shouldDoGC().get());
+        if ( options.verbosity().hasValue() ) builder.verbosity(options.verbosity().get());
+        if ( options.shouldFailOnError().hasValue() ) builder.shouldFailOnError(options.shouldFailOnError().get());
+        if ( options.getThreads().hasValue() ) builder.threads(options.getThreads().get());
+        if ( options.getThreadGroups().hasValue() ) builder.threadGroups(options.getThreadGroups().get());
+        if ( options.shouldSyncIterations().hasValue() ) builder.syncIterations(options.shouldSyncIterations().get());
+        if ( options.getWarmupIterations().hasValue() ) builder.warmupIterations(options.getWarmupIterations().get());
+        if ( options.getWarmupTime().hasValue() ) builder.warmupTime(options.getWarmupTime().get());
+        if ( options.getWarmupBatchSize().hasValue() ) builder.warmupBatchSize(options.getWarmupBatchSize().get());
+        if ( options.getWarmupMode().hasValue() ) builder.warmupMode(options.getWarmupMode().get());
+        if ( options.getMeasurementIterations().hasValue() ) builder.measurementIterations(options.getMeasurementIterations().get());
+        if ( options.getMeasurementTime().hasValue() ) builder.measurementTime(options.getMeasurementTime().get());
+        if ( options.getMeasurementBatchSize().hasValue() ) builder.measurementBatchSize(options.getMeasurementBatchSize().get());
+        if ( options.getTimeUnit().hasValue() ) builder.timeUnit(options.getTimeUnit().get());
+        if ( options.getOperationsPerInvocation().hasValue() ) builder.operationsPerInvocation(options.getOperationsPerInvocation().get());
+        if ( options.getForkCount().hasValue() ) builder.forks(options.getForkCount().get());
+        if ( options.getWarmupForkCount().hasValue() ) builder.warmupForks(options.getWarmupForkCount().get());
+        if ( options.getJvm().hasValue() ) builder.jvm(options.getJvm().get());
+        if ( options.getJvmArgs().hasValue() ) builder.jvmArgs(toArray(options.getJvmArgs().get()));
+        if ( options.getJvmArgsAppend().hasValue() ) builder.jvmArgsAppend(toArray(options.getJvmArgsAppend().get()));
+        if ( options.getJvmArgsPrepend().hasValue() ) builder.jvmArgsPrepend(toArray(options.getJvmArgsPrepend().get()));
+        if ( options.getTimeout().hasValue() ) builder.timeout(options.getTimeout().get());
+
+        for (Field field : benchmark.getFields())
+        {
+            String name = field.getName();
+            if ( field.isAnnotationPresent(Param.class) && options.getParameter(name).hasValue() )
+                builder.param(name, toArray(options.getParameter(name).get()));
+        }
+
+        return builder.build();
+    }
+
+    private static String[] toArray(Collection<String> values)
+    {
+        return values.toArray(new String[values.size()]);
+    }
+}
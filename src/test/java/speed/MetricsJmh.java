@@ -0,0 +1,51 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the instrumentation of opt.Schedule (see com.habr.cron.opt.ScheduleMetrics): the search of the next event
+ * with the disabled instrumentation (the default) and with the enabled one (the separate fork).
+ * The disabled instrumentation must cost nothing.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.MetricsJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsJmh
+{
+    @Param({"*:*:*", "*.*.13 5 9-17/4:30:00"})
+    public String schedule;
+
+    private Schedule cron;
+    private long time;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cron = new Schedule(schedule);
+        time = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcom.habr.cron.opt.metrics=false")
+    public long disabled()
+    {
+        return cron.nextEventMillis(time);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcom.habr.cron.opt.metrics=true")
+    public long enabled()
+    {
+        return cron.nextEventMillis(time);
+    }
+}
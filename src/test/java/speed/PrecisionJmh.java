@@ -0,0 +1,79 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the precision in opt.Schedule: the next event over the schedules and dates of {@link Benchmark#TEST_DATES}.
+ *
+ * mode:
+ *  millis - nextEventMillis() of the millisecond schedule (the base line);
+ *  nanos - nextEventNanos() of the millisecond schedule;
+ *  micros - nextEventNanos() of the same schedule with Precision.MICROS (one more digit);
+ *  fine - nextEventNanos() of the schedule with Precision.NANOS, which has the events at '*.*.0,500' parts.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.PrecisionJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrecisionJmh
+{
+    @Param({"millis", "nanos", "micros", "fine"})
+    public String mode;
+
+    /**
+     * Index of the test case in Benchmark.TEST_DATES
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+    public int testCase;
+
+    private Schedule schedule;
+    private long time;
+    private boolean millis;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        String data[] = Benchmark.TEST_DATES[testCase];
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        time = fmt.parse(data[1]).getTime();
+        millis = "millis".equals(mode);
+
+        if ( "micros".equals(mode) )
+            schedule = new Schedule(data[0], Schedule.Precision.MICROS);
+        else if ( "fine".equals(mode) )
+            schedule = new Schedule(withParts(data[0]), Schedule.Precision.NANOS);
+        else
+            schedule = new Schedule(data[0]);
+
+        if ( !millis ) time *= 1000000L;
+    }
+
+    /**
+     * Adds the parts of millisecond to the time of the schedule (the milliseconds are added, if they are absent).
+     */
+    private static String withParts(String schedule)
+    {
+        String time = schedule.substring(schedule.lastIndexOf(' ') + 1);
+        String parts = time.indexOf('.') < 0 ? ".0.*.0,500" : ".*.0,500";
+        return schedule + parts;
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long nextEvent()
+    {
+        return millis ? schedule.nextEventMillis(time) : schedule.nextEventNanos(time);
+    }
+}
@@ -0,0 +1,140 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import com.habr.cron.opt.ScheduleQueue;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Measures the queues of the next events of 1M schedules in the simulated time (tick by tick, 1 ms):
+ *  PriorityQueue - the dates of the next events, which are polled and re-inserted after NextEvent();
+ *  ScheduleQueue - the indexed min-heap, which pops all due schedules and re-arms them in a batch
+ *  (see com.habr.cron.opt.ScheduleQueue).
+ * Each schedule fires once a second at its own millisecond: the periodic schedules ("*:*:*.123"),
+ * the schedules without the date ("*:*:0-29,31-59.123") and the schedules with the days of week ("*.*.* 1-5 *:*:*.123").
+ *
+ * The indexed heap is about 3 times faster and doesn't collect garbage (10M events in 10 seconds):
+ *  PriorityQueue 1300-1450 ns per event (18 collections), ScheduleQueue 440-470 ns per event (0 collections)
+ */
+public class QueueBench
+{
+    private static final int SCHEDULES_COUNT = 1000000;
+    private static final int SECONDS = 10;
+    private static final int BATCH = 1024;
+
+    public static void main(String args[]) throws Exception
+    {
+        SimpleDateFormat f = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss.SSS");
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long start = f.parse("17.11.2021 14:00:00.000").getTime();
+
+        Schedule schedules[] = new Schedule[3000];
+        for (int i = 0; i < schedules.length; i++)
+        {
+            int millis = i / 3;
+            switch ( i % 3 )
+            {
+                case 0: schedules[i] = new Schedule("*:*:*." + millis); break;
+                case 1: schedules[i] = new Schedule("*:*:0-29,31-59." + millis); break;
+                default: schedules[i] = new Schedule("*.*.* 1-5 *:*:*." + millis); break;
+            }
+        }
+
+        for (int round = 0; round < 3; round++) // the first rounds warm up
+        {
+            runPriorityQueue(start, schedules);
+            runScheduleQueue(start, schedules);
+        }
+    }
+
+    private static void runPriorityQueue(long start, Schedule schedules[])
+    {
+        long n1 = System.nanoTime();
+        PriorityQueue<Event> queue = new PriorityQueue<Event>(SCHEDULES_COUNT);
+        Date from = new Date(start - 1);
+        for (int i = 0; i < SCHEDULES_COUNT; i++)
+        {
+            Schedule schedule = schedules[i % schedules.length];
+            queue.add(new Event(schedule.NextEvent(from), schedule));
+        }
+
+        long n2 = System.nanoTime();
+        long collections = collections();
+        long count = 0;
+        for (long now = start; now < start + SECONDS * 1000L; now++)
+        {
+            while ( queue.peek().date.getTime() <= now )
+            {
+                Event event = queue.poll();
+                queue.add(new Event(event.schedule.NextEvent(event.date), event.schedule));
+                count++;
+            }
+        }
+
+        print("PriorityQueue", n1, n2, collections, count);
+    }
+
+    private static void runScheduleQueue(long start, Schedule schedules[])
+    {
+        long n1 = System.nanoTime();
+        ScheduleQueue queue = new ScheduleQueue(SCHEDULES_COUNT);
+        for (int i = 0; i < SCHEDULES_COUNT; i++)
+            queue.add(schedules[i % schedules.length], start - 1);
+
+        long n2 = System.nanoTime();
+        long collections = collections();
+        int ids[] = new int[BATCH];
+        long times[] = new long[BATCH];
+        long count = 0;
+        for (long now = start; now < start + SECONDS * 1000L; now++)
+        {
+            int fired;
+            while ( (fired = queue.advance(now, ids, times)) > 0 )
+                count += fired;
+        }
+
+        print("ScheduleQueue", n1, n2, collections, count);
+    }
+
+    /**
+     * Prints the time of the registration and the time of the events since n2.
+     */
+    private static void print(String name, long n1, long n2, long collections, long count)
+    {
+        long n3 = System.nanoTime();
+        System.out.println(String.format("%s: registration %d ns per schedule; %d events, %d ns per event, %d collections",
+                name, (n2 - n1) / SCHEDULES_COUNT, count, (n3 - n2) / count, collections() - collections));
+    }
+
+    private static long collections()
+    {
+        long result = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            result += bean.getCollectionCount();
+
+        return result;
+    }
+
+
+    private static class Event implements Comparable<Event>
+    {
+        final Date date;
+        final Schedule schedule;
+
+        Event(Date date, Schedule schedule)
+        {
+            this.date = date;
+            this.schedule = schedule;
+        }
+
+        public int compareTo(Event other)
+        {
+            return date.compareTo(other.date);
+        }
+    }
+}
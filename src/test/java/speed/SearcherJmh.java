@@ -0,0 +1,71 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import com.habr.cron.opt.ScheduleSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search of the next event of opt.Schedule from the new time each call (as the schedulers do).
+ *
+ * benchmarks:
+ *  generator - a new generator each call (it builds the calendar and the digits);
+ *  schedule - the search of the schedule (the thread-local calendar and digits, see Schedule.nextEventMillis());
+ *  searcher - the re-seeded searcher (see Schedule.newSearcher()).
+ *
+ * The searcher is as fast as the thread-local search (86 ns for "*:*:*", 210 ns for Friday 13th) and both don't allocate,
+ * the new generator takes 240-340 ns and 248 bytes per call.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.SearcherJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearcherJmh
+{
+    private static final int TIMES = 1024;
+
+    @Param({"*:*:*", "*.*.13 5 9-17/4:30:00"})
+    public String schedule;
+
+    private Schedule cron;
+    private ScheduleSearcher searcher;
+    private final long times[] = new long[TIMES];
+    private int time;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cron = new Schedule(schedule);
+        searcher = cron.newSearcher();
+
+        long start = Instant.parse("2021-05-07T12:00:00Z").toEpochMilli();
+        for (int i = 0; i < TIMES; i++)
+            times[i] = start + i * 7919000L;
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long generator()
+    {
+        return cron.getEventsGenerator(new Date(times[time++ & (TIMES - 1)]), true).next().getTime();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long schedule()
+    {
+        return cron.nextEventMillis(times[time++ & (TIMES - 1)]);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long searcher()
+    {
+        return searcher.reset(times[time++ & (TIMES - 1)], true).next();
+    }
+}
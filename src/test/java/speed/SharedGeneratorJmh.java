@@ -0,0 +1,145 @@
+package speed;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.options.Options;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of many threads, which claim the events of one generator of opt.Schedule.
+ * The score is the total throughput of all threads (events per microsecond).
+ *
+ *  locked - next() of the usual generator in the synchronized block (the former way);
+ *  lockedFill - fill() of BATCH events of the usual generator in the synchronized block;
+ *  shared - next() of the shared generator (CAS);
+ *  sharedFill - fill() of BATCH events of the shared generator (one CAS for the batch).
+ *
+ * The main() runs the benchmarks with 1..64 threads and prints a table (tab separated).
+ * All results are written into the result file of JMH options (-rf, -rff).
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.main=speed.SharedGeneratorJmh -Djmh.include=speed.SharedGeneratorJmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedGeneratorJmh
+{
+    private static final int BATCH = 16;
+    private static final int THREADS[] = {1, 2, 4, 8, 16, 32, 64};
+    private static final String METHODS[] = {"locked", "lockedFill", "shared", "sharedFill"};
+
+    /**
+     * The dense schedules; they don't run out of events during the benchmark
+     */
+    @Param({"*:*:*.*", "*:*:*"})
+    public String schedule;
+
+    private ScheduleEventsGenerator locked;
+    private ScheduleEventsGenerator shared;
+
+
+    @State(Scope.Thread)
+    public static class Buffer
+    {
+        final long out[] = new long[BATCH];
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception
+    {
+        Schedule cron = new Schedule(schedule);
+        Date start = Date.from(Instant.parse("2021-05-07T12:00:00Z"));
+
+        locked = cron.getEventsGenerator(start, true);
+        shared = cron.getSharedEventsGenerator(start, true);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Date locked()
+    {
+        synchronized (locked)
+        {
+            return locked.next();
+        }
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int lockedFill(Buffer buffer)
+    {
+        synchronized (locked)
+        {
+            return locked.fill(buffer.out, 0, BATCH, Long.MAX_VALUE);
+        }
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public Date shared()
+    {
+        return shared.next();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int sharedFill(Buffer buffer)
+    {
+        return shared.fill(buffer.out, 0, BATCH, Long.MAX_VALUE);
+    }
+
+
+
+
+    /**
+     * Runs the benchmarks for each count of threads and prints the table.
+     *
+     * @param args JMH command line options (warmup, iterations, forks, profilers and so on)
+     */
+    public static void main(String args[]) throws Exception
+    {
+        JmhGrid grid = new JmhGrid(SharedGeneratorJmh.class, args);
+
+        StringBuilder table = new StringBuilder();
+        table.append("schedule\tthreads");
+        for (String method : METHODS) table.append('\t').append(method);
+        table.append('\n');
+
+        String schedules[] = SharedGeneratorJmh.class.getField("schedule").getAnnotation(Param.class).value();
+        for (String schedule : schedules)
+        for (int threads : THREADS)
+        {
+            Options options = grid.options()
+                    .param("schedule", schedule)
+                    .threads(threads)
+                    .build();
+
+            Collection<RunResult> results = grid.run(options);
+
+            double scores[] = new double[METHODS.length];
+            for (RunResult result : results)
+            {
+                String label = result.getParams().getBenchmark();
+                String method = label.substring(label.lastIndexOf('.') + 1);
+                for (int m = 0; m < METHODS.length; m++)
+                    if ( METHODS[m].equals(method) ) scores[m] = result.getPrimaryResult().getScore();
+            }
+
+            table.append(schedule).append('\t').append(threads);
+            for (double score : scores) table.append('\t').append(String.format("%.2f", score));
+            table.append('\n');
+        }
+
+        System.out.println(table); // after all, because JMH prints its own progress
+
+        grid.writeOut();
+    }
+
+}
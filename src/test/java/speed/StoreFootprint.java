@@ -0,0 +1,140 @@
+package speed;
+
+import com.habr.cron.opt.MappedScheduleStore;
+import com.habr.cron.opt.Schedule;
+import com.habr.cron.opt.ScheduleFormatException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the memory of millions of schedules: the heap schedules (opt.Schedule) against
+ * the memory-mapped store (see com.habr.cron.opt.MappedScheduleStore).
+ * The heap of the schedules is measured on a sample and extrapolated; the store is written and mapped really.
+ *
+ * The typical schedules take about 510 bytes of the heap each (490 MB for 1M, 4.9 GB for 10M),
+ * the store takes about 140 bytes of the file each (130 MB and 1.3 GB) and no heap.
+ *
+ * Run: java -Xmx2g -cp target/classes:target/test-classes speed.StoreFootprint [directory]
+ */
+public class StoreFootprint
+{
+    private static final int SAMPLE = 100000;
+    private static final int COUNTS[] = {1000000, 10000000};
+
+    private static final String TEMPLATES[] = {
+            "*.*.* %d:%d:00",
+            "*.*.%2$d %1$d:00:00",
+            "*.*.* 1-5 %d:*/%d:00",
+            "*:*:*.%d,%d-999/7",
+            "2021-2030.*.* %d:%d,30:00.500",
+            "*.*.%2$d 5 %1$d:00:00",
+    };
+
+    public static void main(String args[]) throws Exception
+    {
+        File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+
+        List<Schedule> sample = new ArrayList<Schedule>(SAMPLE);
+        long before = usedHeap();
+        for (Schedule schedule : schedules(SAMPLE, false))
+            sample.add(schedule);
+        double perSchedule = (double) (usedHeap() - before) / SAMPLE;
+        System.out.println(String.format("[heap]  %.0f bytes/schedule", perSchedule));
+
+        for (int count : COUNTS)
+        {
+            Path file = new File(directory, "footprint-" + count + ".crms").toPath();
+            try
+            {
+                MappedScheduleStore.write(schedules(count, true), file);
+
+                before = usedHeap();
+                MappedScheduleStore store = MappedScheduleStore.open(file);
+                long heap = usedHeap() - before;
+
+                System.out.println(String.format("[%dM] heap: %.0f MB, store: heap %d KB, file %.0f MB (%.0f bytes/schedule), %d schedules",
+                        count / 1000000,
+                        perSchedule * count / (1 << 20),
+                        heap / 1024,
+                        (double) Files.size(file) / (1 << 20),
+                        (double) Files.size(file) / count,
+                        store.size()));
+            }
+            finally
+            {
+                Files.deleteIfExists(file);
+            }
+        }
+        System.out.println(sample.size());
+    }
+
+    /**
+     * Makes the schedules on the fly (they are not kept).
+     *
+     * @param count count of the schedules
+     * @param shared the schedules with the same strings may be the same objects
+     * @return the schedules of the typical templates
+     */
+    static Iterable<Schedule> schedules(final int count, final boolean shared)
+    {
+        return new Iterable<Schedule>()
+        {
+            public Iterator<Schedule> iterator()
+            {
+                final Random random = new Random(1);
+                final Map<String, Schedule> cache = new HashMap<String, Schedule>();
+
+                return new Iterator<Schedule>()
+                {
+                    int i;
+
+                    public boolean hasNext()
+                    {
+                        return i < count;
+                    }
+
+                    public Schedule next()
+                    {
+                        String schedule = String.format(TEMPLATES[i++ % TEMPLATES.length], 1 + random.nextInt(23), 1 + random.nextInt(28));
+                        try
+                        {
+                            if ( !shared ) return new Schedule(schedule);
+
+                            Schedule result = cache.get(schedule);
+                            if ( result == null ) cache.put(schedule, result = new Schedule(schedule));
+                            return result;
+                        }
+                        catch (ScheduleFormatException e)
+                        {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static long usedHeap() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
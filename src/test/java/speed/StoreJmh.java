@@ -0,0 +1,89 @@
+package speed;
+
+import com.habr.cron.opt.MappedScheduleStore;
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search of the next event of a random schedule among millions of schedules.
+ *
+ * target (kind:count):
+ *  heap - the schedules of opt.Schedule in the heap (the own objects for each schedule);
+ *  store - the memory-mapped store of the schedules (see com.habr.cron.opt.MappedScheduleStore).
+ * 10M heap schedules do not fit in the heap of the benchmark (about 5 GB, see StoreFootprint), so they are not measured.
+ *
+ * The random schedules miss the CPU caches in both cases: about 1.9 us for the heap schedules and 0.95-1.0 us for the store
+ * (1M and 10M); the store does not allocate memory.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.StoreJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class StoreJmh
+{
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"heap:1000000", "store:1000000", "store:10000000"})
+    public String target;
+
+    private Schedule schedules[];
+    private MappedScheduleStore store;
+    private Path file;
+
+    private final int ids[] = new int[QUERIES];
+    private final long times[] = new long[QUERIES];
+    private int query;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        int count = Integer.parseInt(target.substring(target.indexOf(':') + 1));
+        if ( target.startsWith("heap") )
+        {
+            schedules = new Schedule[count];
+            int i = 0;
+            for (Schedule schedule : StoreFootprint.schedules(count, false))
+                schedules[i++] = schedule;
+        }
+        else
+        {
+            file = new File(System.getProperty("java.io.tmpdir"), "store-" + count + ".crms").toPath();
+            MappedScheduleStore.write(StoreFootprint.schedules(count, true), file);
+            store = MappedScheduleStore.open(file);
+        }
+
+        Random random = new Random(2);
+        long start = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+        for (int i = 0; i < QUERIES; i++)
+        {
+            ids[i] = random.nextInt(count);
+            times[i] = start + (long) (random.nextDouble() * 365 * 86400000L);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        store = null;
+        if ( file != null ) Files.deleteIfExists(file);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long next()
+    {
+        int i = query++ & (QUERIES - 1);
+        return store != null ? store.nextEventMillis(ids[i], times[i]) : schedules[ids[i]].nextEventMillis(times[i]);
+    }
+}
@@ -0,0 +1,74 @@
+package speed;
+
+import com.habr.cron.ScheduleEventsGenerator;
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processing of a large interval of events of opt.Schedule (the sum of the events).
+ *
+ * mode:
+ *  generator - the loop of ScheduleEventsGenerator.fill() over the interval (the former way);
+ *  sequential - the sequential stream of events();
+ *  parallel - the parallel stream of events() (the common fork-join pool).
+ *
+ * The speed up of the parallel stream depends on the count of cores.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.StreamJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamJmh
+{
+    private static final int BATCH = 64;
+
+    @Param({"generator", "sequential", "parallel"})
+    public String mode;
+
+    @Param({"*:*:*", "*.*.* 9-17:*/5:00"})
+    public String schedule;
+
+    /**
+     * Length of the interval in days
+     */
+    @Param({"1", "365"})
+    public int days;
+
+    private Schedule cron;
+    private long from;
+    private long to;
+    private final long buffer[] = new long[BATCH];
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        cron = new Schedule(schedule);
+        from = Instant.parse("2021-01-01T00:00:00Z").toEpochMilli();
+        to = from + days * 86400000L;
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long sum()
+    {
+        if ( "sequential".equals(mode) )
+            return cron.events(from, to).sum();
+
+        if ( "parallel".equals(mode) )
+            return cron.events(from, to).parallel().sum();
+
+        ScheduleEventsGenerator generator = cron.getEventsGenerator(new Date(from - 1), true);
+        long result = 0;
+        for (int count; (count = generator.fill(buffer, 0, BATCH, to - 1)) > 0; )
+            for (int i = 0; i < count; i++) result += buffer[i];
+        return result;
+    }
+}
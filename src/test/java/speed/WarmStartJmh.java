@@ -0,0 +1,78 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm start of many schedules of opt.Schedule (the time per schedule).
+ *
+ * mode:
+ *  parse - the schedules are parsed and compiled from the strings;
+ *  read - the compiled schedules are read from the bulk format (see Schedule.readAll()).
+ *
+ * The bulk format is read 2-3 times faster than the schedules are parsed.
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.WarmStartJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 1) // the path of reading is deep, so it is compiled late
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarmStartJmh
+{
+    private static final int COUNT = 10000;
+
+    private static final String TEMPLATES[] = {
+            "*.*.* %d:%d:00",
+            "*.*.%2$d %1$d:00:00",
+            "*.*.* 1-5 %d:*/%d:00",
+            "*:*:*.%d,%d-999/7",
+            "2021-2030.*.* %d:%d,30:00.500",
+    };
+
+    @Param({"parse", "read"})
+    public String mode;
+
+    private final List<String> strings = new ArrayList<String>();
+    private byte data[];
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        Random random = new Random(1);
+        List<Schedule> schedules = new ArrayList<Schedule>();
+        for (int i = 0; i < COUNT; i++)
+        {
+            String schedule = String.format(TEMPLATES[i % TEMPLATES.length], 1 + random.nextInt(23), 1 + random.nextInt(28));
+            strings.add(schedule);
+            schedules.add(new Schedule(schedule));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Schedule.writeAll(schedules, bytes);
+        data = bytes.toByteArray();
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    @OperationsPerInvocation(COUNT)
+    public Object load() throws Exception
+    {
+        if ( "read".equals(mode) )
+            return Schedule.readAll(new ByteArrayInputStream(data));
+
+        List<Schedule> result = new ArrayList<Schedule>(COUNT);
+        for (String schedule : strings)
+            result.add(new Schedule(schedule));
+        return result;
+    }
+}
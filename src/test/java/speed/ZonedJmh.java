@@ -0,0 +1,91 @@
+package speed;
+
+import com.habr.cron.opt.Schedule;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the time zones in opt.Schedule: nextEventMillis() over the schedules and dates of {@link Benchmark#TEST_DATES}.
+ *
+ * mode:
+ *  utc - the UTC schedule (the base line);
+ *  fixed - the schedule with a fixed offset zone (+03:00);
+ *  zoned - the schedule with a DST zone (Europe/Berlin);
+ *  calendar - the UTC schedule, which result is corrected by java.util.Calendar for the DST zone
+ *             (the former workaround).
+ *
+ * Run: mvn -Pjmh test-compile exec:exec -Djmh.include=speed.ZonedJmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZonedJmh
+{
+    private static final String ZONE = "Europe/Berlin";
+
+    @Param({"utc", "fixed", "zoned", "calendar"})
+    public String mode;
+
+    /**
+     * Index of the test case in Benchmark.TEST_DATES
+     */
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+    public int testCase;
+
+    private Schedule schedule;
+    private long time;
+
+    private final TimeZone zone = TimeZone.getTimeZone(ZONE);
+    private final Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    private final Calendar zoneCalendar = Calendar.getInstance(zone);
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        String data[] = Benchmark.TEST_DATES[testCase];
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        time = fmt.parse(data[1]).getTime();
+
+        if ( "fixed".equals(mode) )
+            schedule = new Schedule(data[0], ZoneOffset.ofHours(3));
+        else if ( "zoned".equals(mode) )
+            schedule = new Schedule(data[0], ZoneId.of(ZONE));
+        else
+            schedule = new Schedule(data[0]);
+    }
+
+    @org.openjdk.jmh.annotations.Benchmark
+    public long nextEvent()
+    {
+        if ( "calendar".equals(mode) ) return correctByCalendar();
+
+        return schedule.nextEventMillis(time);
+    }
+
+    private long correctByCalendar()
+    {
+        long found = schedule.nextEventMillis(time + zone.getOffset(time));
+
+        utcCalendar.setTimeInMillis(found);
+        zoneCalendar.clear();
+        zoneCalendar.set(utcCalendar.get(Calendar.YEAR), utcCalendar.get(Calendar.MONTH),
+                utcCalendar.get(Calendar.DAY_OF_MONTH), utcCalendar.get(Calendar.HOUR_OF_DAY),
+                utcCalendar.get(Calendar.MINUTE), utcCalendar.get(Calendar.SECOND));
+        zoneCalendar.set(Calendar.MILLISECOND, utcCalendar.get(Calendar.MILLISECOND));
+
+        return zoneCalendar.getTimeInMillis();
+    }
+}